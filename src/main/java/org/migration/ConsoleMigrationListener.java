@@ -0,0 +1,69 @@
+package org.migration;
+
+import java.io.PrintStream;
+import java.util.Collection;
+
+import org.migration.generic.EnumValue;
+import org.migration.generic.GenericEntity;
+import org.migration.migrators.EntityMigrator;
+
+/** The default {@link MigrationListener}, which prints migration progress to the console */
+public class ConsoleMigrationListener implements MigrationListener {
+	/** A listener printing to {@link System#out} */
+	public static final ConsoleMigrationListener INSTANCE = new ConsoleMigrationListener(System.out);
+
+	private final PrintStream theOut;
+
+	/**
+	 * @param out
+	 *            The stream to print to
+	 */
+	public ConsoleMigrationListener(PrintStream out) {
+		theOut = out;
+	}
+
+	@Override
+	public void migrationSetStarted(MigrationSet migSet) {
+		theOut.println("Migrating data set with: " + migSet);
+	}
+
+	@Override
+	public void migratorStarted(EntityMigrator migrator) {
+		theOut.println("\tMigrating with " + migrator);
+	}
+
+	@Override
+	public void migratorFinished(EntityMigrator migrator, int processed, int removed, int replaced, long nanos) {
+		if (removed > 0 || replaced > 0) {
+			String msg = "";
+			if (removed > 0) {
+				msg += "Removed " + removed + " entit" + (removed == 1 ? "y" : "ies");
+			}
+			if (replaced > 0) {
+				msg += (removed > 0 ? ", r" : "R") + "eplaced " + replaced + " entit" + (replaced == 1 ? "y" : "ies");
+			}
+			theOut.println("\t\t" + msg);
+		}
+	}
+
+	@Override
+	public void cascadeDeletion(Object cause, Collection<GenericEntity> cascaded) {
+		String causeStr;
+		if (cause instanceof EnumValue) {
+			causeStr = ((EnumValue) cause).getEnumType() + "." + cause;
+		} else {
+			causeStr = String.valueOf(cause);
+		}
+		theOut.println("As a consequence of the deletion of " + causeStr + ", the following entities will also be deleted: " + cascaded);
+	}
+
+	@Override
+	public void progress(String message) {
+		theOut.println(message);
+	}
+
+	@Override
+	public String toString() {
+		return "Console migration listener";
+	}
+}
@@ -9,11 +9,13 @@ import java.io.Writer;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -24,13 +26,12 @@ import java.util.TreeSet;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import javax.persistence.Entity;
 import javax.persistence.MappedSuperclass;
 
-import org.jdom2.Element;
 import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 import org.migration.generic.EntityDifference;
 import org.migration.generic.EntityField;
 import org.migration.generic.EntityType;
@@ -40,6 +41,7 @@ import org.migration.generic.EnumDifference;
 import org.migration.generic.EnumType;
 import org.migration.generic.GenericEntity;
 import org.migration.generic.GenericEntitySet;
+import org.migration.generic.MigrationIndex;
 import org.migration.generic.MigratorFactory;
 import org.migration.generic.SimpleGenericEntitySet;
 import org.migration.util.HibernateExtractionUtil;
@@ -81,6 +83,8 @@ import org.qommons.io.HierarchicalResourceWriter;
  * <li>Use {@link #importRealEntities(boolean, boolean)} to import the generic entity data into real entities.</li>
  * <li>Retrieve the entity data with {@link #getRealEntities()}.
  * </ol>
+ * Alternatively, {@link #migrateGenericEntities()} may be used to migrate the generic entity data without importing it. With
+ * {@link #setLazyMigration(boolean) lazy migration}, entity-local migrations are then only applied to entities as they are accessed.
  * </p>
  */
 public class EntityMigration {
@@ -122,7 +126,17 @@ public class EntityMigration {
 	private EntitySetPersistence thePersistence;
     private TypeGetter theTypeGetter;
     private ErroringSupplier<InputStream, IOException> theMigrationFile;
+	private MigrationIndex theMigrationIndex;
     private DataSetMigrationStorage theMigrationStorage;
+	private MigrationListener theListener = ConsoleMigrationListener.INSTANCE;
+	private MigrationResultCache theResultCache;
+	private MigrationResultCache.InputRecorder theInputRecorder;
+	private boolean isPreMigrated;
+	private boolean isLazyMigration;
+	private boolean isSinglePassRead;
+	private int theReadThreads = 1;
+	private int theWriteThreads = 1;
+	private boolean isMigrated;
     private List<Class<?>> theEntityTypes;
     private EntityVersionSupport theVersion;
     private Predicate<Object> theEntityFilter;
@@ -237,6 +251,18 @@ public class EntityMigration {
         return theMigrationFile;
     }
 
+	/**
+	 * @param migrationIndex
+	 *            A sidecar index for the {@link #setMigrationFile(ErroringSupplier) migration file}, allowing only migration sets not yet
+	 *            applied to the data to be parsed. May be null to leave the version support's own index, if any, in place.
+	 * @return This migrator, for chaining
+	 * @see EntityVersionSupport#setMigrationIndex(MigrationIndex)
+	 */
+	public EntityMigration setMigrationIndex(MigrationIndex migrationIndex) {
+		theMigrationIndex = migrationIndex;
+		return this;
+	}
+
     /**
      * @param migrationStorage
      *            The storage to tell this migrator which migrations a data set has already experienced and to log new migrations to the
@@ -248,6 +274,82 @@ public class EntityMigration {
         return this;
     }
 
+	/**
+	 * @param listener
+	 *            The listener to notify of data migration progress. {@link MigrationListener#NONE} may be used to suppress progress
+	 *            reporting; {@link MigrationMetrics} may be used to collect timing and throughput data.
+	 * @return This migrator, for chaining
+	 */
+	public EntityMigration setMigrationListener(MigrationListener listener) {
+		theListener = listener == null ? MigrationListener.NONE : listener;
+		return this;
+	}
+
+	/**
+	 * @param lazy
+	 *            Whether {@link #migrateGenericEntities()} should defer entity-local migrations, applying them to each generic entity only
+	 *            when it is first accessed. Everything is migrated before import or export regardless.
+	 * @return This migrator, for chaining
+	 * @see SimpleGenericEntitySet#setLazyMigration(boolean)
+	 */
+	public EntityMigration setLazyMigration(boolean lazy) {
+		isLazyMigration = lazy;
+		return this;
+	}
+
+	/**
+	 * @param singlePass
+	 *            Whether {@link #parse(HierarchicalResourceReader)} should read each entity file only once, patching references to entities
+	 *            not yet read after all files are read
+	 * @return This migrator, for chaining
+	 * @see EntitySetPersister#setSinglePass(boolean)
+	 */
+	public EntityMigration setSinglePassRead(boolean singlePass) {
+		isSinglePassRead = singlePass;
+		return this;
+	}
+
+	/**
+	 * @param threads
+	 *            The number of entity files {@link #parse(HierarchicalResourceReader)} may parse concurrently
+	 * @return This migrator, for chaining
+	 * @see EntitySetPersister#setReadThreads(int)
+	 */
+	public EntityMigration setReadThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+		theReadThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param threads
+	 *            The number of entity types {@link #saveGenericEntityData(HierarchicalResourceWriter, Consumer, Consumer)} may serialize
+	 *            concurrently. If greater than 1, the resource writer must support writing multiple resources at once.
+	 * @return This migrator, for chaining
+	 * @see EntitySetPersister#setWriteThreads(int)
+	 */
+	public EntityMigration setWriteThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+		theWriteThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param resultCache
+	 *            The cache to load fully-migrated data from in {@link #parse(HierarchicalResourceReader)} when the input and migrations are
+	 *            identical to a previous run, and to store migrated data in from {@link #importRealEntities(boolean, boolean)}. May be
+	 *            null to disable caching.
+	 * @return This migrator, for chaining
+	 */
+	public EntityMigration setResultCache(MigrationResultCache resultCache) {
+		theResultCache = resultCache;
+		return this;
+	}
+
     /**
      * @param entityFilter
      *            The filter to use to exclude entities and/or dependencies during {@link #extract(Function, Consumer, Consumer) extraction}
@@ -315,7 +417,7 @@ public class EntityMigration {
     public EntityMigration genVersionFromClasses() {
         validateEntityClasses();
         theVersion = new EntityVersionSupport(getDataSetTags());
-        EntityTypeSet types = EntityTypeSet.createTypesForClasses(theEntityTypes, theDissecter);
+        EntityTypeSet types = EntityTypeSet.createTypesForClasses(theEntityTypes, theDissecter, theListener);
         theVersion = new EntityVersionSupport(types, getDataSetTags());
         return this;
     }
@@ -361,25 +463,77 @@ public class EntityMigration {
     public EntityMigration parse(HierarchicalResourceReader reader) {
         validateEntityClasses();
 
+		isPreMigrated = false;
+		isMigrated = false;
+		theInputRecorder = null;
+		String migrationDigest = theResultCache == null ? null : getMigrationDigest();
+		if (migrationDigest != null) {
+			HierarchicalResourceReader cached = theResultCache.find(reader, migrationDigest, theDataSetTags);
+			if (cached != null) {
+				theListener.progress("Loading migrated data from cache");
+				if (readGenericEntities(cached)) {
+					isPreMigrated = true;
+					return this;
+				}
+				System.err.println("Could not load migrated data from cache; parsing input");
+			}
+			theInputRecorder = theResultCache.record(reader);
+			reader = theInputRecorder.getReader();
+		}
+		return readGenericEntities(reader) ? this : null;
+	}
+
+	private boolean readGenericEntities(HierarchicalResourceReader reader) {
         try {
             theVersion = readVersionSupport(new InputStreamReader(reader.readResource("Entity Versions.xml")), theTypeGetter,
                     getDataSetTags());
         } catch (IOException e) {
             System.err.println("Could not read version file");
             e.printStackTrace();
-            return null;
+            return false;
         }
 
 		GenericEntitySet entitySet = new SimpleGenericEntitySet(theVersion.getCurrentTypeSet().clone());
-		EntitySetPersister persister = new EntitySetPersister(thePersistence);
+		EntitySetPersister persister = new EntitySetPersister(thePersistence).setListener(theListener).setSinglePass(isSinglePassRead)
+			.setReadThreads(theReadThreads);
         boolean success = persister.read(entitySet, reader);
         if (!success) {
 			System.err.println("Parsing of entity XML files was not fully successful.  See above errors for details.");
 		}
 
         theGenericEntities = entitySet;
-        return this;
-    }
+		return true;
+	}
+
+	/** @return The digest of the migration file, or null if it is not set or cannot be read */
+	private String getMigrationDigest() {
+		if (theMigrationFile == null) {
+			return null;
+		}
+		try (InputStream in = theMigrationFile.get()) {
+			return MigrationResultCache.digest(in);
+		} catch (IOException e) {
+			System.err.println("Could not read migration file for result caching");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/** Must only be called after any deferred migrations have been {@link GenericEntitySet#completeMigration() completed} */
+	private void storeMigratedResult() {
+		MigrationResultCache.InputRecorder recorder = theInputRecorder;
+		theInputRecorder = null;
+		String migrationDigest = recorder == null ? null : getMigrationDigest();
+		if (migrationDigest == null) {
+			return;
+		}
+		recorder.store(migrationDigest, theDataSetTags, writer -> {
+			try (Writer versionWriter = new OutputStreamWriter(writer.writeResource("Entity Versions.xml"))) {
+				writeVersion(theGenericEntities.getTypes(), versionWriter);
+			}
+			return new EntitySetPersister(thePersistence).setListener(theListener).save(theGenericEntities, writer, null, null);
+		});
+	}
 
     /**
      * Takes real entity data populated with {@link #extract(Function, Consumer, Consumer)} and exports it to generic entity data,
@@ -394,6 +548,7 @@ public class EntityMigration {
 
         EntitySetConverter converter = new EntitySetConverter(theDissecter, theEntityTypes).setFilter(theEntityFilter);
 		theGenericEntities = converter.exportEntities(theRealEntities, SimpleGenericEntitySet::new);
+		isMigrated = false;
         return this;
     }
 
@@ -408,6 +563,30 @@ public class EntityMigration {
      * @return This migrator, for chaining
      */
     public EntityMigration importRealEntities(boolean withMappedCollections, boolean withIds) {
+		migrateGenericEntities();
+		theGenericEntities.completeMigration();
+		storeMigratedResult();
+
+        for (Map.Entry<Class<?>, EntityType> entry : theVersion.getCurrentTypeSet().getEntityMappings()) {
+			theGenericEntities.getTypes().map(entry.getKey(), entry.getValue());
+		}
+        for (Map.Entry<Class<? extends Enum<?>>, EnumType> entry : theVersion.getCurrentTypeSet().getEnumMappings()) {
+			theGenericEntities.getTypes().map(entry.getKey(), entry.getValue());
+		}
+
+        EntitySetConverter converter = new EntitySetConverter(theDissecter, theEntityTypes);
+        theRealEntities = converter.importEntities(theGenericEntities, withMappedCollections, withIds);
+        return this;
+    }
+
+	/**
+	 * Migrates generic entity data (populated with {@link #parse(HierarchicalResourceReader)} or {@link #exportGenericEntities()}) to the
+	 * current version without importing it, so it may be used via {@link #getGenericEntities()}. Does nothing if the data has already
+	 * been migrated.
+	 * 
+	 * @return This migrator, for chaining
+	 */
+	public EntityMigration migrateGenericEntities() {
         if (theGenericEntities == null) {
 			throw new IllegalStateException("Generic entity data must be created before importing to real data");
 		}
@@ -419,32 +598,34 @@ public class EntityMigration {
 			throw new IllegalStateException(
                     "The migration storage must be set before importing real entity data from generic entities.  Use setMigrationStorage().");
 		}
-        validateEntityClasses();
-
-        for (MigrationSet migration : theMigrationStorage.getLoggedMigrations(theGenericEntities)) {
-			theVersion.addMigrationSet(migration);
+		if (isMigrated) {
+			return this;
 		}
+        validateEntityClasses();
 
-        MigrationSet[] newMigrations = updateVersionSupport();
-        populateMappedData(theGenericEntities);
-        // Migrate the data
-        for (MigrationSet migration : newMigrations) {
-            System.out.println("Migrating data set with: " + migration);
-            theGenericEntities.migrate(migration, theDissecter);
-            theMigrationStorage.logMigration(theGenericEntities, migration);
-        }
+		if (isPreMigrated) {
+			// The data and types were loaded from the result cache already migrated, including the migration log
+			mapClassTypes();
+			populateMappedData(theGenericEntities, theListener);
+		} else {
+			for (MigrationSet migration : theMigrationStorage.getLoggedMigrations(theGenericEntities)) {
+				theVersion.addMigrationSet(migration);
+			}
 
-        for (Map.Entry<Class<?>, EntityType> entry : theVersion.getCurrentTypeSet().getEntityMappings()) {
-			theGenericEntities.getTypes().map(entry.getKey(), entry.getValue());
-		}
-        for (Map.Entry<Class<? extends Enum<?>>, EnumType> entry : theVersion.getCurrentTypeSet().getEnumMappings()) {
-			theGenericEntities.getTypes().map(entry.getKey(), entry.getValue());
+			MigrationSet[] newMigrations = updateVersionSupport();
+			populateMappedData(theGenericEntities, theListener);
+			if (theGenericEntities instanceof SimpleGenericEntitySet) {
+				((SimpleGenericEntitySet) theGenericEntities).setLazyMigration(isLazyMigration);
+			}
+			// Migrate the data
+			for (MigrationSet migration : newMigrations) {
+				theGenericEntities.migrate(migration, theDissecter, theListener);
+				theMigrationStorage.logMigration(theGenericEntities, migration);
+			}
 		}
-
-        EntitySetConverter converter = new EntitySetConverter(theDissecter, theEntityTypes);
-        theRealEntities = converter.importEntities(theGenericEntities, withMappedCollections, withIds);
-        return this;
-    }
+		isMigrated = true;
+		return this;
+	}
 
     /**
      * Takes generic entity data (populated with {@link #parse(HierarchicalResourceReader)} or {@link #exportGenericEntities()}) and writes
@@ -466,16 +647,17 @@ public class EntityMigration {
 			throw new IllegalStateException("Generic entity data must be created before attempting to save it");
 		}
 
-		EntitySetPersister persister = new EntitySetPersister(thePersistence);
+		theGenericEntities.completeMigration();
+		EntitySetPersister persister = new EntitySetPersister(thePersistence).setListener(theListener).setWriteThreads(theWriteThreads);
         try {
             writeVersion(theGenericEntities.getTypes(), new OutputStreamWriter(writer.writeResource("Entity Versions.xml")));
         } catch (IllegalStateException e) {
             throw new IllegalStateException("Could not save types", e);
         }
         if (persister.save(theGenericEntities, writer, inProgressMonitor, finishedMonitor)) {
-			System.out.println("\nExported entities saved successfully");
+			theListener.progress("\nExported entities saved successfully");
 		} else {
-			System.out.println("\nEntity export was unsuccessful. See above errors.");
+			System.err.println("\nEntity export was unsuccessful. See above errors.");
 		}
         return this;
     }
@@ -531,19 +713,27 @@ public class EntityMigration {
      * @return The new migrations to apply to the entities
      */
     private MigrationSet[] updateVersionSupport() {
-        ArrayList<MigrationSet> ret = new ArrayList<>();
+        List<MigrationSet> ret;
         try (InputStream in = theMigrationFile.get()) {
 			MigratorFactory factory = new MigratorFactory(theTypeGetter);
-            Element pendingRoot = new SAXBuilder().build(in).getRootElement();
-            for (Element migSetEl : pendingRoot.getChildren("migration")) {
-				MigrationSet migSet = theVersion.addMigrationSet(migSetEl, factory);
-                if (migSet != null && migSet.shouldApply(theVersion)) {
-					ret.add(migSet);
-				}
-            }
+			if (theMigrationIndex != null) {
+				theVersion.setMigrationIndex(theMigrationIndex);
+			}
+			ret = theVersion.addMigrationSets(new InputStreamReader(in, StandardCharsets.UTF_8), factory);
         } catch (Exception e) {
             throw new IllegalStateException("ERROR: Bad Migrations.xml file", e);
         }
+		mapClassTypes();
+		return ret.toArray(new MigrationSet[ret.size()]);
+	}
+
+	/**
+	 * Maps the entity classes to the current version's types
+	 *
+	 * @throws IllegalStateException
+	 *             If the current version's types are not consistent with the entity classes
+	 */
+	private void mapClassTypes() {
 
         StringBuilder diffStr = new StringBuilder();
         Set<String> entityTypes = new HashSet<>();
@@ -553,7 +743,7 @@ public class EntityMigration {
         String codeVersionName = "entity code";
 
         List<Object> diffs=new LinkedList<>();
-        EntityTypeSet classVersion = EntityTypeSet.createTypesForClasses(theEntityTypes, theDissecter);
+        EntityTypeSet classVersion = EntityTypeSet.createTypesForClasses(theEntityTypes, theDissecter, theListener);
         for (EntityType classType : classVersion) {
             Class<?> clazz = classVersion.getMappedEntity(classType);
             EntityType versionType = theVersion.getCurrentTypeSet().getEntityType(classType.getName());
@@ -597,7 +787,6 @@ public class EntityMigration {
             diffStr.delete(0, 1);
             throw new IllegalStateException("This utility does not support migration creation.  Enter migrations in XML first:\n" + diffStr);
         }
-        return ret.toArray(new MigrationSet[ret.size()]);
     }
 
     /**
@@ -605,76 +794,137 @@ public class EntityMigration {
      *            The entity set to populate the mapping values and collections of
      */
 	public static void populateMappedData(GenericEntitySet entities) {
-        System.out.println("\nLinking up mapped entities");
+		populateMappedData(entities, ConsoleMigrationListener.INSTANCE);
+	}
+
+	/**
+	 * @param entities
+	 *            The entity set to populate the mapping values and collections of
+	 * @param listener
+	 *            The listener to report progress to
+	 */
+	public static void populateMappedData(GenericEntitySet entities, MigrationListener listener) {
+		listener.progress("\nLinking up mapped entities");
+		List<EntityField> mappedFields = new ArrayList<>();
         for (EntityType type : entities.getTypes()) {
 			for (EntityField field : type) {
-                if (field.getDeclaringType() != type || field.getMappingField() == null) {
-					continue;
+				if (field.getDeclaringType() == type && field.getMappingField() != null) {
+					mappedFields.add(field);
 				}
-                EntityField refField = PersistenceUtils.getMappedField(field, entities.getTypes());
-                System.out.println("\tLinking " + refField.entity + " instances into " + field.entity + "." + field.getName());
-                if (field.getType() instanceof EntityType) {
-                    boolean allFound = true;
-					for (GenericEntity entity : entities.queryAll(type.getName())) {
-                        boolean found = false;
-						for (GenericEntity refEntity : entities.queryAll(refField.entity.getName())) {
-							if (refEntity.get(refField.getName()) == entity) {
-                                entity.set(field.getName(), refEntity);
-                                found = true;
-                                break;
-                            }
-						}
-                        if (!found) {
-							allFound = false;
-						}
-                    }
-					if (!allFound) {
-						System.err.println("Some entities referenced by " + field + "'s mapping field " + field.getMappingField()
-							+ " could not be linked");
+			}
+		}
+		// Grouping only reads entity data, so the mapped fields can be grouped independently and in parallel.
+		// Deferred migrations are applied first, since reading an entity would otherwise apply them on the worker threads.
+		// Linking modifies the owning entities, so that is done serially.
+		entities.completeMigration();
+		List<Map<GenericEntity, List<GenericEntity>>> referrers = mappedFields.parallelStream()
+			.map(field -> groupReferrers(field, entities)).collect(Collectors.toList());
+		for (int i = 0; i < mappedFields.size(); i++) {
+			linkMappedField(mappedFields.get(i), referrers.get(i), entities, listener);
+		}
+    }
+
+	/**
+	 * Makes a single pass over the entities of a mapped field's referring type, grouping them by the entity they refer to
+	 *
+	 * @param field
+	 *            The mapped field
+	 * @param entities
+	 *            The entity set
+	 * @return The referring entities, in query order (or sorted, for ordered list fields), grouped by the entity they refer to
+	 */
+	private static Map<GenericEntity, List<GenericEntity>> groupReferrers(EntityField field, GenericEntitySet entities) {
+		EntityField refField = PersistenceUtils.getMappedField(field, entities.getTypes());
+		Map<GenericEntity, List<GenericEntity>> groups = new IdentityHashMap<>();
+		for (GenericEntity refEntity : entities.queryAll(refField.entity)) {
+			Object owner = refEntity.get(refField);
+			if (owner instanceof GenericEntity) {
+				groups.computeIfAbsent((GenericEntity) owner, o -> new ArrayList<>(2)).add(refEntity);
+			}
+		}
+		if (!(field.getType() instanceof EntityType) && field.getSorting().length > 0 && isListField(field)) {
+			PersistenceUtils.OrderedFieldSorter sorter = new PersistenceUtils.OrderedFieldSorter(field);
+			for (List<GenericEntity> group : groups.values()) {
+				if (group.size() > 1) {
+					Collections.sort(group, sorter);
+				}
+			}
+		}
+		return groups;
+	}
+
+	private static boolean isListField(EntityField field) {
+		if (!(field.getType() instanceof ParameterizedType) || !(((ParameterizedType) field.getType()).getRawType() instanceof Class)) {
+			return false;
+		}
+		Class<?> rawClass = (Class<?>) ((ParameterizedType) field.getType()).getRawType();
+		return List.class.isAssignableFrom(rawClass) || rawClass.isAssignableFrom(ArrayList.class);
+	}
+
+	private static void linkMappedField(EntityField field, Map<GenericEntity, List<GenericEntity>> referrers, GenericEntitySet entities,
+		MigrationListener listener) {
+		EntityType type = field.getDeclaringType();
+		EntityField refField = PersistenceUtils.getMappedField(field, entities.getTypes());
+		listener.progress("\tLinking " + refField.entity + " instances into " + field.entity + "." + field.getName());
+		if (field.getType() instanceof EntityType) {
+			boolean allFound = true;
+			for (GenericEntity entity : entities.queryAll(type)) {
+				List<GenericEntity> refs = referrers.get(entity);
+				if (refs != null) {
+					entity.set(field, refs.get(0));
+				} else {
+					allFound = false;
+				}
+			}
+			if (!allFound) {
+				System.err.println("Some entities referenced by " + field + "'s mapping field " + field.getMappingField()
+					+ " could not be linked");
+			}
+		} else {
+			for (GenericEntity entity : entities.queryAll(type)) {
+				Collection<GenericEntity> collection = (Collection<GenericEntity>) entity.get(field);
+				boolean wasEmpty;
+				if (collection == null) {
+					wasEmpty = true;
+					Type raw = ((ParameterizedType) field.getType()).getRawType();
+					if (!(raw instanceof Class)) {
+						throw new IllegalStateException("Collection type for field " + field + " could not be instantiated");
 					}
-                } else {
-					for (GenericEntity entity : entities.queryAll(type.getName())) {
-                        Collection<GenericEntity> collection = (Collection<GenericEntity>) entity.get(field.getName());
-                        if (collection == null) {
-                            Type raw = ((ParameterizedType) field.getType()).getRawType();
-                            if (!(raw instanceof Class)) {
-								throw new IllegalStateException("Collection type for field " + field + " could not be instantiated");
-							}
-                            Class<?> rawClass = (Class<?>) raw;
-                            if ((rawClass.getModifiers() & Modifier.ABSTRACT) == 0) {
-								try {
-                                    collection = (Collection<GenericEntity>) rawClass.newInstance();
-                                } catch (Exception e) {
-                                    throw new IllegalStateException("Collection type for field " + field + " could not be instantiated", e);
-                                }
-							} else if (SortedSet.class.isAssignableFrom(rawClass)) {
-								collection = new TreeSet<>();
-							} else if (Set.class.isAssignableFrom(rawClass)) {
-								collection = new LinkedHashSet<>();
-							} else if (List.class.isAssignableFrom(rawClass)) {
-								collection = new ArrayList<>();
-							} else if (rawClass.isAssignableFrom(ArrayList.class)) {
-								collection = new ArrayList<>();
-							} else {
-								throw new IllegalStateException("Collection type for field " + field + " could not be instantiated");
-							}
-                            entity.set(field.getName(), collection);
-                        }
-
-						for (GenericEntity refEntity : entities.queryAll(refField.entity.getName())) {
-							if (refEntity.get(refField.getName()) == entity) {
-								collection.add(refEntity);
-							}
+					Class<?> rawClass = (Class<?>) raw;
+					if ((rawClass.getModifiers() & Modifier.ABSTRACT) == 0) {
+						try {
+							collection = (Collection<GenericEntity>) rawClass.newInstance();
+						} catch (Exception e) {
+							throw new IllegalStateException("Collection type for field " + field + " could not be instantiated", e);
 						}
+					} else if (SortedSet.class.isAssignableFrom(rawClass)) {
+						collection = new TreeSet<>();
+					} else if (Set.class.isAssignableFrom(rawClass)) {
+						collection = new LinkedHashSet<>();
+					} else if (List.class.isAssignableFrom(rawClass)) {
+						collection = new ArrayList<>();
+					} else if (rawClass.isAssignableFrom(ArrayList.class)) {
+						collection = new ArrayList<>();
+					} else {
+						throw new IllegalStateException("Collection type for field " + field + " could not be instantiated");
+					}
+					entity.set(field, collection);
+				} else {
+					wasEmpty = collection.isEmpty();
+				}
 
-                        if (collection instanceof List && field.getSorting().length > 0) {
-							Collections.sort((List<GenericEntity>) collection, new PersistenceUtils.OrderedFieldSorter(field));
-						}
-                    }
+				List<GenericEntity> refs = referrers.get(entity);
+				if (refs != null) {
+					collection.addAll(refs);
 				}
-            }
+
+				// The referrers are already sorted, so the collection only needs sorting if it had content beforehand
+				if (!wasEmpty && collection instanceof List && field.getSorting().length > 0) {
+					Collections.sort((List<GenericEntity>) collection, new PersistenceUtils.OrderedFieldSorter(field));
+				}
+			}
 		}
-    }
+	}
 
     private void validateEntityClass(Class<?> entityClass, List<String> errors) {
         if (entityClass.getAnnotation(Entity.class) == null && entityClass.getAnnotation(MappedSuperclass.class) == null) {
@@ -1,11 +1,15 @@
 package org.migration;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 import org.migration.generic.EntityType;
 import org.migration.generic.GenericEntity;
 import org.migration.generic.GenericEntitySet;
+import org.migration.util.ExportManifest;
 import org.qommons.io.HierarchicalResourceReader;
 import org.qommons.io.HierarchicalResourceWriter;
 
@@ -21,12 +25,117 @@ public interface EntitySetPersistence {
 		boolean readEntityIdentities(GenericEntitySet entities, Consumer<GenericEntity> onEntity) throws IOException;
 
 		boolean populateEntityFields(GenericEntitySet entities, Consumer<GenericEntity> onCompleteEntity) throws IOException;
+
+		/**
+		 * Reads entities and their fields in a single pass where possible. Work that depends on entities that may not have been read yet
+		 * is added to <code>links</code>, to be done once all entity sets have been read. By default, this creates the entities and
+		 * defers populating their fields entirely.
+		 *
+		 * @param entities
+		 *            The entity set to read entities into
+		 * @param links
+		 *            The links to add deferred work to
+		 * @param onCompleteEntity
+		 *            Notified when each entity is fully populated, possibly not until the links are resolved
+		 * @return Whether the reading was completely successful so far
+		 * @throws IOException
+		 *             If the data cannot be read
+		 */
+		default boolean readEntities(GenericEntitySet entities, PendingLinks links, Consumer<GenericEntity> onCompleteEntity)
+				throws IOException {
+			boolean success = readEntityIdentities(entities, null);
+			links.add(() -> {
+				try {
+					return populateEntityFields(entities, onCompleteEntity);
+				} catch (IOException e) {
+					e.printStackTrace();
+					return false;
+				}
+			});
+			return success;
+		}
+
+		/**
+		 * @param overlay
+		 *            Whether entities read should reuse existing entities of the same type and identity, replacing their field values, as
+		 *            when reading a delta over a base export. Otherwise such entities are reported as duplicates.
+		 * @throws IllegalStateException
+		 *             If this reader cannot overlay existing entities
+		 */
+		default void setOverlay(boolean overlay) {
+			if (overlay) {
+				throw new IllegalStateException(getClass().getName() + " cannot overlay existing entities");
+			}
+		}
+
+		/**
+		 * @param listener
+		 *            The listener to report reading progress to, instead of the {@link ConsoleMigrationListener console}
+		 */
+		default void setListener(MigrationListener listener) {}
+	}
+
+	/**
+	 * Work deferred during a single-pass read until all entity sets have been read, e.g. resolving forward references. Work may be added
+	 * from concurrent readers.
+	 */
+	class PendingLinks {
+		private final List<BooleanSupplier> theLinks = new ArrayList<>();
+
+		/** @param link Work to do once all entity sets have been read, returning whether it was successful */
+		public synchronized void add(BooleanSupplier link) {
+			theLinks.add(link);
+		}
+
+		/** @return The amount of work pending */
+		public synchronized int size() {
+			return theLinks.size();
+		}
+
+		/**
+		 * Does all the pending work
+		 *
+		 * @return Whether all the work was successful
+		 */
+		public synchronized boolean link() {
+			boolean success = true;
+			for (BooleanSupplier link : theLinks) {
+				success &= link.getAsBoolean();
+			}
+			theLinks.clear();
+			return success;
+		}
 	}
 
 	EntityWriter writeEntitySet(EntityType type, HierarchicalResourceWriter writer) throws IOException;
 
 	EntityReader readEntitySet(EntityType type, HierarchicalResourceReader reader) throws IOException;
 
+	/**
+	 * Reads an entity type from an export whose manifest has already been read. The default implementation ignores the manifest.
+	 *
+	 * @param type
+	 *            The entity type to read
+	 * @param reader
+	 *            The resource reader to read the export from
+	 * @param manifest
+	 *            The manifest of the export, or null if it has none
+	 * @return The reader for the type's data, or null if the type was not exported by this scheme
+	 * @throws IOException
+	 *             If the type's data cannot be opened
+	 */
+	default EntityReader readEntitySet(EntityType type, HierarchicalResourceReader reader, ExportManifest manifest) throws IOException {
+		return readEntitySet(type, reader);
+	}
+
+	/**
+	 * @return The name of the format this scheme writes, recorded in {@link org.migration.util.ExportManifest export manifests} so that
+	 *         readers can tell which scheme wrote each entity type
+	 */
+	default String getFormatName() {
+		return getClass().getName();
+	}
+
 	class EmptyEntityWriter implements EntityWriter {
 		@Override
 		public boolean writeEntity(GenericEntity entity) throws IOException {
@@ -48,5 +157,9 @@ public interface EntitySetPersistence {
 		public boolean populateEntityFields(GenericEntitySet entities, Consumer<GenericEntity> onCompleteEntity) throws IOException {
 			return true;
 		}
+
+		@Override
+		public void setOverlay(boolean overlay) {
+		}
 	}
 }
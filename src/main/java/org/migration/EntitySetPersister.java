@@ -1,7 +1,22 @@
 package org.migration;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -10,12 +25,37 @@ import org.migration.EntitySetPersistence.EntityWriter;
 import org.migration.generic.EntityType;
 import org.migration.generic.GenericEntity;
 import org.migration.generic.GenericEntitySet;
+import org.migration.util.ExportManifest;
 import org.qommons.io.HierarchicalResourceReader;
 import org.qommons.io.HierarchicalResourceWriter;
 
-/** Persists {@link GenericEntitySet}s to serial storage and reads them back */
+/**
+ * <p>
+ * Persists {@link GenericEntitySet}s to serial storage and reads them back.
+ * </p>
+ * <p>
+ * An entity set that is {@link GenericEntitySet#isTrackingChanges() tracking changes} may also be saved as a
+ * {@link #saveDelta(GenericEntitySet, HierarchicalResourceWriter, Consumer, Consumer) delta}, containing only the entities created or
+ * modified since its baseline and the identities of those removed. A delta is read by overlaying it on the entity set read from the full
+ * save it was made against, and several deltas may be overlaid in the order they were saved. Deltas assume the types have not changed
+ * since the base was saved.
+ * </p>
+ * <p>
+ * Each save also writes an {@link ExportManifest} listing the types written, their row counts and the checksums of their resources. When
+ * reading, types the manifest does not list are skipped without being looked for, storage is sized from the row counts, and the export can
+ * be {@link #setVerify(boolean) verified} before anything is imported.
+ * </p>
+ */
 public class EntitySetPersister {
+	/** The resource in a delta listing the identities of the entities removed since the baseline */
+	public static final String REMOVED_RESOURCE = "removed-entities.bin";
+
 	private final EntitySetPersistence thePersistence;
+	private boolean isSinglePass;
+	private int theReadThreads = 1;
+	private int theWriteThreads = 1;
+	private boolean isVerifying;
+	private MigrationListener theListener = ConsoleMigrationListener.INSTANCE;
 
     /**
 	 * @param persistence
@@ -25,6 +65,69 @@ public class EntitySetPersister {
 		thePersistence = persistence;
     }
 
+	/**
+	 * @param singlePass
+	 *            Whether {@link #read(GenericEntitySet, HierarchicalResourceReader)} should read each entity file only once, creating
+	 *            entities and populating their fields together and patching references to entities not yet read afterward. Otherwise all
+	 *            entities are created from one pass over the files and their fields populated from a second.
+	 * @return This persister
+	 */
+	public EntitySetPersister setSinglePass(boolean singlePass) {
+		isSinglePass = singlePass;
+		return this;
+	}
+
+	/**
+	 * @param threads
+	 *            The number of entity files {@link #read(GenericEntitySet, HierarchicalResourceReader)} may parse concurrently. Entity
+	 *            creation is serialized on the entity set, and in the default two-pass mode every entity is still created before any
+	 *            references between them are resolved.
+	 * @return This persister
+	 */
+	public EntitySetPersister setReadThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+		theReadThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param threads
+	 *            The number of entity types {@link #save(GenericEntitySet, HierarchicalResourceWriter, Consumer, Consumer) save} may
+	 *            serialize concurrently. If greater than 1, the resource writer must support writing multiple resources at once.
+	 * @return This persister
+	 */
+	public EntitySetPersister setWriteThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+		theWriteThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param listener
+	 *            The listener to report progress to. Errors are still printed to System.err.
+	 * @return This persister
+	 */
+	public EntitySetPersister setListener(MigrationListener listener) {
+		theListener = listener == null ? MigrationListener.NONE : listener;
+		return this;
+	}
+
+	/**
+	 * @param verify
+	 *            Whether {@link #read(GenericEntitySet, HierarchicalResourceReader) read} should check every resource of an export against
+	 *            the checksums in its manifest, using the {@link #setReadThreads(int) read threads}, and read nothing if any is missing or
+	 *            corrupt. Exports without a manifest cannot be verified.
+	 * @return This persister
+	 */
+	public EntitySetPersister setVerify(boolean verify) {
+		isVerifying = verify;
+		return this;
+	}
+
     /**
 	 * Saves an entity set to serial storage, printing errors to System.err. This method does not save the type information.
 	 * 
@@ -40,19 +143,163 @@ public class EntitySetPersister {
 	 */
 	public boolean save(GenericEntitySet entitySet, HierarchicalResourceWriter writer, Consumer<EntityType> inProgressMonitor,
 			Consumer<EntityType> finishedMonitor) {
+		if (theWriteThreads > 1) {
+			return saveConcurrently(entitySet, writer, inProgressMonitor, finishedMonitor);
+		}
         boolean success = true;
+		ExportManifest manifest = new ExportManifest();
         for (EntityType type : entitySet.getTypes()) {
             if (inProgressMonitor != null) {
 				inProgressMonitor.accept(type);
 			}
-			success &= exportType(entitySet, type, writer);
+			success &= exportType(entitySet, type, writer, manifest);
             if (finishedMonitor != null) {
 				finishedMonitor.accept(type);
 			}
         }
+		success &= writeManifest(manifest, writer);
         return success;
     }
 
+	/**
+	 * Saves only the changes made to an entity set since its {@link GenericEntitySet#markBaseline() baseline}, printing errors to
+	 * System.err. Entity types without created or modified entities are skipped, and the identities of removed entities are written to
+	 * {@link #REMOVED_RESOURCE}. Types are saved one at a time regardless of the {@link #setWriteThreads(int) write threads}.
+	 *
+	 * @param entitySet
+	 *            The entity set to save the changes of
+	 * @param writer
+	 *            The resource writer to save the delta to
+	 * @param inProgressMonitor
+	 *            Notified when persistence begins for a type with changes
+	 * @param finishedMonitor
+	 *            Notified when persistence finishes for a type with changes
+	 * @return Whether the save was completely successful
+	 * @throws IllegalStateException
+	 *             If the entity set is not tracking changes
+	 */
+	public boolean saveDelta(GenericEntitySet entitySet, HierarchicalResourceWriter writer, Consumer<EntityType> inProgressMonitor,
+		Consumer<EntityType> finishedMonitor) {
+		if (!entitySet.isTrackingChanges()) {
+			throw new IllegalStateException("A delta can only be saved from an entity set that is tracking changes");
+		}
+		entitySet.completeMigration();
+		boolean success = true;
+		ExportManifest manifest = new ExportManifest();
+		for (EntityType type : entitySet.getTypes()) {
+			List<GenericEntity> changed = entitySet.getChangedEntities(type);
+			if (changed.isEmpty()) {
+				continue;
+			}
+			if (inProgressMonitor != null) {
+				inProgressMonitor.accept(type);
+			}
+			success &= exportEntities(type, changed, writer, manifest);
+			if (finishedMonitor != null) {
+				finishedMonitor.accept(type);
+			}
+		}
+		success &= writeRemovals(entitySet, writer);
+		success &= writeManifest(manifest, writer);
+		return success;
+	}
+
+	private static boolean writeManifest(ExportManifest manifest, HierarchicalResourceWriter writer) {
+		try {
+			manifest.write(writer);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Could not write " + ExportManifest.RESOURCE);
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/** Writes, for each type with removals, its name, the number of removed entities and each of their identities */
+	private boolean writeRemovals(GenericEntitySet entitySet, HierarchicalResourceWriter writer) {
+		Map<EntityType, Collection<Object>> removals = new LinkedHashMap<>();
+		for (EntityType type : entitySet.getTypes()) {
+			Collection<Object> removed = entitySet.getRemovedIds(type);
+			if (!removed.isEmpty()) {
+				removals.put(type, removed);
+			}
+		}
+		try {
+			OutputStream stream = writer.writeResource(REMOVED_RESOURCE);
+			if (stream == null) {
+				System.err.println("Could not write " + REMOVED_RESOURCE);
+				return false;
+			}
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+				out.writeInt(removals.size());
+				int total = 0;
+				for (Map.Entry<EntityType, Collection<Object>> entry : removals.entrySet()) {
+					out.writeUTF(entry.getKey().getName());
+					out.writeInt(entry.getValue().size());
+					for (Object id : entry.getValue()) {
+						out.writeUTF(String.valueOf(id));
+					}
+					total += entry.getValue().size();
+				}
+				theListener.progress(total + " removed rows exported");
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println("Could not write " + REMOVED_RESOURCE);
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/** Discards the entities listed as removed in a delta */
+	private static boolean readRemovals(GenericEntitySet entitySet, HierarchicalResourceReader reader) {
+		try {
+			InputStream stream = reader.readResource(REMOVED_RESOURCE);
+			if (stream == null) {
+				return true; // Nothing removed
+			}
+			boolean success = true;
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+				int typeCount = in.readInt();
+				for (int t = 0; t < typeCount; t++) {
+					String typeName = in.readUTF();
+					int count = in.readInt();
+					EntityType type = entitySet.getTypes().getEntityType(typeName);
+					if (type == null) {
+						System.err.println("No such entity type " + typeName + " for removed entities");
+						success = false;
+					}
+					for (int i = 0; i < count; i++) {
+						String idString = in.readUTF();
+						if (type == null) {
+							continue;
+						}
+						GenericEntity entity = entitySet.queryById(type, parseId(type, idString));
+						if (entity != null && entity.getType().getName().equals(typeName)) {
+							entitySet.discard(entity);
+						}
+					}
+				}
+			}
+			return success;
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Could not read " + REMOVED_RESOURCE);
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private static Object parseId(EntityType type, String id) {
+		Type idType = type.getIdField().getType();
+		if (idType == Integer.TYPE || idType == Integer.class) {
+			return Integer.valueOf(id);
+		} else if (idType == Long.TYPE || idType == Long.class) {
+			return Long.valueOf(id);
+		} else {
+			return id;
+		}
+	}
+
     /**
 	 * Parses serially-saved entity data into generic entities
 	 * 
@@ -63,25 +310,224 @@ public class EntitySetPersister {
 	 * @return Whether the parsing was completely successful
 	 */
 	public boolean read(GenericEntitySet entitySet, HierarchicalResourceReader reader) {
-        boolean success = true;
-        // Create all the entities first, so we can link them up during the field-parsing
-        for (EntityType type : entitySet.getTypes()) {
-			success &= createEntitiesFromExport(entitySet, type, reader);
+		return read(entitySet, reader, false);
+    }
+
+	/**
+	 * Parses a full save and then overlays a chain of deltas on it
+	 *
+	 * @param entitySet
+	 *            The entity set to populate
+	 * @param base
+	 *            The resource reader to read the full save from
+	 * @param deltas
+	 *            The resource readers to read each delta from, in the order they were saved
+	 * @return Whether the parsing was completely successful
+	 */
+	public boolean read(GenericEntitySet entitySet, HierarchicalResourceReader base, List<? extends HierarchicalResourceReader> deltas) {
+		boolean success = read(entitySet, base);
+		for (HierarchicalResourceReader delta : deltas) {
+			success &= readDelta(entitySet, delta);
 		}
-        // Parse and populate all the field values
-        for (EntityType type : entitySet.getTypes()) {
-			success &= importFieldValues(entitySet, type, reader);
+		return success;
+	}
+
+	/**
+	 * Overlays a delta saved by {@link #saveDelta(GenericEntitySet, HierarchicalResourceWriter, Consumer, Consumer) saveDelta} on an
+	 * entity set that has been read from the data the delta was saved against. The entities removed in the delta are discarded first,
+	 * then the entities in it replace the field values of existing entities with the same identity or are created.
+	 *
+	 * @param entitySet
+	 *            The entity set to apply the delta to
+	 * @param reader
+	 *            The resource reader to read the delta from
+	 * @return Whether the delta was completely applied
+	 */
+	public boolean readDelta(GenericEntitySet entitySet, HierarchicalResourceReader reader) {
+		boolean success = readRemovals(entitySet, reader);
+		success &= read(entitySet, reader, true);
+		return success;
+	}
+
+	private boolean read(GenericEntitySet entitySet, HierarchicalResourceReader reader, boolean overlay) {
+		ExportManifest manifest;
+		try {
+			manifest = ExportManifest.read(reader);
+		} catch (IOException e) {
+			System.err.println("Could not read " + ExportManifest.RESOURCE + "; reading without it");
+			e.printStackTrace();
+			manifest = null;
 		}
-        return success;
-    }
+		if (manifest != null) {
+			if (isVerifying) {
+				theListener.progress("\tVerifying exported data");
+				if (!manifest.verify(reader, theReadThreads)) {
+					System.err.println("Exported data failed verification and was not read");
+					return false;
+				}
+			}
+			for (EntityType type : entitySet.getTypes()) {
+				long rows = manifest.getRows(type.getName());
+				if (rows > 0) {
+					entitySet.ensureCapacity(type, rows);
+				}
+			}
+		} else if (isVerifying) {
+			System.err.println("No " + ExportManifest.RESOURCE + " to verify the exported data against");
+		}
+		ExecutorService pool = theReadThreads > 1 ? Executors.newFixedThreadPool(theReadThreads) : null;
+		try {
+			if (isSinglePass) {
+				return readSinglePass(entitySet, reader, manifest, pool, overlay);
+			}
+			boolean success = true;
+			// Create all the entities first, so we can link them up during the field-parsing
+			success &= readAll(entitySet, reader, manifest, pool, overlay,
+				entityReader -> entityReader.readEntityIdentities(entitySet, null));
+			// Parse and populate all the field values
+			success &= readAll(entitySet, reader, manifest, pool, overlay,
+				entityReader -> entityReader.populateEntityFields(entitySet, null));
+			return success;
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	private boolean readSinglePass(GenericEntitySet entitySet, HierarchicalResourceReader reader, ExportManifest manifest,
+		ExecutorService pool, boolean overlay) {
+		EntitySetPersistence.PendingLinks links = new EntitySetPersistence.PendingLinks();
+		boolean success = readAll(entitySet, reader, manifest, pool, overlay,
+			entityReader -> entityReader.readEntities(entitySet, links, null));
+		if (links.size() > 0) {
+			theListener.progress("\tLinking " + links.size() + " forward references");
+		}
+		success &= links.link();
+		return success;
+	}
+
+	/** One phase of reading an entity file */
+	private interface ReadTask {
+		boolean read(EntityReader entityReader) throws IOException;
+	}
 
-	private boolean exportType(GenericEntitySet entitySet, EntityType type, HierarchicalResourceWriter writer) {
+	/**
+	 * Runs a read task against the data of each entity type, on the pool if one is given. The readers are all obtained on this thread,
+	 * since persistence schemes may not be thread-safe in that.
+	 */
+	private boolean readAll(GenericEntitySet entitySet, HierarchicalResourceReader reader, ExportManifest manifest, ExecutorService pool,
+		boolean overlay, ReadTask task) {
+		boolean success = true;
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (EntityType type : entitySet.getTypes()) {
+			if (manifest != null && !manifest.hasType(type.getName())) {
+				continue; // Not exported
+			}
+			EntityReader entityReader;
+			try {
+				entityReader = thePersistence.readEntitySet(type, reader, manifest);
+			} catch (IOException e) {
+				e.printStackTrace();
+				success = false;
+				continue;
+			}
+			if (entityReader == null) {
+				continue;
+			}
+			entityReader.setListener(theListener);
+			if (overlay) {
+				entityReader.setOverlay(true);
+			}
+			if (pool == null) {
+				success &= runTask(task, entityReader);
+			} else {
+				results.add(pool.submit(() -> runTask(task, entityReader)));
+			}
+		}
+		for (Future<Boolean> result : results) {
+			try {
+				success &= result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				System.err.println("Interrupted reading entity data");
+				return false;
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+				success = false;
+			}
+		}
+		return success;
+	}
+
+	private static boolean runTask(ReadTask task, EntityReader entityReader) {
+		try {
+			return task.read(entityReader);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private boolean saveConcurrently(GenericEntitySet entitySet, HierarchicalResourceWriter writer,
+		Consumer<EntityType> inProgressMonitor, Consumer<EntityType> finishedMonitor) {
+		// Apply any deferred migrations up front, so the workers only read the entities
+		entitySet.completeMigration();
+		ExecutorService pool = Executors.newFixedThreadPool(theWriteThreads);
+		Object monitorLock = new Object();
+		ExportManifest manifest = new ExportManifest();
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (EntityType type : entitySet.getTypes()) {
+				results.add(pool.submit(() -> {
+					if (inProgressMonitor != null) {
+						synchronized (monitorLock) {
+							inProgressMonitor.accept(type);
+						}
+					}
+					boolean typeSuccess = exportType(entitySet, type, writer, manifest);
+					if (finishedMonitor != null) {
+						synchronized (monitorLock) {
+							finishedMonitor.accept(type);
+						}
+					}
+					return typeSuccess;
+				}));
+			}
+			boolean success = true;
+			for (Future<Boolean> result : results) {
+				try {
+					success &= result.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					System.err.println("Interrupted exporting entity data");
+					return false;
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					success = false;
+				}
+			}
+			success &= writeManifest(manifest, writer);
+			return success;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private boolean exportType(GenericEntitySet entitySet, EntityType type, HierarchicalResourceWriter writer,
+		ExportManifest manifest) {
+		Collection<GenericEntity> beans = entitySet.queryAll(type);
+		// Filter out sub-types
+		beans = beans.stream().filter(bean -> bean.getType().getName().equals(type.getName())).collect(Collectors.toList());
+		return exportEntities(type, beans, writer, manifest);
+	}
+
+	private boolean exportEntities(EntityType type, Collection<GenericEntity> beans, HierarchicalResourceWriter writer,
+		ExportManifest manifest) {
 		int success = 0;
 		int total;
-		try (EntityWriter entityPersister = thePersistence.writeEntitySet(type, writer)) {
-			Collection<GenericEntity> beans = entitySet.queryAll(type);
-            // Filter out sub-types
-            beans = beans.stream().filter(bean -> bean.getType().getName().equals(type.getName())).collect(Collectors.toList());
+		HierarchicalResourceWriter typeWriter = manifest.record(type, thePersistence.getFormatName(), writer);
+		try (EntityWriter entityPersister = thePersistence.writeEntitySet(type, typeWriter)) {
 			total = beans.size();
 			for (GenericEntity bean : beans) {
 				if (entityPersister.writeEntity(bean)) {
@@ -93,33 +539,14 @@ public class EntitySetPersister {
             e.printStackTrace();
             return false;
 		}
+		manifest.setRows(type, success);
 
         String msg = success + " of " + total + " " + type.getName() + " rows exported";
         if (success == total) {
-			System.out.println(msg);
+			theListener.progress(msg);
 		} else {
 			System.err.println(msg);
 		}
         return success == total;
     }
-
-	private boolean createEntitiesFromExport(GenericEntitySet entitySet, EntityType type, HierarchicalResourceReader reader) {
-		try {
-			EntityReader entityReader = thePersistence.readEntitySet(type, reader);
-			return entityReader.readEntityIdentities(entitySet, null);
-		} catch (IOException e) {
-			e.printStackTrace();
-			return false;
-		}
-    }
-
-	private boolean importFieldValues(GenericEntitySet entitySet, EntityType type, HierarchicalResourceReader reader) {
-		try {
-			EntityReader entityReader = thePersistence.readEntitySet(type, reader);
-			return entityReader.populateEntityFields(entitySet, null);
-		} catch (IOException e) {
-			e.printStackTrace();
-			return false;
-		}
-    }
 }
@@ -0,0 +1,124 @@
+package org.migration;
+
+import java.util.Collection;
+
+import org.migration.generic.GenericEntity;
+import org.migration.migrators.EntityMigrator;
+
+/**
+ * Receives notifications about the progress of a data migration. Entity counts are reported in aggregate when each migrator finishes, so
+ * a listener adds no cost to the per-entity migration loop.
+ */
+public interface MigrationListener {
+	/** A listener that does nothing */
+	MigrationListener NONE = new MigrationListener() {
+		@Override
+		public String toString() {
+			return "No-op migration listener";
+		}
+	};
+
+	/**
+	 * @param migSet
+	 *            The migration set that is about to be applied
+	 */
+	default void migrationSetStarted(MigrationSet migSet) {}
+
+	/**
+	 * @param migSet
+	 *            The migration set that has been applied
+	 * @param nanos
+	 *            The time it took to apply the migration set, in nanoseconds
+	 */
+	default void migrationSetFinished(MigrationSet migSet, long nanos) {}
+
+	/**
+	 * @param migrator
+	 *            The migrator that is about to be applied
+	 */
+	default void migratorStarted(EntityMigrator migrator) {}
+
+	/**
+	 * @param migrator
+	 *            The migrator that has been applied
+	 * @param processed
+	 *            The number of entities the migrator was applied to
+	 * @param removed
+	 *            The number of entities that the migrator removed
+	 * @param replaced
+	 *            The number of entities that the migrator replaced
+	 * @param nanos
+	 *            The time it took to apply the migrator, in nanoseconds
+	 */
+	default void migratorFinished(EntityMigrator migrator, int processed, int removed, int replaced, long nanos) {}
+
+	/**
+	 * Called when the removal of an entity or enum value forces the removal of other entities that depend on it
+	 *
+	 * @param cause
+	 *            The entity or enum value being removed
+	 * @param cascaded
+	 *            The entities that will also be removed as a consequence
+	 */
+	default void cascadeDeletion(Object cause, Collection<GenericEntity> cascaded) {}
+
+	/**
+	 * Called for progress outside of the migrators themselves, such as parsing entity types, reading and writing entity data and linking
+	 * mapped fields
+	 *
+	 * @param message
+	 *            A description of the progress
+	 */
+	default void progress(String message) {}
+
+	/**
+	 * @param listeners
+	 *            The listeners to notify
+	 * @return A listener that notifies each of the given listeners in turn
+	 */
+	static MigrationListener compose(MigrationListener... listeners) {
+		return new MigrationListener() {
+			@Override
+			public void migrationSetStarted(MigrationSet migSet) {
+				for (MigrationListener listener : listeners) {
+					listener.migrationSetStarted(migSet);
+				}
+			}
+
+			@Override
+			public void migrationSetFinished(MigrationSet migSet, long nanos) {
+				for (MigrationListener listener : listeners) {
+					listener.migrationSetFinished(migSet, nanos);
+				}
+			}
+
+			@Override
+			public void migratorStarted(EntityMigrator migrator) {
+				for (MigrationListener listener : listeners) {
+					listener.migratorStarted(migrator);
+				}
+			}
+
+			@Override
+			public void migratorFinished(EntityMigrator migrator, int processed, int removed, int replaced, long nanos) {
+				for (MigrationListener listener : listeners) {
+					listener.migratorFinished(migrator, processed, removed, replaced, nanos);
+				}
+			}
+
+			@Override
+			public void cascadeDeletion(Object cause, Collection<GenericEntity> cascaded) {
+				for (MigrationListener listener : listeners) {
+					listener.cascadeDeletion(cause, cascaded);
+				}
+			}
+
+			@Override
+			public void progress(String message) {
+				for (MigrationListener listener : listeners) {
+					listener.progress(message);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,227 @@
+package org.migration;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.migration.generic.GenericEntity;
+import org.migration.migrators.EntityMigrator;
+
+/**
+ * A {@link MigrationListener} that collects counters and latency histograms for a migration, by migrator type, along with the slowest
+ * individual migrators. Not thread-safe.
+ */
+public class MigrationMetrics implements MigrationListener {
+	/** A histogram of values in power-of-two buckets */
+	public static class Histogram {
+		private final long[] theBuckets = new long[64];
+		private long theCount;
+		private long theTotal;
+		private long theMax;
+
+		void add(long value) {
+			if (value < 0) {
+				value = 0;
+			}
+			theBuckets[63 - Long.numberOfLeadingZeros(value | 1)]++;
+			theCount++;
+			theTotal += value;
+			if (value > theMax) {
+				theMax = value;
+			}
+		}
+
+		/** @return The number of values recorded */
+		public long getCount() {
+			return theCount;
+		}
+
+		/** @return The sum of all values recorded */
+		public long getTotal() {
+			return theTotal;
+		}
+
+		/** @return The largest value recorded */
+		public long getMax() {
+			return theMax;
+		}
+
+		/**
+		 * @param quantile
+		 *            The quantile to get, between 0 and 1
+		 * @return An upper bound (the top of the bucket) for the value at the given quantile
+		 */
+		public long getQuantile(double quantile) {
+			if (theCount == 0) {
+				return 0;
+			}
+			long target = (long) Math.ceil(theCount * quantile);
+			long seen = 0;
+			for (int i = 0; i < theBuckets.length; i++) {
+				seen += theBuckets[i];
+				if (seen >= target) {
+					return i == 63 ? Long.MAX_VALUE : Math.min((1L << (i + 1)) - 1, theMax);
+				}
+			}
+			return theMax;
+		}
+	}
+
+	/** Metrics for all migrators of a type */
+	public static class MigratorStats {
+		private final Histogram theLatency = new Histogram();
+		private long theProcessed;
+		private long theRemoved;
+		private long theReplaced;
+
+		/** @return A histogram of the time (in nanoseconds) taken by each application of a migrator of this type */
+		public Histogram getLatency() {
+			return theLatency;
+		}
+
+		/** @return The total number of entities processed by migrators of this type */
+		public long getProcessed() {
+			return theProcessed;
+		}
+
+		/** @return The total number of entities removed by migrators of this type */
+		public long getRemoved() {
+			return theRemoved;
+		}
+
+		/** @return The total number of entities replaced by migrators of this type */
+		public long getReplaced() {
+			return theReplaced;
+		}
+
+		/** @return The number of entities processed per second by migrators of this type */
+		public double getThroughput() {
+			return theLatency.getTotal() == 0 ? 0 : theProcessed * 1E9 / theLatency.getTotal();
+		}
+	}
+
+	private static class SlowMigrator implements Comparable<SlowMigrator> {
+		final String migrator;
+		final int processed;
+		final long nanos;
+
+		SlowMigrator(String migrator, int processed, long nanos) {
+			this.migrator = migrator;
+			this.processed = processed;
+			this.nanos = nanos;
+		}
+
+		@Override
+		public int compareTo(SlowMigrator o) {
+			return Long.compare(o.nanos, nanos);
+		}
+	}
+
+	private final int theSlowestCount;
+	private final Map<String, MigratorStats> theMigratorStats;
+	private final List<SlowMigrator> theSlowest;
+	private final Histogram theSetLatency;
+	private final Histogram theCascadeSizes;
+
+	/** Creates metrics tracking the 10 slowest migrators */
+	public MigrationMetrics() {
+		this(10);
+	}
+
+	/**
+	 * @param slowestCount
+	 *            The number of slowest individual migrators to track
+	 */
+	public MigrationMetrics(int slowestCount) {
+		theSlowestCount = slowestCount;
+		theMigratorStats = new LinkedHashMap<>();
+		theSlowest = new ArrayList<>(slowestCount + 1);
+		theSetLatency = new Histogram();
+		theCascadeSizes = new Histogram();
+	}
+
+	@Override
+	public void migrationSetFinished(MigrationSet migSet, long nanos) {
+		theSetLatency.add(nanos);
+	}
+
+	@Override
+	public void migratorFinished(EntityMigrator migrator, int processed, int removed, int replaced, long nanos) {
+		MigratorStats stats = theMigratorStats.computeIfAbsent(migrator.getClass().getSimpleName(), t -> new MigratorStats());
+		stats.theLatency.add(nanos);
+		stats.theProcessed += processed;
+		stats.theRemoved += removed;
+		stats.theReplaced += replaced;
+		if (theSlowestCount > 0
+			&& (theSlowest.size() < theSlowestCount || nanos > theSlowest.get(theSlowest.size() - 1).nanos)) {
+			SlowMigrator slow = new SlowMigrator(migrator.toString(), processed, nanos);
+			int index = Collections.binarySearch(theSlowest, slow);
+			theSlowest.add(index < 0 ? -index - 1 : index, slow);
+			if (theSlowest.size() > theSlowestCount) {
+				theSlowest.remove(theSlowest.size() - 1);
+			}
+		}
+	}
+
+	@Override
+	public void cascadeDeletion(Object cause, Collection<GenericEntity> cascaded) {
+		theCascadeSizes.add(cascaded.size());
+	}
+
+	/** @return Metrics for each type of migrator applied, by simple class name */
+	public Map<String, MigratorStats> getMigratorStats() {
+		return Collections.unmodifiableMap(theMigratorStats);
+	}
+
+	/** @return A histogram of the time (in nanoseconds) taken to apply each migration set */
+	public Histogram getSetLatency() {
+		return theSetLatency;
+	}
+
+	/** @return A histogram of the number of entities removed as a consequence of each cascading deletion */
+	public Histogram getCascadeSizes() {
+		return theCascadeSizes;
+	}
+
+	/**
+	 * Prints a summary of these metrics
+	 *
+	 * @param out
+	 *            The stream to print to
+	 */
+	public void print(PrintStream out) {
+		out.println("Migration sets: " + theSetLatency.getCount() + " in " + millis(theSetLatency.getTotal()) + "ms");
+		out.println("Migrators:");
+		for (Map.Entry<String, MigratorStats> entry : theMigratorStats.entrySet()) {
+			MigratorStats stats = entry.getValue();
+			Histogram latency = stats.getLatency();
+			out.println("\t" + entry.getKey() + ": " + latency.getCount() + " run, " + stats.getProcessed() + " processed, "
+				+ stats.getRemoved() + " removed, " + stats.getReplaced() + " replaced; total " + millis(latency.getTotal()) + "ms, p50 "
+				+ millis(latency.getQuantile(.5)) + "ms, p99 " + millis(latency.getQuantile(.99)) + "ms, max " + millis(latency.getMax())
+				+ "ms; " + Math.round(stats.getThroughput()) + " entities/s");
+		}
+		if (!theSlowest.isEmpty()) {
+			out.println("Slowest migrators:");
+			for (SlowMigrator slow : theSlowest) {
+				out.println("\t" + millis(slow.nanos) + "ms (" + slow.processed + " entities): " + slow.migrator);
+			}
+		}
+		if (theCascadeSizes.getCount() > 0) {
+			out.println("Cascading deletions: " + theCascadeSizes.getCount() + ", " + theCascadeSizes.getTotal() + " entities, max "
+				+ theCascadeSizes.getMax());
+		}
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3f", nanos / 1E6);
+	}
+
+	@Override
+	public String toString() {
+		return "Migration metrics";
+	}
+}
@@ -0,0 +1,393 @@
+package org.migration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/**
+ * A local, content-addressed cache of fully-migrated entity data. A result is keyed by the digests of the raw input resources it was parsed
+ * from, combined with the digest of the migration file and the data set tags that determine which migrations apply. A later run against
+ * identical input may then load the migrated result directly instead of parsing and migrating the input.
+ *
+ * <p>
+ * Each entry is a directory under the cache directory, named by its key. It contains the migrated data as written by the persistence, the
+ * migrated types in "Entity Versions.xml", and a manifest of the input resources and their digests, which is how a later run knows which
+ * resources to hash without parsing them.
+ * </p>
+ */
+public class MigrationResultCache {
+	private static final String MANIFEST = "input-manifest.properties";
+	private static final String MIGRATIONS_KEY = "@migrations";
+	private static final String TAGS_KEY = "@tags";
+	/** The digest recorded for an input resource that was requested but not present, which no real digest can equal */
+	private static final String ABSENT = "absent";
+	/** Marks an input resource that was not read to its end, and so must be digested again before the result is stored */
+	private static final String PARTIAL = "partial";
+
+	/**
+	 * Records the digests of the resources read through a reader. Resources read to their end are digested as they are read. Resources
+	 * closed before their end, such as by a header probe, are only digested if the result is {@link #store(String, Iterable, ResultWriter)
+	 * stored}, by reading them again in full. Resources that were requested but not present are recorded as absent, so a result is not
+	 * reused once they appear.
+	 */
+	public class InputRecorder {
+		private final HierarchicalResourceReader theSource;
+		private final HierarchicalResourceReader theReader;
+		private final Map<String, String> theDigests;
+
+		InputRecorder(HierarchicalResourceReader reader) {
+			theSource = reader;
+			theDigests = Collections.synchronizedMap(new TreeMap<>());
+			theReader = path -> {
+				InputStream in = reader.readResource(path);
+				if (in == null) {
+					theDigests.putIfAbsent(path, ABSENT);
+					return null;
+				}
+				return new DigestingInputStream(in, digest -> {
+					if (digest != null) {
+						theDigests.put(path, digest);
+					} else {
+						theDigests.merge(path, PARTIAL, (old, partial) -> old.equals(ABSENT) ? partial : old);
+					}
+				});
+			};
+		}
+
+		/** @return The reader to read input through */
+		public HierarchicalResourceReader getReader() {
+			return theReader;
+		}
+
+		/**
+		 * Stores a migrated result in the cache
+		 *
+		 * @param migrationDigest
+		 *            The digest of the migration file
+		 * @param dataSetTags
+		 *            The tags of the data set
+		 * @param writer
+		 *            Writes the migrated data into the given resource writer
+		 * @return Whether the result was stored
+		 */
+		public boolean store(String migrationDigest, Iterable<String> dataSetTags, ResultWriter writer) {
+			Map<String, String> digests;
+			synchronized (theDigests) {
+				digests = new TreeMap<>(theDigests);
+			}
+			for (Map.Entry<String, String> entry : digests.entrySet()) {
+				if (!entry.getValue().equals(PARTIAL)) {
+					continue;
+				}
+				try (InputStream in = theSource.readResource(entry.getKey())) {
+					if (in == null) {
+						System.err.println("Input resource " + entry.getKey() + " is no longer available to digest");
+						return false;
+					}
+					entry.setValue(digest(in));
+				} catch (IOException e) {
+					System.err.println("Could not digest input resource " + entry.getKey());
+					e.printStackTrace();
+					return false;
+				}
+			}
+			String key = createKey(digests, migrationDigest, dataSetTags);
+			File entryDir = new File(theDirectory, key);
+			if (entryDir.isDirectory()) {
+				return true;
+			}
+			File tempDir = new File(theDirectory, key + ".tmp");
+			deleteAll(tempDir);
+			if (!tempDir.mkdirs()) {
+				System.err.println("Could not create migration cache directory " + tempDir);
+				return false;
+			}
+			try {
+				if (!writer.write(writerFor(tempDir))) {
+					deleteAll(tempDir);
+					return false;
+				}
+				Properties manifest = new Properties();
+				manifest.putAll(digests);
+				manifest.setProperty(MIGRATIONS_KEY, migrationDigest);
+				manifest.setProperty(TAGS_KEY, tagString(dataSetTags));
+				try (OutputStream out = new FileOutputStream(new File(tempDir, MANIFEST))) {
+					manifest.store(out, "Input resources for cached migration result " + key);
+				}
+			} catch (IOException e) {
+				System.err.println("Could not store migration result in cache");
+				e.printStackTrace();
+				deleteAll(tempDir);
+				return false;
+			}
+			// Only a complete entry is renamed into place, so a partially-written entry is never found
+			if (!tempDir.renameTo(entryDir)) {
+				deleteAll(tempDir);
+				return entryDir.isDirectory();
+			}
+			return true;
+		}
+	}
+
+	/** Writes a migrated result */
+	@FunctionalInterface
+	public interface ResultWriter {
+		/**
+		 * @param writer
+		 *            The resource writer to write the result to
+		 * @return Whether the result was written successfully
+		 * @throws IOException
+		 *             If an error occurs writing the result
+		 */
+		boolean write(HierarchicalResourceWriter writer) throws IOException;
+	}
+
+	private final File theDirectory;
+
+	/**
+	 * @param directory
+	 *            The directory to store results in
+	 */
+	public MigrationResultCache(File directory) {
+		theDirectory = directory;
+	}
+
+	/** @return The directory results are stored in */
+	public File getDirectory() {
+		return theDirectory;
+	}
+
+	/**
+	 * @param reader
+	 *            The reader for the input
+	 * @return A recorder to read the input through, which records resource digests so the result may be stored
+	 */
+	public InputRecorder record(HierarchicalResourceReader reader) {
+		return new InputRecorder(reader);
+	}
+
+	/**
+	 * Searches the cache for a result migrated from input identical to that available from the given reader. Only the resources listed in
+	 * each cached entry's manifest are hashed, and each resource is only hashed once.
+	 *
+	 * @param input
+	 *            The reader for the input
+	 * @param migrationDigest
+	 *            The digest of the migration file
+	 * @param dataSetTags
+	 *            The tags of the data set
+	 * @return A reader for the cached result, or null if there is no matching cached result
+	 */
+	public HierarchicalResourceReader find(HierarchicalResourceReader input, String migrationDigest, Iterable<String> dataSetTags) {
+		File[] entries = theDirectory.listFiles(f -> f.isDirectory() && new File(f, MANIFEST).isFile());
+		if (entries == null) {
+			return null;
+		}
+		String tags = tagString(dataSetTags);
+		Map<String, String> inputDigests = new HashMap<>();
+		for (File entry : entries) {
+			Properties manifest = new Properties();
+			try (InputStream in = new FileInputStream(new File(entry, MANIFEST))) {
+				manifest.load(in);
+			} catch (IOException e) {
+				continue;
+			}
+			if (!migrationDigest.equals(manifest.getProperty(MIGRATIONS_KEY)) || !tags.equals(manifest.getProperty(TAGS_KEY))) {
+				continue;
+			}
+			Map<String, String> digests = new TreeMap<>();
+			boolean matches = true;
+			for (String path : manifest.stringPropertyNames()) {
+				if (path.equals(MIGRATIONS_KEY) || path.equals(TAGS_KEY)) {
+					continue;
+				}
+				String digest = inputDigests.computeIfAbsent(path, p -> {
+					try (InputStream in = input.readResource(p)) {
+						return in == null ? ABSENT : digest(in);
+					} catch (IOException e) {
+						return "";
+					}
+				});
+				if (!digest.equals(manifest.getProperty(path))) {
+					matches = false;
+					break;
+				}
+				digests.put(path, digest);
+			}
+			if (matches && entry.getName().equals(createKey(digests, migrationDigest, dataSetTags))) {
+				return path -> {
+					File file = new File(entry, path);
+					return file.isFile() ? new FileInputStream(file) : null;
+				};
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param in
+	 *            The stream to digest. The stream is read to its end but not closed.
+	 * @return The hex-encoded digest of the stream's content
+	 * @throws IOException
+	 *             If an error occurs reading the stream
+	 */
+	public static String digest(InputStream in) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[64 * 1024];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			digest.update(buffer, 0, read);
+		}
+		return toHex(digest.digest());
+	}
+
+	/** Clears all entries from this cache */
+	public void clear() {
+		File[] entries = theDirectory.listFiles(File::isDirectory);
+		if (entries != null) {
+			for (File entry : entries) {
+				deleteAll(entry);
+			}
+		}
+	}
+
+	private static HierarchicalResourceWriter writerFor(File dir) {
+		return path -> {
+			File file = new File(dir, path);
+			File parent = file.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("Could not create directory " + parent);
+			}
+			return new FileOutputStream(file);
+		};
+	}
+
+	static String createKey(Map<String, String> digests, String migrationDigest, Iterable<String> dataSetTags) {
+		MessageDigest digest = newDigest();
+		for (Map.Entry<String, String> entry : new TreeMap<>(digests).entrySet()) {
+			digest.update((entry.getKey() + '=' + entry.getValue() + '\n').getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update((MIGRATIONS_KEY + '=' + migrationDigest + '\n').getBytes(StandardCharsets.UTF_8));
+		digest.update((TAGS_KEY + '=' + tagString(dataSetTags)).getBytes(StandardCharsets.UTF_8));
+		return toHex(digest.digest());
+	}
+
+	private static String tagString(Iterable<String> dataSetTags) {
+		TreeSet<String> tags = new TreeSet<>();
+		for (String tag : dataSetTags) {
+			tags.add(tag);
+		}
+		return String.join(",", tags);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder str = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			str.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return str.toString();
+	}
+
+	private static void deleteAll(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteAll(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Digests everything read through it. On close, the digest is given to the consumer if the stream was read to its end, or null
+	 * otherwise, since the digest would not cover the whole resource.
+	 */
+	private static class DigestingInputStream extends FilterInputStream {
+		private final Consumer<String> theOnDigest;
+		private boolean isAtEnd;
+		private boolean isClosed;
+
+		DigestingInputStream(InputStream in, Consumer<String> onDigest) {
+			super(new DigestInputStream(in, newDigest()));
+			theOnDigest = onDigest;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = in.read();
+			if (read < 0) {
+				isAtEnd = true;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = in.read(b, off, len);
+			if (read < 0) {
+				isAtEnd = true;
+			}
+			return read;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// DigestInputStream does not digest skipped content, so read it instead
+			byte[] buffer = new byte[(int) Math.min(n, 64 * 1024)];
+			long skipped = 0;
+			while (skipped < n) {
+				int read = in.read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+				if (read < 0) {
+					isAtEnd = true;
+					break;
+				}
+				skipped += read;
+			}
+			return skipped;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (isClosed) {
+				return;
+			}
+			isClosed = true;
+			try {
+				theOnDigest.accept(isAtEnd ? toHex(((DigestInputStream) in).getMessageDigest().digest()) : null);
+			} finally {
+				super.close();
+			}
+		}
+	}
+}
@@ -1,8 +1,8 @@
 package org.migration;
 
 import java.lang.reflect.Type;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Contains knowledge of how to handle type hierarchies for reflective dissection
@@ -25,7 +25,7 @@ public class ReflectiveDissecterGenerator<T> implements DissecterGenerator {
     public ReflectiveDissecterGenerator(Class<T> type, TypeGetter typeGetter) {
         theType = type;
         theDissecter = new ReflectiveDissecter<>(type);
-        theSubDissecters = new LinkedHashMap<>();
+        theSubDissecters = new ConcurrentHashMap<>();
         theTypeGetter = typeGetter;
     }
 
@@ -59,12 +59,7 @@ public class ReflectiveDissecterGenerator<T> implements DissecterGenerator {
     public Dissecter dissect(Type type, String subType) {
         if (subType == null)
             return theDissecter;
-        ReflectiveDissecter<? extends T> ret = theSubDissecters.get(subType);
-        if (ret == null) {
-            Class<? extends T> clazz = getSubType(subType);
-            ret = new ReflectiveDissecter<>(clazz);
-            theSubDissecters.put(subType, ret);
-        }
-        return ret;
+        // Entity sets may be saved and read concurrently
+        return theSubDissecters.computeIfAbsent(subType, st -> new ReflectiveDissecter<>(getSubType(st)));
     }
 }
@@ -17,4 +17,22 @@ public interface SimpleFormat {
      * @return The parsed value
      */
     Object parse(Class<?> type, String formatted);
+
+	/**
+	 * Parses a value from a region of a character sequence. The default implementation copies the region to a string; implementations
+	 * may override this to parse in place.
+	 *
+	 * @param type
+	 *            The type of the value to parse
+	 * @param text
+	 *            The sequence containing the formatted value
+	 * @param start
+	 *            The index of the first character of the formatted value
+	 * @param end
+	 *            The index after the last character of the formatted value
+	 * @return The parsed value
+	 */
+	default Object parse(Class<?> type, CharSequence text, int start, int end) {
+		return parse(type, text.subSequence(start, end).toString());
+	}
 }
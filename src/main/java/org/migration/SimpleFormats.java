@@ -0,0 +1,468 @@
+package org.migration;
+
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.format.SignStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.function.LongFunction;
+
+/**
+ * The {@link SimpleFormat}s that {@link TypeSetDissecter} uses by default for primitives, strings and dates. All are immutable and safe to
+ * share between threads. Numbers and dates are parsed in place by {@link SimpleFormat#parse(Class, CharSequence, int, int)}, without
+ * creating intermediate strings.
+ */
+public final class SimpleFormats {
+	private SimpleFormats() {}
+
+	/** The pattern dates are formatted with */
+	public static final String DATE_PATTERN = "ddMMMyyyy HH:mm:ss.SSS";
+
+	/** Formats booleans, parsing "true" in any case as true and anything else as false */
+	public static final SimpleFormat BOOLEAN = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			return matches(text, start, end, "true");
+		}
+	};
+
+	/** Formats characters */
+	public static final SimpleFormat CHARACTER = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			if (start >= end) {
+				throw new StringIndexOutOfBoundsException("No character to parse");
+			}
+			return text.charAt(start);
+		}
+	};
+
+	/** Formats bytes, also parsing "max" and "min" */
+	public static final SimpleFormat BYTE = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			return (byte) parseInteger(text, start, end, Byte.MIN_VALUE, Byte.MAX_VALUE);
+		}
+	};
+
+	/** Formats shorts, also parsing "max" and "min" */
+	public static final SimpleFormat SHORT = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			return (short) parseInteger(text, start, end, Short.MIN_VALUE, Short.MAX_VALUE);
+		}
+	};
+
+	/** Formats integers, also parsing "max" and "min" */
+	public static final SimpleFormat INTEGER = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			return (int) parseInteger(text, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+	};
+
+	/** Formats longs, also parsing "max" and "min" */
+	public static final SimpleFormat LONG = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			return parseInteger(text, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+	};
+
+	/** Formats floats, also parsing "max", "min", "min-normal" and "inf", each optionally negated */
+	public static final SimpleFormat FLOAT = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			double special = parseSpecial(text, start, end, Float.MAX_VALUE, Float.MIN_VALUE, Float.MIN_NORMAL);
+			if (special == special) {
+				return (float) special;
+			}
+			return Float.parseFloat(text.subSequence(start, end).toString());
+		}
+
+		@Override
+		public Object parse(Class<?> type, String formatted) {
+			double special = parseSpecial(formatted, 0, formatted.length(), Float.MAX_VALUE, Float.MIN_VALUE, Float.MIN_NORMAL);
+			return special == special ? (float) special : Float.parseFloat(formatted);
+		}
+	};
+
+	/** Formats doubles, also parsing "max", "min", "min-normal" and "inf", each optionally negated */
+	public static final SimpleFormat DOUBLE = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			double special = parseSpecial(text, start, end, Double.MAX_VALUE, Double.MIN_VALUE, Double.MIN_NORMAL);
+			if (special == special) {
+				return special;
+			}
+			return Double.parseDouble(text.subSequence(start, end).toString());
+		}
+
+		@Override
+		public Object parse(Class<?> type, String formatted) {
+			double special = parseSpecial(formatted, 0, formatted.length(), Double.MAX_VALUE, Double.MIN_VALUE, Double.MIN_NORMAL);
+			return special == special ? special : Double.parseDouble(formatted);
+		}
+	};
+
+	/** Formats strings as themselves */
+	public static final SimpleFormat STRING = new TextFormat() {
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			return text.subSequence(start, end).toString();
+		}
+
+		@Override
+		public Object parse(Class<?> type, String formatted) {
+			return formatted;
+		}
+	};
+
+	/** Formats {@link Date}s with {@link #DATE_PATTERN} in the system time zone */
+	public static final DateFormat DATE = new DateFormat(ZoneId.systemDefault(), Locale.getDefault(Locale.Category.FORMAT), Date::new);
+	/** Formats {@link Timestamp}s with {@link #DATE_PATTERN} in the system time zone */
+	public static final DateFormat TIMESTAMP = new DateFormat(ZoneId.systemDefault(), Locale.getDefault(Locale.Category.FORMAT),
+		Timestamp::new);
+	/** Formats {@link Instant}s with {@link #DATE_PATTERN} in the system time zone */
+	public static final DateFormat INSTANT = new DateFormat(ZoneId.systemDefault(), Locale.getDefault(Locale.Category.FORMAT),
+		Instant::ofEpochMilli);
+
+	/** A format that formats with {@link String#valueOf(Object)} and parses strings via the character sequence method */
+	private static abstract class TextFormat implements SimpleFormat {
+		@Override
+		public String format(Object value) {
+			return String.valueOf(value);
+		}
+
+		@Override
+		public Object parse(Class<?> type, String formatted) {
+			return parse(type, formatted, 0, formatted.length());
+		}
+
+		@Override
+		public abstract Object parse(Class<?> type, CharSequence text, int start, int end);
+	}
+
+	/**
+	 * <p>
+	 * Formats {@link Date}s, {@link Timestamp}s or {@link Instant}s with {@link #DATE_PATTERN}, producing and accepting exactly what
+	 * {@link SimpleDateFormat}, with which dates have always been written, does.
+	 * </p>
+	 * <p>
+	 * Dates from 1900 up to 2037 are formatted and parsed with java.time, resolving local times as {@link java.util.Calendar} does. Other
+	 * dates use a {@link SimpleDateFormat}, so that existing files read back to the same instants, since the legacy classes disagree with
+	 * java.time outside that range:
+	 * </p>
+	 * <ul>
+	 * <li>The legacy calendar is Julian before the Gregorian cutover rather than proleptic Gregorian</li>
+	 * <li>{@link java.util.TimeZone} lacks the time zone database's transitions before 1900, such as local mean time, and from 2037 it
+	 * follows each zone's final rule, ignoring any transitions scheduled later</li>
+	 * </ul>
+	 */
+	public static class DateFormat implements SimpleFormat {
+		/** The start of 1900, before which {@link java.util.TimeZone} may disagree with java.time */
+		private static final long LEGACY_BEFORE = LocalDateTime.of(1900, 1, 1, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+		/** The start of 2037, from which {@link java.util.TimeZone} may disagree with java.time */
+		private static final long LEGACY_FROM = LocalDateTime.of(2037, 1, 1, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+		private final ZoneId theZone;
+		private final DateTimeFormatter theFormatter;
+		private final DateTimeFormatter theLenientFormatter;
+		private final ThreadLocal<SimpleDateFormat> theLegacyFormat;
+		private final String[] theMonths;
+		private final LongFunction<?> theFactory;
+
+		/**
+		 * @param zone
+		 *            The time zone to format and parse in
+		 * @param locale
+		 *            The locale for month names
+		 * @param factory
+		 *            Creates parsed values from epoch milliseconds
+		 */
+		public DateFormat(ZoneId zone, Locale locale, LongFunction<?> factory) {
+			theZone = zone;
+			theFormatter = appendPattern(new DateTimeFormatterBuilder()).toFormatter(locale).withZone(zone);
+			theLenientFormatter = appendPattern(new DateTimeFormatterBuilder().parseCaseInsensitive().parseLenient()).toFormatter(locale)
+				.withResolverStyle(ResolverStyle.LENIENT);
+			theLegacyFormat = ThreadLocal.withInitial(() -> {
+				SimpleDateFormat format = new SimpleDateFormat(DATE_PATTERN, locale);
+				format.setTimeZone(TimeZone.getTimeZone(zone));
+				return format;
+			});
+			theMonths = new String[12];
+			for (Month month : Month.values()) {
+				theMonths[month.ordinal()] = month.getDisplayName(TextStyle.SHORT, locale);
+			}
+			theFactory = factory;
+		}
+
+		/**
+		 * Appends {@link #DATE_PATTERN}, with the year written as {@link SimpleDateFormat} writes it: at least 4 digits and never signed,
+		 * where java.time's "yyyy" would sign years above 9999
+		 */
+		private static DateTimeFormatterBuilder appendPattern(DateTimeFormatterBuilder builder) {
+			return builder.appendPattern("ddMMM").appendValue(ChronoField.YEAR_OF_ERA, 4, 9, SignStyle.NOT_NEGATIVE)
+				.appendPattern(" HH:mm:ss.SSS");
+		}
+
+		/** @return The time zone this format formats and parses in */
+		public ZoneId getZone() {
+			return theZone;
+		}
+
+		@Override
+		public String format(Object value) {
+			long millis = value instanceof Instant ? ((Instant) value).toEpochMilli() : ((Date) value).getTime();
+			if (isLegacy(millis)) {
+				return theLegacyFormat.get().format(new Date(millis));
+			}
+			return theFormatter.format(Instant.ofEpochMilli(millis));
+		}
+
+		@Override
+		public Object parse(Class<?> type, String formatted) {
+			return theFactory.apply(parseMillis(formatted, 0, formatted.length()));
+		}
+
+		@Override
+		public Object parse(Class<?> type, CharSequence text, int start, int end) {
+			return theFactory.apply(parseMillis(text, start, end));
+		}
+
+		/**
+		 * @param text
+		 *            The sequence containing the formatted date
+		 * @param start
+		 *            The index of the first character of the formatted date
+		 * @param end
+		 *            The index after the last character of the formatted date
+		 * @return The parsed date, in milliseconds since the epoch
+		 * @throws IllegalStateException
+		 *             If the date cannot be parsed
+		 */
+		public long parseMillis(CharSequence text, int start, int end) {
+			long millis = parseStrict(text, start, end);
+			if (millis != Long.MIN_VALUE) {
+				return millis;
+			}
+			// Not in exactly the format written, so fall back to the slower, lenient parser
+			try {
+				millis = toMillis(theLenientFormatter.parse(text.subSequence(start, end), LocalDateTime::from));
+			} catch (DateTimeException | ArithmeticException e) {
+				return parseLegacy(text, start, end);
+			}
+			return isLegacy(millis) ? parseLegacy(text, start, end) : millis;
+		}
+
+		private boolean isLegacy(long millis) {
+			return millis < LEGACY_BEFORE || millis >= LEGACY_FROM;
+		}
+
+		private long parseLegacy(CharSequence text, int start, int end) {
+			try {
+				return theLegacyFormat.get().parse(text.subSequence(start, end).toString()).getTime();
+			} catch (ParseException e) {
+				throw new IllegalStateException("Malformatted date: " + text.subSequence(start, end), e);
+			}
+		}
+
+		/**
+		 * @return The parsed date in epoch milliseconds, or {@link Long#MIN_VALUE} if the text is not exactly in the expected form of a date
+		 *         from the Gregorian cutover on
+		 */
+		private long parseStrict(CharSequence text, int start, int end) {
+			int[] pos = new int[] { start };
+			int day = parseDigits(text, pos, end, 2);
+			int month = -1;
+			for (int m = 0; m < theMonths.length; m++) {
+				if (matches(text, pos[0], Math.min(end, pos[0] + theMonths[m].length()), theMonths[m])) {
+					month = m + 1;
+					pos[0] += theMonths[m].length();
+					break;
+				}
+			}
+			int year = parseDigits(text, pos, end, 9);
+			if (day < 0 || month < 0 || year < 0 || !skip(text, pos, end, ' ')) {
+				return Long.MIN_VALUE;
+			}
+			int hour = parseDigits(text, pos, end, 2);
+			if (hour < 0 || !skip(text, pos, end, ':')) {
+				return Long.MIN_VALUE;
+			}
+			int minute = parseDigits(text, pos, end, 2);
+			if (minute < 0 || !skip(text, pos, end, ':')) {
+				return Long.MIN_VALUE;
+			}
+			int second = parseDigits(text, pos, end, 2);
+			if (second < 0 || !skip(text, pos, end, '.')) {
+				return Long.MIN_VALUE;
+			}
+			int milli = parseDigits(text, pos, end, 3);
+			if (milli < 0 || pos[0] != end) {
+				return Long.MIN_VALUE;
+			}
+			try {
+				long millis = toMillis(LocalDateTime.of(year, month, day, hour, minute, second, milli * 1_000_000));
+				return isLegacy(millis) ? Long.MIN_VALUE : millis;
+			} catch (DateTimeException e) {
+				return Long.MIN_VALUE; // Out-of-range fields are rolled over by the lenient parser
+			}
+		}
+
+		/** Resolves a local time as {@link java.util.Calendar} does, taking the later offset when clocks are set back */
+		private long toMillis(LocalDateTime time) {
+			return ZonedDateTime.ofLocal(time, theZone, null).withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+		}
+
+		@Override
+		public String toString() {
+			return DATE_PATTERN + " (" + theZone + ")";
+		}
+	}
+
+	/**
+	 * Parses a decimal integer from a region of a character sequence, also accepting "max" and "min" in any case for the maximum and
+	 * minimum values
+	 *
+	 * @param text
+	 *            The sequence containing the integer
+	 * @param start
+	 *            The index of the first character of the integer
+	 * @param end
+	 *            The index after the last character of the integer
+	 * @param min
+	 *            The minimum value allowed
+	 * @param max
+	 *            The maximum value allowed
+	 * @return The parsed value
+	 * @throws NumberFormatException
+	 *             If the text is not an integer in the allowed range
+	 */
+	public static long parseInteger(CharSequence text, int start, int end, long min, long max) {
+		if (start >= end) {
+			throw badNumber(text, start, end);
+		}
+		char first = text.charAt(start);
+		if (Character.isLetter(first)) {
+			if (matches(text, start, end, "max")) {
+				return max;
+			} else if (matches(text, start, end, "min")) {
+				return min;
+			}
+			throw badNumber(text, start, end);
+		}
+		boolean negative = first == '-';
+		int i = start;
+		if (negative || first == '+') {
+			i++;
+			if (i == end) {
+				throw badNumber(text, start, end);
+			}
+		}
+		// Accumulate negatively, since the negative range is larger
+		long limit = negative ? min : -max;
+		long multLimit = limit / 10;
+		long result = 0;
+		for (; i < end; i++) {
+			int digit = Character.digit(text.charAt(i), 10);
+			if (digit < 0 || result < multLimit) {
+				throw badNumber(text, start, end);
+			}
+			result *= 10;
+			if (result < limit + digit) {
+				throw badNumber(text, start, end);
+			}
+			result -= digit;
+		}
+		return negative ? result : -result;
+	}
+
+	/** @return The special value named by the text, or NaN if the text is not one of the special names */
+	private static double parseSpecial(CharSequence text, int start, int end, double maxValue, double minValue, double minNormal) {
+		if (start >= end) {
+			return Double.NaN;
+		}
+		int i = start;
+		boolean negative = text.charAt(i) == '-';
+		if (negative) {
+			i++;
+		}
+		if (i == end || !Character.isLetter(text.charAt(i))) {
+			return Double.NaN;
+		}
+		double value;
+		if (matches(text, i, end, "max")) {
+			value = maxValue;
+		} else if (matches(text, i, end, "min")) {
+			value = minValue;
+		} else if (matches(text, i, end, "min-normal")) {
+			value = minNormal;
+		} else if (matches(text, i, end, "inf")) {
+			value = Double.POSITIVE_INFINITY;
+		} else {
+			return Double.NaN;
+		}
+		return negative ? -value : value;
+	}
+
+	/** @return Whether the region of the text matches the given lower-case word, ignoring case */
+	static boolean matches(CharSequence text, int start, int end, String word) {
+		if (end - start != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			char c = text.charAt(start + i);
+			char w = word.charAt(i);
+			if (c != w && Character.toLowerCase(c) != Character.toLowerCase(w)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return The non-negative value of up to <code>maxDigits</code> digits at the position, or -1 if there are none */
+	private static int parseDigits(CharSequence text, int[] pos, int end, int maxDigits) {
+		int value = 0;
+		int i = pos[0];
+		int stop = Math.min(end, i + maxDigits);
+		for (; i < stop; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			value = value * 10 + (c - '0');
+		}
+		if (i == pos[0]) {
+			return -1;
+		}
+		pos[0] = i;
+		return value;
+	}
+
+	private static boolean skip(CharSequence text, int[] pos, int end, char c) {
+		if (pos[0] < end && text.charAt(pos[0]) == c) {
+			pos[0]++;
+			return true;
+		}
+		return false;
+	}
+
+	private static NumberFormatException badNumber(CharSequence text, int start, int end) {
+		return new NumberFormatException("For input string: \"" + text.subSequence(start, end) + "\"");
+	}
+}
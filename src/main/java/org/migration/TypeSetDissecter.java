@@ -6,8 +6,6 @@ import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.sql.Timestamp;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -40,9 +38,6 @@ import org.qommons.collect.SimpleMapEntry;
 
 /** Contains knowledge of how to pull apart and put together objects of any of a set of types */
 public class TypeSetDissecter {
-	/** The date format to use for exporting dates */
-	public static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("ddMMMyyyy HH:mm:ss.SSS");
-
 	/** The set of simple types that this class recognizes. Custom dissection of these classes is not allowed. */
 	private static final SubClassMap<Object, SimpleFormat> SIMPLE_TYPES;
 
@@ -50,164 +45,26 @@ public class TypeSetDissecter {
 
 	static {
 		SubClassMap<Object, SimpleFormat> simple = new SubClassMap<>();
-		class DefaultFormat implements SimpleFormat {
-			private final Function<String, ?> theParser;
-
-			DefaultFormat(Function<String, ?> parser) {
-				theParser = parser;
-			}
-
-			@Override
-			public String format(Object value) {
-				return String.valueOf(value);
-			}
-
-			@Override
-			public Object parse(Class<?> type, String formatted) {
-				return theParser.apply(formatted);
-			}
-		}
-		simple.put(Boolean.TYPE, new DefaultFormat(Boolean::valueOf));
-		simple.put(Boolean.class, new DefaultFormat(Boolean::valueOf));
-		simple.put(Character.TYPE, new DefaultFormat(str -> str.charAt(0)));
-		simple.put(Character.class, new DefaultFormat(str -> str.charAt(0)));
-		Function<String, Byte> byteParser = txt -> {
-			String lower = txt.toLowerCase();
-			if ("max".equals(lower))
-				return Byte.MAX_VALUE;
-			else if ("min".equals(lower))
-				return Byte.MIN_VALUE;
-			else
-				return Byte.valueOf(txt);
-		};
-		simple.put(Byte.TYPE, new DefaultFormat(byteParser));
-		simple.put(Byte.class, new DefaultFormat(byteParser));
-		Function<String, Short> shortParser = txt -> {
-			String lower = txt.toLowerCase();
-			if ("max".equals(lower))
-				return Short.MAX_VALUE;
-			else if ("min".equals(lower))
-				return Short.MIN_VALUE;
-			else
-				return Short.valueOf(txt);
-		};
-		simple.put(Short.TYPE, new DefaultFormat(shortParser));
-		simple.put(Short.class, new DefaultFormat(shortParser));
-		Function<String, Integer> intParser = txt -> {
-			String lower = txt.toLowerCase();
-			if ("max".equals(lower))
-				return Integer.MAX_VALUE;
-			else if ("min".equals(lower))
-				return Integer.MIN_VALUE;
-			else
-				return Integer.valueOf(txt);
-		};
-		simple.put(Integer.TYPE, new DefaultFormat(intParser));
-		simple.put(Integer.class, new DefaultFormat(intParser));
-		Function<String, Long> longParser = txt -> {
-			String lower = txt.toLowerCase();
-			if ("max".equals(lower)) {
-				return Long.MAX_VALUE;
-			} else if ("min".equals(lower)) {
-				return Long.MIN_VALUE;
-			} else {
-				return Long.valueOf(txt);
-			}
-		};
-		simple.put(Long.TYPE, new DefaultFormat(longParser));
-		simple.put(Long.class, new DefaultFormat(longParser));
-		Function<String, Float> floatParser = txt -> {
-			String lower = txt.toLowerCase();
-			if ("max".equals(lower))
-				return Float.MAX_VALUE;
-			else if ("-max".equals(lower))
-				return -Float.MAX_VALUE;
-			else if ("min".equals(lower))
-				return Float.MIN_VALUE;
-			else if ("-min".equals(lower))
-				return -Float.MIN_VALUE;
-			else if ("min-normal".equals(lower))
-				return Float.MIN_NORMAL;
-			else if ("-min-normal".equals(lower))
-				return -Float.MIN_NORMAL;
-			else if ("inf".equals(lower))
-				return Float.POSITIVE_INFINITY;
-			else if ("-inf".equals(lower))
-				return Float.NEGATIVE_INFINITY;
-			else
-				return Float.valueOf(txt);
-		};
-		simple.put(Float.TYPE, new DefaultFormat(floatParser));
-		simple.put(Float.class, new DefaultFormat(floatParser));
-		Function<String, Double> doubleParser = txt -> {
-			String lower = txt.toLowerCase();
-			if ("max".equals(lower))
-				return Double.MAX_VALUE;
-			else if ("-max".equals(lower))
-				return -Double.MAX_VALUE;
-			else if ("min".equals(lower))
-				return Double.MIN_VALUE;
-			else if ("-min".equals(lower))
-				return -Double.MIN_VALUE;
-			else if ("min-normal".equals(lower))
-				return Double.MIN_NORMAL;
-			else if ("-min-normal".equals(lower))
-				return -Double.MIN_NORMAL;
-			else if ("inf".equals(lower))
-				return Double.POSITIVE_INFINITY;
-			else if ("-inf".equals(lower))
-				return Double.NEGATIVE_INFINITY;
-			else
-				return Double.valueOf(txt);
-		};
-		simple.put(Double.TYPE, new DefaultFormat(doubleParser));
-		simple.put(Double.class, new DefaultFormat(doubleParser));
-		simple.put(String.class, new DefaultFormat(str -> str));
-		simple.put(Date.class, new SimpleFormat() {
-			@Override
-			public String format(Object value) {
-				return DATE_FORMAT.format((Date) value);
-			}
-
-			@Override
-			public Object parse(Class<?> type, String formatted) {
-				try {
-					return DATE_FORMAT.parse(formatted);
-				} catch (ParseException e) {
-					throw new IllegalStateException("Malformatted date: " + formatted, e);
-				}
-			}
-		});
-		simple.put(Timestamp.class, new SimpleFormat() {
-			@Override
-			public String format(Object value) {
-				return DATE_FORMAT.format((Date) value);
-			}
-
-			@Override
-			public Object parse(Class<?> type, String formatted) {
-				try {
-					return new Timestamp(DATE_FORMAT.parse(formatted).getTime());
-				} catch (ParseException e) {
-					throw new IllegalStateException("Malformatted date: " + formatted, e);
-				}
-			}
-		});
-		simple.put(Instant.class, new SimpleFormat() {
-			@Override
-			public String format(Object value) {
-				return DATE_FORMAT.format(new Date(((Instant) value).toEpochMilli()));
-			}
-
-			@Override
-			public Object parse(Class<?> type, String formatted) {
-				try {
-					return Instant.ofEpochMilli(DATE_FORMAT.parse(formatted).getTime());
-				} catch (ParseException e) {
-					throw new IllegalStateException("Malformatted date: " + formatted, e);
-				}
-			}
-		});
+		simple.put(Boolean.TYPE, SimpleFormats.BOOLEAN);
+		simple.put(Boolean.class, SimpleFormats.BOOLEAN);
+		simple.put(Character.TYPE, SimpleFormats.CHARACTER);
+		simple.put(Character.class, SimpleFormats.CHARACTER);
+		simple.put(Byte.TYPE, SimpleFormats.BYTE);
+		simple.put(Byte.class, SimpleFormats.BYTE);
+		simple.put(Short.TYPE, SimpleFormats.SHORT);
+		simple.put(Short.class, SimpleFormats.SHORT);
+		simple.put(Integer.TYPE, SimpleFormats.INTEGER);
+		simple.put(Integer.class, SimpleFormats.INTEGER);
+		simple.put(Long.TYPE, SimpleFormats.LONG);
+		simple.put(Long.class, SimpleFormats.LONG);
+		simple.put(Float.TYPE, SimpleFormats.FLOAT);
+		simple.put(Float.class, SimpleFormats.FLOAT);
+		simple.put(Double.TYPE, SimpleFormats.DOUBLE);
+		simple.put(Double.class, SimpleFormats.DOUBLE);
+		simple.put(String.class, SimpleFormats.STRING);
+		simple.put(Date.class, SimpleFormats.DATE);
+		simple.put(Timestamp.class, SimpleFormats.TIMESTAMP);
+		simple.put(Instant.class, SimpleFormats.INSTANT);
 		simple.put(Duration.class, new SimpleFormat() {
 			@Override
 			public String format(Object value) {
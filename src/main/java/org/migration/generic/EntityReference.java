@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -241,6 +242,7 @@ public class EntityReference {
         }
         ParameterizedType type = (ParameterizedType) theReference.getType();
         Class<?> raw = (Class<?>) type.getRawType();
+        entity.markDirty(); // The value is modified in place
         if (Collection.class.isAssignableFrom(raw))
             removeAll((Collection<GenericEntity>) entity.get(theReference.getName()), toDelete);
         else if (isMapKey)
@@ -282,6 +284,7 @@ public class EntityReference {
         }
         ParameterizedType type = (ParameterizedType) theReference.getType();
         Class<?> raw = (Class<?>) type.getRawType();
+        entity.markDirty(); // The value is modified in place
         if (Collection.class.isAssignableFrom(raw))
             removeAll((Collection<EnumValue>) entity.get(theReference.getName()), toDelete);
         else if (isMapKey)
@@ -331,6 +334,7 @@ public class EntityReference {
         } else {
             ParameterizedType pType = (ParameterizedType) theReference.getType();
             Class<?> raw = (Class<?>) pType.getRawType();
+            entity.markDirty(); // The value is modified in place
             if (List.class.isAssignableFrom(raw)) {
                 List<GenericEntity> list = (List<GenericEntity>) entity.get(theReference.getName());
                 for (int i = 0; i < list.size(); i++)
@@ -385,6 +389,7 @@ public class EntityReference {
         } else {
             ParameterizedType pType = (ParameterizedType) theReference.getType();
             Class<?> raw = (Class<?>) pType.getRawType();
+            entity.markDirty(); // The value is modified in place
             if (List.class.isAssignableFrom(raw)) {
                 List<EnumValue> list = (List<EnumValue>) entity.get(theReference.getName());
                 for (int i = 0; i < list.size(); i++)
@@ -410,6 +415,110 @@ public class EntityReference {
         }
     }
 
+    /**
+     * Replaces all references in {@code entity} to any of the keys in {@code replacements} with the corresponding value
+     * 
+     * @param entity
+     *            The entity to replace references in
+     * @param replacements
+     *            The referred entities or enum values to replace, mapped to their replacements
+     * @return Whether any references were replaced
+     */
+    public boolean replaceAll(GenericEntity entity, Map<?, ?> replacements) {
+        Object fieldValue = entity.get(theReference);
+        if (fieldValue == null)
+            return false;
+        if (theReference.getType() instanceof EntityType || theReference.getType() instanceof EnumType) {
+            Object replacement = replacements.get(fieldValue);
+            if (replacement == null)
+                return false;
+            entity.set(theReference, replacement);
+            return true;
+        }
+        ParameterizedType pType = (ParameterizedType) theReference.getType();
+        Class<?> raw = (Class<?>) pType.getRawType();
+        boolean replaced = false;
+        if (List.class.isAssignableFrom(raw)) {
+            @SuppressWarnings("unchecked")
+            List<Object> list = (List<Object>) fieldValue;
+            for (int i = 0; i < list.size(); i++) {
+                Object replacement = replacements.get(list.get(i));
+                if (replacement != null) {
+                    list.set(i, replacement);
+                    replaced = true;
+                }
+            }
+        } else if (Collection.class.isAssignableFrom(raw)) {
+            @SuppressWarnings("unchecked")
+            Collection<Object> collection = (Collection<Object>) fieldValue;
+            List<Object> added = null;
+            Iterator<Object> iter = collection.iterator();
+            while (iter.hasNext()) {
+                Object replacement = replacements.get(iter.next());
+                if (replacement != null) {
+                    iter.remove();
+                    if (added == null)
+                        added = new ArrayList<>();
+                    added.add(replacement);
+                }
+            }
+            if (added != null) {
+                collection.addAll(added);
+                replaced = true;
+            }
+        } else if (isMapKey) {
+            @SuppressWarnings("unchecked")
+            Map<Object, Object> map = (Map<Object, Object>) fieldValue;
+            Map<Object, Object> added = null;
+            Iterator<Map.Entry<Object, Object>> iter = map.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<Object, Object> entry = iter.next();
+                Object replacement = replacements.get(entry.getKey());
+                if (replacement != null) {
+                    if (added == null)
+                        added = new LinkedHashMap<>();
+                    added.put(replacement, entry.getValue());
+                    iter.remove();
+                }
+            }
+            if (added != null) {
+                map.putAll(added);
+                replaced = true;
+            }
+        } else {
+            @SuppressWarnings("unchecked")
+            Map<?, Object> map = (Map<?, Object>) fieldValue;
+            for (Map.Entry<?, Object> entry : map.entrySet()) {
+                Object replacement = replacements.get(entry.getValue());
+                if (replacement != null) {
+                    entry.setValue(replacement);
+                    replaced = true;
+                }
+            }
+        }
+        if (replaced)
+            entity.markDirty(); // The value was modified in place
+        return replaced;
+    }
+
+    /**
+     * Sweeps the entities declaring each of the given references once, replacing references to any of the replaced values
+     * 
+     * @param entities
+     *            The entity set to replace references in
+     * @param refs
+     *            The references that may refer to any of the replaced values
+     * @param replacements
+     *            The referred entities or enum values to replace, mapped to their replacements
+     */
+    static void replaceAll(GenericEntitySet entities, Collection<EntityReference> refs, Map<?, ?> replacements) {
+        for (EntityReference ref : refs) {
+            for (GenericEntity e : entities.queryAll(ref.getReferenceField().getDeclaringType())) {
+                ref.replaceAll(e, replacements);
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return theReference.toString();
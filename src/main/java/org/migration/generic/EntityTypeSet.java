@@ -26,6 +26,8 @@ import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
+import org.migration.ConsoleMigrationListener;
+import org.migration.MigrationListener;
 import org.migration.TypeGetter;
 import org.migration.TypeSetDissecter;
 import org.migration.ValueDissecter;
@@ -765,7 +767,21 @@ public class EntityTypeSet implements Iterable<EntityType>, Cloneable {
      * @return The entity type set corresponding to the given java type set
      */
     public static EntityTypeSet createTypesForClasses(Collection<Class<?>> entityClasses, TypeSetDissecter dissecter) {
-        System.out.println("Parsing version information from classes");
+		return createTypesForClasses(entityClasses, dissecter, ConsoleMigrationListener.INSTANCE);
+	}
+
+	/**
+	 * @param entityClasses
+	 *            The set of classes to create entity types for
+	 * @param dissecter
+	 *            The dissecter to understand data types
+	 * @param listener
+	 *            The listener to report progress to
+	 * @return The entity type set corresponding to the given java type set
+	 */
+	public static EntityTypeSet createTypesForClasses(Collection<Class<?>> entityClasses, TypeSetDissecter dissecter,
+		MigrationListener listener) {
+		listener.progress("Parsing version information from classes");
         EntityTypeSet classVersion = new EntityTypeSet(new Date());
         for (Class<?> clazz : entityClasses) {
             EntityType classType = new EntityType(null, PersistenceUtils.getElementNameFromClass(clazz.getName()));
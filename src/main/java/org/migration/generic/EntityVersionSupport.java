@@ -2,22 +2,33 @@
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TimeZone;
 import java.util.TreeSet;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 import org.migration.MigrationDef;
 import org.migration.MigrationSet;
+import org.migration.SimpleFormats;
 import org.migration.TypeGetter;
 import org.migration.migrators.EntityMigrator;
 import org.migration.migrators.EntityTypeModificationMigrator;
@@ -28,12 +39,10 @@ import org.migration.migrators.EnumTypeModificationMigrator;
  * data was exported
  */
 public class EntityVersionSupport {
-    private static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("ddMMMyyyy HH:mm:ss.SSS");
-	private static SimpleDateFormat LOCAL_DATE_FORMAT = new SimpleDateFormat("ddMMMyyyy HH:mm:ss.SSS z");
-	static {
-		DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
-		LOCAL_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
-	}
+    private static final SimpleFormats.DateFormat DATE_FORMAT = new SimpleFormats.DateFormat(ZoneOffset.UTC,
+		Locale.getDefault(Locale.Category.FORMAT), Date::new);
+	private static final DateTimeFormatter LOCAL_DATE_FORMAT = new DateTimeFormatterBuilder().parseCaseInsensitive()
+		.appendPattern(SimpleFormats.DATE_PATTERN + " z").toFormatter(Locale.getDefault(Locale.Category.FORMAT)).withZone(ZoneOffset.UTC);
 
     private EntityTypeSet theCurrentTypes;
 
@@ -41,6 +50,8 @@ public class EntityVersionSupport {
     private SortedSet<MigrationSet> theExposedMigrationSets;
     private SortedSet<MigrationSet> theExposedReverseMigrationSets;
     private final Set<String> theDataSetTags;
+	private SchemaSnapshotCache theSnapshotCache;
+	private MigrationIndex theMigrationIndex;
 
     /**
      * Creates an empty version support
@@ -95,6 +106,53 @@ public class EntityVersionSupport {
         theCurrentTypes.read(in, typeGetter);
     }
 
+	/** @return The cache used to skip replaying migration history in {@link #migrate(Reader, MigratorFactory, Date, Date)}, if any */
+	public SchemaSnapshotCache getSnapshotCache() {
+		return theSnapshotCache;
+	}
+
+	/**
+	 * <p>
+	 * Sets a cache of schema snapshots for {@link #migrate(Reader, MigratorFactory, Date, Date)}. When a usable snapshot exists, the
+	 * migration sets it covers are restored from the snapshot with their headers only (author, date, description, tags and references),
+	 * without their migrators, so this version support cannot then {@link MigrationUtil#transition(EntityTypeSet, Date, EntityVersionSupport)
+	 * transition} types back across them.
+	 * </p>
+	 * <p>
+	 * This is for callers that replay a long migration history only to build the current types, such as tools that regenerate a schema.
+	 * An {@link org.migration.EntityMigration} import does not replay history this way. It only deserializes the migration sets that are
+	 * new to its data, and then applies their migrators to the entities, so there is nothing a snapshot could skip.
+	 * </p>
+	 *
+	 * @param snapshotCache
+	 *            The snapshot cache to use, or null to always replay the full history
+	 * @return This version support
+	 */
+	public EntityVersionSupport setSnapshotCache(SchemaSnapshotCache snapshotCache) {
+		theSnapshotCache = snapshotCache;
+		return this;
+	}
+
+	/** @return The index used to avoid streaming through the whole migration file when reading migrations, if any */
+	public MigrationIndex getMigrationIndex() {
+		return theMigrationIndex;
+	}
+
+	/**
+	 * Sets an index for the migration file read by {@link #migrate(Reader, MigratorFactory, Date, Date)},
+	 * {@link #importMigrations(Reader, MigratorFactory)} and {@link #addMigrationSets(Reader, MigratorFactory)}. When the index matches the
+	 * file's content, only the migration sets not already present are parsed. Otherwise the file is streamed and the index rebuilt. An
+	 * index should only be used for a single migration file.
+	 *
+	 * @param migrationIndex
+	 *            The migration index to use, or null to always stream through the whole file
+	 * @return This version support
+	 */
+	public EntityVersionSupport setMigrationIndex(MigrationIndex migrationIndex) {
+		theMigrationIndex = migrationIndex;
+		return this;
+	}
+
     /** @return The version date of the current entity type set */
     public Date getCurrentVersionDate() {
         return theCurrentTypes.getVersionDate();
@@ -156,13 +214,18 @@ public class EntityVersionSupport {
 	public MigrationSet addMigrationSet(Element migrationEl, MigratorFactory factory) {
 		MigrationSet ret = deserializeMigration(migrationEl, factory);
         if (ret != null) {
-            ret.seal();
-            theMigrationSets.add(ret);
-            theCurrentTypes.setVersionDate(theMigrationSets.last().getDate());
+			addDeserialized(ret);
         }
         return ret;
     }
 
+	/** Adds a migration set whose type modifications were already applied to the current types as it was deserialized */
+	private void addDeserialized(MigrationSet migration) {
+		migration.seal();
+		theMigrationSets.add(migration);
+		theCurrentTypes.setVersionDate(theMigrationSets.last().getDate());
+	}
+
     /**
 	 * Imports migrations from an XML file
 	 *
@@ -178,15 +241,40 @@ public class EntityVersionSupport {
 	public void importMigrations(Reader in, MigratorFactory factory)
 			throws IOException, JDOMException {
         theMigrationSets.clear();
-        Element root = new SAXBuilder().build(in).getRootElement();
-        if (!root.getName().equals("entity-versions") && !root.getName().equals("entity-migrations")) {
-			throw new IllegalArgumentException("File " + in + " is not an entity migration file");
-		}
-        for (Element migrationSetEl : root.getChild("migrations").getChildren("migration")) {
-			theMigrationSets.add(deserializeMigration(migrationSetEl, factory));
+		for (Element migrationSetEl : readNewMigrationSets(in, true)) {
+			MigrationSet migSet = deserializeMigration(migrationSetEl, factory);
+			if (migSet != null) {
+				theMigrationSets.add(migSet);
+			}
 		}
     }
 
+	/**
+	 * Adds the migration sets from a migrations file that are not already present in this version support, as with
+	 * {@link #addMigrationSet(Element, MigratorFactory)}
+	 *
+	 * @param in
+	 *            The reader to read the migrations file from
+	 * @param factory
+	 *            The migrator factory to use to deserialize the migrators
+	 * @return The migration sets that were added which {@link MigrationSet#shouldApply(EntityVersionSupport) should apply} to this data
+	 *         set at the time each was added, in order
+	 * @throws IOException
+	 *             If an error occurs reading the file
+	 * @throws JDOMException
+	 *             If an error occurs parsing the file
+	 */
+	public List<MigrationSet> addMigrationSets(Reader in, MigratorFactory factory) throws IOException, JDOMException {
+		List<MigrationSet> ret = new ArrayList<>();
+		for (Element migrationSetEl : readNewMigrationSets(in, false)) {
+			MigrationSet migSet = addMigrationSet(migrationSetEl, factory);
+			if (migSet != null && migSet.shouldApply(this)) {
+				ret.add(migSet);
+			}
+		}
+		return ret;
+	}
+
     /**
 	 * Migrates this version support. This is different from {@link #importMigrations(Reader, MigratorFactory, TypeGetter)} in that this
 	 * method actually migrates this version support's types. importMigrations imports migrations that are assumed to be prior to the
@@ -207,14 +295,12 @@ public class EntityVersionSupport {
 	 */
 	public void migrate(Reader in, MigratorFactory factory, Date past, Date until)
 			throws IOException, JDOMException {
-        Element root = new SAXBuilder().build(in).getRootElement();
-        if (!root.getName().equals("entity-migrations") && !root.getName().equals("entity-versions")) {
-			throw new IllegalArgumentException("File " + in + " is not an entity migration file");
-		}
-        if (root.getChild("migrations") == null) {
+		List<Element> migrationSetEls = readNewMigrationSets(in, true);
+		if (theSnapshotCache != null) {
+			migrateWithSnapshots(migrationSetEls, factory, past, until);
 			return;
 		}
-        for (Element migrationSetEl : root.getChild("migrations").getChildren("migration")) {
+		for (Element migrationSetEl : migrationSetEls) {
 			MigrationSet migSet = deserializeMigration(migrationSetEl, factory);
             if (migSet == null) {
 				continue;
@@ -225,32 +311,233 @@ public class EntityVersionSupport {
             if (until != null && migSet.getDate().compareTo(until) > 0) {
 				continue;
 			}
-            addMigrationSet(migSet);
+            addDeserialized(migSet);
         }
     }
 
+	/**
+	 * Reads the migration set elements in a migration file that are not already present in this version support. Migration sets already
+	 * present are skipped without reading their migrators.
+	 *
+	 * @param in
+	 *            The reader to read the migration file from
+	 * @param versionsFile
+	 *            Whether the file must be a versions or migrations file with a &lt;migrations&gt; element
+	 * @return The migration set elements, in file order
+	 */
+	private List<Element> readNewMigrationSets(Reader in, boolean versionsFile) throws IOException, JDOMException {
+		String text = null;
+		String digest = null;
+		if (theMigrationIndex != null) {
+			text = readFully(in);
+			digest = MigrationIndex.digest(text);
+			MigrationIndex.Contents contents = theMigrationIndex.find(digest);
+			if (contents != null) {
+				checkRoot(contents.rootName, versionsFile, in);
+				List<Element> indexed = readIndexedMigrationSets(text, contents);
+				if (indexed != null) {
+					return indexed;
+				}
+			}
+			in = new StringReader(text);
+		}
+		List<Element> ret = new ArrayList<>();
+		List<MigrationIndex.Entry> entries = text == null ? null : new ArrayList<>();
+		String rootName;
+		try (MigrationFileReader reader = new MigrationFileReader(in)) {
+			rootName = reader.getRootName();
+			checkRoot(rootName, versionsFile, in);
+			while (reader.nextMigration()) {
+				String author = reader.getAttribute("author");
+				String date = reader.getAttribute("date");
+				if (entries != null) {
+					entries.add(new MigrationIndex.Entry(author, date));
+				}
+				if (isPresent(author, date)) {
+					reader.skip();
+				} else {
+					ret.add(reader.read());
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new JDOMException("Could not parse migration file: " + e.getMessage(), e);
+		}
+		if (entries != null) {
+			theMigrationIndex.store(digest, text, rootName, entries);
+		}
+		return ret;
+	}
+
+	/** @return The migration set elements not already present, or null if the index does not agree with the text */
+	private List<Element> readIndexedMigrationSets(String text, MigrationIndex.Contents contents) {
+		List<Element> ret = new ArrayList<>();
+		for (MigrationIndex.Entry entry : contents.entries) {
+			if (isPresent(entry.author, entry.date)) {
+				continue;
+			}
+			if (entry.start < 0 || entry.end > text.length() || entry.start >= entry.end) {
+				return null;
+			}
+			Element migrationSetEl;
+			try {
+				migrationSetEl = MigrationFileReader.parseElement(text.substring(entry.start, entry.end));
+			} catch (XMLStreamException e) {
+				return null;
+			}
+			if (!migrationSetEl.getName().equals("migration") || !Objects.equals(entry.author, migrationSetEl.getAttributeValue("author"))
+				|| !Objects.equals(entry.date, migrationSetEl.getAttributeValue("date"))) {
+				return null;
+			}
+			ret.add(migrationSetEl);
+		}
+		return ret;
+	}
+
+	private static void checkRoot(String rootName, boolean versionsFile, Reader in) {
+		if (versionsFile && !rootName.equals("entity-migrations") && !rootName.equals("entity-versions")) {
+			throw new IllegalArgumentException("File " + in + " is not an entity migration file");
+		}
+	}
+
+	private boolean isPresent(String author, String date) {
+		if (author == null || date == null) {
+			return false; // Let deserialization report the error
+		}
+		Element header = new Element("migration").setAttribute("author", author).setAttribute("date", date);
+		return findMigration(deserializeMigrationHeader(header)) != null;
+	}
+
+	private static String readFully(Reader in) throws IOException {
+		StringBuilder ret = new StringBuilder();
+		char[] buffer = new char[64 * 1024];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			ret.append(buffer, 0, read);
+		}
+		return ret.toString();
+	}
+
+	private void migrateWithSnapshots(List<Element> migrationSetEls, MigratorFactory factory, Date past, Date until) {
+		/* Every migration set not already present is replayed, since types are migrated as each set is deserialized,
+		 * but only those in the date range are added.  Mark each one so that a snapshot is only used for the same selection. */
+		List<Element> toReplay = new ArrayList<>(migrationSetEls.size());
+		List<Element> steps = new ArrayList<>(migrationSetEls.size());
+		for (Element migrationSetEl : migrationSetEls) {
+			MigrationSet header = deserializeMigrationHeader(migrationSetEl);
+			if (findMigration(header) != null) {
+				continue;
+			}
+			boolean added = (past == null || header.getDate().compareTo(past) > 0)
+				&& (until == null || header.getDate().compareTo(until) <= 0);
+			toReplay.add(migrationSetEl);
+			steps.add(SchemaSnapshotCache.header(migrationSetEl).setAttribute(SchemaSnapshotCache.ADDED_ATTR, "" + added));
+		}
+		if (toReplay.isEmpty()) {
+			return;
+		}
+		String key = SchemaSnapshotCache.createKey(theCurrentTypes, theMigrationSets, theDataSetTags);
+		SchemaSnapshotCache.Snapshot snapshot = theSnapshotCache.find(key, steps);
+		int replayStart = 0;
+		if (snapshot != null) {
+			restore(snapshot, factory);
+			replayStart = snapshot.getMigrationCount();
+		}
+		for (int i = replayStart; i < toReplay.size(); i++) {
+			MigrationSet migSet = deserializeMigration(toReplay.get(i), factory);
+			if (migSet != null && "true".equals(steps.get(i).getAttributeValue(SchemaSnapshotCache.ADDED_ATTR))) {
+				addDeserialized(migSet);
+			}
+		}
+		if (replayStart < toReplay.size()) {
+			theSnapshotCache.store(key, steps, theCurrentTypes);
+		}
+	}
+
+	private void restore(SchemaSnapshotCache.Snapshot snapshot, MigratorFactory factory) {
+		Map<String, Class<?>> entityMappings = new HashMap<>();
+		for (Map.Entry<Class<?>, EntityType> mapping : theCurrentTypes.getEntityMappings()) {
+			entityMappings.put(mapping.getValue().getName(), mapping.getKey());
+		}
+		Map<String, Class<? extends Enum<?>>> enumMappings = new HashMap<>();
+		for (Map.Entry<Class<? extends Enum<?>>, EnumType> mapping : theCurrentTypes.getEnumMappings()) {
+			enumMappings.put(mapping.getValue().getName(), mapping.getKey());
+		}
+		try (Reader schema = snapshot.readSchema()) {
+			theCurrentTypes.read(schema, factory.getTypeGetter());
+		} catch (IOException | JDOMException e) {
+			throw new IllegalStateException("Could not restore schema snapshot", e);
+		}
+		for (Map.Entry<String, Class<?>> mapping : entityMappings.entrySet()) {
+			EntityType type = theCurrentTypes.getEntityType(mapping.getKey());
+			if (type != null) {
+				theCurrentTypes.map(mapping.getValue(), type);
+			}
+		}
+		for (Map.Entry<String, Class<? extends Enum<?>>> mapping : enumMappings.entrySet()) {
+			EnumType type = theCurrentTypes.getEnumType(mapping.getKey());
+			if (type != null) {
+				theCurrentTypes.map(mapping.getValue(), type);
+			}
+		}
+		for (Element migrationSetEl : snapshot.getMigrations()) {
+			if ("true".equals(migrationSetEl.getAttributeValue(SchemaSnapshotCache.ADDED_ATTR))) {
+				MigrationSet migSet = deserializeMigrationHeader(migrationSetEl);
+				migSet.seal();
+				theMigrationSets.add(migSet);
+			}
+		}
+		if (!theMigrationSets.isEmpty()) {
+			theCurrentTypes.setVersionDate(theMigrationSets.last().getDate());
+		}
+	}
+
 	private MigrationSet deserializeMigration(Element migrationSetEl, MigratorFactory factory) {
+		MigrationSet migSet = deserializeMigrationHeader(migrationSetEl);
+		if (findMigration(migSet) != null) {
+			return null;
+		}
+        boolean shouldApply = migSet.shouldApply(this);
+        try {
+            for (Element migrationEl : migrationSetEl.getChildren()) {
+                if (migrationEl.getName().equals("references")) {
+					continue;
+				}
+				EntityMigrator migrator = factory.deserialize(migrationEl, theCurrentTypes, migSet);
+                migSet.getMigrators().add(migrator);
+                if (migrator instanceof EntityTypeModificationMigrator && shouldApply) {
+                    theCurrentTypes.migrate((EntityTypeModificationMigrator) migrator, true);
+                } else if (migrator instanceof EnumTypeModificationMigrator && shouldApply) {
+                    theCurrentTypes.migrate((EnumTypeModificationMigrator) migrator, true);
+                }
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            IllegalStateException copy = new IllegalStateException(migSet + ": " + e.getMessage(), e.getCause());
+            copy.setStackTrace(e.getStackTrace());
+            throw copy;
+        }
+        migSet.seal();
+        return migSet;
+    }
+
+	private static MigrationSet deserializeMigrationHeader(Element migrationSetEl) {
         String author = migrationSetEl.getAttributeValue("author");
         if (author == null) {
 			throw new IllegalStateException("author attribute missing for migration");
 		}
+        String dateStr = migrationSetEl.getAttributeValue("date");
+        if (dateStr == null) {
+            throw new IllegalStateException("date attribute missing for migration by " + author);
+        }
         Date date;
         try {
-            date = DATE_FORMAT.parse(migrationSetEl.getAttributeValue("date"));
-        } catch (NullPointerException e) {
-            throw new IllegalStateException("date attribute missing for migration by " + author);
-        } catch (ParseException e) {
+            date = new Date(DATE_FORMAT.parseMillis(dateStr, 0, dateStr.length()));
+        } catch (IllegalStateException e) {
 			try {
-				date = LOCAL_DATE_FORMAT.parse(migrationSetEl.getAttributeValue("date"));
-			} catch (ParseException e2) {
-            throw new IllegalStateException(
-                    "date attribute malformatted for migration by " + author + ": " + migrationSetEl.getAttributeValue("date"), e);
+				date = new Date(Instant.from(LOCAL_DATE_FORMAT.parse(dateStr)).toEpochMilli());
+			} catch (DateTimeException e2) {
+            throw new IllegalStateException("date attribute malformatted for migration by " + author + ": " + dateStr, e);
         }
         }
-        MigrationDef preSet = theMigrationSets.floor(new MigrationDef(author, date));
-        if (preSet != null && preSet.getDate().equals(date) && preSet.getAuthor().equals(author)) {
-			return null;
-		}
         String descrip = migrationSetEl.getAttributeValue("description");
         MigrationSet migSet = new MigrationSet(author, date, descrip);
         String excludedTags = migrationSetEl.getAttributeValue("exclude-tags");
@@ -268,15 +555,16 @@ public class EntityVersionSupport {
         if (migrationSetEl.getChild("references") != null) {
             for (Element refEl : migrationSetEl.getChild("references").getChildren()) {
                 String refAuthor = refEl.getAttributeValue("author");
+                String refDateStr = refEl.getAttributeValue("date");
+                if (refDateStr == null) {
+                    throw new IllegalStateException("date attribute missing for reference to migration by " + author);
+                }
                 Date refDate;
                 try {
-                    refDate = DATE_FORMAT.parse(refEl.getAttributeValue("date"));
-                } catch (NullPointerException e) {
-                    throw new IllegalStateException("date attribute missing for reference to migration by " + author);
-                } catch (ParseException e) {
+                    refDate = new Date(DATE_FORMAT.parseMillis(refDateStr, 0, refDateStr.length()));
+                } catch (IllegalStateException e) {
                     throw new IllegalStateException(
-                            "date attribute malformatted for reference to migration by " + author + ": " + refEl.getAttributeValue("date"),
-                            e);
+                            "date attribute malformatted for reference to migration by " + author + ": " + refDateStr, e);
                 }
                 boolean required;
                 if ("true".equals(refEl.getAttributeValue("required"))) {
@@ -290,26 +578,6 @@ public class EntityVersionSupport {
                 migSet.getReferences().add(new MigrationSet.MigrationRef(refAuthor, refDate, required));
             }
         }
-        boolean shouldApply = migSet.shouldApply(this);
-        try {
-            for (Element migrationEl : migrationSetEl.getChildren()) {
-                if (migrationEl.getName().equals("references")) {
-					continue;
-				}
-				EntityMigrator migrator = factory.deserialize(migrationEl, theCurrentTypes, migSet);
-                migSet.getMigrators().add(migrator);
-                if (migrator instanceof EntityTypeModificationMigrator && shouldApply) {
-                    theCurrentTypes.migrate((EntityTypeModificationMigrator) migrator, true);
-                } else if (migrator instanceof EnumTypeModificationMigrator && shouldApply) {
-                    theCurrentTypes.migrate((EnumTypeModificationMigrator) migrator, true);
-                }
-            }
-        } catch (IllegalStateException | IllegalArgumentException e) {
-            IllegalStateException copy = new IllegalStateException(migSet + ": " + e.getMessage(), e.getCause());
-            copy.setStackTrace(e.getStackTrace());
-            throw copy;
-        }
-        migSet.seal();
         return migSet;
     }
 }
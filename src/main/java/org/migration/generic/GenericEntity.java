@@ -17,11 +17,30 @@ public class GenericEntity {
 		void idChanged(GenericEntity entity, Object oldId, Object newId);
 	}
 
+	/** Supplies migration steps that an entity set has deferred until each entity is first accessed */
+	protected interface PendingMigrations {
+		/** @return The number of deferred migration steps in the entity set's history so far */
+		int getSchemaVersion();
+
+		/**
+		 * @param entity
+		 *            The entity to apply the step to
+		 * @param step
+		 *            The index of the deferred step to apply
+		 */
+		void apply(GenericEntity entity, int step);
+	}
+
 	private final EntityType theType;
 	private final GenericEntitySet theEntitySet;
 
 	private final IdChangeListener theIdChange;
+	private final PendingMigrations thePending;
     private final Map<String, Object> theFieldMap;
+	private int theSchemaVersion;
+	private boolean isApplyingPending;
+	private boolean isDirty;
+	private boolean isCreated;
 
     /**
      * @param currentType
@@ -30,19 +49,95 @@ public class GenericEntity {
      *            The entity set that this GenericEntity belongs to
      */
 	protected GenericEntity(EntityType currentType, GenericEntitySet entitySet, IdChangeListener idChange) {
+		this(currentType, entitySet, idChange, null);
+	}
+
+	/**
+	 * @param currentType
+	 *            The type of the entity at the current spot in the migration
+	 * @param entitySet
+	 *            The entity set that this GenericEntity belongs to
+	 * @param idChange
+	 *            The listener to notify when this entity's identity changes
+	 * @param pending
+	 *            The deferred migrations to apply to this entity when it is first accessed, or null if the entity set never defers
+	 *            migration
+	 */
+	protected GenericEntity(EntityType currentType, GenericEntitySet entitySet, IdChangeListener idChange, PendingMigrations pending) {
 		theType = currentType;
         theEntitySet = entitySet;
         theFieldMap = new java.util.TreeMap<>();
 		theIdChange = idChange;
+		thePending = pending;
+		// A new entity is created in the current schema, so nothing deferred before now applies to it
+		theSchemaVersion = pending == null ? 0 : pending.getSchemaVersion();
+		isDirty = true;
+		isCreated = true;
     }
 
+    /**
+     * Applies to this entity any migration steps its entity set has deferred since it was loaded. Called automatically when a field is
+     * accessed.
+     */
+	protected void migratePending() {
+		if (thePending == null || isApplyingPending) {
+			return;
+		}
+		int version = thePending.getSchemaVersion();
+		if (theSchemaVersion == version) {
+			return;
+		}
+		// Field access from within a step must not start applying later steps
+		isApplyingPending = true;
+		try {
+			while (theSchemaVersion < version) {
+				thePending.apply(this, theSchemaVersion++);
+			}
+		} finally {
+			isApplyingPending = false;
+		}
+	}
+
+	/**
+	 * @return Whether this entity has been created or modified since its entity set's last {@link GenericEntitySet#markBaseline()
+	 *         baseline}, or since it was created if there has been none
+	 */
+	public boolean isDirty() {
+		return isDirty;
+	}
+
+	/**
+	 * Marks this entity as modified. Changes made through {@link #set(String, Object) set} are detected automatically, but changes made
+	 * in place to the collection or map value of a field are not.
+	 */
+	public void markDirty() {
+		isDirty = true;
+	}
+
+	/** @return Whether this entity did not exist under its current identity at its entity set's last baseline */
+	boolean isCreated() {
+		return isCreated;
+	}
+
+	/** Marks this entity as new, e.g. when its identity has changed since the baseline */
+	void markCreated() {
+		isDirty = true;
+		isCreated = true;
+	}
+
+	/** Marks this entity as unchanged, as of a new baseline */
+	void markClean() {
+		isDirty = false;
+		isCreated = false;
+	}
+
     /** @return The value of this entity's identity field */
     public Object getIdentity() {
 		EntityField field = theType.getIdField();
         if (field == null)
             return null;
-        return get(field.getName());
-
+		// Deferred migration steps never affect identity, so this does not trigger them
+		return theFieldMap.get(field.getName());
     }
 
     /** @return The type of the entity at the current spot in the migration */
@@ -60,9 +155,23 @@ public class GenericEntity {
     public Object get(String field) {
 		if (theType.getField(field) == null)
 			throw new IllegalArgumentException("No such field \"" + field + "\" for type " + theType.getName());
+		migratePending();
         return theFieldMap.get(field);
     }
 
+    /**
+     * Gets a field value without looking the field up by name. The field must have been resolved against this entity's type (or one of its
+     * super-types) in the current version, e.g. by a migrator's initialization.
+     *
+     * @param field
+     *            The field to get the value of
+     * @return The value of the given field in this entity
+     */
+    public Object get(EntityField field) {
+		migratePending();
+        return theFieldMap.get(field.getName());
+    }
+
     void setIdentityInternal(Object value) {
 		theFieldMap.put(theType.getIdField().getName(), value);
     }
@@ -83,12 +192,40 @@ public class GenericEntity {
         } catch (IllegalArgumentException e) {
 			throw new IllegalArgumentException("Invalid value for field " + theType + "." + field + ": " + e.getMessage(), e);
         }
+		migratePending();
         Object oldValue = theFieldMap.put(field, value);
+		isDirty = true;
 		if (theType.getIdField() != null && field.equals(theType.getIdField().getName()))
 			theIdChange.idChanged(this, oldValue, value);
         return this;
     }
 
+    /**
+     * Sets a field value without looking the field up by name. The field must have been resolved against this entity's type (or one of its
+     * super-types) in the current version, e.g. by a migrator's initialization.
+     *
+     * @param field
+     *            The field to set the value for
+     * @param value
+     *            The new value for the field
+     * @return This entity, for chaining
+     * @throws IllegalArgumentException
+     *             If the given value may not be assigned to the field
+     */
+    public GenericEntity set(EntityField field, Object value) {
+        try {
+			PersistenceUtils.checkType(theType, field.getName(), field.getType(), value);
+        } catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid value for field " + theType + "." + field.getName() + ": " + e.getMessage(), e);
+        }
+		migratePending();
+        Object oldValue = theFieldMap.put(field.getName(), value);
+		isDirty = true;
+		if (field.isId())
+			theIdChange.idChanged(this, oldValue, value);
+        return this;
+    }
+
     /**
      * @param field
      *            The name of the field to get the value of
@@ -250,6 +387,7 @@ public class GenericEntity {
 	}
 
 	protected void migrate(FieldTypeModificationMigrator fieldModification) {
+		isDirty = true;
 		switch (fieldModification.getType()) {
 		case fieldAddition:
 			break; // Setting the field value will be handled by the migration itself--nothing to do here
@@ -269,7 +407,8 @@ public class GenericEntity {
      *            The name of the field that has been removed from this entity's current type
      */
     protected void fieldRemoved(String field) {
-        theFieldMap.remove(field);
+        if (theFieldMap.remove(field) != null)
+            isDirty = true;
     }
 
     @Override
@@ -291,6 +430,6 @@ public class GenericEntity {
 
     @Override
     public String toString() {
-		return theType.getName() + " " + theType.getIdField().getName() + "=" + get(theType.getIdField().getName());
+		return theType.getName() + " " + theType.getIdField().getName() + "=" + getIdentity();
     }
 }
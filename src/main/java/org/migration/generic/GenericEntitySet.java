@@ -1,7 +1,15 @@
 package org.migration.generic;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.migration.ConsoleMigrationListener;
+import org.migration.MigrationListener;
 import org.migration.MigrationSet;
 import org.migration.TypeSetDissecter;
 
@@ -136,6 +144,17 @@ public interface GenericEntitySet {
 	/** @param entity The entity to remove from this set */
 	void remove(GenericEntity entity);
 
+	/**
+	 * Removes an entity from this set without removing or deleting references to it from other entities. Used when applying a delta, in
+	 * which every entity the original removal affected is recorded as well.
+	 *
+	 * @param entity The entity to remove from this set
+	 * @throws IllegalStateException If this entity set cannot apply deltas
+	 */
+	default void discard(GenericEntity entity) {
+		throw new IllegalStateException("This entity set cannot apply deltas");
+	}
+
 	/**
 	 * @param toReplace The entity to replace
 	 * @param replacement The replacement for <code>toReplace</code>
@@ -148,6 +167,48 @@ public interface GenericEntitySet {
 		}
 	}
 
+	/**
+	 * Replaces many entities at once. Each field that may refer to any of the replaced entities is swept once, and direct, collection and
+	 * map references are replaced in place.
+	 *
+	 * @param replacements The entities to replace, mapped to their replacements
+	 */
+	default void replaceAll(Map<GenericEntity, GenericEntity> replacements) {
+		if (replacements.isEmpty()) {
+			return;
+		}
+		Set<EntityType> types = new LinkedHashSet<>();
+		for (GenericEntity toReplace : replacements.keySet()) {
+			types.add(toReplace.getType());
+		}
+		Set<EntityReference> refs = new LinkedHashSet<>();
+		for (EntityType type : types) {
+			refs.addAll(getTypes().getReferences(type));
+		}
+		EntityReference.replaceAll(this, refs, replacements);
+	}
+
+	/**
+	 * Replaces many enum values at once. Each field that may refer to any of the replaced values is swept once, and direct, collection
+	 * and map references are replaced in place.
+	 *
+	 * @param replacements The enum values to replace, mapped to their replacements
+	 */
+	default void replaceAllEnums(Map<EnumValue, EnumValue> replacements) {
+		if (replacements.isEmpty()) {
+			return;
+		}
+		Set<EnumType> types = new LinkedHashSet<>();
+		for (EnumValue toReplace : replacements.keySet()) {
+			types.add(toReplace.getEnumType());
+		}
+		Set<EntityReference> refs = new LinkedHashSet<>();
+		for (EnumType type : types) {
+			refs.addAll(getTypes().getReferences(type));
+		}
+		EntityReference.replaceAll(this, refs, replacements);
+	}
+
 	/**
 	 * @param toReplace The enum to replace
 	 * @param replacement The replacement for <code>toReplace</code>
@@ -161,11 +222,78 @@ public interface GenericEntitySet {
 		}
 	}
 
+	/**
+	 * Migrates this entity set, printing progress to the console
+	 *
+	 * @param migSet The migration set to process
+	 * @param dissecter The dissecter to understand data types
+	 */
+	default void migrate(MigrationSet migSet, TypeSetDissecter dissecter) {
+		migrate(migSet, dissecter, ConsoleMigrationListener.INSTANCE);
+	}
+
 	/**
 	 * Migrates this entity set
 	 *
 	 * @param migSet The migration set to process
 	 * @param dissecter The dissecter to understand data types
+	 * @param listener The listener to notify of migration progress
 	 */
-	void migrate(MigrationSet migSet, TypeSetDissecter dissecter);
+	void migrate(MigrationSet migSet, TypeSetDissecter dissecter, MigrationListener listener);
+
+	/**
+	 * Applies any migrations this entity set has deferred to all entities that have not yet been accessed. Must be called before the whole
+	 * set is exported. Entity sets that do not defer migration do nothing here.
+	 */
+	default void completeMigration() {}
+
+	/**
+	 * A hint that a number of entities of a type are about to be added, e.g. from an export whose manifest lists its row counts. Entity
+	 * sets whose storage can be sized ahead may use this; by default it does nothing.
+	 *
+	 * @param entityType The type of the entities to be added
+	 * @param count The number of entities expected
+	 */
+	default void ensureCapacity(EntityType entityType, long count) {}
+
+	/** @return Whether this entity set tracks the entities created, modified and removed since its {@link #markBaseline() baseline} */
+	default boolean isTrackingChanges() {
+		return false;
+	}
+
+	/**
+	 * Marks every entity in this set as unchanged and forgets removed entities, so that changes from here on can be saved as a delta
+	 * against the data as it is now. Completes any deferred migration first.
+	 *
+	 * @throws IllegalStateException If this entity set does not track changes
+	 */
+	default void markBaseline() {
+		throw new IllegalStateException("This entity set does not track changes");
+	}
+
+	/**
+	 * @param entityType The entity type to get changes for
+	 * @return All entities of exactly the given type (not sub-types) that have been created or modified since the baseline
+	 * @throws IllegalStateException If this entity set is not {@link #isTrackingChanges() tracking changes}
+	 */
+	default List<GenericEntity> getChangedEntities(EntityType entityType) {
+		if (!isTrackingChanges())
+			throw new IllegalStateException("This entity set is not tracking changes");
+		List<GenericEntity> changed = new ArrayList<>();
+		for (GenericEntity entity : queryAll(entityType)) {
+			if (entity.isDirty() && entity.getType().getName().equals(entityType.getName()))
+				changed.add(entity);
+		}
+		return changed;
+	}
+
+	/**
+	 * @param entityType The entity type to get removals for
+	 * @return The identities of all entities of exactly the given type that existed at the baseline and have since been removed or given
+	 *         a new identity
+	 * @throws IllegalStateException If this entity set is not {@link #isTrackingChanges() tracking changes}
+	 */
+	default Collection<Object> getRemovedIds(EntityType entityType) {
+		throw new IllegalStateException("This entity set is not tracking changes");
+	}
 }
@@ -0,0 +1,177 @@
+package org.migration.generic;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Element;
+import org.jdom2.Text;
+
+/**
+ * Streams the migration set elements out of a migration file (either a migrations file, where the &lt;migration&gt; elements are children
+ * of the root, or a versions file, where they are children of the root's &lt;migrations&gt; element). Each migration set's attributes are
+ * available before its content is read, so a set may be {@link #skip() skipped} without materializing its migrators.
+ */
+class MigrationFileReader implements AutoCloseable {
+	private static final XMLInputFactory FACTORY;
+	static {
+		FACTORY = XMLInputFactory.newInstance();
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	private final XMLStreamReader theReader;
+	private final String theRootName;
+	/** 1 for the root element */
+	private int theDepth;
+	private boolean isInMigrations;
+
+	/**
+	 * @param in
+	 *            The reader to read the migration file from
+	 * @throws XMLStreamException
+	 *             If the file's root element cannot be read
+	 */
+	MigrationFileReader(Reader in) throws XMLStreamException {
+		theReader = FACTORY.createXMLStreamReader(in);
+		int event = theReader.next();
+		while (event != XMLStreamConstants.START_ELEMENT) {
+			if (event == XMLStreamConstants.END_DOCUMENT) {
+				throw new XMLStreamException("No root element");
+			}
+			event = theReader.next();
+		}
+		theRootName = theReader.getLocalName();
+		theDepth = 1;
+	}
+
+	/** @return The name of the file's root element */
+	String getRootName() {
+		return theRootName;
+	}
+
+	/**
+	 * Advances to the next migration set element. The previous migration set, if any, must have been {@link #skip() skipped} or
+	 * {@link #read() read}.
+	 *
+	 * @return Whether there was another migration set in the file
+	 * @throws XMLStreamException
+	 *             If the file cannot be parsed
+	 */
+	boolean nextMigration() throws XMLStreamException {
+		while (theDepth > 0) {
+			int event = theReader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				theDepth++;
+				String name = theReader.getLocalName();
+				if (name.equals("migration") && (theDepth == 2 || (theDepth == 3 && isInMigrations))) {
+					return true;
+				} else if (name.equals("migrations") && theDepth == 2) {
+					isInMigrations = true;
+				} else {
+					skipContent();
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				theDepth--;
+				if (theDepth == 1) {
+					isInMigrations = false;
+				}
+			} else if (event == XMLStreamConstants.END_DOCUMENT) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param name
+	 *            The name of the attribute
+	 * @return The value of the given attribute on the current migration set element, or null if it is not set
+	 */
+	String getAttribute(String name) {
+		return theReader.getAttributeValue(null, name);
+	}
+
+	/**
+	 * Skips the content of the current migration set element
+	 *
+	 * @throws XMLStreamException
+	 *             If the file cannot be parsed
+	 */
+	void skip() throws XMLStreamException {
+		skipContent();
+	}
+
+	/**
+	 * @return The current migration set element, with all its content
+	 * @throws XMLStreamException
+	 *             If the file cannot be parsed
+	 */
+	Element read() throws XMLStreamException {
+		Element ret = readElement();
+		theDepth--;
+		return ret;
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		theReader.close();
+	}
+
+	/**
+	 * Parses a single element from XML text
+	 *
+	 * @param xml
+	 *            The XML text of the element
+	 * @return The element
+	 * @throws XMLStreamException
+	 *             If the text cannot be parsed
+	 */
+	static Element parseElement(String xml) throws XMLStreamException {
+		try (MigrationFileReader reader = new MigrationFileReader(new StringReader(xml))) {
+			return reader.readElement();
+		}
+	}
+
+	/** Skips to the end of the current element, whose start tag has just been read */
+	private void skipContent() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = theReader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		theDepth--;
+	}
+
+	/** Reads the current element, whose start tag has just been read, through its end tag */
+	private Element readElement() throws XMLStreamException {
+		Element el = new Element(theReader.getLocalName());
+		for (int i = 0; i < theReader.getAttributeCount(); i++) {
+			el.setAttribute(theReader.getAttributeLocalName(i), theReader.getAttributeValue(i));
+		}
+		while (true) {
+			switch (theReader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				el.addContent(readElement());
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				el.addContent(new Text(theReader.getText()));
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return el;
+			default:
+			}
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package org.migration.generic;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * A sidecar index of a migration file, recording the author, date and location of each migration set in the file. While the file is
+ * unchanged, {@link EntityVersionSupport} uses the index to parse only the migration sets it does not already have, instead of streaming
+ * through the whole file.
+ * </p>
+ * <p>
+ * The index is tied to the exact content of one migration file. When the file changes, the index is rebuilt the next time the file is
+ * read.
+ * </p>
+ */
+public class MigrationIndex {
+	private static final String HEADER = "migration-index 1";
+
+	/** The location of a migration set in a migration file */
+	static class Entry {
+		final String author;
+		final String date;
+		int start;
+		int end;
+
+		Entry(String author, String date) {
+			this.author = author;
+			this.date = date;
+		}
+	}
+
+	/** The indexed contents of a migration file */
+	static class Contents {
+		final String digest;
+		final String rootName;
+		final List<Entry> entries;
+
+		Contents(String digest, String rootName, List<Entry> entries) {
+			this.digest = digest;
+			this.rootName = rootName;
+			this.entries = Collections.unmodifiableList(entries);
+		}
+	}
+
+	private final File theFile;
+	private Contents theContents;
+	private boolean isLoaded;
+
+	/**
+	 * @param file
+	 *            The file to keep the index in
+	 */
+	public MigrationIndex(File file) {
+		theFile = file;
+	}
+
+	/** @return The file the index is kept in */
+	public File getFile() {
+		return theFile;
+	}
+
+	/** Deletes this index, so it is rebuilt the next time the migration file is read */
+	public synchronized void clear() {
+		theContents = null;
+		isLoaded = true;
+		theFile.delete();
+	}
+
+	/**
+	 * @param digest
+	 *            The {@link #digest(String) digest} of the migration file's content
+	 * @return The indexed contents of the migration file, or null if the index is missing or was built for different content
+	 */
+	synchronized Contents find(String digest) {
+		if (!isLoaded) {
+			isLoaded = true;
+			theContents = load();
+		}
+		return theContents != null && theContents.digest.equals(digest) ? theContents : null;
+	}
+
+	/**
+	 * Rebuilds this index
+	 *
+	 * @param digest
+	 *            The {@link #digest(String) digest} of the migration file's content
+	 * @param text
+	 *            The migration file's content
+	 * @param rootName
+	 *            The name of the migration file's root element
+	 * @param entries
+	 *            The author and date of each migration set in the file, in order, as parsed
+	 */
+	synchronized void store(String digest, String text, String rootName, List<Entry> entries) {
+		List<int[]> locations = locate(text);
+		if (locations == null || locations.size() != entries.size()) {
+			System.err.println("Could not locate migration sets in migration file; index " + theFile + " not written");
+			return;
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+			if (!isStorable(entry.author) || !isStorable(entry.date)) {
+				return;
+			}
+			entry.start = locations.get(i)[0];
+			entry.end = locations.get(i)[1];
+		}
+		theContents = new Contents(digest, rootName, new ArrayList<>(entries));
+		isLoaded = true;
+		File parent = theFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			System.err.println("Could not create directory for migration index " + theFile);
+			return;
+		}
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(theFile), StandardCharsets.UTF_8)) {
+			out.write(HEADER + "\n");
+			out.write(digest + "\n");
+			out.write(rootName + "\n");
+			for (Entry entry : entries) {
+				out.write(entry.start + "\t" + entry.end + "\t" + entry.date + "\t" + entry.author + "\n");
+			}
+		} catch (IOException e) {
+			System.err.println("Could not write migration index " + theFile);
+			e.printStackTrace();
+		}
+	}
+
+	private Contents load() {
+		if (!theFile.isFile()) {
+			return null;
+		}
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(theFile), StandardCharsets.UTF_8))) {
+			if (!HEADER.equals(in.readLine())) {
+				return null;
+			}
+			String digest = in.readLine();
+			String rootName = in.readLine();
+			if (digest == null || rootName == null) {
+				return null;
+			}
+			List<Entry> entries = new ArrayList<>();
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				String[] split = line.split("\t", 4);
+				if (split.length != 4) {
+					return null;
+				}
+				Entry entry = new Entry(split[3], split[2]);
+				entry.start = Integer.parseInt(split[0]);
+				entry.end = Integer.parseInt(split[1]);
+				entries.add(entry);
+			}
+			return new Contents(digest, rootName, entries);
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("Could not read migration index " + theFile);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static boolean isStorable(String value) {
+		return value != null && value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0;
+	}
+
+	/**
+	 * @param text
+	 *            The content of a migration file
+	 * @return The digest to identify the content by
+	 */
+	static String digest(String text) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+		StringBuilder ret = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			ret.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Finds the migration set elements in the text of a migration file by a lexical scan of its tags, with the same structure
+	 * {@link MigrationFileReader} uses
+	 *
+	 * @param text
+	 *            The content of the migration file
+	 * @return The start (inclusive) and end (exclusive) character offsets of each migration set element, or null if the text could not be
+	 *         scanned
+	 */
+	static List<int[]> locate(String text) {
+		List<int[]> ret = new ArrayList<>();
+		int depth = 0;
+		boolean inMigrations = false;
+		int migrationDepth = -1;
+		int migrationStart = -1;
+		int i = text.indexOf('<');
+		while (i >= 0) {
+			int close;
+			if (text.startsWith("<!--", i)) {
+				close = endOf(text, "-->", i);
+			} else if (text.startsWith("<![CDATA[", i)) {
+				close = endOf(text, "]]>", i);
+			} else if (text.startsWith("<?", i)) {
+				close = endOf(text, "?>", i);
+			} else if (text.startsWith("<!", i)) {
+				close = endOf(text, ">", i);
+			} else if (text.startsWith("</", i)) {
+				close = endOf(text, ">", i);
+				if (close < 0) {
+					return null;
+				}
+				if (depth == migrationDepth) {
+					ret.add(new int[] { migrationStart, close });
+					migrationDepth = -1;
+				} else if (depth == 2 && inMigrations) {
+					inMigrations = false;
+				}
+				depth--;
+			} else {
+				close = tagEnd(text, i);
+				if (close < 0) {
+					return null;
+				}
+				boolean empty = text.charAt(close - 2) == '/';
+				String name = tagName(text, i + 1);
+				depth++;
+				if (migrationDepth < 0 && name.equals("migration") && (depth == 2 || (depth == 3 && inMigrations))) {
+					if (empty) {
+						ret.add(new int[] { i, close });
+					} else {
+						migrationDepth = depth;
+						migrationStart = i;
+					}
+				} else if (!empty && depth == 2 && name.equals("migrations")) {
+					inMigrations = true;
+				}
+				if (empty) {
+					depth--;
+				}
+			}
+			if (close < 0) {
+				return null;
+			}
+			i = text.indexOf('<', close);
+		}
+		return depth == 0 ? ret : null;
+	}
+
+	private static int endOf(String text, String terminator, int start) {
+		int index = text.indexOf(terminator, start);
+		return index < 0 ? -1 : index + terminator.length();
+	}
+
+	/** @return The index just past the end of the start tag beginning at the given index, skipping over quoted attribute values */
+	private static int tagEnd(String text, int start) {
+		char quote = 0;
+		for (int i = start + 1; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static String tagName(String text, int start) {
+		int end = start;
+		while (end < text.length()) {
+			char c = text.charAt(end);
+			if (Character.isWhitespace(c) || c == '/' || c == '>') {
+				break;
+			}
+			end++;
+		}
+		return text.substring(start, end);
+	}
+}
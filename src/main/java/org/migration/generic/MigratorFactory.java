@@ -40,6 +40,11 @@ public class MigratorFactory {
 		theTypeGetter = typeGetter;
 	}
 
+	/** @return The type getter this factory uses to resolve types by name */
+	public TypeGetter getTypeGetter() {
+		return theTypeGetter;
+	}
+
     /**
      * @param migrator
      *            The migrator to serialize
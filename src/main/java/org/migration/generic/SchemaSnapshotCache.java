@@ -0,0 +1,304 @@
+package org.migration.generic;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.migration.MigrationDef;
+import org.migration.MigrationSet;
+import org.migration.migrators.EntityMigrator;
+
+/**
+ * Caches snapshots of the entity type set produced by replaying migration history in {@link EntityVersionSupport}, so that a later replay of
+ * the same history may start from the most recent snapshot instead of from the beginning.
+ *
+ * <p>
+ * Snapshots are grouped by a key identifying the starting point of the replay (the data set tags and the initial schema and migrations).
+ * Within a group, a snapshot is usable if the migration sets it was taken after are exactly the first migration sets being replayed. Migration
+ * sets are compared by a hash of their full content, so editing a migration set invalidates any snapshot taken after it.
+ * </p>
+ *
+ * <p>
+ * A cache may be held in memory only or backed by a directory, in which case snapshots survive across runs.
+ * </p>
+ */
+public class SchemaSnapshotCache {
+	/** The attribute on a snapshot's migration set headers marking whether the set was added to the version support or only replayed */
+	static final String ADDED_ATTR = "snapshot-added";
+	/** The attribute on a snapshot's migration set headers holding a hash of the full content of the migration set element */
+	static final String CONTENT_ATTR = "snapshot-content";
+	/** The version of the snapshot format, included in keys so that a change to the format does not reuse old snapshots */
+	private static final String KEY_VERSION = "1";
+
+	/** A snapshot of an entity type set after some sequence of migration sets */
+	public static class Snapshot {
+		private final Element theMigrations;
+		private final Element theSchema;
+
+		Snapshot(Element migrations, Element schema) {
+			theMigrations = migrations;
+			theSchema = schema;
+		}
+
+		/** @return The number of migration sets replayed to produce this snapshot */
+		public int getMigrationCount() {
+			return theMigrations.getChildren().size();
+		}
+
+		/**
+		 * @return Header-only copies of the migration set elements replayed to produce this snapshot, in order. The migrators in each set
+		 *         are not included.
+		 */
+		public List<Element> getMigrations() {
+			return theMigrations.getChildren();
+		}
+
+		/** @return A reader for the schema in the format written by {@link EntityTypeSet#save(Writer)} */
+		public Reader readSchema() {
+			XMLOutputter outputter = new XMLOutputter(Format.getRawFormat());
+			return new StringReader(outputter.outputString(new Document(theSchema.clone())));
+		}
+
+		boolean matches(List<Element> migrations) {
+			List<Element> mine = theMigrations.getChildren();
+			if (mine.size() > migrations.size()) {
+				return false;
+			}
+			for (int i = 0; i < mine.size(); i++) {
+				if (!sameMigration(mine.get(i), migrations.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final File theDirectory;
+	private final Map<String, List<Snapshot>> theSnapshots;
+
+	/** Creates an in-memory snapshot cache */
+	public SchemaSnapshotCache() {
+		this(null);
+	}
+
+	/**
+	 * @param directory
+	 *            The directory to persist snapshots in, or null to keep them in memory only
+	 */
+	public SchemaSnapshotCache(File directory) {
+		theDirectory = directory;
+		theSnapshots = new HashMap<>();
+	}
+
+	/**
+	 * @param key
+	 *            The key identifying the starting point of the replay, from {@link #createKey(EntityTypeSet, Iterable, Iterable)}
+	 * @param migrations
+	 *            The header elements of the migration sets about to be replayed, from {@link #header(Element)}, in order
+	 * @return The usable snapshot covering the most migrations, or null if there is no usable snapshot
+	 */
+	public synchronized Snapshot find(String key, List<Element> migrations) {
+		Snapshot best = null;
+		for (Snapshot snapshot : getSnapshots(key)) {
+			if ((best == null || snapshot.getMigrationCount() > best.getMigrationCount()) && snapshot.matches(migrations)) {
+				best = snapshot;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param key
+	 *            The key identifying the starting point of the replay, from {@link #createKey(EntityTypeSet, Iterable, Iterable)}
+	 * @param migrations
+	 *            The header elements of the migration sets that were replayed, from {@link #header(Element)}, in order
+	 * @param types
+	 *            The entity type set produced by the replay
+	 */
+	public synchronized void store(String key, List<Element> migrations, EntityTypeSet types) {
+		if (migrations.isEmpty()) {
+			return;
+		}
+		List<Snapshot> snapshots = getSnapshots(key);
+		for (Snapshot snapshot : snapshots) {
+			if (snapshot.getMigrationCount() == migrations.size() && snapshot.matches(migrations)) {
+				return;
+			}
+		}
+		Element migrationsEl = new Element("migrations");
+		for (Element migration : migrations) {
+			migrationsEl.addContent(migration.clone());
+		}
+		Element schemaEl;
+		try {
+			StringWriter schemaOut = new StringWriter();
+			types.save(schemaOut);
+			schemaEl = new SAXBuilder().build(new StringReader(schemaOut.toString())).getRootElement().detach();
+		} catch (IOException | JDOMException e) {
+			System.err.println("Could not create schema snapshot");
+			e.printStackTrace();
+			return;
+		}
+		Snapshot snapshot = new Snapshot(migrationsEl, schemaEl);
+		snapshots.add(snapshot);
+		if (theDirectory != null) {
+			File keyDir = new File(theDirectory, key);
+			if (!keyDir.isDirectory() && !keyDir.mkdirs()) {
+				System.err.println("Could not create schema snapshot directory " + keyDir);
+				return;
+			}
+			Element root = new Element("schema-snapshot");
+			root.addContent(migrationsEl.clone());
+			root.addContent(schemaEl.clone());
+			File file = new File(keyDir, migrations.size() + ".xml");
+			try (Writer out = new FileWriter(file)) {
+				XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
+				outputter.getFormat().setIndent("\t");
+				outputter.output(new Document(root), out);
+			} catch (IOException e) {
+				System.err.println("Could not write schema snapshot " + file);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private List<Snapshot> getSnapshots(String key) {
+		return theSnapshots.computeIfAbsent(key, k -> {
+			List<Snapshot> snapshots = new ArrayList<>();
+			File[] files = theDirectory == null ? null : new File(theDirectory, k).listFiles((dir, name) -> name.endsWith(".xml"));
+			if (files != null) {
+				for (File file : files) {
+					try (Reader in = new FileReader(file)) {
+						Element root = new SAXBuilder().build(in).getRootElement();
+						Element migrations = root.getChild("migrations");
+						Element schema = root.getChild("entity-versions");
+						if (migrations != null && schema != null) {
+							snapshots.add(new Snapshot(migrations.detach(), schema.detach()));
+						}
+					} catch (IOException | JDOMException e) {
+						System.err.println("Could not read schema snapshot " + file);
+						e.printStackTrace();
+					}
+				}
+			}
+			return snapshots;
+		});
+	}
+
+	/** Clears this cache, including any snapshots persisted in its directory */
+	public synchronized void clear() {
+		theSnapshots.clear();
+		if (theDirectory != null) {
+			File[] keyDirs = theDirectory.listFiles(File::isDirectory);
+			if (keyDirs != null) {
+				for (File keyDir : keyDirs) {
+					File[] files = keyDir.listFiles((dir, name) -> name.endsWith(".xml"));
+					if (files != null) {
+						for (File file : files) {
+							file.delete();
+						}
+					}
+					keyDir.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param types
+	 *            The entity type set the replay starts from
+	 * @param migrations
+	 *            The migration sets already present before the replay
+	 * @param dataSetTags
+	 *            The tags of the data set, which determine which migration sets apply
+	 * @return A key identifying the starting point of a replay
+	 */
+	public static String createKey(EntityTypeSet types, Iterable<? extends MigrationDef> migrations, Iterable<String> dataSetTags) {
+		MessageDigest digest = createDigest();
+		digest.update(KEY_VERSION.getBytes(StandardCharsets.UTF_8));
+		List<String> tags = new ArrayList<>();
+		for (String tag : dataSetTags) {
+			tags.add(tag);
+		}
+		Collections.sort(tags);
+		digest.update(tags.toString().getBytes(StandardCharsets.UTF_8));
+		for (MigrationDef migration : migrations) {
+			digest.update(migration.toString().getBytes(StandardCharsets.UTF_8));
+			if (migration instanceof MigrationSet) {
+				for (EntityMigrator migrator : ((MigrationSet) migration).getMigrators()) {
+					digest.update(migrator.toString().getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+		StringWriter schema = new StringWriter();
+		try {
+			types.save(schema);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not serialize schema", e);
+		}
+		digest.update(schema.toString().getBytes(StandardCharsets.UTF_8));
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @param migration
+	 *            The migration set element
+	 * @return A copy of the element with its attributes and references, but not its migrators, marked with a hash of the element's full
+	 *         content
+	 */
+	static Element header(Element migration) {
+		Element header = new Element(migration.getName());
+		for (org.jdom2.Attribute attr : migration.getAttributes()) {
+			header.setAttribute(attr.getName(), attr.getValue());
+		}
+		Element refs = migration.getChild("references");
+		if (refs != null) {
+			header.addContent(refs.clone());
+		}
+		MessageDigest digest = createDigest();
+		digest.update(new XMLOutputter(Format.getCompactFormat()).outputString(migration).getBytes(StandardCharsets.UTF_8));
+		header.setAttribute(CONTENT_ATTR, toHex(digest.digest()));
+		return header;
+	}
+
+	private static boolean sameMigration(Element m1, Element m2) {
+		String content = m1.getAttributeValue(CONTENT_ATTR);
+		return content != null && content.equals(m2.getAttributeValue(CONTENT_ATTR))
+			&& m1.getAttributeValue(ADDED_ATTR, "").equals(m2.getAttributeValue(ADDED_ATTR, ""));
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -1,23 +1,31 @@
 package org.migration.generic;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.function.Consumer;
 
+import org.migration.ConsoleMigrationListener;
+import org.migration.MigrationListener;
 import org.migration.MigrationSet;
 import org.migration.TypeSetDissecter;
 import org.migration.migrators.CustomMigrator;
 import org.migration.migrators.EntityCreatedMigrator;
+import org.migration.migrators.EntityLocalMigrator;
 import org.migration.migrators.EntityMigrator;
 import org.migration.migrators.EntityRemovedMigrator;
 import org.migration.migrators.EntityRenameMigrator;
@@ -25,6 +33,7 @@ import org.migration.migrators.EntityTypeModificationMigrator;
 import org.migration.migrators.EnumTypeModificationMigrator;
 import org.migration.migrators.EnumValueRemovedMigrator;
 import org.migration.migrators.EnumValueRenameMigrator;
+import org.migration.migrators.FieldAddedMigrator;
 import org.migration.migrators.FieldRemovedMigrator;
 import org.migration.migrators.FieldRenameMigrator;
 import org.migration.migrators.FieldTypeModificationMigrator;
@@ -33,13 +42,62 @@ import org.qommons.collect.BetterList;
 import org.qommons.tree.Tree;
 import org.qommons.tree.TreeBuilder;
 
-/** A set of {@link GenericEntity}s */
+/**
+ * <p>
+ * A set of {@link GenericEntity}s.
+ * </p>
+ * <p>
+ * In {@link #setLazyMigration(boolean) lazy} mode, field additions, removals and renames and {@link EntityLocalMigrator entity-local}
+ * migrators are not applied to every entity when the set is migrated. Instead, each entity remembers the schema version it was loaded at
+ * and catches up on the deferred steps the first time one of its fields is accessed or it is retrieved with
+ * {@link #queryById(EntityType, Object...)}. {@link #completeMigration()} must be called before the whole set is exported.
+ * </p>
+ * <p>
+ * After {@link #markBaseline()}, this set tracks changes: each entity's dirty bit records whether it has been created or modified since,
+ * and the identities of entities removed since are kept by type, so that only the changes need be saved.
+ * </p>
+ */
 public class SimpleGenericEntitySet implements GenericEntitySet {
     static final Comparator<EntityType> TYPE_COMPARE = EntityTypeSet.TYPE_COMPARE;
 
+	/** Whether each migrator class provides its own {@link EntityMigrator#migrateBatch(List, GenericEntitySet, TypeSetDissecter)} */
+	private static final ClassValue<Boolean> MIGRATES_BATCHES = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			try {
+				return type.getMethod("migrateBatch", List.class, GenericEntitySet.class, TypeSetDissecter.class)
+					.getDeclaringClass() != EntityMigrator.class;
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+		}
+	};
+
+	/** A migrator whose application to existing entities has been deferred */
+	private static class PendingStep {
+		final EntityType type;
+		final EntityMigrator migrator;
+		final TypeSetDissecter dissecter;
+
+		PendingStep(EntityType type, EntityMigrator migrator, TypeSetDissecter dissecter) {
+			this.type = type;
+			this.migrator = migrator;
+			this.dissecter = dissecter;
+		}
+	}
+
 	private final EntityTypeSet theTypes;
     private final TreeBuilder<EntitySetNode, EntityType> theEntities;
     private Map<String, String> theRenames;
+	private MigrationListener theListener = ConsoleMigrationListener.INSTANCE;
+	private boolean isLazy;
+	private final List<PendingStep> thePendingSteps;
+	/** The number of pending steps that have been applied to every entity */
+	private int theCompletedSteps;
+	private final GenericEntity.PendingMigrations thePendingMigrations;
+	private boolean isTracking;
+	/** The identities of entities removed since the baseline, by the name of their type */
+	private final Map<String, Set<Object>> theRemovedIds;
 
     /**
      * @param types
@@ -48,8 +106,50 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
     public SimpleGenericEntitySet(EntityTypeSet types) {
 		theTypes = types;
         theEntities = new TreeBuilder<>(TYPE_COMPARE, EntityType::getSuperType);
+		thePendingSteps = new ArrayList<>();
+		theRemovedIds = new LinkedHashMap<>();
+		thePendingMigrations = new GenericEntity.PendingMigrations() {
+			@Override
+			public int getSchemaVersion() {
+				return thePendingSteps.size();
+			}
+
+			@Override
+			public void apply(GenericEntity entity, int step) {
+				applyPending(entity, thePendingSteps.get(step));
+			}
+		};
     }
 
+	/**
+	 * Deferred migrators are not {@link EntityMigrator#end(GenericEntitySet, TypeSetDissecter) ended} until {@link #completeMigration()}
+	 * is called.
+	 *
+	 * @param lazy
+	 *            Whether this entity set should defer entity-local migrations until each entity is accessed
+	 * @return This entity set
+	 */
+	public SimpleGenericEntitySet setLazyMigration(boolean lazy) {
+		isLazy = lazy;
+		return this;
+	}
+
+	/**
+	 * @param listener
+	 *            The listener to notify of cascading deletions outside of {@link #migrate(MigrationSet, TypeSetDissecter, MigrationListener)
+	 *            migration}, which notifies its own listener while it runs
+	 * @return This entity set
+	 */
+	public SimpleGenericEntitySet setMigrationListener(MigrationListener listener) {
+		theListener = listener == null ? MigrationListener.NONE : listener;
+		return this;
+	}
+
+	/** @return Whether this entity set defers entity-local migrations until each entity is accessed */
+	public boolean isLazyMigration() {
+		return isLazy;
+	}
+
 	/** @return The types of entities in this entity set */
     @Override
 	public EntityTypeSet getTypes() {
@@ -70,6 +170,9 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
 				ret[0] = n.theEntities.get(id[0]);
 			}
 		});
+		if (ret[0] != null) {
+			ret[0].migratePending();
+		}
 		return ret[0];
 	}
 
@@ -129,7 +232,7 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
             Object maxId = root.getLastId();
             newId = incrementId(maxId);
         }
-		GenericEntity ret = new GenericEntity(type, this, this::idChanged);
+		GenericEntity ret = new GenericEntity(type, this, this::idChanged, thePendingMigrations);
         ret.setIdentityInternal(newId);
         node.theEntities.put((Comparable<Object>) newId, ret);
         return ret;
@@ -191,8 +294,30 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
 		}
         node.theEntities.remove(oldId);
         node.theEntities.put((Comparable<Object>) newId, entity);
+		if (isTracking && !entity.isCreated() && !Objects.equals(oldId, newId)) {
+			// To a delta, this is the removal of the old entity and the creation of a new one
+			addRemovedId(type, oldId);
+			entity.markCreated();
+			// Entities refer to each other by identity, so every entity referring to this one must be saved again
+			for (EntityReference ref : theTypes.getReferences(type)) {
+				if (!((EntityType) ref.getReferenceType()).isAssignableFrom(type)) {
+					continue;
+				}
+				for (GenericEntity referring : ref.getReferring(entity, this, true, true)) {
+					if (referring != null) {
+						referring.markDirty();
+					}
+				}
+			}
+		}
     }
 
+	private void addRemovedId(EntityType type, Object id) {
+		if (id != null) {
+			theRemovedIds.computeIfAbsent(type.getName(), t -> new LinkedHashSet<>()).add(id);
+		}
+	}
+
     /**
      * Copies an entity's fields into a new value
      *
@@ -241,20 +366,26 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
         _remove(entity);
 
         if (!moreDeletions.isEmpty()) {
-            System.out.println(
-                    "As a consequence of the deletion of " + entity + ", the following entities will also be deleted: " + moreDeletions);
+			theListener.cascadeDeletion(entity, moreDeletions);
         }
         for (GenericEntity toDelete : moreDeletions) {
 			remove(toDelete);
 		}
     }
 
+	@Override
+	public void discard(GenericEntity entity) {
+		_remove(entity);
+	}
+
     private void _remove(GenericEntity entity) {
         EntitySetNode node = theEntities.getNode(entity.getType(), null);
         if (node == null) {
 			return;
 		}
-        node.theEntities.remove(entity.getIdentity());
+		if (node.theEntities.remove(entity.getIdentity()) != null && isTracking && !entity.isCreated()) {
+			addRemovedId(entity.getType(), entity.getIdentity());
+		}
     }
 
     /**
@@ -276,8 +407,7 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
         }
 
         if (!moreDeletions.isEmpty()) {
-            System.out.println("As a consequence of the deletion of " + type + "." + value
-                    + ", the following entities will also be deleted: " + moreDeletions);
+			theListener.cascadeDeletion(value, moreDeletions);
         }
         for (GenericEntity toDelete : moreDeletions) {
 			remove(toDelete);
@@ -291,27 +421,60 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
      *            The migration set to process
      * @param dissecter
      *            The dissecter to understand data types
+     * @param listener
+     *            The listener to notify of migration progress
      */
     @Override
-	public void migrate(MigrationSet migSet, TypeSetDissecter dissecter) {
+	public void migrate(MigrationSet migSet, TypeSetDissecter dissecter, MigrationListener listener) {
+		long setStart = System.nanoTime();
+		listener.migrationSetStarted(migSet);
         theRenames = new LinkedHashMap<>();
-		theTypes.setVersionDate(migSet.getDate());
-        for (EntityMigrator migrator : migSet.getMigrators()) {
-			if (migrator instanceof CustomMigrator) {
-				((CustomMigrator) migrator).init(theTypes, dissecter);
+		MigrationListener preListener = theListener;
+		theListener = listener;
+		try {
+			theTypes.setVersionDate(migSet.getDate());
+			for (EntityMigrator migrator : migSet.getMigrators()) {
+				if (migrator instanceof CustomMigrator) {
+					((CustomMigrator) migrator).init(theTypes, dissecter);
+				}
+				listener.migratorStarted(migrator);
+				migrate(migrator, dissecter, listener);
 			}
-            System.out.println("\tMigrating with " + migrator);
-            migrate(migrator, dissecter);
-        }
-        theRenames = null;
+		} finally {
+			theRenames = null;
+			theListener = preListener;
+		}
+		listener.migrationSetFinished(migSet, System.nanoTime() - setStart);
     }
 
-    private void migrate(EntityMigrator migrator, TypeSetDissecter dissecter) {
+    private void migrate(EntityMigrator migrator, TypeSetDissecter dissecter, MigrationListener listener) {
+		long start = System.nanoTime();
+		int processed = 0;
+		int removed = 0;
+		int replaced = 0;
         String entity = migrator.getEntityName();
 		EntityType type = theTypes.getEntityType(entity);
 		if (type == null && !(migrator instanceof EntityCreatedMigrator)) {
 			throw new IllegalArgumentException("Unrecognized entity type " + entity + " for entity migrator " + migrator);
 		}
+		if (isLazy && type != null && isDeferrable(migrator, type)) {
+			defer(migrator, type, dissecter);
+			listener.migratorFinished(migrator, 0, 0, 0, System.nanoTime() - start);
+			return;
+		} else if (theCompletedSteps < thePendingSteps.size() && migrator instanceof EntityTypeModificationMigrator) {
+			switch (((EntityTypeModificationMigrator) migrator).getType()) {
+			case replaceSuper:
+				// Pending steps are matched to entities by type hierarchy, which is about to change
+			case fieldAddition:
+			case fieldRemoval:
+			case fieldRename:
+			case fieldNullability:
+				// Field modifications rearrange entities' field values directly, so pending steps must be applied first
+				completeMigration();
+				break;
+			default:
+			}
+		}
 
 		Deque<GenericEntity> entities = null;
         if (migrator instanceof EntityTypeModificationMigrator) {
@@ -401,7 +564,7 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
 				}
 				theTypes.migrate((EnumTypeModificationMigrator) migrator, true);
 				EnumValue replacement = enumType.getValue(((EnumValueRenameMigrator) migrator).afterName);
-                replaceEnum(toReplace, replacement);
+                replaceAllEnums(Collections.singletonMap(toReplace, replacement));
                 break;
             }
         }
@@ -409,38 +572,152 @@ public class SimpleGenericEntitySet implements GenericEntitySet {
 			if (entities == null)
 				entities = queryAll(entity);
             GenericEntity[] listCopy = entities.toArray(new GenericEntity[entities.size()]);
-            int removed = 0;
-            int replaced = 0;
-            for (GenericEntity original : listCopy) {
-                GenericEntity replace = migrator.migrate(original, this, dissecter);
-                if (replace == null) {
-                    removed++;
-					remove(original);
-                } else if (replace != original) {
-                    replaced++;
-                    replaceEntity(original, replace);
-                }
-                if (migrator instanceof FieldRenameMigrator || migrator instanceof FieldRemovedMigrator) {
-					replace.fieldRemoved(((FieldTypeModificationMigrator) migrator).field);
-				}
-            }
-            if (removed > 0 || replaced > 0) {
-                String msg = "";
-                if (removed > 0) {
-					msg += "Removed " + removed + " entit" + (removed == 1 ? "y" : "ies");
+			processed = listCopy.length;
+			migrator.begin(this, dissecter);
+			try {
+				List<GenericEntity> results = null;
+				if (MIGRATES_BATCHES.get(migrator.getClass())) {
+					results = migrator.migrateBatch(Arrays.asList(listCopy), this, dissecter);
+					if (results.size() != listCopy.length) {
+						throw new IllegalStateException(
+							"Migrator " + migrator + " returned " + results.size() + " results for a batch of " + listCopy.length + " entities");
+					}
 				}
-                if (replaced > 0) {
-					msg += (removed > 0 ? ", r" : "R") + "eplaced " + replaced + " entit" + (replaced == 1 ? "y" : "ies");
+				// Replacements are applied together after the migrator has run, so each referring field is only swept once
+				Map<GenericEntity, GenericEntity> replacements = new HashMap<>();
+				for (int i = 0; i < listCopy.length; i++) {
+					GenericEntity original = listCopy[i];
+					GenericEntity replace = results != null ? results.get(i) : migrator.migrate(original, this, dissecter);
+					if (replace == null) {
+						removed++;
+						remove(original);
+					} else if (replace != original) {
+						replaced++;
+						replacements.put(original, replace);
+					}
+					if (migrator instanceof FieldRenameMigrator || migrator instanceof FieldRemovedMigrator) {
+						replace.fieldRemoved(((FieldTypeModificationMigrator) migrator).field);
+					}
 				}
-                System.out.println("\t\t" + msg);
-            }
+				replaceAll(replacements);
+			} finally {
+				migrator.end(this, dissecter);
+			}
         }
 		if (migrator instanceof EntityRemovedMigrator) {
 			theEntities.remove(type);
 			theRenames.remove(entity);
         }
+		listener.migratorFinished(migrator, processed, removed, replaced, System.nanoTime() - start);
     }
 
+	@Override
+	public void completeMigration() {
+		if (theCompletedSteps == thePendingSteps.size()) {
+			return;
+		}
+		for (EntityType type : theTypes) {
+			EntitySetNode node = theEntities.getNode(type, null);
+			if (node != null) {
+				for (GenericEntity entity : node.theEntities.values().toArray(new GenericEntity[node.theEntities.size()])) {
+					entity.migratePending();
+				}
+			}
+		}
+		for (int i = theCompletedSteps; i < thePendingSteps.size(); i++) {
+			PendingStep step = thePendingSteps.get(i);
+			step.migrator.end(this, step.dissecter);
+		}
+		theCompletedSteps = thePendingSteps.size();
+	}
+
+	@Override
+	public boolean isTrackingChanges() {
+		return isTracking;
+	}
+
+	@Override
+	public void markBaseline() {
+		completeMigration();
+		for (EntityType type : theTypes) {
+			EntitySetNode node = theEntities.getNode(type, null);
+			if (node != null) {
+				for (GenericEntity entity : node.theEntities.values()) {
+					entity.markClean();
+				}
+			}
+		}
+		theRemovedIds.clear();
+		isTracking = true;
+	}
+
+	@Override
+	public Collection<Object> getRemovedIds(EntityType type) {
+		if (!isTracking) {
+			throw new IllegalStateException("This entity set is not tracking changes");
+		}
+		Set<Object> removed = theRemovedIds.get(type.getName());
+		return removed == null ? Collections.emptySet() : Collections.unmodifiableSet(removed);
+	}
+
+	private static boolean isDeferrable(EntityMigrator migrator, EntityType type) {
+		if (MIGRATES_BATCHES.get(migrator.getClass())) {
+			return false; // Batch migrators are applied to all entities together
+		} else if (migrator instanceof EntityLocalMigrator) {
+			return true;
+		} else if (!(migrator instanceof FieldTypeModificationMigrator)) {
+			return false;
+		}
+		String field = ((FieldTypeModificationMigrator) migrator).field;
+		switch (((FieldTypeModificationMigrator) migrator).getType()) {
+		case fieldAddition:
+			// An entity-typed initial value may create a new entity for each entity migrated
+			return !(((FieldAddedMigrator) migrator).type instanceof EntityType);
+		case fieldRemoval:
+		case fieldRename:
+			// Deferred steps never affect identity
+			return type.getIdField() == null || !type.getIdField().getName().equals(field);
+		default:
+			// A nullability change may remove entities
+			return false;
+		}
+	}
+
+	private void defer(EntityMigrator migrator, EntityType type, TypeSetDissecter dissecter) {
+		if (migrator instanceof FieldRenameMigrator || migrator instanceof FieldRemovedMigrator) {
+			// Steps pending before this one may refer to the field by its old name, which will no longer be valid when they are applied
+			for (int i = theCompletedSteps; i < thePendingSteps.size(); i++) {
+				PendingStep step = thePendingSteps.get(i);
+				if (!(step.migrator instanceof FieldRenameMigrator || step.migrator instanceof FieldRemovedMigrator)
+					&& (step.type.isAssignableFrom(type) || type.isAssignableFrom(step.type))) {
+					completeMigration();
+					break;
+				}
+			}
+		}
+		if (migrator instanceof EntityTypeModificationMigrator) {
+			theTypes.migrate((EntityTypeModificationMigrator) migrator, true);
+		}
+		// A deferred migrator is begun now and ended when the migration is completed
+		migrator.begin(this, dissecter);
+		thePendingSteps.add(new PendingStep(type, migrator, dissecter));
+	}
+
+	private void applyPending(GenericEntity entity, PendingStep step) {
+		if (!step.type.isAssignableFrom(entity.getType())) {
+			return;
+		}
+		if (step.migrator instanceof FieldTypeModificationMigrator) {
+			entity.migrate((FieldTypeModificationMigrator) step.migrator);
+		}
+		if (step.migrator.migrate(entity, this, step.dissecter) != entity) {
+			throw new IllegalStateException("Deferred migrator " + step.migrator + " must return the entity it is applied to: " + entity);
+		}
+		if (step.migrator instanceof FieldRenameMigrator || step.migrator instanceof FieldRemovedMigrator) {
+			entity.fieldRemoved(((FieldTypeModificationMigrator) step.migrator).field);
+		}
+	}
+
     private static class EntitySetNode implements Tree<EntityType, EntitySetNode, NavigableSet<EntitySetNode>> {
         static final Comparator<EntitySetNode> NODE_COMPARE = new Comparator<EntitySetNode>() {
             @Override
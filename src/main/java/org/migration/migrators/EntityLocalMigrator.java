@@ -0,0 +1,17 @@
+package org.migration.migrators;
+
+/**
+ * Marks an {@link EntityMigrator} whose effect on an entity depends only on that entity's own field values. An entity set migrating lazily
+ * may defer such a migrator, applying it to each entity only when the entity is first accessed.
+ *
+ * <p>
+ * An entity-local migrator must:
+ * <ul>
+ * <li>Read and write only the fields of the entity it is given, not those of other entities</li>
+ * <li>Not add or remove entities, or change the identity of the entity it is given</li>
+ * <li>Return the entity it is given from {@link #migrate(org.migration.generic.GenericEntity, org.migration.generic.GenericEntitySet, org.migration.TypeSetDissecter) migrate}</li>
+ * </ul>
+ * </p>
+ */
+public interface EntityLocalMigrator extends EntityMigrator {
+}
@@ -1,10 +1,30 @@
 package org.migration.migrators;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.migration.TypeSetDissecter;
 import org.migration.generic.GenericEntity;
 import org.migration.generic.GenericEntitySet;
 
-/** Represents a modification to an entity (or enum, in the case of {@link EntityTypeModificationMigrator}s) */
+/**
+ * <p>
+ * Represents a modification to an entity (or enum, in the case of {@link EntityTypeModificationMigrator}s).
+ * </p>
+ * <p>
+ * When an entity set is migrated, each migrator is {@link #begin(GenericEntitySet, TypeSetDissecter) begun}, applied to all entities of
+ * its type with {@link #migrateBatch(List, GenericEntitySet, TypeSetDissecter)}, and then {@link #end(GenericEntitySet, TypeSetDissecter)
+ * ended}. Migrators that need to build lookups or prepare other state may do so in {@link #begin(GenericEntitySet, TypeSetDissecter)
+ * begin} instead of for each entity.
+ * </p>
+ * <p>
+ * An entity set may instead defer a migrator, e.g. a {@link org.migration.generic.SimpleGenericEntitySet#setLazyMigration(boolean) lazy}
+ * one. A deferred migrator is begun when its migration set is processed, but is applied to each entity only when that entity is first
+ * accessed, which may be long after the migration set has finished. It is ended only when
+ * {@link GenericEntitySet#completeMigration()} is called, so state built in {@link #begin(GenericEntitySet, TypeSetDissecter) begin} is
+ * held until then, and is never released if the migration is not completed.
+ * </p>
+ */
 public interface EntityMigrator {
     /** @return The name of the entity (or enum, in the case of {@link EntityTypeModificationMigrator}s) that this migrator operates on */
     String getEntityName();
@@ -20,4 +40,49 @@ public interface EntityMigrator {
      *         new entity can be the modified <code>oldVersionEntity</code> or a new entity to replace the argument.
      */
 	GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter);
+
+	/**
+	 * Migrates many entities at once. The default implementation calls
+	 * {@link #migrate(GenericEntity, GenericEntitySet, TypeSetDissecter)} for each entity. Entity sets only call this method for migrators
+	 * that override it, so a migrator that does should not rely on entities removed by earlier results in the batch having been removed
+	 * from the entity set.
+	 *
+	 * @param oldVersionEntities
+	 *            The entity instances' values before the migration
+	 * @param allEntities
+	 *            All entities being migrated, some already migrated, some not
+	 * @param dissecter
+	 *            The dissecter to understand data types
+	 * @return The entity instances' values after the migration, in the same order as <code>oldVersionEntities</code>. Each element is as
+	 *         would be returned from {@link #migrate(GenericEntity, GenericEntitySet, TypeSetDissecter)} for the corresponding entity.
+	 */
+	default List<GenericEntity> migrateBatch(List<GenericEntity> oldVersionEntities, GenericEntitySet allEntities,
+		TypeSetDissecter dissecter) {
+		List<GenericEntity> ret = new ArrayList<>(oldVersionEntities.size());
+		for (GenericEntity entity : oldVersionEntities) {
+			ret.add(migrate(entity, allEntities, dissecter));
+		}
+		return ret;
+	}
+
+	/**
+	 * Called before this migrator is applied to any entities of an entity set
+	 *
+	 * @param allEntities
+	 *            The entity set being migrated
+	 * @param dissecter
+	 *            The dissecter to understand data types
+	 */
+	default void begin(GenericEntitySet allEntities, TypeSetDissecter dissecter) {}
+
+	/**
+	 * Called after this migrator has been applied to all entities of an entity set. Called even if the migration failed. For a deferred
+	 * migrator, this is not called when its migration set finishes, but by {@link GenericEntitySet#completeMigration()}.
+	 *
+	 * @param allEntities
+	 *            The entity set being migrated
+	 * @param dissecter
+	 *            The dissecter to understand data types
+	 */
+	default void end(GenericEntitySet allEntities, TypeSetDissecter dissecter) {}
 }
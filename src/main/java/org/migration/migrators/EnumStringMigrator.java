@@ -13,7 +13,7 @@ import org.migration.generic.MigratorFactory;
 /**
  * Assigns an enum field's name to another field or takes an enum name from one field and puts the corresponding enum value in another field
  */
-public class EnumStringMigrator extends JavaMigrator {
+public class EnumStringMigrator extends JavaMigrator implements EntityLocalMigrator {
     private String theFromField;
     private String theToField;
 
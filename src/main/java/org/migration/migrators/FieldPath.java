@@ -0,0 +1,242 @@
+package org.migration.migrators;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityField;
+import org.migration.generic.EntityType;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.util.PersistenceUtils;
+
+/**
+ * A path of fields (e.g. "owner.address.city") from an entity type, resolved once against the current entity types so that it may be
+ * evaluated and assigned against many entities without looking up fields by name or inspecting the terminal field's type each time
+ */
+public class FieldPath {
+	private enum TargetKind {
+		VALUE, COLLECTION, MAP
+	}
+
+	private final String thePathString;
+	private final List<EntityField> theFieldList;
+	private final EntityField[] theFields;
+	private final EntityField theTerminus;
+
+	private final TargetKind theTargetKind;
+	private final Type theElementType;
+	private final Type theMapValueType;
+
+	private FieldPath(String pathString, List<EntityField> fields) {
+		if (fields.isEmpty()) {
+			throw new IllegalArgumentException("Empty field path");
+		}
+		thePathString = pathString;
+		theFieldList = fields;
+		theFields = fields.toArray(new EntityField[fields.size()]);
+		theTerminus = theFields[theFields.length - 1];
+
+		Type terminusType = theTerminus.getType();
+		if (terminusType instanceof ParameterizedType && ((ParameterizedType) terminusType).getRawType() instanceof Class) {
+			Class<?> rawType = (Class<?>) ((ParameterizedType) terminusType).getRawType();
+			Type[] typeArgs = ((ParameterizedType) terminusType).getActualTypeArguments();
+			if (Collection.class.isAssignableFrom(rawType)) {
+				theTargetKind = TargetKind.COLLECTION;
+				theElementType = typeArgs[0];
+				theMapValueType = null;
+			} else if (Map.class.isAssignableFrom(rawType)) {
+				theTargetKind = TargetKind.MAP;
+				theElementType = typeArgs[0];
+				theMapValueType = typeArgs[1];
+			} else {
+				theTargetKind = TargetKind.VALUE;
+				theElementType = null;
+				theMapValueType = null;
+			}
+		} else {
+			theTargetKind = TargetKind.VALUE;
+			theElementType = null;
+			theMapValueType = null;
+		}
+	}
+
+	/**
+	 * @param sourceType
+	 *            The entity type that the path starts from
+	 * @param path
+	 *            The dot-separated field path
+	 * @return The compiled field path
+	 * @throws IllegalArgumentException
+	 *             If the path cannot be resolved against the given type
+	 */
+	public static FieldPath compile(EntityType sourceType, String path) throws IllegalArgumentException {
+		return new FieldPath(path, ValuePullMigrator.getFieldPath(sourceType, path));
+	}
+
+	/**
+	 * @param fields
+	 *            The resolved fields of the path
+	 * @return The compiled field path
+	 */
+	public static FieldPath of(List<EntityField> fields) {
+		StringBuilder str = new StringBuilder();
+		for (EntityField field : fields) {
+			if (str.length() > 0) {
+				str.append('.');
+			}
+			str.append(field.getName());
+		}
+		return new FieldPath(str.toString(), Collections.unmodifiableList(fields));
+	}
+
+	/**
+	 * @param field
+	 *            The field
+	 * @return A single-hop path for the given field
+	 */
+	public static FieldPath of(EntityField field) {
+		return new FieldPath(field.getName(), Arrays.asList(field));
+	}
+
+	/** @return The fields in this path, in order */
+	public List<EntityField> getFields() {
+		return theFieldList;
+	}
+
+	/** @return The last field in this path */
+	public EntityField getTerminus() {
+		return theTerminus;
+	}
+
+	/**
+	 * @param entity
+	 *            The entity to evaluate this path against
+	 * @return The value of this path's terminal field for the given entity
+	 * @throws NullPointerException
+	 *             If any entity along the path is null
+	 */
+	public Object evaluate(GenericEntity entity) {
+		Object value = entity;
+		for (int i = 0; i < theFields.length; i++) {
+			if (value == null) {
+				throw nullAlongPath(i);
+			}
+			value = ((GenericEntity) value).get(theFields[i]);
+		}
+		return value;
+	}
+
+	/**
+	 * @param entity
+	 *            The entity to evaluate this path against
+	 * @return The entity holding this path's terminal field for the given entity
+	 * @throws NullPointerException
+	 *             If any entity along the path is null
+	 */
+	public GenericEntity evaluateContainer(GenericEntity entity) {
+		GenericEntity container = entity;
+		for (int i = 0; i < theFields.length - 1; i++) {
+			if (container == null) {
+				throw nullAlongPath(i);
+			}
+			container = (GenericEntity) container.get(theFields[i]);
+		}
+		if (container == null) {
+			throw nullAlongPath(theFields.length - 1);
+		}
+		return container;
+	}
+
+	private NullPointerException nullAlongPath(int hop) {
+		return new NullPointerException(
+			hop == 0 ? "Null entity for field path " + thePathString : "Null " + theFields[hop - 1] + " in field path " + thePathString);
+	}
+
+	/**
+	 * Assigns a value to this path's terminal field for an entity. Collection and map fields are re-populated with the contents of the value
+	 * rather than replaced.
+	 *
+	 * @param entity
+	 *            The entity to assign the value for
+	 * @param value
+	 *            The value to assign
+	 * @param entities
+	 *            The entity set to create default collection values for
+	 * @param dissecter
+	 *            The dissecter to understand data types
+	 * @throws NullPointerException
+	 *             If any entity along the path is null, or if the value is null and the terminal field is a collection or map
+	 */
+	public void assign(GenericEntity entity, Object value, GenericEntitySet entities, TypeSetDissecter dissecter) {
+		GenericEntity container = evaluateContainer(entity);
+		if (value == null && theTargetKind != TargetKind.VALUE) {
+			throw new NullPointerException("Null value cannot be assigned to " + theTerminus + " in field path " + thePathString);
+		}
+		switch (theTargetKind) {
+		case COLLECTION:
+			Collection<Object> collect = (Collection<Object>) container.get(theTerminus);
+			if (collect == null) {
+				collect = (Collection<Object>) DefaultFieldValueMigrator.createDefaultValue(theTerminus.getType(), entities, dissecter, null);
+				container.set(theTerminus, collect);
+			} else {
+				collect.clear();
+			}
+			for (Object v : (Collection<?>) value) {
+				check(theElementType, v);
+			}
+			collect.addAll((Collection<?>) value);
+			break;
+		case MAP:
+			Map<Object, Object> map = (Map<Object, Object>) container.get(theTerminus);
+			if (map == null) {
+				map = (Map<Object, Object>) DefaultFieldValueMigrator.createDefaultValue(theTerminus.getType(), entities, dissecter, null);
+				container.set(theTerminus, map);
+			} else {
+				map.clear();
+			}
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				check(theElementType, entry.getKey());
+				check(theMapValueType, entry.getValue());
+			}
+			map.putAll((Map<?, ?>) value);
+			break;
+		case VALUE:
+			container.set(theTerminus, value);
+			break;
+		}
+	}
+
+	static void check(Type targetType, Object value) {
+		if (value == null) {
+			if (targetType instanceof Class && ((Class<?>) targetType).isPrimitive()) {
+				throw new IllegalArgumentException("Null value cannot be assigned to primitive type " + PersistenceUtils.toString(targetType));
+			}
+		} else if (targetType instanceof EntityType) {
+			if (!(value instanceof GenericEntity)) {
+				throw new IllegalArgumentException(
+						"Value of type " + value.getClass().getName() + " cannot be assigned to a field of type " + targetType);
+			}
+			if (!((EntityType) targetType).isAssignableFrom(((GenericEntity) value).getType())) {
+				throw new IllegalArgumentException("Value of type " + PersistenceUtils.toString(value.getClass())
+						+ " cannot be assigned to a field of type " + targetType);
+			}
+		} else if (value instanceof GenericEntity) {
+			throw new IllegalArgumentException("Value of type " + ((GenericEntity) value).getType() + " cannot be assigned to a field of type "
+					+ PersistenceUtils.toString(targetType));
+		} else if (!PersistenceUtils.isConvertible(value.getClass(), targetType)) {
+			throw new IllegalArgumentException("Value of type " + PersistenceUtils.toString(value.getClass())
+					+ " cannot be assigned to a field of type " + PersistenceUtils.toString(targetType));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return thePathString;
+	}
+}
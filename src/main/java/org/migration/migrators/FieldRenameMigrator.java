@@ -1,10 +1,9 @@
 package org.migration.migrators;
 
-import org.migration.TypeSetDissecter;
-import org.migration.generic.GenericEntity;
-import org.migration.generic.GenericEntitySet;
-
-/** Represents a name change to a field in an entity type */
+/**
+ * Represents a name change to a field in an entity type. The entity set moves each entity's value to the new name as the field is
+ * renamed, so there is nothing for this migrator to do to the entities themselves.
+ */
 public class FieldRenameMigrator extends FieldTypeModificationMigrator {
     /** The name of the field before the rename */
     public final String beforeName;
@@ -26,12 +25,6 @@ public class FieldRenameMigrator extends FieldTypeModificationMigrator {
         afterName = to;
     }
 
-    @Override
-	public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
-        oldVersionEntity.set(afterName, oldVersionEntity.get(beforeName));
-        return oldVersionEntity;
-    }
-
     @Override
     public String toString() {
         return "Rename " + getEntityName() + "." + beforeName + " to " + afterName;
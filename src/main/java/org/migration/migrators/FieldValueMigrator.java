@@ -1,7 +1,5 @@
 package org.migration.migrators;
 
-import java.util.List;
-
 import org.jdom2.Element;
 import org.migration.MigrationSet;
 import org.migration.TypeSetDissecter;
@@ -21,7 +19,7 @@ public abstract class FieldValueMigrator implements CustomMigrator {
     /** Whether to set the value for the field if the field's value is already set for an entity instance */
     private boolean isForced;
 
-	private List<EntityField> theFieldPath;
+	private FieldPath theFieldPath;
 
     /** Default constructor. Fields will be set with {@link #init(String, Element, MigrationSet, MigratorFactory)} */
     public FieldValueMigrator() {
@@ -52,7 +50,7 @@ public abstract class FieldValueMigrator implements CustomMigrator {
     @Override
 	public CustomMigrator init(EntityTypeSet entities, TypeSetDissecter dissecter) {
 		CustomMigrator.super.init(entities, dissecter);
-		theFieldPath = ValuePullMigrator.getFieldPath(entities.getEntityType(theEntityName), theFieldPathStr);
+		theFieldPath = FieldPath.compile(entities.getEntityType(theEntityName), theFieldPathStr);
 		return this;
 	}
 
@@ -87,10 +85,10 @@ public abstract class FieldValueMigrator implements CustomMigrator {
 
     @Override
 	public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
-		GenericEntity container = (GenericEntity) ValuePullMigrator.evaluateFieldPath(oldVersionEntity, theFieldPath, true);
-		EntityField lastField = theFieldPath.get(theFieldPath.size() - 1);
-		if (isForced || container.get(lastField.getName()) == null) {
-			container.set(lastField.getName(), getFieldValue(container, lastField, allEntities, dissecter));
+		GenericEntity container = theFieldPath.evaluateContainer(oldVersionEntity);
+		EntityField lastField = theFieldPath.getTerminus();
+		if (isForced || container.get(lastField) == null) {
+			container.set(lastField, getFieldValue(container, lastField, allEntities, dissecter));
 		}
         return oldVersionEntity;
     }
@@ -10,7 +10,6 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -26,6 +25,7 @@ import org.migration.generic.EntityType;
 import org.migration.generic.GenericEntity;
 import org.migration.generic.GenericEntitySet;
 import org.migration.generic.MigratorFactory;
+import org.migration.util.IdentityHashSet;
 import org.migration.util.PersistenceUtils;
 import org.qommons.BiTuple;
 import org.qommons.StringUtils;
@@ -33,6 +33,10 @@ import org.qommons.StringUtils;
 /** Adds new entity data */
 public class NewDataMigrator implements CustomMigrator {
 	private Element theConfig;
+	/** Hash indexes of entities by (type, searched fields), built on demand for the duration of {@link #migrate} */
+	private Map<BiTuple<EntityType, List<EntityField>>, Map<List<Object>, GenericEntity>> theSearchIndexes;
+	/** Entities whose fields are still being set, which are indexed only once they are complete */
+	private Set<GenericEntity> theCreating;
 
 	@Override
 	public CustomMigrator init(String entity, Element config, MigrationSet migration, MigratorFactory factory) {
@@ -53,12 +57,19 @@ public class NewDataMigrator implements CustomMigrator {
 	@Override
 	public GenericEntity migrate(GenericEntity nothing, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
 		Map<BiTuple<String, String>, GenericEntity> iddObjects = new HashMap<>();
-		for (Element content : serialize().getChildren()) {
-			try {
-				addContent(content, allEntities, iddObjects, dissecter);
-			} catch (Exception e) {
-				e.printStackTrace();
+		theSearchIndexes = new HashMap<>();
+		theCreating = new IdentityHashSet<>();
+		try {
+			for (Element content : serialize().getChildren()) {
+				try {
+					addContent(content, allEntities, iddObjects, dissecter);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
 			}
+		} finally {
+			theSearchIndexes = null;
+			theCreating = null;
 		}
 		return nothing;
 	}
@@ -125,12 +136,19 @@ public class NewDataMigrator implements CustomMigrator {
 		}
 
 		ret = allEntities.addEntity(type.getName());
-		for (Element fieldEl : entityEl.getChildren()) {
-			EntityField field = type.getField(fieldEl.getName());
-			if (field == null) {
-				throw new IllegalStateException("No such field " + fieldEl.getName() + " for entity " + type.getName());
+		// A nested search may build an index of this type before this entity's key fields are set
+		theCreating.add(ret);
+		try {
+			for (Element fieldEl : entityEl.getChildren()) {
+				EntityField field = type.getField(fieldEl.getName());
+				if (field == null) {
+					throw new IllegalStateException("No such field " + fieldEl.getName() + " for entity " + type.getName());
+				}
+				ret.set(field.getName(), deserializeField(field, field.getType(), fieldEl, allEntities, iddObjects, dissecter));
 			}
-			ret.set(field.getName(), deserializeField(field, field.getType(), fieldEl, allEntities, iddObjects, dissecter));
+		} finally {
+			theCreating.remove(ret);
+			addToSearchIndexes(ret);
 		}
 		if (key != null) {
 			iddObjects.put(key, ret);
@@ -140,7 +158,8 @@ public class NewDataMigrator implements CustomMigrator {
 
 	private GenericEntity findEntity(EntityType type, Element entityEl, GenericEntitySet allEntities,
 		Map<BiTuple<String, String>, GenericEntity> iddObjects, TypeSetDissecter dissecter) {
-		Map<String, Object> searchFields = new LinkedHashMap<>();
+		List<EntityField> searchFields = new ArrayList<>(entityEl.getChildren().size());
+		List<Object> searchValues = new ArrayList<>(entityEl.getChildren().size());
 		for (Element fieldEl : entityEl.getChildren()) {
 			EntityField field = type.getField(fieldEl.getName());
 			if (field == null) {
@@ -159,28 +178,12 @@ public class NewDataMigrator implements CustomMigrator {
 				throw new IllegalStateException(
 					"New entities may not be defined within an element search: " + entityEl.getName() + "/" + fieldEl.getName());
 			}
-			searchFields.put(field.getName(), deserializeField(field, field.getType(), fieldEl, allEntities, iddObjects, dissecter));
+			searchFields.add(field);
+			searchValues.add(searchKey(deserializeField(field, field.getType(), fieldEl, allEntities, iddObjects, dissecter)));
 		}
-		for (GenericEntity entity : allEntities.queryAll(type.getName())) {
-			boolean matches = true;
-			for (Map.Entry<String, Object> searchField : searchFields.entrySet()) {
-				if (!matches) {
-					break;
-				}
-				Object entityFieldVal = entity.get(searchField.getKey());
-				if (entityFieldVal instanceof GenericEntity && searchField.getValue() instanceof GenericEntity) {
-					EntityType fieldType = ((GenericEntity) entityFieldVal).getType();
-					matches &= fieldType.getName().equals(((GenericEntity) searchField.getValue()).getType().getName());
-					Object id1 = ((GenericEntity) entityFieldVal).get(fieldType.getIdField().getName());
-					Object id2 = ((GenericEntity) searchField.getValue()).get(fieldType.getIdField().getName());
-					matches &= Objects.equals(id1, id2);
-				} else {
-					matches &= Objects.equals(entityFieldVal, searchField.getValue());
-				}
-			}
-			if (matches) {
-				return entity;
-			}
+		GenericEntity found = getSearchIndex(type, searchFields, allEntities).get(searchValues);
+		if (found != null) {
+			return found;
 		}
 		if ("true".equalsIgnoreCase(entityEl.getAttributeValue("null-ok"))) {
 			return null;
@@ -189,6 +192,46 @@ public class NewDataMigrator implements CustomMigrator {
 		}
 	}
 
+	private Map<List<Object>, GenericEntity> getSearchIndex(EntityType type, List<EntityField> searchFields,
+		GenericEntitySet allEntities) {
+		return theSearchIndexes.computeIfAbsent(new BiTuple<>(type, searchFields), shape -> {
+			Map<List<Object>, GenericEntity> index = new HashMap<>();
+			for (GenericEntity entity : allEntities.queryAll(type)) {
+				if (theCreating.contains(entity)) {
+					continue;
+				}
+				index.putIfAbsent(searchKey(entity, searchFields), entity);
+			}
+			return index;
+		});
+	}
+
+	/** Makes a newly-created entity visible to searches in the same migration, keyed by its complete field values */
+	private void addToSearchIndexes(GenericEntity entity) {
+		for (Map.Entry<BiTuple<EntityType, List<EntityField>>, Map<List<Object>, GenericEntity>> index : theSearchIndexes.entrySet()) {
+			if (index.getKey().getValue1().isAssignableFrom(entity.getType())) {
+				index.getValue().putIfAbsent(searchKey(entity, index.getKey().getValue2()), entity);
+			}
+		}
+	}
+
+	private static List<Object> searchKey(GenericEntity entity, List<EntityField> searchFields) {
+		List<Object> key = new ArrayList<>(searchFields.size());
+		for (EntityField field : searchFields) {
+			key.add(searchKey(entity.get(field)));
+		}
+		return key;
+	}
+
+	/** Entity values are matched by type name and identity */
+	private static Object searchKey(Object value) {
+		if (value instanceof GenericEntity) {
+			GenericEntity entity = (GenericEntity) value;
+			return new BiTuple<>(entity.getType().getName(), entity.getIdentity());
+		}
+		return value;
+	}
+
 	private Object deserializeField(EntityField field, Type type, Element fieldEl, GenericEntitySet allEntities,
 		Map<BiTuple<String, String>, GenericEntity> iddObjects, TypeSetDissecter dissecter) {
 		checkAttributes(fieldEl);
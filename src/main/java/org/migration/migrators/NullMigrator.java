@@ -5,7 +5,7 @@ import org.migration.generic.GenericEntity;
 import org.migration.generic.GenericEntitySet;
 
 /** A migrator that doesn't do anything */
-public class NullMigrator implements EntityMigrator {
+public class NullMigrator implements EntityLocalMigrator {
     private String theEntityName;
 
     /**
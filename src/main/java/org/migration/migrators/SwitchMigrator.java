@@ -15,14 +15,14 @@ import org.migration.generic.GenericEntitySet;
 public class SwitchMigrator extends JavaMigrator {
 	private final Map<Object, List<EntityMigrator>> theValueMigrators = new HashMap<>();
 	private List<EntityMigrator> theDefaultMigrators;
-	private List<EntityField> theSwitchPath;
+	private FieldPath theSwitchPath;
 
 	@Override
 	public JavaMigrator init(EntityTypeSet entities, TypeSetDissecter dissecter) {
 		super.init(entities, dissecter);
 
-		theSwitchPath = ValuePullMigrator.getFieldPath(getEntity(), serialize().getAttributeValue("value").trim());
-		EntityField pathLast = theSwitchPath.get(theSwitchPath.size() - 1);
+		theSwitchPath = FieldPath.compile(getEntity(), serialize().getAttributeValue("value").trim());
+		EntityField pathLast = theSwitchPath.getTerminus();
 		for (Element caseEl : serialize().getChildren("case")) {
 			Object caseValue = DefaultFieldValueMigrator.createDefaultValue(pathLast.getType(), null, dissecter,
 					caseEl.getAttributeValue("value"));
@@ -57,9 +57,33 @@ public class SwitchMigrator extends JavaMigrator {
 		return caseMigrators;
 	}
 
+	@Override
+	public void begin(GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+		for (List<EntityMigrator> caseMigrators : theValueMigrators.values()) {
+			for (EntityMigrator migrator : caseMigrators)
+				migrator.begin(allEntities, dissecter);
+		}
+		if (theDefaultMigrators != null) {
+			for (EntityMigrator migrator : theDefaultMigrators)
+				migrator.begin(allEntities, dissecter);
+		}
+	}
+
+	@Override
+	public void end(GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+		for (List<EntityMigrator> caseMigrators : theValueMigrators.values()) {
+			for (EntityMigrator migrator : caseMigrators)
+				migrator.end(allEntities, dissecter);
+		}
+		if (theDefaultMigrators != null) {
+			for (EntityMigrator migrator : theDefaultMigrators)
+				migrator.end(allEntities, dissecter);
+		}
+	}
+
 	@Override
 	public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
-		Object caseValue = ValuePullMigrator.evaluateFieldPath(oldVersionEntity, theSwitchPath, false);
+		Object caseValue = theSwitchPath.evaluate(oldVersionEntity);
 		List<EntityMigrator> caseMigrators = theValueMigrators.get(caseValue);
 		if (caseMigrators == null)
 			caseMigrators = theDefaultMigrators;
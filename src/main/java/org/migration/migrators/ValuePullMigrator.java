@@ -3,7 +3,6 @@ package org.migration.migrators;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -26,7 +25,8 @@ public class ValuePullMigrator extends JavaMigrator {
 	private String theFieldPathStr;
 
 	private EntityField theTargetField;
-	private List<EntityField> theFieldPath;
+	private FieldPath theFieldPath;
+	private FieldPath theTargetPath;
 
     @Override
     public ValuePullMigrator init(String entity, Element config, MigrationSet migration, MigratorFactory factory) {
@@ -43,15 +43,15 @@ public class ValuePullMigrator extends JavaMigrator {
 		if (theTargetField == null) {
 			throw new IllegalArgumentException("Unrecognized field " + getEntity() + "." + theTargetFieldName);
 		}
-		theFieldPath = getFieldPath(getEntity(), theFieldPathStr);
-		EntityField pathTerminus = theFieldPath.get(theFieldPath.size() - 1);
-        checkPotentialAssignment(pathTerminus, theTargetField);
+		theFieldPath = FieldPath.compile(getEntity(), theFieldPathStr);
+		theTargetPath = FieldPath.of(theTargetField);
+		checkPotentialAssignment(theFieldPath.getTerminus(), theTargetField);
 		return this;
 	}
 
 	@Override
 	public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
-		assign(oldVersionEntity, theFieldPath, Arrays.asList(theTargetField), allEntities, dissecter);
+		theTargetPath.assign(oldVersionEntity, theFieldPath.evaluate(oldVersionEntity), allEntities, dissecter);
         return oldVersionEntity;
     }
 
@@ -119,46 +119,7 @@ public class ValuePullMigrator extends JavaMigrator {
 
 	public static void assign(GenericEntity entity, List<EntityField> source, List<EntityField> dest, GenericEntitySet entities,
 			TypeSetDissecter dissecter) {
-		GenericEntity container = (GenericEntity) evaluateFieldPath(entity, dest, true);
-		EntityField targetField = dest.get(dest.size() - 1);
-		Object value = evaluateFieldPath(entity, source, false);
-		if (targetField.getType() instanceof ParameterizedType
-				&& ((ParameterizedType) targetField.getType()).getRawType() instanceof Class) {
-			Class<?> rawType = (Class<?>) ((ParameterizedType) targetField.getType()).getRawType();
-			if (Collection.class.isAssignableFrom(rawType)) {
-				Collection<Object> collect = (Collection<Object>) container.get(targetField.getName());
-				if (collect == null) {
-					collect = (Collection<Object>) DefaultFieldValueMigrator.createDefaultValue(targetField.getType(), entities, dissecter,
-							null);
-					container.set(targetField.getName(), collect);
-				} else {
-					collect.clear();
-				}
-                Type targetType = ((ParameterizedType) targetField.getType()).getActualTypeArguments()[0];
-                ((Collection<?>) value).forEach(v -> check(targetType, v));
-				collect.addAll((Collection<?>) value);
-			} else if (Map.class.isAssignableFrom(rawType)) {
-				Map<Object, Object> map = (Map<Object, Object>) container.get(targetField.getName());
-				if (map == null) {
-					map = (Map<Object, Object>) DefaultFieldValueMigrator.createDefaultValue(targetField.getType(), entities, dissecter,
-							null);
-					container.set(targetField.getName(), map);
-				} else {
-					map.clear();
-				}
-                Type targetKeyType = ((ParameterizedType) targetField.getType()).getActualTypeArguments()[0];
-                Type targetValueType = ((ParameterizedType) targetField.getType()).getActualTypeArguments()[1];
-                ((Map<?, ?>) value).entrySet().forEach(entry -> {
-                    check(targetKeyType, entry.getKey());
-                    check(targetValueType, entry.getValue());
-                });
-				map.putAll((Map<?, ?>) value);
-			} else {
-				container.set(targetField.getName(), value);
-			}
-		} else {
-			container.set(targetField.getName(), value);
-		}
+		FieldPath.of(dest).assign(entity, evaluateFieldPath(entity, source, false), entities, dissecter);
 	}
 
     public static Object evaluateFieldPath(GenericEntity entity, List<EntityField> fieldPath, boolean penUltimate) {
@@ -169,29 +130,4 @@ public class ValuePullMigrator extends JavaMigrator {
 		}
 		return value;
 	}
-
-    private static void check(Type targetType, Object value) {
-        if (value == null) {
-            if (targetType instanceof Class && ((Class<?>) targetType).isPrimitive()) {
-				throw new IllegalArgumentException(
-                        "Null value cannot be assigned to primitive type " + PersistenceUtils.toString(targetType));
-			}
-        } else if (targetType instanceof EntityType) {
-            if (!(value instanceof GenericEntity)) {
-				throw new IllegalArgumentException(
-                        "Value of type " + value.getClass().getName() + " cannot be assigned to a field of type " + targetType);
-			}
-            if (!((EntityType) targetType).isAssignableFrom(((GenericEntity) value).getType())) {
-				throw new IllegalArgumentException(
-                        "Value of type " + PersistenceUtils.toString(value.getClass()) + " cannot be assigned to a field of type "
-                                + targetType);
-			}
-        } else if (value instanceof GenericEntity) {
-            throw new IllegalArgumentException("Value of type " + ((GenericEntity) value).getType()
-                    + " cannot be assigned to a field of type " + PersistenceUtils.toString(targetType));
-        } else if (!PersistenceUtils.isConvertible(value.getClass(), targetType)) {
-            throw new IllegalArgumentException("Value of type " + PersistenceUtils.toString(value.getClass())
-                    + " cannot be assigned to a field of type " + PersistenceUtils.toString(targetType));
-        }
-    }
 }
@@ -1,8 +1,5 @@
 package org.migration.migrators;
 
-import java.util.Arrays;
-import java.util.List;
-
 import org.jdom2.Element;
 import org.migration.MigrationSet;
 import org.migration.TypeSetDissecter;
@@ -18,7 +15,8 @@ public class ValuePushMigrator extends JavaMigrator {
 	private String theFieldPathStr;
 
 	private EntityField theField;
-	private List<EntityField> theFieldPath;
+	private FieldPath theSourcePath;
+	private FieldPath theFieldPath;
 
     @Override
     public JavaMigrator init(String entity, Element config, MigrationSet migration, MigratorFactory factory) {
@@ -34,15 +32,15 @@ public class ValuePushMigrator extends JavaMigrator {
 		theField = getEntity().getField(theFieldName);
 		if (theField == null)
 			throw new IllegalArgumentException("Unrecognized field " + getEntity() + "." + theFieldName);
-		theFieldPath = ValuePullMigrator.getFieldPath(getEntity(), theFieldPathStr);
-		EntityField pathTerminus = theFieldPath.get(theFieldPath.size() - 1);
-        ValuePullMigrator.checkPotentialAssignment(theField, pathTerminus);
+		theFieldPath = FieldPath.compile(getEntity(), theFieldPathStr);
+		theSourcePath = FieldPath.of(theField);
+		ValuePullMigrator.checkPotentialAssignment(theField, theFieldPath.getTerminus());
 		return this;
 	}
 
 	@Override
 	public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
-		ValuePullMigrator.assign(oldVersionEntity, Arrays.asList(theField), theFieldPath, allEntities, dissecter);
+		theFieldPath.assign(oldVersionEntity, theSourcePath.evaluate(oldVersionEntity), allEntities, dissecter);
 		return oldVersionEntity;
     }
 }
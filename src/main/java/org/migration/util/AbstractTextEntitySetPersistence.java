@@ -5,20 +5,24 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.reflect.Type;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.List;
+import java.util.RandomAccess;
 import java.util.function.Consumer;
 
 import org.migration.CollectionDissecter;
 import org.migration.Dissecter;
 import org.migration.DissecterGenerator;
+import org.migration.ConsoleMigrationListener;
 import org.migration.EntitySetPersistence;
+import org.migration.MigrationListener;
 import org.migration.SimpleFormat;
 import org.migration.TypeSetDissecter;
 import org.migration.TypedField;
@@ -33,8 +37,65 @@ import org.qommons.io.HierarchicalResourceWriter;
 
 public abstract class AbstractTextEntitySetPersistence implements EntitySetPersistence {
 	protected static abstract class AbstractTextEntityWriter implements EntityWriter {
+		/** Orders entities by integral identities without dispatching through {@link Comparable} */
+		private static final Comparator<GenericEntity> INTEGRAL_ID_ORDER = (e1, e2) -> Long
+				.compare(((Number) e1.getIdentity()).longValue(), ((Number) e2.getIdentity()).longValue());
+		@SuppressWarnings("unchecked")
+		private static final Comparator<GenericEntity> ID_ORDER = (e1, e2) -> ((Comparable<Object>) e1.getIdentity())
+				.compareTo(e2.getIdentity());
+
+		/** A reusable buffer an unordered entity collection is copied into and sorted in, presented as a list of its contents */
+		private static class SortedEntities extends AbstractList<GenericEntity> implements RandomAccess {
+			private GenericEntity[] theEntities = new GenericEntity[16];
+			private int theSize;
+
+			void sort(Iterable<?> elements, Comparator<GenericEntity> order) {
+				if (elements instanceof Collection) {
+					Collection<?> collection = (Collection<?>) elements;
+					if (theEntities.length < collection.size()) {
+						theEntities = new GenericEntity[collection.size()];
+					}
+					theSize = collection.size();
+					collection.toArray(theEntities);
+				} else {
+					for (Object el : elements) {
+						if (theSize == theEntities.length) {
+							theEntities = Arrays.copyOf(theEntities, theSize * 2);
+						}
+						theEntities[theSize++] = (GenericEntity) el;
+					}
+				}
+				// Stable, so entities with equal identities stay in the collection's order
+				Arrays.sort(theEntities, 0, theSize, order);
+			}
+
+			/** Drops the references to the entities so the buffer can be reused */
+			void release() {
+				Arrays.fill(theEntities, 0, theSize, null);
+				theSize = 0;
+			}
+
+			@Override
+			public GenericEntity get(int index) {
+				if (index < 0 || index >= theSize) {
+					throw new IndexOutOfBoundsException(index + " of " + theSize);
+				}
+				return theEntities[index];
+			}
+
+			@Override
+			public int size() {
+				return theSize;
+			}
+		}
+
 		private final EntityType theType;
 		private final TypeSetDissecter theDissecter;
+		/** Null while in use, so that a collection written while writing another gets its own */
+		private SortedEntities theSorted;
+		/** Sub-field value arrays for complex values, by nesting depth */
+		private Object[][] theSubFieldValues;
+		private int theComplexDepth;
 
 		protected AbstractTextEntityWriter(EntityType type, TypeSetDissecter dissecter) {
 			theType = type;
@@ -102,11 +163,16 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 			if (dissecter instanceof ValueDissecter) {
 				ValueDissecter vd = (ValueDissecter) dissecter;
 				TypedField[] subFields = vd.getFields();
-				Object[] subFieldValues = new Object[subFields.length];
-				for (int i = 0; i < subFields.length; i++) {
-					subFieldValues[i] = vd.getFieldValue(fieldValue, subFields[i].name);
+				Object[] subFieldValues = borrowSubFieldValues(subFields.length);
+				try {
+					for (int i = 0; i < subFields.length; i++) {
+						subFieldValues[i] = vd.getFieldValue(fieldValue, subFields[i].name);
+					}
+					return writeComplexField(fieldName, writeType ? subType : null, subFields, field, subFieldValues);
+				} finally {
+					Arrays.fill(subFieldValues, null);
+					theComplexDepth--;
 				}
-				return writeComplexField(fieldName, writeType ? subType : null, subFields, field, subFieldValues);
 			} else if (dissecter instanceof CollectionDissecter) {
 				CollectionDissecter cd = (CollectionDissecter) dissecter;
 				Type componentType = cd.getComponentType();
@@ -114,25 +180,20 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 				if (componentType instanceof EntityType && maySort && ((EntityType) componentType).getIdField().getType() instanceof Class
 						&& isComparable((Class<?>) ((EntityType) componentType).getIdField().getType())) {
 					// If there's not an explicit order to the collection, re-order by ID for consistency in the XML
-					List<GenericEntity> sorted = new ArrayList<>();
-					Comparator<GenericEntity> compare = new Comparator<GenericEntity>() {
-						@Override
-						public int compare(GenericEntity o1, GenericEntity o2) {
-							return ((Comparable<Object>) o1.getIdentity()).compareTo(o2.getIdentity());
-						}
-					};
-					for (Object el : elements) {
-						int index = Collections.binarySearch(sorted, (GenericEntity) el, compare);
-						if (index >= 0) {
-							do {
-								index++;
-							} while (index < sorted.size() && compare.compare((GenericEntity) el, sorted.get(index)) == 0);
-						} else {
-							index = -(index + 1);
-						}
-						sorted.add(index, (GenericEntity) el);
+					Class<?> idType = ReflectionUtils.wrap((Class<?>) ((EntityType) componentType).getIdField().getType());
+					boolean integral = idType == Long.class || idType == Integer.class || idType == Short.class || idType == Byte.class;
+					SortedEntities sorted = theSorted;
+					theSorted = null;
+					if (sorted == null) {
+						sorted = new SortedEntities();
+					}
+					try {
+						sorted.sort(elements, integral ? INTEGRAL_ID_ORDER : ID_ORDER);
+						return writeCollectionField(fieldName, writeType ? subType : null, fieldType, cd, field, sorted);
+					} finally {
+						sorted.release();
+						theSorted = sorted;
 					}
-					elements = sorted;
 				}
 				return writeCollectionField(fieldName, writeType ? subType : null, fieldType, cd, field, elements);
 			} else {
@@ -140,6 +201,22 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 			}
 		}
 
+		/** @return An array for the sub-field values of a complex value at the current nesting depth, which must be returned after use */
+		private Object[] borrowSubFieldValues(int length) {
+			if (theSubFieldValues == null) {
+				theSubFieldValues = new Object[4][];
+			} else if (theComplexDepth == theSubFieldValues.length) {
+				theSubFieldValues = Arrays.copyOf(theSubFieldValues, theComplexDepth * 2);
+			}
+			Object[] values = theSubFieldValues[theComplexDepth];
+			if (values == null || values.length != length) {
+				values = new Object[length];
+				theSubFieldValues[theComplexDepth] = values;
+			}
+			theComplexDepth++;
+			return values;
+		}
+
 		protected abstract void beginEntity(GenericEntity entity) throws IOException;
 
 		protected abstract void endEntity(GenericEntity entity) throws IOException;
@@ -151,9 +228,11 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 		protected abstract void writeSimpleField(String fieldName, Type type, String subType, EntityField field, String serializedValue)
 				throws IOException;
 
+		/** The sub-field values array is reused once this returns, so implementations must not keep it */
 		protected abstract boolean writeComplexField(String fieldName, String subType, TypedField[] subFields, EntityField field,
 				Object[] subFieldValues) throws IOException;
 
+		/** Sorted elements are in a buffer that is reused once this returns, so implementations must not keep it */
 		protected abstract boolean writeCollectionField(String fieldName, String subType, Type collectionType, CollectionDissecter cd,
 				EntityField field, Iterable<?> elements) throws IOException;
 	}
@@ -164,6 +243,10 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 		private final HierarchicalResourceReader theReader;
 		private final String theFileName;
 		private InputStream theInput;
+		private PendingLinks thePendingLinks;
+		private boolean hasForwardReference;
+		private boolean isOverlay;
+		private MigrationListener theListener = ConsoleMigrationListener.INSTANCE;
 
 		protected AbstractTextEntityReader(EntityType type, TypeSetDissecter dissecter, HierarchicalResourceReader reader,
 				String fileName) {
@@ -181,8 +264,18 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 			return theDissecter;
 		}
 
+		@Override
+		public void setOverlay(boolean overlay) {
+			isOverlay = overlay;
+		}
+
+		@Override
+		public void setListener(MigrationListener listener) {
+			theListener = listener == null ? ConsoleMigrationListener.INSTANCE : listener;
+		}
+
 		protected boolean fileExists() throws IOException {
-			if (theInput != null) {
+			if (theInput != null || isMapped()) {
 				return true;
 			}
 			try {
@@ -195,69 +288,20 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 
 		@Override
 		public boolean readEntityIdentities(GenericEntitySet entities, Consumer<GenericEntity> onEntity) throws IOException {
-			InputStream in = theInput;
-			theInput = null;
+			Reader in = openInput();
 			if (in == null) {
-				try {
-					in = theReader.readResource(theFileName);
-				} catch (IOException e) {
-					throw new IOException("Could not read " + theFileName, e);
-				}
-				if (in == null) {
-					return true;
-				}
+				return true;
 			}
 			boolean[] success = new boolean[] { true };
 			try {
-				System.out.println("\tCreating entities of " + theType.getName() + " from " + theFileName);
-				try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+				theListener.progress("\tCreating entities of " + theType.getName() + " from " + theFileName);
+				try (BufferedReader reader = new BufferedReader(in)) {
 					parseEntityStructures(reader, entities, element -> {
-						GenericEntity item;
-						try {
-							item = entities.addEntity(theType.getName());
-						} catch (Exception e) {
-							System.err.println("Could not instantiate entity of type " + theType.getName());
-							e.printStackTrace();
-							success[0] = false;
-							return;
-						}
-
-						boolean itemSuccess = true;
-						// Set the ID
-						EntityField idField = theType.getIdField();
-						String idString = getIdentity(element);
-						Object idValue;
-						try {
-							SimpleFormat idFormat = theDissecter.getFormat((Class<?>) idField.getType());
-							idValue = idFormat.parse((Class<?>) idField.getType(), idString);
-
-							GenericEntity duplicate = entities.queryById(theType, idValue);
-							if (duplicate != null && duplicate != item) {
-								System.err.println(
-										"Duplicate " + theType.getName() + " instances found with " + idField.getName() + " " + idValue);
-								itemSuccess = false;
-							}
-
-							if (itemSuccess && idValue == null) {
-								System.err.println("No ID set for " + theType);
-								itemSuccess = false;
-							}
-							if (itemSuccess) {
-								item.set(idField.getName(), idValue);
-							}
-						} catch (RuntimeException e) {
-							System.err.println("Could not parse " + idField + " from " + idString);
-							e.printStackTrace();
-							itemSuccess = false;
-						}
-
-						if (!itemSuccess) {
-							entities.remove(item);
-						}
-						if (itemSuccess && onEntity != null) {
+						GenericEntity item = createEntity(element, entities);
+						if (item != null && onEntity != null) {
 							onEntity.accept(item);
 						}
-						success[0] &= itemSuccess;
+						success[0] &= item != null;
 					});
 				} catch (Exception e) {
 					System.err.println("Could not finish parsing data for " + theType.getName());
@@ -276,9 +320,9 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 
 		@Override
 		public boolean populateEntityFields(GenericEntitySet entities, Consumer<GenericEntity> onCompleteEntity) throws IOException {
-			InputStream in;
+			Reader in;
 			try {
-				in = theReader.readResource(theFileName);
+				in = openInput();
 			} catch (IOException e) {
 				System.err.println("Could not read " + theFileName);
 				e.printStackTrace();
@@ -289,15 +333,14 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 			}
 			boolean[] success = new boolean[] { true };
 			try {
-				System.out.println("\tParsing data for entity " + theType.getName() + " from " + theFileName);
-				try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+				theListener.progress("\tParsing data for entity " + theType.getName() + " from " + theFileName);
+				try (BufferedReader reader = new BufferedReader(in)) {
 					parseEntityStructures(reader, entities, element -> {
 						EntityField idField = theType.getIdField();
 						Object idValue;
 						try {
 							SimpleFormat idFormat = theDissecter.getFormat((Class<?>) idField.getType());
-							String idString = getIdentity(element);
-							idValue = idFormat.parse((Class<?>) idField.getType(), idString);
+							idValue = parseIdentity(element, idFormat, (Class<?>) idField.getType());
 						} catch (RuntimeException e) {
 							return; // Presumably, we caught this the last time
 						}
@@ -324,11 +367,243 @@ public abstract class AbstractTextEntitySetPersistence implements EntitySetPersi
 			return success[0];
 		}
 
+		/**
+		 * Reads the file once, creating each entity and populating its fields together. An entity with a reference to an entity that has
+		 * not been read yet is kept with its parsed structure, and its fields are populated again when the links are resolved.
+		 */
+		@Override
+		public boolean readEntities(GenericEntitySet entities, PendingLinks links, Consumer<GenericEntity> onCompleteEntity)
+				throws IOException {
+			Reader in = openInput();
+			if (in == null) {
+				return true;
+			}
+			boolean[] success = new boolean[] { true };
+			try {
+				theListener.progress("\tReading entities of " + theType.getName() + " from " + theFileName);
+				try (BufferedReader reader = new BufferedReader(in)) {
+					parseEntityStructures(reader, entities, element -> {
+						GenericEntity item = createEntity(element, entities);
+						if (item == null) {
+							success[0] = false;
+							return;
+						}
+						thePendingLinks = links;
+						hasForwardReference = false;
+						boolean itemSuccess;
+						try {
+							itemSuccess = deserializeFieldsFor(item, element, entities);
+						} finally {
+							thePendingLinks = null;
+						}
+						if (hasForwardReference) {
+							E retained = retain(element);
+							links.add(() -> {
+								boolean linked;
+								try {
+									linked = deserializeFieldsFor(item, retained, entities);
+								} catch (RuntimeException e) {
+									System.err.println("Could not link data for " + theType.getName() + " " + item.getIdentity());
+									e.printStackTrace();
+									return false;
+								}
+								if (linked && onCompleteEntity != null) {
+									onCompleteEntity.accept(item);
+								}
+								return linked;
+							});
+							return;
+						}
+						if (itemSuccess && onCompleteEntity != null) {
+							onCompleteEntity.accept(item);
+						}
+						success[0] &= itemSuccess;
+					});
+				} catch (Exception e) {
+					System.err.println("Could not finish parsing data for " + theType.getName());
+					e.printStackTrace();
+					success[0] = false;
+				}
+				return success[0];
+			} finally {
+				thePendingLinks = null;
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * Resolves a reference to another entity from its identity. During a {@link #readEntities(GenericEntitySet, PendingLinks, Consumer)
+		 * single-pass read}, a reference to an entity that has not been read yet is recorded as a forward reference to be patched later,
+		 * instead of being reported as an error.
+		 *
+		 * @param entities
+		 *            The entity set being read
+		 * @param type
+		 *            The type of the referenced entity
+		 * @param id
+		 *            The identity of the referenced entity
+		 * @param field
+		 *            The field containing the reference
+		 * @return The referenced entity, or null if it does not exist (yet)
+		 */
+		protected GenericEntity resolveReference(GenericEntitySet entities, EntityType type, Object id, EntityField field) {
+			GenericEntity ref;
+			if (thePendingLinks != null) {
+				// Entities of other types may be being created concurrently
+				synchronized (entities) {
+					ref = entities.queryById(type, id);
+				}
+			} else {
+				ref = entities.queryById(type, id);
+			}
+			if (ref == null) {
+				if (thePendingLinks != null) {
+					hasForwardReference = true;
+				} else {
+					System.err.println("No such " + type + " with " + type.getIdField().getName() + " " + id + " for " + field);
+				}
+			}
+			return ref;
+		}
+
+		private boolean isMapped() {
+			return theReader instanceof MappedResourceReader && ((MappedResourceReader) theReader).isMappable(theFileName);
+		}
+
+		/** @return A reader for the file, decoding straight from the file's mapped bytes if possible, or null if it does not exist */
+		private Reader openInput() throws IOException {
+			if (isMapped()) {
+				try {
+					return ((MappedResourceReader) theReader).mapText(theFileName, Charset.forName("UTF-8"));
+				} catch (IOException e) {
+					throw new IOException("Could not map " + theFileName, e);
+				}
+			}
+			InputStream in = theInput;
+			theInput = null;
+			if (in == null) {
+				try {
+					in = theReader.readResource(theFileName);
+				} catch (IOException e) {
+					throw new IOException("Could not read " + theFileName, e);
+				}
+			}
+			return in == null ? null : new InputStreamReader(in, Charset.forName("UTF-8"));
+		}
+
+		/**
+		 * Creates an entity, synchronized on the entity set, since readers for different types may run concurrently
+		 *
+		 * @return The new entity with its identity set, or null if it could not be created
+		 */
+		private GenericEntity createEntity(E element, GenericEntitySet entities) {
+			synchronized (entities) {
+				return createEntityLocked(element, entities);
+			}
+		}
+
+		private GenericEntity createEntityLocked(E element, GenericEntitySet entities) {
+			if (isOverlay) {
+				GenericEntity existing = getOverlaid(element, entities);
+				if (existing != null) {
+					return existing;
+				}
+			}
+			GenericEntity item;
+			try {
+				item = entities.addEntity(theType.getName());
+			} catch (Exception e) {
+				System.err.println("Could not instantiate entity of type " + theType.getName());
+				e.printStackTrace();
+				return null;
+			}
+
+			boolean itemSuccess = true;
+			// Set the ID
+			EntityField idField = theType.getIdField();
+			Object idValue;
+			try {
+				SimpleFormat idFormat = theDissecter.getFormat((Class<?>) idField.getType());
+				idValue = parseIdentity(element, idFormat, (Class<?>) idField.getType());
+
+				GenericEntity duplicate = entities.queryById(theType, idValue);
+				if (duplicate != null && duplicate != item) {
+					System.err.println("Duplicate " + theType.getName() + " instances found with " + idField.getName() + " " + idValue);
+					itemSuccess = false;
+				}
+
+				if (itemSuccess && idValue == null) {
+					System.err.println("No ID set for " + theType);
+					itemSuccess = false;
+				}
+				if (itemSuccess) {
+					item.set(idField.getName(), idValue);
+				}
+			} catch (RuntimeException e) {
+				System.err.println("Could not parse " + idField + " from " + getIdentity(element));
+				e.printStackTrace();
+				itemSuccess = false;
+			}
+
+			if (!itemSuccess) {
+				entities.remove(item);
+				return null;
+			}
+			return item;
+		}
+
+		/** @return The existing entity the given element replaces the fields of, or null if it is new */
+		private GenericEntity getOverlaid(E element, GenericEntitySet entities) {
+			EntityField idField = theType.getIdField();
+			GenericEntity existing;
+			try {
+				SimpleFormat idFormat = theDissecter.getFormat((Class<?>) idField.getType());
+				Object idValue = parseIdentity(element, idFormat, (Class<?>) idField.getType());
+				existing = idValue == null ? null : entities.queryById(theType, idValue);
+			} catch (RuntimeException e) {
+				return null; // Reported when the entity is created
+			}
+			if (existing == null || !existing.getType().getName().equals(theType.getName())) {
+				return null; // An entity of another type is reported as a duplicate
+			}
+			PersistenceUtils.clearFields(existing, theType);
+			return existing;
+		}
+
 		protected abstract void parseEntityStructures(BufferedReader reader, GenericEntitySet entities, Consumer<E> onEntity)
 				throws IOException;
 
 		protected abstract String getIdentity(E entityStructure);
 
+		/**
+		 * Parses the identity of an entity structure. By default this parses the string from {@link #getIdentity(Object)}; structures that
+		 * can be parsed in place may override this.
+		 *
+		 * @param entityStructure
+		 *            The entity structure
+		 * @param format
+		 *            The format of the identity
+		 * @param type
+		 *            The type of the identity
+		 * @return The parsed identity
+		 */
+		protected Object parseIdentity(E entityStructure, SimpleFormat format, Class<?> type) {
+			return format.parse(type, getIdentity(entityStructure));
+		}
+
+		/**
+		 * @param entityStructure
+		 *            A structure passed to the consumer of {@link #parseEntityStructures(BufferedReader, GenericEntitySet, Consumer)}
+		 * @return The structure, or a copy of it if the parser may reuse it for subsequent entities
+		 */
+		protected E retain(E entityStructure) {
+			return entityStructure;
+		}
+
 		protected abstract boolean deserializeFieldsFor(GenericEntity item, E element, GenericEntitySet entities);
 	}
 
@@ -0,0 +1,1226 @@
+package org.migration.util;
+
+import static org.migration.util.AbstractTextEntitySetPersistence.isSerializable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.migration.CollectionDissecter;
+import org.migration.Dissecter;
+import org.migration.DissecterGenerator;
+import org.migration.ConsoleMigrationListener;
+import org.migration.EntitySetPersistence;
+import org.migration.MigrationListener;
+import org.migration.SimpleFormat;
+import org.migration.TypeSetDissecter;
+import org.migration.TypedField;
+import org.migration.ValueDissecter;
+import org.migration.generic.EntityField;
+import org.migration.generic.EntityType;
+import org.migration.generic.EnumType;
+import org.migration.generic.EnumValue;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/**
+ * <p>
+ * Reads and writes entities from/to compact binary files, one per entity type.
+ * </p>
+ * <p>
+ * Each file starts with a header recording the name and type of each of the entity type's serialized fields, which must match the type
+ * when the file is read. The header is followed by records, each a kind byte and (except for the end record) a varint length:
+ * <ul>
+ * <li>String definitions, adding a short string to the file's dictionary. Strings in the dictionary, including enum values and
+ * sub-types, are written by index afterward.</li>
+ * <li>Rows, each containing an entity's identity and then its field values in header order</li>
+ * <li>An end record</li>
+ * </ul>
+ * Integral identities, references and numbers are written as varints. Dates, durations and {@link ValueDissecter dissected} values have
+ * typed encodings. Other simple types are written with their {@link SimpleFormat}.
+ * </p>
+ * <p>
+ * Files read through a {@link MappedResourceReader} are decoded in place from the mapped file, and dictionary strings are only decoded
+ * when a value uses them.
+ * </p>
+ */
+public class BinaryEntitySetPersistence implements EntitySetPersistence {
+	private static final byte[] MAGIC = { 'E', 'M', 'B', 'N' };
+	private static final int VERSION = 1;
+
+	static final int STRING_RECORD = 'S';
+	static final int ROW_RECORD = 'R';
+	static final int END_RECORD = 'E';
+
+	static final int NULL_VALUE = 0;
+	static final int PRESENT_VALUE = 1;
+	static final int SUBTYPED_VALUE = 2;
+
+	/** Longer strings are always written inline */
+	private static final int MAX_DICTIONARY_STRING = 128;
+	/** The maximum number of strings in a file's dictionary */
+	private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+	/** A growable buffer that a row is encoded into before it is written */
+	static class RowOutput {
+		private byte[] theBytes = new byte[256];
+		private int theLength;
+
+		void reset() {
+			theLength = 0;
+		}
+
+		int length() {
+			return theLength;
+		}
+
+		void write(int b) {
+			ensureCapacity(1);
+			theBytes[theLength++] = (byte) b;
+		}
+
+		void write(byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, theBytes, theLength, bytes.length);
+			theLength += bytes.length;
+		}
+
+		void writeVarLong(long value) {
+			while ((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		void writeSignedVarLong(long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		void writeInt(int value) {
+			write(value >>> 24);
+			write(value >>> 16);
+			write(value >>> 8);
+			write(value);
+		}
+
+		void writeLong(long value) {
+			writeInt((int) (value >>> 32));
+			writeInt((int) value);
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			out.write(theBytes, 0, theLength);
+		}
+
+		void copyFrom(RowOutput other) {
+			theLength = 0;
+			ensureCapacity(other.theLength);
+			System.arraycopy(other.theBytes, 0, theBytes, 0, other.theLength);
+			theLength = other.theLength;
+		}
+
+		boolean contentEquals(RowOutput other) {
+			if (theLength != other.theLength) {
+				return false;
+			}
+			for (int i = 0; i < theLength; i++) {
+				if (theBytes[i] != other.theBytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void ensureCapacity(int more) {
+			if (theLength + more > theBytes.length) {
+				theBytes = Arrays.copyOf(theBytes, Math.max(theBytes.length * 2, theLength + more));
+			}
+		}
+	}
+
+	/** Decodes a row in place from a buffer, which may be a reusable array or a mapped file */
+	static class RowInput {
+		private ByteBuffer theBytes;
+		private int thePosition;
+		private int theEnd;
+
+		void reset(ByteBuffer bytes, int start, int end) {
+			theBytes = bytes;
+			thePosition = start;
+			theEnd = end;
+		}
+
+		int position() {
+			return thePosition;
+		}
+
+		void position(int position) {
+			thePosition = position;
+		}
+
+		/**
+		 * @param start
+		 *            The position to start the copy at
+		 * @param copy
+		 *            Whether the buffer may be reused and must be copied
+		 * @return An input over the rest of this row from the given position
+		 */
+		RowInput retain(int start, boolean copy) {
+			RowInput retained = new RowInput();
+			if (copy) {
+				retained.reset(ByteBuffer.wrap(read(start, theEnd - start)), 0, theEnd - start);
+			} else {
+				retained.reset(theBytes, start, theEnd);
+			}
+			return retained;
+		}
+
+		int read() {
+			if (thePosition >= theEnd) {
+				throw new IllegalStateException("Row is truncated");
+			}
+			return theBytes.get(thePosition++) & 0xFF;
+		}
+
+		byte[] read(int length) {
+			if (length < 0 || length > theEnd - thePosition) {
+				throw new IllegalStateException("Row is truncated");
+			}
+			byte[] ret = read(thePosition, length);
+			thePosition += length;
+			return ret;
+		}
+
+		private byte[] read(int start, int length) {
+			byte[] ret = new byte[length];
+			ByteBuffer bytes = theBytes.duplicate();
+			bytes.position(start);
+			bytes.get(ret);
+			return ret;
+		}
+
+		long readVarLong() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = read();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IllegalStateException("Malformed varint");
+		}
+
+		long readSignedVarLong() {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		int readLength() {
+			long length = readVarLong();
+			if (length > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Malformed length " + length);
+			}
+			return (int) length;
+		}
+
+		int readInt() {
+			return (read() << 24) | (read() << 16) | (read() << 8) | read();
+		}
+
+		long readLong() {
+			return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+		}
+	}
+
+	/** A file's string dictionary. Strings defined in a mapped file are only decoded when a value first uses them. */
+	static class Dictionary {
+		private final List<String> theStrings = new ArrayList<>();
+		private ByteBuffer theSource;
+		private int[] theLocations = new int[0];
+
+		void clear() {
+			theStrings.clear();
+			theSource = null;
+		}
+
+		int size() {
+			return theStrings.size();
+		}
+
+		void add(String value) {
+			theStrings.add(value);
+		}
+
+		void define(ByteBuffer source, int offset, int length) {
+			int index = theStrings.size();
+			theSource = source;
+			if (theLocations.length < (index + 1) * 2) {
+				theLocations = Arrays.copyOf(theLocations, Math.max(theLocations.length * 2, 64));
+			}
+			theLocations[index * 2] = offset;
+			theLocations[index * 2 + 1] = length;
+			theStrings.add(null);
+		}
+
+		String get(int index) {
+			String value = theStrings.get(index);
+			if (value == null) {
+				byte[] bytes = new byte[theLocations[index * 2 + 1]];
+				ByteBuffer source = theSource.duplicate();
+				source.position(theLocations[index * 2]);
+				source.get(bytes);
+				value = new String(bytes, StandardCharsets.UTF_8);
+				theStrings.set(index, value);
+			}
+			return value;
+		}
+	}
+
+	/** The records of an entity file, read from a stream or in place from a mapped file */
+	static abstract class RecordInput implements Closeable {
+		/** @return The next byte, or -1 at the end of the input */
+		abstract int read() throws IOException;
+
+		abstract byte[] read(int length) throws IOException;
+
+		/** Reads a string definition's content into the dictionary */
+		abstract void readDefinition(int length, Dictionary dictionary) throws IOException;
+
+		/** Points the row input at the next row's content */
+		abstract void readRow(int length, RowInput row) throws IOException;
+
+		/** @return Whether the content of a row is overwritten by the next row */
+		abstract boolean reusesRows();
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = read();
+				if (b < 0) {
+					throw new EOFException();
+				}
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Malformed varint");
+		}
+
+		int readLength() throws IOException {
+			long length = readVarLong();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Malformed length " + length);
+			}
+			return (int) length;
+		}
+
+		String readString() throws IOException {
+			return new String(read(readLength()), StandardCharsets.UTF_8);
+		}
+	}
+
+	static class StreamRecordInput extends RecordInput {
+		private final DataInputStream theStream;
+		private byte[] theRowBytes;
+		private ByteBuffer theRowBuffer;
+
+		StreamRecordInput(InputStream stream) {
+			theStream = new DataInputStream(new BufferedInputStream(stream));
+			theRowBytes = new byte[256];
+			theRowBuffer = ByteBuffer.wrap(theRowBytes);
+		}
+
+		@Override
+		int read() throws IOException {
+			return theStream.read();
+		}
+
+		@Override
+		byte[] read(int length) throws IOException {
+			byte[] bytes = new byte[length];
+			theStream.readFully(bytes);
+			return bytes;
+		}
+
+		@Override
+		void readDefinition(int length, Dictionary dictionary) throws IOException {
+			dictionary.add(new String(read(length), StandardCharsets.UTF_8));
+		}
+
+		@Override
+		void readRow(int length, RowInput row) throws IOException {
+			if (theRowBytes.length < length) {
+				theRowBytes = new byte[Math.max(theRowBytes.length * 2, length)];
+				theRowBuffer = ByteBuffer.wrap(theRowBytes);
+			}
+			theStream.readFully(theRowBytes, 0, length);
+			row.reset(theRowBuffer, 0, length);
+		}
+
+		@Override
+		boolean reusesRows() {
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			theStream.close();
+		}
+	}
+
+	static class MappedRecordInput extends RecordInput {
+		private final ByteBuffer theBytes;
+
+		MappedRecordInput(ByteBuffer bytes) {
+			theBytes = bytes;
+		}
+
+		@Override
+		int read() {
+			return theBytes.hasRemaining() ? theBytes.get() & 0xFF : -1;
+		}
+
+		@Override
+		byte[] read(int length) throws IOException {
+			byte[] bytes = new byte[skip(length)];
+			theBytes.get(bytes);
+			return bytes;
+		}
+
+		@Override
+		void readDefinition(int length, Dictionary dictionary) throws IOException {
+			dictionary.define(theBytes, theBytes.position(), skip(length));
+			theBytes.position(theBytes.position() + length);
+		}
+
+		@Override
+		void readRow(int length, RowInput row) throws IOException {
+			int start = theBytes.position();
+			row.reset(theBytes, start, start + skip(length));
+			theBytes.position(start + length);
+		}
+
+		private int skip(int length) throws EOFException {
+			if (length > theBytes.remaining()) {
+				throw new EOFException();
+			}
+			return length;
+		}
+
+		@Override
+		boolean reusesRows() {
+			return false;
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	/** Encodes values into a row buffer, writing the definitions of new dictionary strings to the output ahead of the row */
+	static class ValueEncoder {
+		private final TypeSetDissecter theDissecter;
+		final OutputStream theOut;
+		final RowOutput theRow;
+		private final Map<String, Integer> theDictionary;
+
+		ValueEncoder(TypeSetDissecter dissecter, OutputStream out) {
+			theDissecter = dissecter;
+			theOut = out;
+			theRow = new RowOutput();
+			theDictionary = new HashMap<>();
+		}
+
+		void writeIdentity(EntityType type, Object id) throws IOException {
+			if (type.getIdField().getType() == String.class) {
+				writeDictionaryString((String) id);
+			} else {
+				theRow.writeSignedVarLong(((Number) id).longValue());
+			}
+		}
+
+		boolean writeValue(Type type, EntityField field, Object value) throws IOException {
+			if (value == null) {
+				theRow.write(NULL_VALUE);
+				return true;
+			} else if (type instanceof EntityType) {
+				theRow.write(PRESENT_VALUE);
+				writeIdentity((EntityType) type, ((GenericEntity) value).getIdentity());
+				return true;
+			} else if (type instanceof EnumType) {
+				theRow.write(PRESENT_VALUE);
+				writeDictionaryString(((EnumValue) value).getName());
+				return true;
+			}
+			Class<?> raw = PersistenceUtils.getRawType(type);
+			SimpleFormat format = theDissecter.getFormat(raw);
+			if (format != null) {
+				theRow.write(PRESENT_VALUE);
+				writeSimple(raw, format, value);
+				return true;
+			}
+			DissecterGenerator gen = theDissecter.getDissecter(value.getClass());
+			if (gen == null) {
+				throw new IllegalArgumentException("Unrecognized type: " + PersistenceUtils.toString(type));
+			}
+			String subType = gen.getSubType(value.getClass());
+			// No need to record the sub-type if it's the same as the type
+			if (subType != null && !subType.equals(gen.getSubType(raw))) {
+				theRow.write(SUBTYPED_VALUE);
+				writeDictionaryString(subType);
+			} else {
+				theRow.write(PRESENT_VALUE);
+			}
+			Dissecter dissecter = gen.dissect(type, subType);
+			boolean success = true;
+			if (dissecter instanceof ValueDissecter) {
+				ValueDissecter vd = (ValueDissecter) dissecter;
+				for (TypedField subField : vd.getFields()) {
+					success &= writeValue(subField.type, field, vd.getFieldValue(value, subField.name));
+				}
+			} else if (dissecter instanceof CollectionDissecter) {
+				CollectionDissecter cd = (CollectionDissecter) dissecter;
+				List<Object> elements = new ArrayList<>();
+				for (Object element : cd.getElements(value)) {
+					elements.add(element);
+				}
+				theRow.writeVarLong(elements.size());
+				for (Object element : elements) {
+					success &= writeValue(cd.getComponentType(), field, element);
+				}
+			} else {
+				throw new IllegalArgumentException("Unrecognized type: " + PersistenceUtils.toString(type));
+			}
+			return success;
+		}
+
+		private void writeSimple(Class<?> raw, SimpleFormat format, Object value) throws IOException {
+			Class<?> type = ReflectionUtils.wrap(raw);
+			if (type == Boolean.class) {
+				theRow.write(((Boolean) value) ? 1 : 0);
+			} else if (type == Character.class) {
+				theRow.writeVarLong((Character) value);
+			} else if (type == Byte.class || type == Short.class || type == Integer.class || type == Long.class) {
+				theRow.writeSignedVarLong(((Number) value).longValue());
+			} else if (type == Float.class) {
+				theRow.writeInt(Float.floatToRawIntBits((Float) value));
+			} else if (type == Double.class) {
+				theRow.writeLong(Double.doubleToRawLongBits((Double) value));
+			} else if (type == String.class) {
+				writeDictionaryString((String) value);
+			} else if (type == Timestamp.class) {
+				Timestamp time = (Timestamp) value;
+				theRow.writeSignedVarLong(time.getTime());
+				theRow.writeVarLong(time.getNanos() % 1_000_000);
+			} else if (type == Date.class) {
+				theRow.writeSignedVarLong(((Date) value).getTime());
+			} else if (type == Instant.class) {
+				theRow.writeSignedVarLong(((Instant) value).getEpochSecond());
+				theRow.writeVarLong(((Instant) value).getNano());
+			} else if (type == Duration.class) {
+				theRow.writeSignedVarLong(((Duration) value).getSeconds());
+				theRow.writeVarLong(((Duration) value).getNano());
+			} else if (type == byte[].class) {
+				theRow.writeVarLong(((byte[]) value).length);
+				theRow.write((byte[]) value);
+			} else {
+				writeDictionaryString(format.format(value));
+			}
+		}
+
+		/** Writes a string into the row, by its dictionary index if possible, defining it in the dictionary first if needed */
+		private void writeDictionaryString(String value) throws IOException {
+			if (value.length() <= MAX_DICTIONARY_STRING) {
+				Integer index = theDictionary.get(value);
+				if (index == null && theDictionary.size() < MAX_DICTIONARY_SIZE) {
+					index = theDictionary.size();
+					theDictionary.put(value, index);
+					theOut.write(STRING_RECORD);
+					writeString(theOut, value);
+				}
+				if (index != null) {
+					theRow.writeVarLong(index + 1L);
+					return;
+				}
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			theRow.writeVarLong(0);
+			theRow.writeVarLong(bytes.length);
+			theRow.write(bytes);
+		}
+	}
+
+	private class BinaryEntityWriter extends ValueEncoder implements EntityWriter {
+		private final EntityType theType;
+		private final List<EntityField> theColumns;
+
+		BinaryEntityWriter(EntityType type, OutputStream out) throws IOException {
+			super(BinaryEntitySetPersistence.this.theDissecter, out);
+			theType = type;
+			theColumns = getColumns(type);
+			theOut.write(MAGIC);
+			writeVarLong(theOut, VERSION);
+			writeString(theOut, type.getName());
+			writeVarLong(theOut, theColumns.size());
+			for (EntityField column : theColumns) {
+				writeString(theOut, column.getName());
+				writeString(theOut, PersistenceUtils.toString(column.getType()));
+			}
+		}
+
+		@Override
+		public boolean writeEntity(GenericEntity entity) throws IOException {
+			theRow.reset();
+			writeIdentity(theType, entity.get(theType.getIdField().getName()));
+			boolean success = true;
+			for (int c = 1; c < theColumns.size(); c++) {
+				EntityField column = theColumns.get(c);
+				success &= writeValue(column.getType(), column, entity.get(column.getName()));
+			}
+			// The row is only written once it is completely encoded
+			theOut.write(ROW_RECORD);
+			writeVarLong(theOut, theRow.length());
+			theRow.writeTo(theOut);
+			return success;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				theOut.write(END_RECORD);
+			} finally {
+				theOut.close();
+			}
+		}
+	}
+
+	/** Decodes values from rows, resolving references to other entities with {@link #resolveReference} */
+	static abstract class ValueDecoder {
+		private final TypeSetDissecter theDissecter;
+		final String theFileName;
+		final Dictionary theDictionary;
+		RowInput theRow;
+		/** The fields to replace in existing entities with the same identity, or null if such entities are duplicates */
+		Iterable<EntityField> theOverlaid;
+
+		ValueDecoder(TypeSetDissecter dissecter, String fileName) {
+			theDissecter = dissecter;
+			theFileName = fileName;
+			theDictionary = new Dictionary();
+			theRow = new RowInput();
+		}
+
+		/** @return The kind of the next row or end record, adding any strings defined before it to the dictionary */
+		int nextRecord(RecordInput in) throws IOException {
+			while (true) {
+				int kind = in.read();
+				switch (kind) {
+				case STRING_RECORD:
+					in.readDefinition(in.readLength(), theDictionary);
+					break;
+				case ROW_RECORD:
+					in.readRow(in.readLength(), theRow);
+					return kind;
+				case END_RECORD:
+					return kind;
+				case -1:
+					throw new EOFException(theFileName + " is truncated");
+				default:
+					throw new IOException("Unrecognized record " + kind + " in " + theFileName);
+				}
+			}
+		}
+
+		Object readIdentity(EntityType type) {
+			Type idType = type.getIdField().getType();
+			if (idType == String.class) {
+				return readDictionaryString();
+			}
+			long id = theRow.readSignedVarLong();
+			return idType == Integer.TYPE || idType == Integer.class ? (Object) (int) id : (Object) id;
+		}
+
+		/** Decodes a value, always consuming all of its bytes so the rest of the row can be read even if the value is unusable */
+		boolean readValue(Type type, EntityField field, GenericEntitySet entities, Object[] fieldValue) {
+			int tag = theRow.read();
+			if (tag == NULL_VALUE) {
+				fieldValue[0] = null;
+				return true;
+			} else if (type instanceof EntityType) {
+				fieldValue[0] = resolveReference(entities, (EntityType) type, readIdentity((EntityType) type), field);
+				return fieldValue[0] != null;
+			} else if (type instanceof EnumType) {
+				String name = readDictionaryString();
+				fieldValue[0] = ((EnumType) type).getValue(name);
+				if (fieldValue[0] == null) {
+					System.err.println("No such enum value " + type + "." + name + " for " + field);
+					return false;
+				}
+				return true;
+			}
+			Class<?> raw = PersistenceUtils.getRawType(type);
+			SimpleFormat format = theDissecter.getFormat(raw);
+			if (format != null) {
+				fieldValue[0] = readSimple(raw, format);
+				return true;
+			}
+			DissecterGenerator gen = theDissecter.getDissecter(raw);
+			if (gen == null) {
+				throw new IllegalStateException("Unrecognized type: " + PersistenceUtils.toString(type));
+			}
+			String subType = tag == SUBTYPED_VALUE ? readDictionaryString() : null;
+			Dissecter dissecter = gen.dissect(type, subType);
+			boolean success = true;
+			if (dissecter instanceof ValueDissecter) {
+				ValueDissecter vd = (ValueDissecter) dissecter;
+				Map<String, Object> fieldValues = new LinkedHashMap<>();
+				for (TypedField f : vd.getFields()) {
+					if (readValue(f.type, field, entities, fieldValue)) {
+						fieldValues.put(f.name, fieldValue[0]);
+					} else {
+						success = false;
+					}
+				}
+				if (!success) {
+					return false;
+				}
+				try {
+					fieldValue[0] = vd.createWith(fieldValues);
+				} catch (RuntimeException e) {
+					System.err.println("Could not assemble " + PersistenceUtils.toString(type) + " from " + fieldValues + " for " + field);
+					e.printStackTrace();
+					return false;
+				}
+				return true;
+			} else if (dissecter instanceof CollectionDissecter) {
+				CollectionDissecter cd = (CollectionDissecter) dissecter;
+				int count = theRow.readLength();
+				ArrayList<Object> elements = new ArrayList<>(Math.min(count, 1024));
+				for (int i = 0; i < count; i++) {
+					if (readValue(cd.getComponentType(), field, entities, fieldValue)) {
+						elements.add(fieldValue[0]);
+					} else {
+						success = false;
+					}
+				}
+				if (!success) {
+					return false;
+				}
+				try {
+					fieldValue[0] = cd.createFrom(elements, null);
+				} catch (RuntimeException e) {
+					System.err.println("Could not assemble " + PersistenceUtils.toString(type) + " for " + field);
+					e.printStackTrace();
+					return false;
+				}
+				return true;
+			}
+			throw new IllegalStateException("Unrecognized type: " + PersistenceUtils.toString(type));
+		}
+
+		private Object readSimple(Class<?> raw, SimpleFormat format) {
+			Class<?> type = ReflectionUtils.wrap(raw);
+			if (type == Boolean.class) {
+				return theRow.read() != 0;
+			} else if (type == Character.class) {
+				return (char) theRow.readVarLong();
+			} else if (type == Byte.class) {
+				return (byte) theRow.readSignedVarLong();
+			} else if (type == Short.class) {
+				return (short) theRow.readSignedVarLong();
+			} else if (type == Integer.class) {
+				return (int) theRow.readSignedVarLong();
+			} else if (type == Long.class) {
+				return theRow.readSignedVarLong();
+			} else if (type == Float.class) {
+				return Float.intBitsToFloat(theRow.readInt());
+			} else if (type == Double.class) {
+				return Double.longBitsToDouble(theRow.readLong());
+			} else if (type == String.class) {
+				return readDictionaryString();
+			} else if (type == Timestamp.class) {
+				Timestamp time = new Timestamp(theRow.readSignedVarLong());
+				time.setNanos(time.getNanos() + (int) theRow.readVarLong());
+				return time;
+			} else if (type == Date.class) {
+				return new Date(theRow.readSignedVarLong());
+			} else if (type == Instant.class) {
+				long seconds = theRow.readSignedVarLong();
+				return Instant.ofEpochSecond(seconds, theRow.readVarLong());
+			} else if (type == Duration.class) {
+				long seconds = theRow.readSignedVarLong();
+				return Duration.ofSeconds(seconds, theRow.readVarLong());
+			} else if (type == byte[].class) {
+				return theRow.read(theRow.readLength());
+			} else {
+				return format.parse(raw, readDictionaryString());
+			}
+		}
+
+		private String readDictionaryString() {
+			int index = theRow.readLength();
+			if (index == 0) {
+				return new String(theRow.read(theRow.readLength()), StandardCharsets.UTF_8);
+			} else if (index > theDictionary.size()) {
+				throw new IllegalStateException("String " + (index - 1) + " is not defined in " + theFileName);
+			}
+			return theDictionary.get(index - 1);
+		}
+
+		/**
+		 * Creates an entity from the identity at the start of the current row, synchronized on the entity set, since readers for different
+		 * types may run concurrently
+		 *
+		 * @return The new entity, or null if it could not be created
+		 */
+		GenericEntity createEntity(EntityType type, GenericEntitySet entities) {
+			EntityField idField = type.getIdField();
+			Object id;
+			try {
+				id = readIdentity(type);
+			} catch (RuntimeException e) {
+				System.err.println("Could not read " + idField + " from " + theFileName);
+				e.printStackTrace();
+				return null;
+			}
+			synchronized (entities) {
+				GenericEntity existing = entities.queryById(type, id);
+				if (existing != null && theOverlaid != null && existing.getType().getName().equals(type.getName())) {
+					PersistenceUtils.clearFields(existing, theOverlaid);
+					return existing;
+				} else if (existing != null) {
+					System.err.println("Duplicate " + type.getName() + " instances found with " + idField.getName() + " " + id);
+					return null;
+				}
+				GenericEntity item;
+				try {
+					item = entities.addEntity(type);
+				} catch (Exception e) {
+					System.err.println("Could not instantiate entity of type " + type.getName());
+					e.printStackTrace();
+					return null;
+				}
+				try {
+					item.set(idField.getName(), id);
+				} catch (RuntimeException e) {
+					System.err.println("Could not set " + idField + " to " + id);
+					e.printStackTrace();
+					entities.remove(item);
+					return null;
+				}
+				return item;
+			}
+		}
+
+		/**
+		 * @param entities
+		 *            The entity set being read
+		 * @param type
+		 *            The type of the referenced entity
+		 * @param id
+		 *            The identity of the referenced entity
+		 * @param field
+		 *            The field containing the reference
+		 * @return The referenced entity, or null if it does not exist (yet)
+		 */
+		abstract GenericEntity resolveReference(GenericEntitySet entities, EntityType type, Object id, EntityField field);
+	}
+
+	private class BinaryEntityReader extends ValueDecoder implements EntityReader {
+		private final EntityType theType;
+		private final HierarchicalResourceReader theReader;
+		private InputStream theInput;
+		/** The field each column in the file is read into. The first column is the identity. */
+		private EntityField[] theColumns;
+		private PendingLinks thePendingLinks;
+		private boolean hasForwardReference;
+		private MigrationListener theListener = ConsoleMigrationListener.INSTANCE;
+
+		BinaryEntityReader(EntityType type, HierarchicalResourceReader reader, String fileName) {
+			super(BinaryEntitySetPersistence.this.theDissecter, fileName);
+			theType = type;
+			theReader = reader;
+		}
+
+		@Override
+		public void setOverlay(boolean overlay) {
+			theOverlaid = overlay ? theType : null;
+		}
+
+		@Override
+		public void setListener(MigrationListener listener) {
+			theListener = listener == null ? ConsoleMigrationListener.INSTANCE : listener;
+		}
+
+		boolean fileExists() throws IOException {
+			if (theInput != null || isMappable(theReader, theFileName)) {
+				return true;
+			}
+			try {
+				theInput = theReader.readResource(theFileName);
+				return theInput != null;
+			} catch (IOException e) {
+				throw new IOException("Could not read " + theFileName, e);
+			}
+		}
+
+		@Override
+		public boolean readEntityIdentities(GenericEntitySet entities, Consumer<GenericEntity> onEntity) throws IOException {
+			RecordInput in = open();
+			if (in == null) {
+				return true;
+			}
+			theListener.progress("\tCreating entities of " + theType.getName() + " from " + theFileName);
+			boolean success = true;
+			try {
+				readHeader(in);
+				while (nextRecord(in) == ROW_RECORD) {
+					// Only the identity is decoded here; the rest of the row is skipped
+					GenericEntity item = createEntity(theType, entities);
+					if (item == null) {
+						success = false;
+					} else if (onEntity != null) {
+						onEntity.accept(item);
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Could not finish parsing data for " + theType.getName());
+				e.printStackTrace();
+				success = false;
+			} finally {
+				close(in);
+			}
+			return success;
+		}
+
+		@Override
+		public boolean populateEntityFields(GenericEntitySet entities, Consumer<GenericEntity> onCompleteEntity) throws IOException {
+			RecordInput in = open();
+			if (in == null) {
+				return true;
+			}
+			theListener.progress("\tParsing data for entity " + theType.getName() + " from " + theFileName);
+			boolean success = true;
+			try {
+				readHeader(in);
+				while (nextRecord(in) == ROW_RECORD) {
+					GenericEntity item;
+					try {
+						item = entities.queryById(theType, readIdentity(theType));
+					} catch (RuntimeException e) {
+						continue; // Presumably, we caught this the last time
+					}
+					if (item == null) {
+						continue; // Same here
+					}
+					boolean itemSuccess = populateFields(item, entities);
+					if (itemSuccess && onCompleteEntity != null) {
+						onCompleteEntity.accept(item);
+					}
+					success &= itemSuccess;
+				}
+			} catch (IOException e) {
+				System.err.println("Could not finish parsing data for " + theType.getName());
+				e.printStackTrace();
+				success = false;
+			} finally {
+				close(in);
+			}
+			return success;
+		}
+
+		/**
+		 * Reads the file once, creating each entity and populating its fields together. The fields of an entity with a reference to an
+		 * entity that has not been read yet are decoded again from its row when the links are resolved.
+		 */
+		@Override
+		public boolean readEntities(GenericEntitySet entities, PendingLinks links, Consumer<GenericEntity> onCompleteEntity)
+			throws IOException {
+			RecordInput in = open();
+			if (in == null) {
+				return true;
+			}
+			theListener.progress("\tReading entities of " + theType.getName() + " from " + theFileName);
+			boolean success = true;
+			try {
+				readHeader(in);
+				while (nextRecord(in) == ROW_RECORD) {
+					GenericEntity item = createEntity(theType, entities);
+					if (item == null) {
+						success = false;
+						continue;
+					}
+					int fieldStart = theRow.position();
+					thePendingLinks = links;
+					hasForwardReference = false;
+					boolean itemSuccess;
+					try {
+						itemSuccess = populateFields(item, entities);
+					} finally {
+						thePendingLinks = null;
+					}
+					if (hasForwardReference) {
+						// The dictionary only grows, so the row can be decoded the same way later
+						RowInput fields = theRow.retain(fieldStart, in.reusesRows());
+						links.add(() -> {
+							theRow = fields;
+							boolean linked = populateFields(item, entities);
+							if (linked && onCompleteEntity != null) {
+								onCompleteEntity.accept(item);
+							}
+							return linked;
+						});
+						continue;
+					}
+					if (itemSuccess && onCompleteEntity != null) {
+						onCompleteEntity.accept(item);
+					}
+					success &= itemSuccess;
+				}
+			} catch (IOException e) {
+				System.err.println("Could not finish parsing data for " + theType.getName());
+				e.printStackTrace();
+				success = false;
+			} finally {
+				close(in);
+			}
+			return success;
+		}
+
+		private RecordInput open() throws IOException {
+			InputStream in = theInput;
+			theInput = null;
+			return openRecords(theReader, theFileName, in);
+		}
+
+		private void close(RecordInput in) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		/** Reads the file header, matching the file's columns to the type's fields */
+		private void readHeader(RecordInput in) throws IOException {
+			if (!Arrays.equals(in.read(MAGIC.length), MAGIC)) {
+				throw new IOException(theFileName + " is not a binary entity file");
+			}
+			long version = in.readVarLong();
+			if (version != VERSION) {
+				throw new IOException("Unsupported binary entity file version " + version + " in " + theFileName);
+			}
+			String typeName = in.readString();
+			if (!typeName.equals(theType.getName())) {
+				throw new IOException(theFileName + " contains entities of type " + typeName + ", not " + theType.getName());
+			}
+			int columnCount = in.readLength();
+			theColumns = new EntityField[columnCount];
+			for (int c = 0; c < columnCount; c++) {
+				String fieldName = in.readString();
+				String fieldType = in.readString();
+				EntityField field = theType.getField(fieldName);
+				if (field == null || !isSerializable(field)) {
+					throw new IOException("Field " + fieldName + " in " + theFileName + " is not a serialized field of " + theType);
+				} else if (!fieldType.equals(PersistenceUtils.toString(field.getType()))) {
+					throw new IOException("Field " + theType + "." + fieldName + " was written as " + fieldType + " but is "
+						+ PersistenceUtils.toString(field.getType()));
+				} else if (field.isId() != (c == 0)) {
+					throw new IOException("The identity of " + theType + " must be the first column of " + theFileName);
+				}
+				theColumns[c] = field;
+			}
+			if (columnCount == 0) {
+				throw new IOException("No columns in " + theFileName);
+			}
+			theDictionary.clear();
+		}
+
+		/** Decodes the rest of the current row into the entity's fields */
+		private boolean populateFields(GenericEntity item, GenericEntitySet entities) {
+			boolean success = true;
+			Object[] fieldValue = new Object[1];
+			try {
+				for (int c = 1; c < theColumns.length; c++) {
+					EntityField field = theColumns[c];
+					if (readValue(field.getType(), field, entities, fieldValue)) {
+						item.set(field.getName(), fieldValue[0]);
+					} else {
+						success = false;
+					}
+				}
+			} catch (RuntimeException e) {
+				System.err.println("Could not read data for " + theType.getName() + " " + item.getIdentity());
+				e.printStackTrace();
+				return false;
+			}
+			return success;
+		}
+
+		@Override
+		GenericEntity resolveReference(GenericEntitySet entities, EntityType type, Object id, EntityField field) {
+			GenericEntity ref;
+			if (thePendingLinks != null) {
+				// Entities of other types may be being created concurrently
+				synchronized (entities) {
+					ref = entities.queryById(type, id);
+				}
+			} else {
+				ref = entities.queryById(type, id);
+			}
+			if (ref == null) {
+				if (thePendingLinks != null) {
+					hasForwardReference = true;
+				} else {
+					System.err.println("No such " + type + " with " + type.getIdField().getName() + " " + id + " for " + field);
+				}
+			}
+			return ref;
+		}
+	}
+
+	private final TypeSetDissecter theDissecter;
+
+	/**
+	 * @param dissecter
+	 *            The type dissecter to understand the data set's types
+	 */
+	public BinaryEntitySetPersistence(TypeSetDissecter dissecter) {
+		theDissecter = dissecter;
+	}
+
+	/** @return The type dissecter this persistence uses to understand the data set's types */
+	public TypeSetDissecter getDissecter() {
+		return theDissecter;
+	}
+
+	/**
+	 * @param type
+	 *            The entity type
+	 * @return The name of the file to persist entities of the given type in
+	 */
+	protected String getFileName(EntityType type) {
+		return PersistenceUtils.xmlToJava(type.getName(), true) + ".bin";
+	}
+
+	@Override
+	public EntityWriter writeEntitySet(EntityType type, HierarchicalResourceWriter writer) throws IOException {
+		OutputStream out = new BufferedOutputStream(writer.writeResource(getFileName(type)));
+		try {
+			return new BinaryEntityWriter(type, out);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Export failed on entity " + type.getName());
+			e.printStackTrace();
+			out.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public EntityReader readEntitySet(EntityType type, HierarchicalResourceReader reader) throws IOException {
+		BinaryEntityReader entityReader = new BinaryEntityReader(type, reader, getFileName(type));
+		return entityReader.fileExists() ? entityReader : null;
+	}
+
+	/**
+	 * @param type
+	 *            The entity type
+	 * @return The serialized fields of the type, with the identity first
+	 */
+	static List<EntityField> getColumns(EntityType type) {
+		List<EntityField> columns = new ArrayList<>();
+		columns.add(type.getIdField());
+		for (EntityField field : type) {
+			if (!field.isId() && isSerializable(field)) {
+				columns.add(field);
+			}
+		}
+		return columns;
+	}
+
+	static boolean isMappable(HierarchicalResourceReader reader, String fileName) {
+		return reader instanceof MappedResourceReader && ((MappedResourceReader) reader).isMappable(fileName);
+	}
+
+	/**
+	 * @param reader
+	 *            The resource reader to read the file from
+	 * @param fileName
+	 *            The name of the file
+	 * @param opened
+	 *            The already-opened stream of the file, if any
+	 * @return The records of the file, read in place if it can be mapped, or null if it does not exist
+	 */
+	static RecordInput openRecords(HierarchicalResourceReader reader, String fileName, InputStream opened) throws IOException {
+		if (isMappable(reader, fileName)) {
+			if (opened != null) {
+				opened.close();
+			}
+			ByteBuffer bytes;
+			try {
+				bytes = ((MappedResourceReader) reader).mapResource(fileName);
+			} catch (IOException e) {
+				throw new IOException("Could not map " + fileName, e);
+			}
+			return bytes == null ? null : new MappedRecordInput(bytes);
+		}
+		InputStream in = opened;
+		if (in == null) {
+			try {
+				in = reader.readResource(fileName);
+			} catch (IOException e) {
+				throw new IOException("Could not read " + fileName, e);
+			}
+			if (in == null) {
+				return null;
+			}
+		}
+		return new StreamRecordInput(in);
+	}
+
+	static void writeVarLong(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	static int varLongSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	static void writeString(OutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+}
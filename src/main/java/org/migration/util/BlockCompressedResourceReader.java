@@ -0,0 +1,217 @@
+package org.migration.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.qommons.io.HierarchicalResourceReader;
+
+/**
+ * Reads resources written by a {@link BlockCompressedResourceWriter}, inflating blocks ahead of the consumer in parallel. Resources that
+ * were not compressed are read from the underlying reader as they are.
+ */
+public class BlockCompressedResourceReader implements HierarchicalResourceReader, Closeable {
+	private static class BlockInputStream extends InputStream {
+		private final DataInputStream theIn;
+		private final ExecutorService thePool;
+		private final int theReadAhead;
+		private final ArrayDeque<Future<byte[]>> thePending;
+		private boolean isStarted;
+		private boolean isLastRead;
+		private byte[] theBlock;
+		private int thePosition;
+
+		BlockInputStream(InputStream in, ExecutorService pool, int readAhead) {
+			theIn = new DataInputStream(new BufferedInputStream(in));
+			thePool = pool;
+			theReadAhead = readAhead;
+			thePending = new ArrayDeque<>();
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!nextBlock()) {
+				return -1;
+			}
+			return theBlock[thePosition++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			} else if (!nextBlock()) {
+				return -1;
+			}
+			int read = Math.min(len, theBlock.length - thePosition);
+			System.arraycopy(theBlock, thePosition, b, off, read);
+			thePosition += read;
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return theBlock == null ? 0 : theBlock.length - thePosition;
+		}
+
+		private boolean nextBlock() throws IOException {
+			while (theBlock == null || thePosition == theBlock.length) {
+				readAhead();
+				Future<byte[]> next = thePending.poll();
+				if (next == null) {
+					return false;
+				}
+				try {
+					theBlock = next.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted inflating block");
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+				}
+				thePosition = 0;
+			}
+			return true;
+		}
+
+		/** Reads compressed blocks and queues them for inflation until enough are pending */
+		private void readAhead() throws IOException {
+			if (!isStarted) {
+				byte[] magic = new byte[BlockCompressedResourceWriter.MAGIC.length];
+				theIn.readFully(magic);
+				if (!Arrays.equals(magic, BlockCompressedResourceWriter.MAGIC)) {
+					throw new IOException("Not a block-compressed resource");
+				}
+				isStarted = true;
+			}
+			while (!isLastRead && thePending.size() < theReadAhead) {
+				int length = readLength();
+				if (length == 0) {
+					isLastRead = true; // The block index follows, but blocks are read in order, so it isn't needed here
+					break;
+				}
+				byte[] compressed = new byte[readLength()];
+				theIn.readFully(compressed);
+				FutureTask<byte[]> task = new FutureTask<>(() -> inflate(compressed, length));
+				if (thePool != null) {
+					thePool.execute(task);
+				} else {
+					task.run();
+				}
+				thePending.add(task);
+			}
+		}
+
+		private int readLength() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				int b = theIn.read();
+				if (b < 0) {
+					throw new EOFException("Block-compressed resource is truncated");
+				}
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					if (value > Integer.MAX_VALUE) {
+						break;
+					}
+					return (int) value;
+				}
+			}
+			throw new IOException("Malformed block length");
+		}
+
+		private static byte[] inflate(byte[] compressed, int length) throws IOException {
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(compressed);
+				byte[] block = new byte[length];
+				int inflated = 0;
+				while (inflated < length) {
+					int read = inflater.inflate(block, inflated, length - inflated);
+					if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+						throw new IOException("Compressed block is shorter than its declared " + length + " bytes");
+					}
+					inflated += read;
+				}
+				return block;
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt compressed block", e);
+			} finally {
+				inflater.end();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (Future<byte[]> pending : thePending) {
+				pending.cancel(false);
+			}
+			thePending.clear();
+			theIn.close();
+		}
+	}
+
+	private final HierarchicalResourceReader theDelegate;
+	private final int theThreads;
+	private ExecutorService thePool;
+
+	/**
+	 * @param delegate
+	 *            The resource reader to read compressed resources from
+	 * @param threads
+	 *            The number of threads to inflate blocks with. If 1, blocks are inflated on the reading thread.
+	 */
+	public BlockCompressedResourceReader(HierarchicalResourceReader delegate, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+		theDelegate = delegate;
+		theThreads = threads;
+	}
+
+	@Override
+	public InputStream readResource(String path) throws IOException {
+		InputStream in = theDelegate.readResource(path + BlockCompressedResourceWriter.EXTENSION);
+		if (in == null) {
+			return theDelegate.readResource(path); // Not compressed
+		}
+		ExecutorService pool = getPool();
+		// Keep every thread busy, with a block in reserve for each
+		return new BlockInputStream(in, pool, pool == null ? 1 : theThreads * 2);
+	}
+
+	private synchronized ExecutorService getPool() {
+		if (theThreads == 1) {
+			return null;
+		} else if (thePool == null) {
+			thePool = Executors.newFixedThreadPool(theThreads, r -> {
+				Thread thread = new Thread(r, "Block Inflater");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return thePool;
+	}
+
+	/** Stops the threads inflating blocks. Resources being read from this reader cannot be read further. */
+	@Override
+	public synchronized void close() {
+		if (thePool != null) {
+			thePool.shutdownNow();
+			thePool = null;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package org.migration.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import org.qommons.io.HierarchicalResourceWriter;
+
+/**
+ * <p>
+ * Compresses each resource written through it as independently deflated blocks, so that a {@link BlockCompressedResourceReader} can inflate
+ * them in parallel. This works with any {@link org.migration.EntitySetPersistence}.
+ * </p>
+ * <p>
+ * A compressed resource is written to its path with {@link #EXTENSION} appended and contains:
+ * <ul>
+ * <li>The magic bytes "EMBZ"</li>
+ * <li>For each block, its uncompressed length, its compressed length and the compressed bytes. The lengths are varints.</li>
+ * <li>A zero length marking the end of the blocks</li>
+ * <li>The block index: the number of blocks, then each block's offset in the resource and its compressed and uncompressed lengths, all
+ * varints</li>
+ * <li>The offset of the block index, as 8 bytes</li>
+ * </ul>
+ * </p>
+ */
+public class BlockCompressedResourceWriter implements HierarchicalResourceWriter {
+	/** The extension appended to the path of each compressed resource */
+	public static final String EXTENSION = ".blz";
+	/** The default number of uncompressed bytes in each block */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	static final byte[] MAGIC = { 'E', 'M', 'B', 'Z' };
+
+	private static class BlockOutputStream extends OutputStream {
+		private final OutputStream theOut;
+		private long theOffset;
+		private final Deflater theDeflater;
+		private final byte[] theBlock;
+		private int theBlockLength;
+		private byte[] theCompressed;
+		/** Offset, compressed length and uncompressed length of each block */
+		private long[] theIndex;
+		private int theBlockCount;
+		private boolean isClosed;
+
+		BlockOutputStream(OutputStream out, int blockSize, int level) throws IOException {
+			theOut = new BufferedOutputStream(out);
+			theDeflater = new Deflater(level);
+			theBlock = new byte[blockSize];
+			theCompressed = new byte[blockSize + blockSize / 8 + 64];
+			theIndex = new long[48];
+			theOut.write(MAGIC);
+			theOffset = MAGIC.length;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (theBlockLength == theBlock.length) {
+				writeBlock();
+			}
+			theBlock[theBlockLength++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (theBlockLength == theBlock.length) {
+					writeBlock();
+				}
+				int copy = Math.min(len, theBlock.length - theBlockLength);
+				System.arraycopy(b, off, theBlock, theBlockLength, copy);
+				theBlockLength += copy;
+				off += copy;
+				len -= copy;
+			}
+		}
+
+		/** Does not end the current block, since that would defeat the compression for writers that flush often */
+		@Override
+		public void flush() throws IOException {
+			theOut.flush();
+		}
+
+		private void writeBlock() throws IOException {
+			theDeflater.reset();
+			theDeflater.setInput(theBlock, 0, theBlockLength);
+			theDeflater.finish();
+			int compressedLength = 0;
+			while (!theDeflater.finished()) {
+				if (compressedLength == theCompressed.length) {
+					theCompressed = Arrays.copyOf(theCompressed, theCompressed.length * 2);
+				}
+				compressedLength += theDeflater.deflate(theCompressed, compressedLength, theCompressed.length - compressedLength);
+			}
+			if (theIndex.length < (theBlockCount + 1) * 3) {
+				theIndex = Arrays.copyOf(theIndex, theIndex.length * 2);
+			}
+			theIndex[theBlockCount * 3] = theOffset;
+			theIndex[theBlockCount * 3 + 1] = compressedLength;
+			theIndex[theBlockCount * 3 + 2] = theBlockLength;
+			theBlockCount++;
+			writeVarLong(theBlockLength);
+			writeVarLong(compressedLength);
+			theOut.write(theCompressed, 0, compressedLength);
+			theOffset += compressedLength;
+			theBlockLength = 0;
+		}
+
+		private void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				theOut.write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+				theOffset++;
+			}
+			theOut.write((int) value);
+			theOffset++;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (isClosed) {
+				return;
+			}
+			isClosed = true;
+			try {
+				if (theBlockLength > 0) {
+					writeBlock();
+				}
+				writeVarLong(0);
+				long indexOffset = theOffset;
+				writeVarLong(theBlockCount);
+				for (int i = 0; i < theBlockCount * 3; i++) {
+					writeVarLong(theIndex[i]);
+				}
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					theOut.write((int) (indexOffset >>> shift));
+				}
+			} finally {
+				theDeflater.end();
+				theOut.close();
+			}
+		}
+	}
+
+	private final HierarchicalResourceWriter theDelegate;
+	private int theBlockSize;
+	private int theLevel;
+
+	/**
+	 * @param delegate
+	 *            The resource writer to write the compressed resources to
+	 */
+	public BlockCompressedResourceWriter(HierarchicalResourceWriter delegate) {
+		theDelegate = delegate;
+		theBlockSize = DEFAULT_BLOCK_SIZE;
+		theLevel = Deflater.BEST_SPEED;
+	}
+
+	/**
+	 * @param blockSize
+	 *            The number of uncompressed bytes in each block. Larger blocks compress better, but give readers less to parallelize.
+	 * @return This writer
+	 */
+	public BlockCompressedResourceWriter setBlockSize(int blockSize) {
+		if (blockSize < 1024) {
+			throw new IllegalArgumentException("Block size must be at least 1KB: " + blockSize);
+		}
+		theBlockSize = blockSize;
+		return this;
+	}
+
+	/**
+	 * @param level
+	 *            The {@link Deflater} compression level, from {@link Deflater#BEST_SPEED} (the default) to {@link Deflater#BEST_COMPRESSION}
+	 * @return This writer
+	 */
+	public BlockCompressedResourceWriter setLevel(int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Unrecognized compression level: " + level);
+		}
+		theLevel = level;
+		return this;
+	}
+
+	@Override
+	public OutputStream writeResource(String path) throws IOException {
+		OutputStream out = theDelegate.writeResource(path + EXTENSION);
+		if (out == null) {
+			return null;
+		}
+		try {
+			return new BlockOutputStream(out, theBlockSize, theLevel);
+		} catch (IOException | RuntimeException e) {
+			out.close();
+			throw e;
+		}
+	}
+}
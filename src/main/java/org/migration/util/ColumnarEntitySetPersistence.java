@@ -0,0 +1,511 @@
+package org.migration.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.migration.ConsoleMigrationListener;
+import org.migration.EntitySetPersistence;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityField;
+import org.migration.generic.EntityType;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.util.BinaryEntitySetPersistence.RecordInput;
+import org.migration.util.BinaryEntitySetPersistence.RowOutput;
+import org.migration.util.BinaryEntitySetPersistence.ValueDecoder;
+import org.migration.util.BinaryEntitySetPersistence.ValueEncoder;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/**
+ * <p>
+ * Persists each serialized field of an entity type to its own column file, so that a reader given a
+ * {@link #setProjection(String, String...) projection} of the fields it needs never reads or decodes the others.
+ * </p>
+ * <p>
+ * Column files use the encoding of {@link BinaryEntitySetPersistence}. Each starts with a header naming the entity type and the field with
+ * its type, followed by string definitions and runs, each a count and a value shared by that many consecutive entities. Every column
+ * holds a value for each entity, in the order of the identity column. Enum values and short strings are written by their index in the
+ * column's dictionary, so low-cardinality columns reduce to runs of small integers.
+ * </p>
+ * <p>
+ * Writing a type holds a resource open for each of its columns at once.
+ * </p>
+ */
+public class ColumnarEntitySetPersistence implements EntitySetPersistence {
+	private static final byte[] MAGIC = { 'E', 'M', 'C', 'L' };
+	private static final int VERSION = 1;
+
+	/** Run-length encodes the values of one field */
+	private class ColumnWriter extends ValueEncoder {
+		private final EntityType theType;
+		private final EntityField theField;
+		private final RowOutput theRunValue;
+		private long theRunLength;
+
+		ColumnWriter(EntityType type, EntityField field, OutputStream out) throws IOException {
+			super(ColumnarEntitySetPersistence.this.theDissecter, out);
+			theType = type;
+			theField = field;
+			theRunValue = new RowOutput();
+			theOut.write(MAGIC);
+			BinaryEntitySetPersistence.writeVarLong(theOut, VERSION);
+			BinaryEntitySetPersistence.writeString(theOut, type.getName());
+			BinaryEntitySetPersistence.writeString(theOut, field.getName());
+			BinaryEntitySetPersistence.writeString(theOut, PersistenceUtils.toString(field.getType()));
+		}
+
+		/** @return Whether the value could be written. If not, null is written in its place to keep the column aligned. */
+		boolean write(Object value) throws IOException {
+			theRow.reset();
+			boolean success;
+			if (theField.isId()) {
+				try {
+					writeIdentity(theType, value);
+				} catch (RuntimeException e) {
+					throw new IOException("Could not write " + theField + " " + value, e);
+				}
+				success = true;
+			} else {
+				try {
+					success = writeValue(theField.getType(), theField, value);
+				} catch (RuntimeException e) {
+					System.err.println("Could not write " + theField + " value " + value);
+					e.printStackTrace();
+					theRow.reset();
+					theRow.write(BinaryEntitySetPersistence.NULL_VALUE);
+					success = false;
+				}
+			}
+			if (theRunLength > 0 && theRow.contentEquals(theRunValue)) {
+				theRunLength++;
+			} else {
+				writeRun();
+				theRunValue.copyFrom(theRow);
+				theRunLength = 1;
+			}
+			return success;
+		}
+
+		private void writeRun() throws IOException {
+			if (theRunLength == 0) {
+				return;
+			}
+			theOut.write(BinaryEntitySetPersistence.ROW_RECORD);
+			BinaryEntitySetPersistence.writeVarLong(theOut, BinaryEntitySetPersistence.varLongSize(theRunLength) + theRunValue.length());
+			BinaryEntitySetPersistence.writeVarLong(theOut, theRunLength);
+			theRunValue.writeTo(theOut);
+		}
+
+		void close() throws IOException {
+			try {
+				writeRun();
+				theOut.write(BinaryEntitySetPersistence.END_RECORD);
+			} finally {
+				theOut.close();
+			}
+		}
+	}
+
+	private class ColumnarEntityWriter implements EntityWriter {
+		private final List<EntityField> theFields;
+		private final ColumnWriter[] theColumns;
+
+		ColumnarEntityWriter(EntityType type, HierarchicalResourceWriter writer) throws IOException {
+			theFields = BinaryEntitySetPersistence.getColumns(type);
+			theColumns = new ColumnWriter[theFields.size()];
+			try {
+				for (int c = 0; c < theColumns.length; c++) {
+					OutputStream out = new BufferedOutputStream(writer.writeResource(getFileName(type, theFields.get(c))));
+					try {
+						theColumns[c] = new ColumnWriter(type, theFields.get(c), out);
+					} catch (IOException | RuntimeException e) {
+						out.close();
+						throw e;
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				for (ColumnWriter column : theColumns) {
+					if (column != null) {
+						column.theOut.close();
+					}
+				}
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean writeEntity(GenericEntity entity) throws IOException {
+			boolean success = true;
+			for (int c = 0; c < theColumns.length; c++) {
+				success &= theColumns[c].write(entity.get(theFields.get(c).getName()));
+			}
+			return success;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException ex = null;
+			for (ColumnWriter column : theColumns) {
+				try {
+					column.close();
+				} catch (IOException e) {
+					if (ex == null) {
+						ex = e;
+					}
+				}
+			}
+			if (ex != null) {
+				throw ex;
+			}
+		}
+	}
+
+	/** Reads the values of one field */
+	private class ColumnReader extends ValueDecoder implements Closeable {
+		private final EntityType theType;
+		private final EntityField theField;
+		private RecordInput theInput;
+		private long theRunRemaining;
+		private int theRunStart;
+
+		ColumnReader(EntityType type, EntityField field) {
+			super(ColumnarEntitySetPersistence.this.theDissecter, getFileName(type, field));
+			theType = type;
+			theField = field;
+		}
+
+		/** @return Whether the column file exists */
+		boolean open(HierarchicalResourceReader reader, InputStream opened) throws IOException {
+			theInput = BinaryEntitySetPersistence.openRecords(reader, theFileName, opened);
+			if (theInput == null) {
+				return false;
+			}
+			try {
+				readHeader();
+			} catch (IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+			return true;
+		}
+
+		private void readHeader() throws IOException {
+			if (!Arrays.equals(theInput.read(MAGIC.length), MAGIC)) {
+				throw new IOException(theFileName + " is not a column file");
+			}
+			long version = theInput.readVarLong();
+			if (version != VERSION) {
+				throw new IOException("Unsupported column file version " + version + " in " + theFileName);
+			}
+			String typeName = theInput.readString();
+			String fieldName = theInput.readString();
+			String fieldType = theInput.readString();
+			if (!typeName.equals(theType.getName()) || !fieldName.equals(theField.getName())) {
+				throw new IOException(theFileName + " contains " + typeName + "." + fieldName + ", not " + theField);
+			} else if (!fieldType.equals(PersistenceUtils.toString(theField.getType()))) {
+				throw new IOException("Field " + theField + " was written as " + fieldType + " but is "
+					+ PersistenceUtils.toString(theField.getType()));
+			}
+			theDictionary.clear();
+		}
+
+		/**
+		 * Positions the row at the column's next value
+		 *
+		 * @return Whether there was another value in the column
+		 */
+		boolean next() throws IOException {
+			if (theRunRemaining == 0) {
+				if (nextRecord(theInput) != BinaryEntitySetPersistence.ROW_RECORD) {
+					return false;
+				}
+				try {
+					theRunRemaining = theRow.readVarLong();
+				} catch (IllegalStateException e) {
+					throw new IOException("Malformed run in " + theFileName, e);
+				}
+				if (theRunRemaining <= 0) {
+					throw new IOException("Malformed run of " + theRunRemaining + " in " + theFileName);
+				}
+				theRunStart = theRow.position();
+			} else {
+				theRow.position(theRunStart);
+			}
+			theRunRemaining--;
+			return true;
+		}
+
+		@Override
+		GenericEntity resolveReference(GenericEntitySet entities, EntityType type, Object id, EntityField field) {
+			GenericEntity ref = entities.queryById(type, id);
+			if (ref == null) {
+				System.err.println("No such " + type + " with " + type.getIdField().getName() + " " + id + " for " + field);
+			}
+			return ref;
+		}
+
+		@Override
+		public void close() {
+			try {
+				theInput.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private class ColumnarEntityReader implements EntityReader {
+		private final EntityType theType;
+		private final HierarchicalResourceReader theReader;
+		private final List<EntityField> theFields;
+		private InputStream theIdInput;
+		private boolean isOverlay;
+		private MigrationListener theListener = ConsoleMigrationListener.INSTANCE;
+
+		ColumnarEntityReader(EntityType type, HierarchicalResourceReader reader, List<EntityField> fields) {
+			theType = type;
+			theReader = reader;
+			theFields = fields;
+		}
+
+		@Override
+		public void setOverlay(boolean overlay) {
+			isOverlay = overlay;
+		}
+
+		@Override
+		public void setListener(MigrationListener listener) {
+			theListener = listener == null ? ConsoleMigrationListener.INSTANCE : listener;
+		}
+
+		boolean fileExists() throws IOException {
+			String fileName = getFileName(theType, theType.getIdField());
+			if (theIdInput != null || BinaryEntitySetPersistence.isMappable(theReader, fileName)) {
+				return true;
+			}
+			try {
+				theIdInput = theReader.readResource(fileName);
+				return theIdInput != null;
+			} catch (IOException e) {
+				throw new IOException("Could not read " + fileName, e);
+			}
+		}
+
+		private ColumnReader openIds() throws IOException {
+			ColumnReader ids = new ColumnReader(theType, theType.getIdField());
+			// Only the fields read are replaced, so an overlaid entity keeps the values of fields outside the projection
+			ids.theOverlaid = isOverlay ? theFields : null;
+			InputStream opened = theIdInput;
+			theIdInput = null;
+			return ids.open(theReader, opened) ? ids : null;
+		}
+
+		@Override
+		public boolean readEntityIdentities(GenericEntitySet entities, Consumer<GenericEntity> onEntity) throws IOException {
+			ColumnReader ids = openIds();
+			if (ids == null) {
+				return true;
+			}
+			theListener.progress("\tCreating entities of " + theType.getName() + " from " + ids.theFileName);
+			boolean success = true;
+			try {
+				while (ids.next()) {
+					GenericEntity item = ids.createEntity(theType, entities);
+					if (item == null) {
+						success = false;
+					} else if (onEntity != null) {
+						onEntity.accept(item);
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Could not finish parsing data for " + theType.getName());
+				e.printStackTrace();
+				success = false;
+			} finally {
+				ids.close();
+			}
+			return success;
+		}
+
+		@Override
+		public boolean populateEntityFields(GenericEntitySet entities, Consumer<GenericEntity> onCompleteEntity) throws IOException {
+			if (theFields.isEmpty()) {
+				return true;
+			}
+			ColumnReader ids = openIds();
+			if (ids == null) {
+				return true;
+			}
+			boolean success = true;
+			List<ColumnReader> columns = new ArrayList<>(theFields.size());
+			try {
+				for (EntityField field : theFields) {
+					ColumnReader column = new ColumnReader(theType, field);
+					if (column.open(theReader, null)) {
+						columns.add(column);
+					} else {
+						System.err.println("No column file " + column.theFileName + " for " + field);
+						success = false;
+					}
+				}
+				theListener.progress("\tParsing " + columns.size() + " of " + BinaryEntitySetPersistence.getColumns(theType).size()
+					+ " columns for entity " + theType.getName());
+				Object[] fieldValue = new Object[1];
+				while (ids.next()) {
+					GenericEntity item;
+					try {
+						item = entities.queryById(theType, ids.readIdentity(theType));
+					} catch (RuntimeException e) {
+						item = null; // Presumably, we caught this the last time
+					}
+					boolean itemSuccess = true;
+					for (ColumnReader column : columns) {
+						if (!column.next()) {
+							throw new IOException(column.theFileName + " has fewer values than " + ids.theFileName);
+						} else if (item == null) {
+							continue; // Still need to advance the column
+						}
+						try {
+							if (column.readValue(column.theField.getType(), column.theField, entities, fieldValue)) {
+								item.set(column.theField.getName(), fieldValue[0]);
+							} else {
+								itemSuccess = false;
+							}
+						} catch (RuntimeException e) {
+							System.err.println("Could not read " + column.theField + " for " + theType.getName() + " " + item.getIdentity());
+							e.printStackTrace();
+							itemSuccess = false;
+						}
+					}
+					if (item == null) {
+						continue;
+					}
+					if (itemSuccess && onCompleteEntity != null) {
+						onCompleteEntity.accept(item);
+					}
+					success &= itemSuccess;
+				}
+			} catch (IOException e) {
+				System.err.println("Could not finish parsing data for " + theType.getName());
+				e.printStackTrace();
+				success = false;
+			} finally {
+				ids.close();
+				for (ColumnReader column : columns) {
+					column.close();
+				}
+			}
+			return success;
+		}
+	}
+
+	private final TypeSetDissecter theDissecter;
+	private final Map<String, Set<String>> theProjections;
+
+	/**
+	 * @param dissecter
+	 *            The type dissecter to understand the data set's types
+	 */
+	public ColumnarEntitySetPersistence(TypeSetDissecter dissecter) {
+		theDissecter = dissecter;
+		theProjections = new ConcurrentHashMap<>();
+	}
+
+	/** @return The type dissecter this persistence uses to understand the data set's types */
+	public TypeSetDissecter getDissecter() {
+		return theDissecter;
+	}
+
+	/**
+	 * @param typeName
+	 *            The name of the entity type to project
+	 * @param fieldNames
+	 *            The names of the only fields of the type for {@link #readEntitySet(EntityType, HierarchicalResourceReader)} to read. The
+	 *            identity is always read. Other fields are left unset.
+	 * @return This persistence
+	 */
+	public ColumnarEntitySetPersistence setProjection(String typeName, String... fieldNames) {
+		theProjections.put(typeName, Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(fieldNames))));
+		return this;
+	}
+
+	/**
+	 * @param typeName
+	 *            The name of the entity type
+	 * @return This persistence
+	 */
+	public ColumnarEntitySetPersistence clearProjection(String typeName) {
+		theProjections.remove(typeName);
+		return this;
+	}
+
+	/**
+	 * @param type
+	 *            The entity type
+	 * @param field
+	 *            The field of the type
+	 * @return The name of the file to persist the field's values in
+	 */
+	protected String getFileName(EntityType type, EntityField field) {
+		return PersistenceUtils.xmlToJava(type.getName(), true) + "." + field.getName() + ".col";
+	}
+
+	@Override
+	public EntityWriter writeEntitySet(EntityType type, HierarchicalResourceWriter writer) throws IOException {
+		try {
+			return new ColumnarEntityWriter(type, writer);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Export failed on entity " + type.getName());
+			e.printStackTrace();
+			throw e;
+		}
+	}
+
+	/** Reads the fields of the type's {@link #setProjection(String, String...) projection}, if set, or else all of its fields */
+	@Override
+	public EntityReader readEntitySet(EntityType type, HierarchicalResourceReader reader) throws IOException {
+		return readEntitySet(type, reader, theProjections.get(type.getName()));
+	}
+
+	/**
+	 * @param type
+	 *            The entity type to read
+	 * @param reader
+	 *            The resource reader to read the column files from
+	 * @param fieldNames
+	 *            The names of the only fields to read, or null to read all fields. The identity is always read.
+	 * @return The reader for the type's data, or null if there is none
+	 * @throws IOException If the data cannot be accessed
+	 */
+	public EntityReader readEntitySet(EntityType type, HierarchicalResourceReader reader, Collection<String> fieldNames)
+		throws IOException {
+		List<EntityField> fields = BinaryEntitySetPersistence.getColumns(type);
+		fields = new ArrayList<>(fields.subList(1, fields.size()));
+		if (fieldNames != null) {
+			for (String fieldName : fieldNames) {
+				EntityField field = type.getField(fieldName);
+				if (field == null || !fields.contains(field) && !field.isId()) {
+					throw new IllegalArgumentException("No such serialized field " + type.getName() + "." + fieldName);
+				}
+			}
+			fields.removeIf(field -> !fieldNames.contains(field.getName()));
+		}
+		ColumnarEntityReader entityReader = new ColumnarEntityReader(type, reader, fields);
+		return entityReader.fileExists() ? entityReader : null;
+	}
+}
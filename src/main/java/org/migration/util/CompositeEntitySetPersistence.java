@@ -34,8 +34,31 @@ public class CompositeEntitySetPersistence implements EntitySetPersistence {
 		return theExportComponent.writeEntitySet(type, writer);
 	}
 
+	@Override
+	public String getFormatName() {
+		return theExportComponent == null ? EntitySetPersistence.super.getFormatName() : theExportComponent.getFormatName();
+	}
+
 	@Override
 	public EntityReader readEntitySet(EntityType type, HierarchicalResourceReader reader) throws IOException {
+		return readEntitySet(type, reader, null);
+	}
+
+	@Override
+	public EntityReader readEntitySet(EntityType type, HierarchicalResourceReader reader, ExportManifest manifest) throws IOException {
+		if (manifest != null) {
+			// The manifest says whether the type was exported and by which component, so nothing needs to be opened to find out
+			if (!manifest.hasType(type.getName())) {
+				return null;
+			}
+			String format = manifest.getFormat(type.getName());
+			for (EntitySetPersistence component : theComponents) {
+				if (component.getFormatName().equals(format)) {
+					return component.readEntitySet(type, reader, manifest);
+				}
+			}
+			// Written by a scheme that is not one of the components, so try them all
+		}
 		if (theLastImportComponent != null) {
 			/* An optimization.
 			 * Data sets will generally all be of the same persistence scheme, so it is helpful
@@ -46,13 +69,13 @@ public class CompositeEntitySetPersistence implements EntitySetPersistence {
 			 * so the file has to actually be opened to do this check.
 			 * This optimization eliminates this unfortunate performance problem.
 			 */
-			EntityReader entityReader = theLastImportComponent.readEntitySet(type, reader);
+			EntityReader entityReader = theLastImportComponent.readEntitySet(type, reader, manifest);
 			if (entityReader != null) {
 				return entityReader;
 			}
 		}
 		for (EntitySetPersistence component : theComponents) {
-			EntityReader entityReader = component.readEntitySet(type, reader);
+			EntityReader entityReader = component.readEntitySet(type, reader, manifest);
 			if (entityReader != null) {
 				theLastImportComponent = component;
 				return entityReader;
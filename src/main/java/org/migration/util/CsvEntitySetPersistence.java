@@ -1,12 +1,14 @@
 package org.migration.util;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Writer;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
@@ -16,60 +18,187 @@ import org.migration.CollectionDissecter;
 import org.migration.Dissecter;
 import org.migration.DissecterGenerator;
 import org.migration.SimpleFormat;
+import org.migration.SimpleFormats;
 import org.migration.TypeSetDissecter;
 import org.migration.TypedField;
 import org.migration.ValueDissecter;
 import org.migration.generic.EntityField;
 import org.migration.generic.EntityType;
 import org.migration.generic.EnumType;
+import org.migration.generic.EnumValue;
 import org.migration.generic.GenericEntity;
 import org.migration.generic.GenericEntitySet;
-import org.qommons.io.CsvParser;
 import org.qommons.io.HierarchicalResourceReader;
-import org.qommons.io.TextParseException;
 import org.qommons.json.JsonStreamWriter;
 import org.qommons.json.SAJParser;
 
 /** Reads and writes entities from/to CSV files, using JSON for complex values */
 public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
+	/** How a column's values are written, resolved once per type from the field's declared type */
+	private static class Column {
+		static final int INTEGRAL = 0;
+		static final int DECIMAL = 1;
+		static final int BOOLEAN = 2;
+		static final int STRING = 3;
+		static final int ENUM = 4;
+		static final int FORMATTED = 5;
+		static final int INTEGRAL_REFERENCE = 6;
+		static final int FORMATTED_REFERENCE = 7;
+		/** Complex values and fields whose declared type says too little, written through the generic path */
+		static final int GENERIC = 8;
+
+		final EntityField field;
+		final int kind;
+		/** The last class a {@link #FORMATTED} value was formatted for, and its format */
+		Class<?> formatClass;
+		SimpleFormat format;
+
+		Column(EntityField field, TypeSetDissecter dissecter) {
+			this.field = field;
+			Type type = field.getType();
+			if (type instanceof EnumType) {
+				kind = ENUM;
+			} else if (type instanceof EntityType) {
+				Type idType = ((EntityType) type).getIdField().getType();
+				kind = idType instanceof Class && getKind((Class<?>) idType, dissecter) == INTEGRAL ? INTEGRAL_REFERENCE
+					: FORMATTED_REFERENCE;
+			} else if (type instanceof Class) {
+				kind = getKind((Class<?>) type, dissecter);
+			} else {
+				kind = GENERIC;
+			}
+		}
+
+		/**
+		 * The standard formats write the same as {@link String#valueOf(Object)}, so they can be bypassed. A value of a final class always
+		 * has the format of the declared type, but other formatted values are formatted by their own class, as the generic path does.
+		 */
+		private static int getKind(Class<?> type, TypeSetDissecter dissecter) {
+			type = ReflectionUtils.wrap(type);
+			SimpleFormat format = dissecter.getFormat(type);
+			if (format == null) {
+				return GENERIC;
+			} else if (format == SimpleFormats.INTEGER || format == SimpleFormats.LONG || format == SimpleFormats.SHORT
+				|| format == SimpleFormats.BYTE) {
+				return INTEGRAL;
+			} else if (format == SimpleFormats.DOUBLE || format == SimpleFormats.FLOAT) {
+				return DECIMAL;
+			} else if (format == SimpleFormats.BOOLEAN) {
+				return BOOLEAN;
+			} else if (format == SimpleFormats.STRING) {
+				return STRING;
+			} else {
+				return FORMATTED;
+			}
+		}
+	}
+
+	/**
+	 * Writes entities with a row plan compiled once for the type. Simple values are written straight into a reusable character buffer,
+	 * quoted only if a comma, newline or quote is found while copying them. Complex values are written as JSON through the generic path.
+	 */
 	private static class CsvEntityWriter extends AbstractTextEntityWriter {
-		private final BufferedWriter theWriter;
+		private final RowBuffer theRow;
 		private final CsvValueWriter theValueWriter;
 		private final JsonStreamWriter theJsonWriter;
+		/** The identity column, then each serializable field */
+		private final Column[] theColumns;
 		private int isSimpleField;
 
-		CsvEntityWriter(EntityType type, TypeSetDissecter dissecter, BufferedWriter streamWriter) throws IOException {
+		CsvEntityWriter(EntityType type, TypeSetDissecter dissecter, Writer streamWriter) throws IOException {
 			super(type, dissecter);
-			theWriter = streamWriter;
-			theWriter.write(getType().getIdField().getName());
+			theRow = new RowBuffer(streamWriter);
+			List<Column> columns = new ArrayList<>();
+			columns.add(new Column(getType().getIdField(), dissecter));
+			theRow.put(getType().getIdField().getName());
 			for (EntityField field : getType()) {
 				if (field.isId() || !isSerializable(field)) {
 					continue;
 				}
-				theWriter.write(',');
-				theWriter.write(field.getName());
+				columns.add(new Column(field, dissecter));
+				theRow.put(',');
+				theRow.put(field.getName());
 			}
-			theWriter.newLine();
-			theValueWriter = new CsvValueWriter(theWriter);
+			theColumns = columns.toArray(new Column[columns.size()]);
+			theRow.newLine();
+			theValueWriter = new CsvValueWriter(theRow);
 			theJsonWriter = new JsonStreamWriter(theValueWriter);
 			theJsonWriter.setFormal(true);
 			theJsonWriter.setFormatIndent(null);
 		}
 
+		@Override
+		public boolean writeEntity(GenericEntity entity) throws IOException {
+			boolean success = true;
+			for (int c = 0; c < theColumns.length; c++) {
+				if (c > 0) {
+					theRow.put(',');
+				}
+				success &= writeColumn(theColumns[c], entity.get(theColumns[c].field));
+			}
+			theRow.newLine();
+			return success;
+		}
+
+		private boolean writeColumn(Column column, Object value) throws IOException {
+			if (value == null) {
+				theRow.put("null");
+				return true;
+			}
+			switch (column.kind) {
+			case Column.INTEGRAL:
+				theRow.putLong(((Number) value).longValue());
+				return true;
+			case Column.DECIMAL:
+				theRow.put(String.valueOf(value));
+				return true;
+			case Column.BOOLEAN:
+				theRow.put(((Boolean) value).booleanValue() ? "true" : "false");
+				return true;
+			case Column.STRING:
+				theRow.putEscaped((String) value);
+				return true;
+			case Column.ENUM:
+				theRow.putEscaped(((EnumValue) value).getName());
+				return true;
+			case Column.FORMATTED:
+				theRow.putEscaped(format(column, value));
+				return true;
+			case Column.INTEGRAL_REFERENCE:
+				theRow.putLong(((Number) ((GenericEntity) value).getIdentity()).longValue());
+				return true;
+			case Column.FORMATTED_REFERENCE:
+				theRow.putEscaped(format(column, ((GenericEntity) value).getIdentity()));
+				return true;
+			default:
+				EntityField field = column.field;
+				return super.writeFieldValue(field.getName(), field.getType(), field.getSorting() == null || field.getSorting().length == 0,
+					field, value);
+			}
+		}
+
+		private String format(Column column, Object value) {
+			if (value.getClass() != column.formatClass) {
+				column.format = getDissecter().getFormat(value.getClass());
+				column.formatClass = value.getClass();
+			}
+			return column.format.format(value);
+		}
+
 		@Override
 		protected void beginEntity(GenericEntity entity) throws IOException {
 		}
 
 		@Override
 		protected void endEntity(GenericEntity entity) throws IOException {
-			theWriter.newLine();
+			theRow.newLine();
 		}
 
 		@Override
 		protected boolean writeFieldValue(String fieldName, Type fieldType, boolean maySort, EntityField field, Object fieldValue)
 				throws IOException {
 			if (isSimpleField == 0) {
-				theWriter.write(',');
+				theRow.put(',');
 			}
 			return super.writeFieldValue(fieldName, fieldType, maySort, field, fieldValue);
 		}
@@ -77,7 +206,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 		@Override
 		protected void writeNullValue(String fieldName) throws IOException {
 			if (isSimpleField == 0) {
-				theWriter.write("null");
+				theRow.put("null");
 			} else {
 				theJsonWriter.writeNull();
 			}
@@ -86,7 +215,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 		@Override
 		protected void writeReference(String fieldName, GenericEntity value, String serializedId) throws IOException {
 			if (isSimpleField == 0) {
-				theValueWriter.write(serializedId);
+				theRow.putEscaped(serializedId);
 			} else if (isNumber(value.getType().getIdField().getType())) {
 				theJsonWriter.writeNumber((Number) value.getIdentity());
 			} else {
@@ -98,16 +227,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 		protected void writeSimpleField(String fieldName, Type type, String subType, EntityField field, String serializedValue)
 				throws IOException {
 			if (isSimpleField == 0) {
-				boolean escape = serializedValue.indexOf(',') >= 0//
-						|| serializedValue.indexOf('\n') >= 0//
-						|| serializedValue.indexOf('\"') >= 0;
-				if (escape) {
-					theWriter.write('"');
-				}
-				theValueWriter.write(serializedValue);
-				if (escape) {
-					theWriter.write('"');
-				}
+				theRow.putEscaped(serializedValue);
 			} else if (isNumber(type) || isBoolean(type)) {
 				// The serialized value should be recognizable as JSON, so no need to quote it
 				theJsonWriter.writeCustomValue();
@@ -125,7 +245,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 			boolean success = true;
 			try {
 				if (outerValue) {
-					theWriter.write('"');
+					theRow.put('"');
 				}
 				theJsonWriter.startObject();
 				if (subType != null) {
@@ -151,7 +271,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 			} finally {
 				isSimpleField--;
 				if (outerValue) {
-					theWriter.write('"');
+					theRow.put('"');
 				}
 			}
 			return success;
@@ -165,7 +285,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 			boolean success = true;
 			try {
 				if (outerValue) {
-					theWriter.write('"');
+					theRow.put('"');
 				}
 				theJsonWriter.startArray();
 				if (subType != null) {
@@ -178,7 +298,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 			} finally {
 				isSimpleField--;
 				if (outerValue) {
-					theWriter.write('"');
+					theRow.put('"');
 				}
 			}
 			return success;
@@ -186,7 +306,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 
 		@Override
 		public void close() throws IOException {
-			theWriter.close();
+			theRow.close();
 		}
 
 		private static boolean isNumber(Type type) {
@@ -206,76 +326,391 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 		}
 	}
 
-	private static class CsvEntityReader extends AbstractTextEntityReader<String[]> {
-		private final int theColumnCount;
+	/**
+	 * A row of a CSV file as the offsets of its columns in a character window. Quotes are already removed from the columns, so each is a
+	 * plain region of the window that can be parsed in place. A row is only valid until the next row is read unless it is
+	 * {@link #copy() copied}.
+	 */
+	static class CsvRow implements CharSequence {
+		char[] theChars;
+		int[] theStarts;
+		int[] theEnds;
+		int theColumnCount;
 
-		CsvEntityReader(EntityType type, TypeSetDissecter dissecter, HierarchicalResourceReader reader, String fileName) {
-			super(type, dissecter, reader, fileName);
-			int cc = 0;
-			for (EntityField field : type) {
-				if (isSerializable(field)) {
-					cc++;
+		CsvRow(int columns) {
+			theStarts = new int[columns];
+			theEnds = new int[columns];
+		}
+
+		int getColumnCount() {
+			return theColumnCount;
+		}
+
+		int start(int column) {
+			return theStarts[column];
+		}
+
+		int end(int column) {
+			return theEnds[column];
+		}
+
+		boolean matches(int column, String value) {
+			int start = theStarts[column];
+			int length = theEnds[column] - start;
+			if (length != value.length()) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (theChars[start + i] != value.charAt(i)) {
+					return false;
 				}
 			}
-			theColumnCount = cc;
+			return true;
+		}
+
+		String getString(int column) {
+			return new String(theChars, theStarts[column], theEnds[column] - theStarts[column]);
+		}
+
+		/** @return A copy of this row that does not share the window */
+		CsvRow copy() {
+			CsvRow copy = new CsvRow(theColumnCount);
+			int offset = theColumnCount == 0 ? 0 : theStarts[0];
+			int end = theColumnCount == 0 ? 0 : theEnds[theColumnCount - 1];
+			copy.theChars = Arrays.copyOfRange(theChars, offset, end);
+			for (int c = 0; c < theColumnCount; c++) {
+				copy.theStarts[c] = theStarts[c] - offset;
+				copy.theEnds[c] = theEnds[c] - offset;
+			}
+			copy.theColumnCount = theColumnCount;
+			return copy;
 		}
 
 		@Override
-		protected void parseEntityStructures(BufferedReader reader, GenericEntitySet entities, Consumer<String[]> onEntity)
-				throws IOException {
-			CsvParser parser = new CsvParser(reader, ',');
-			String[] columns = new String[theColumnCount];
-			// Parse and check the header
-			try {
-				if (!parser.parseNextLine(columns)) {
-					throw new IOException("No columns on first line of CSV file for entity " + getType());
+		public int length() {
+			return theChars.length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return theChars[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(theChars, start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder str = new StringBuilder();
+			for (int c = 0; c < theColumnCount; c++) {
+				if (c > 0) {
+					str.append(',');
+				}
+				str.append(theChars, theStarts[c], theEnds[c] - theStarts[c]);
+			}
+			return str.toString();
+		}
+	}
+
+	/**
+	 * Splits CSV text into {@link CsvRow rows} over a reusable character window, reading more of the text when a row runs past the end of
+	 * the window. No strings are created.
+	 */
+	static class CsvTokenizer {
+		/** Returned by {@link #tokenize(CsvRow)} when the row is not all in the window */
+		private static final int INCOMPLETE = -1;
+
+		private final Reader theReader;
+		private char[] theWindow;
+		private int thePosition;
+		private int theLimit;
+		private boolean isEOF;
+		private boolean[] isEscaped;
+		private int theRowNumber;
+
+		CsvTokenizer(Reader reader) {
+			theReader = reader;
+			theWindow = new char[64 * 1024];
+			isEscaped = new boolean[8];
+		}
+
+		/** @return The number of the last row read, counting from 1 */
+		int getRowNumber() {
+			return theRowNumber;
+		}
+
+		/**
+		 * @param row
+		 *            The row to read into
+		 * @return Whether a row was read, or false if the text has ended
+		 * @throws IOException
+		 *             If the text cannot be read or is malformed
+		 */
+		boolean next(CsvRow row) throws IOException {
+			while (true) {
+				if (thePosition == theLimit && !fill()) {
+					return false;
+				}
+				int rowEnd = tokenize(row);
+				if (rowEnd == INCOMPLETE) {
+					if (!fill() && thePosition == theLimit) {
+						return false;
+					}
+					continue;
+				}
+				int rowStart = thePosition;
+				thePosition = rowEnd;
+				theRowNumber++;
+				if (row.theColumnCount == 1 && row.theStarts[0] == rowStart && row.theEnds[0] == rowStart) {
+					continue; // Blank line
+				}
+				unescape(row);
+				return true;
+			}
+		}
+
+		/** Moves the unread text to the start of the window, growing it if needed, and reads more */
+		private boolean fill() throws IOException {
+			if (isEOF) {
+				return false;
+			}
+			if (thePosition > 0) {
+				System.arraycopy(theWindow, thePosition, theWindow, 0, theLimit - thePosition);
+				theLimit -= thePosition;
+				thePosition = 0;
+			} else if (theLimit == theWindow.length) {
+				theWindow = Arrays.copyOf(theWindow, theWindow.length * 2);
+			}
+			int read = theReader.read(theWindow, theLimit, theWindow.length - theLimit);
+			if (read < 0) {
+				isEOF = true;
+			} else {
+				theLimit += read;
+			}
+			return true;
+		}
+
+		/**
+		 * Finds the columns of the row at the current position. Nothing in the window is modified, so this can be repeated from the start
+		 * of the row after more text is read.
+		 *
+		 * @return The position after the row's line terminator, or {@link #INCOMPLETE}
+		 */
+		private int tokenize(CsvRow row) throws IOException {
+			char[] window = theWindow;
+			int limit = theLimit;
+			int p = thePosition;
+			int column = 0;
+			row.theChars = window;
+			while (true) {
+				if (column == row.theStarts.length) {
+					row.theStarts = Arrays.copyOf(row.theStarts, column * 2);
+					row.theEnds = Arrays.copyOf(row.theEnds, column * 2);
+				}
+				if (column == isEscaped.length) {
+					isEscaped = Arrays.copyOf(isEscaped, column * 2);
+				}
+				boolean escaped = false;
+				if (p < limit && window[p] == '"') {
+					int start = ++p;
+					while (true) {
+						if (p >= limit) {
+							if (isEOF) {
+								throw new IOException("Unterminated quoted value in row " + (theRowNumber + 1));
+							}
+							return INCOMPLETE;
+						} else if (window[p] != '"') {
+							p++;
+						} else if (p + 1 < limit && window[p + 1] == '"') {
+							escaped = true;
+							p += 2;
+						} else if (p + 1 == limit && !isEOF) {
+							return INCOMPLETE; // Can't tell whether the quote is doubled yet
+						} else {
+							break;
+						}
+					}
+					row.theStarts[column] = start;
+					row.theEnds[column] = p++;
+				} else {
+					int start = p;
+					while (p < limit && window[p] != ',' && window[p] != '\n') {
+						p++;
+					}
+					if (p == limit && !isEOF) {
+						return INCOMPLETE;
+					}
+					int end = p;
+					if (end > start && window[end - 1] == '\r' && (p == limit || window[p] == '\n')) {
+						end--; // Windows line terminator
+					}
+					row.theStarts[column] = start;
+					row.theEnds[column] = end;
 				}
-				if (!columns[0].equals(getType().getIdField().getName())) {
-					throw new IOException("Header: Expected " + getType().getIdField().getName() + ", but encountered " + columns[0]);
+				isEscaped[column] = escaped;
+				column++;
+				if (p == limit) {
+					if (!isEOF) {
+						return INCOMPLETE;
+					}
+					row.theColumnCount = column;
+					return p;
 				}
-				int c = 1;
-				for (EntityField field : getType()) {
-					if (field.isId() || !isSerializable(field)) {
-						continue;
+				char c = window[p++];
+				if (c == ',') {
+					continue;
+				} else if (c == '\r') {
+					if (p == limit && !isEOF) {
+						return INCOMPLETE;
+					} else if (p < limit && window[p] == '\n') {
+						p++;
 					}
-					if (!columns[c].equals(field.getName())) {
-						throw new IOException("Header: Expected " + field.getName() + ", but encountered " + columns[c]);
+				} else if (c != '\n') {
+					throw new IOException("Unexpected '" + c + "' after quoted value in row " + (theRowNumber + 1));
+				}
+				row.theColumnCount = column;
+				return p;
+			}
+		}
+
+		/** Collapses doubled quotes in the row's quoted columns, in place */
+		private void unescape(CsvRow row) {
+			for (int c = 0; c < row.theColumnCount; c++) {
+				if (!isEscaped[c]) {
+					continue;
+				}
+				char[] window = row.theChars;
+				int w = row.theStarts[c];
+				for (int r = w; r < row.theEnds[c]; r++) {
+					window[w++] = window[r];
+					if (window[r] == '"') {
+						r++; // Skip the second quote
 					}
-					c++;
 				}
-				while (parser.parseNextLine(columns)) {
-					onEntity.accept(columns);
+				row.theEnds[c] = w;
+			}
+		}
+	}
+
+	/**
+	 * Reads entities from rows split by a {@link CsvTokenizer}. Columns are decoded only when their fields are assigned, so creating the
+	 * entities decodes just the identities. Numbers and references are parsed straight from the window.
+	 */
+	private static class CsvEntityReader extends AbstractTextEntityReader<CsvRow> {
+		/** The fields of each column after the identity */
+		private final EntityField[] theFields;
+
+		CsvEntityReader(EntityType type, TypeSetDissecter dissecter, HierarchicalResourceReader reader, String fileName) {
+			super(type, dissecter, reader, fileName);
+			List<EntityField> fields = new ArrayList<>();
+			for (EntityField field : type) {
+				if (!field.isId() && isSerializable(field)) {
+					fields.add(field);
 				}
-			} catch (TextParseException e) {
-				throw new IOException("Could not parse CSV file for entity " + getType(), e);
 			}
+			theFields = fields.toArray(new EntityField[fields.size()]);
 		}
 
 		@Override
-		protected String getIdentity(String[] entityStructure) {
-			return entityStructure[0];
+		protected void parseEntityStructures(BufferedReader reader, GenericEntitySet entities, Consumer<CsvRow> onEntity)
+				throws IOException {
+			CsvTokenizer tokenizer = new CsvTokenizer(reader);
+			CsvRow row = new CsvRow(theFields.length + 1);
+			// Parse and check the header
+			if (!tokenizer.next(row)) {
+				throw new IOException("No columns on first line of CSV file for entity " + getType());
+			}
+			checkColumnCount(tokenizer, row);
+			if (!row.matches(0, getType().getIdField().getName())) {
+				throw new IOException("Header: Expected " + getType().getIdField().getName() + ", but encountered " + row.getString(0));
+			}
+			for (int f = 0; f < theFields.length; f++) {
+				if (!row.matches(f + 1, theFields[f].getName())) {
+					throw new IOException("Header: Expected " + theFields[f].getName() + ", but encountered " + row.getString(f + 1));
+				}
+			}
+			while (tokenizer.next(row)) {
+				checkColumnCount(tokenizer, row);
+				onEntity.accept(row);
+			}
+		}
+
+		private void checkColumnCount(CsvTokenizer tokenizer, CsvRow row) throws IOException {
+			if (row.getColumnCount() != theFields.length + 1) {
+				throw new IOException("Row " + tokenizer.getRowNumber() + " of CSV file for entity " + getType() + " has "
+					+ row.getColumnCount() + " columns instead of " + (theFields.length + 1));
+			}
+		}
+
+		@Override
+		protected String getIdentity(CsvRow entityStructure) {
+			return entityStructure.getString(0);
+		}
+
+		@Override
+		protected Object parseIdentity(CsvRow entityStructure, SimpleFormat format, Class<?> type) {
+			return format.parse(type, entityStructure, entityStructure.start(0), entityStructure.end(0));
 		}
 
 		@Override
-		protected boolean deserializeFieldsFor(GenericEntity item, String[] element, GenericEntitySet entities) {
-			int c = 1;
+		protected CsvRow retain(CsvRow entityStructure) {
+			return entityStructure.copy(); // The tokenizer reuses the row and its window for each line
+		}
+
+		@Override
+		protected boolean deserializeFieldsFor(GenericEntity item, CsvRow element, GenericEntitySet entities) {
 			Object[] fieldValue = new Object[1];
 			boolean success = true;
-			for (EntityField field : getType()) {
-				if (field.isId() || !isSerializable(field)) {
-					continue;
-				}
-				boolean fieldSuccess = getValue(field.getType(), field, entities, element[c], fieldValue);
-				if (fieldSuccess) {
-					item.set(field.getName(), fieldValue[0]);
+			for (int f = 0; f < theFields.length; f++) {
+				if (decodeColumn(theFields[f], element, f + 1, entities, fieldValue)) {
+					item.set(theFields[f], fieldValue[0]);
 				} else {
-					success =false;
+					success = false;
 				}
-				c++;
 			}
 			return success;
 		}
 
+		/** Decodes simple values and references in place, handing anything else to {@link #getValue} as a string */
+		private boolean decodeColumn(EntityField field, CsvRow row, int column, GenericEntitySet entitySet, Object[] fieldValue) {
+			Type type = field.getType();
+			int start = row.start(column);
+			int end = row.end(column);
+			if (row.matches(column, "null")) {
+				fieldValue[0] = null;
+				return true;
+			} else if (type instanceof EntityType) {
+				EntityField idField = ((EntityType) type).getIdField();
+				SimpleFormat idFormat = getDissecter().getFormat((Class<?>) idField.getType());
+				Object idValue;
+				try {
+					idValue = idFormat.parse((Class<?>) idField.getType(), row, start, end);
+				} catch (RuntimeException e) {
+					System.err.println("Could not parse " + idField + " from " + row.getString(column) + " for " + field);
+					e.printStackTrace();
+					return false;
+				}
+				fieldValue[0] = resolveReference(entitySet, (EntityType) type, idValue, field);
+				return fieldValue[0] != null;
+			} else if (type instanceof Class) {
+				SimpleFormat format = getDissecter().getFormat((Class<?>) type);
+				if (format != null) {
+					try {
+						fieldValue[0] = format.parse((Class<?>) type, row, start, end);
+					} catch (RuntimeException e) {
+						System.err.println(
+								"Could not parse " + PersistenceUtils.toString(type) + " from " + row.getString(column) + " for " + field);
+						e.printStackTrace();
+						return false;
+					}
+					return true;
+				}
+			}
+			return getValue(type, field, entitySet, row.getString(column), fieldValue);
+		}
+
 		private boolean getValue(Type type, EntityField field, GenericEntitySet entitySet, Object serializedValue, Object[] fieldValue) {
 			if (serializedValue == null || "null".equals(serializedValue)) {
 				fieldValue[0] = null;
@@ -301,9 +736,8 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 				} else {
 					idValue = cast(serializedValue, (Class<?>) idField.getType());
 				}
-				fieldValue[0] = entitySet.queryById(((EntityType) type), idValue);
+				fieldValue[0] = resolveReference(entitySet, (EntityType) type, idValue, field);
 				if (fieldValue[0] == null) {
-					System.err.println("No such " + type + " with " + idField.getName() + " " + idValue + " for " + field);
 					return false;
 				}
 				return true;
@@ -433,6 +867,137 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 		}
 	}
 
+	/** Collects rows as characters, writing them out only when the buffer fills */
+	static class RowBuffer extends Writer {
+		private static final String LINE_SEPARATOR = System.lineSeparator();
+
+		private final Writer theOut;
+		private char[] theChars;
+		private int theLength;
+
+		RowBuffer(Writer out) {
+			theOut = out;
+			theChars = new char[8192];
+		}
+
+		/** Makes room for the given number of characters, writing out the buffer first if needed */
+		private void ensure(int length) throws IOException {
+			if (theLength + length <= theChars.length) {
+				return;
+			}
+			theOut.write(theChars, 0, theLength);
+			theLength = 0;
+			if (length > theChars.length) {
+				theChars = new char[Math.max(length, theChars.length * 2)];
+			}
+		}
+
+		void put(char c) throws IOException {
+			ensure(1);
+			theChars[theLength++] = c;
+		}
+
+		void put(String value) throws IOException {
+			int length = value.length();
+			ensure(length);
+			value.getChars(0, length, theChars, theLength);
+			theLength += length;
+		}
+
+		void putLong(long value) throws IOException {
+			if (value == Long.MIN_VALUE) {
+				put(String.valueOf(value)); // Cannot be negated
+				return;
+			}
+			ensure(20);
+			if (value < 0) {
+				theChars[theLength++] = '-';
+				value = -value;
+			}
+			int digits = 1;
+			for (long v = value / 10; v != 0; v /= 10) {
+				digits++;
+			}
+			int pos = theLength + digits;
+			theLength = pos;
+			do {
+				theChars[--pos] = (char) ('0' + (value % 10));
+				value /= 10;
+			} while (value != 0);
+		}
+
+		/**
+		 * Copies a value, doubling any quotes. The value is quoted if a comma, newline or quote is encountered, in which case what has been
+		 * copied so far is shifted to make room for the opening quote.
+		 */
+		void putEscaped(String value) throws IOException {
+			int length = value.length();
+			ensure(length * 2 + 2);
+			int start = theLength;
+			int pos = start;
+			boolean quoted = false;
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c == ',' || c == '\n' || c == '"') {
+					if (!quoted) {
+						System.arraycopy(theChars, start, theChars, start + 1, pos - start);
+						theChars[start] = '"';
+						pos++;
+						quoted = true;
+					}
+					if (c == '"') {
+						theChars[pos++] = '"';
+					}
+				}
+				theChars[pos++] = c;
+			}
+			if (quoted) {
+				theChars[pos++] = '"';
+			}
+			theLength = pos;
+		}
+
+		void newLine() throws IOException {
+			put(LINE_SEPARATOR);
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			put((char) c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			ensure(len);
+			System.arraycopy(cbuf, off, theChars, theLength, len);
+			theLength += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			ensure(len);
+			str.getChars(off, off + len, theChars, theLength);
+			theLength += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			theOut.write(theChars, 0, theLength);
+			theLength = 0;
+			theOut.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				theOut.write(theChars, 0, theLength);
+				theLength = 0;
+			} finally {
+				theOut.close();
+			}
+		}
+	}
+
 	private static class CsvValueWriter extends Writer {
 		private final Writer theWrapped;
 
@@ -496,7 +1061,7 @@ public class CsvEntitySetPersistence extends AbstractTextEntitySetPersistence {
 
 	@Override
 	protected EntityWriter createEntityWriter(EntityType type, Writer streamWriter) throws IOException {
-		return new CsvEntityWriter(type, getDissecter(), new BufferedWriter(streamWriter));
+		return new CsvEntityWriter(type, getDissecter(), streamWriter);
 	}
 
 	@Override
@@ -0,0 +1,353 @@
+package org.migration.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.migration.generic.EntityType;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/**
+ * <p>
+ * Describes an export: for each entity type written, the {@link org.migration.EntitySetPersistence#getFormatName() format} it was written
+ * in, the number of rows, and the resources written for it with their byte counts and CRC-32 checksums.
+ * </p>
+ * <p>
+ * With the manifest, readers know which types are present and which scheme wrote them without opening each candidate resource, and the
+ * export can be verified before a long import. Byte counts and checksums are of the resources as written through the resource writer given
+ * to {@link #record(EntityType, String, HierarchicalResourceWriter)}, so they are verified through a reader at the same level, e.g. a
+ * {@link BlockCompressedResourceReader} for resources written through a {@link BlockCompressedResourceWriter}.
+ * </p>
+ */
+public class ExportManifest {
+	/** The resource the manifest is written to */
+	public static final String RESOURCE = "export-manifest.properties";
+
+	/** A resource written for an entity type */
+	public static class ResourceEntry {
+		private final String thePath;
+		private final long theBytes;
+		private final long theChecksum;
+
+		ResourceEntry(String path, long bytes, long checksum) {
+			thePath = path;
+			theBytes = bytes;
+			theChecksum = checksum;
+		}
+
+		/** @return The path of the resource */
+		public String getPath() {
+			return thePath;
+		}
+
+		/** @return The number of bytes written to the resource */
+		public long getBytes() {
+			return theBytes;
+		}
+
+		/** @return The CRC-32 checksum of the resource's bytes */
+		public long getChecksum() {
+			return theChecksum;
+		}
+	}
+
+	private static class TypeEntry {
+		final String format;
+		long rows;
+		final List<ResourceEntry> resources;
+
+		TypeEntry(String format) {
+			this.format = format;
+			resources = new ArrayList<>();
+		}
+	}
+
+	private final Map<String, TypeEntry> theTypes;
+
+	/** Creates an empty manifest to record an export in */
+	public ExportManifest() {
+		theTypes = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Starts recording the export of an entity type. Types may be recorded concurrently.
+	 *
+	 * @param type
+	 *            The entity type being exported
+	 * @param format
+	 *            The name of the format the type is being written in
+	 * @param writer
+	 *            The resource writer the type is being written to
+	 * @return A resource writer to write the type's data through, which records each resource written when it is closed
+	 */
+	public HierarchicalResourceWriter record(EntityType type, String format, HierarchicalResourceWriter writer) {
+		TypeEntry entry = new TypeEntry(format);
+		synchronized (this) {
+			theTypes.put(type.getName(), entry);
+		}
+		return path -> {
+			OutputStream out = writer.writeResource(path);
+			if (out == null) {
+				return null;
+			}
+			CRC32 crc = new CRC32();
+			return new FilterOutputStream(out) {
+				private long theBytes;
+				private boolean isClosed;
+
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					crc.update(b);
+					theBytes++;
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					crc.update(b, off, len);
+					theBytes += len;
+				}
+
+				@Override
+				public void close() throws IOException {
+					super.close();
+					if (!isClosed) {
+						isClosed = true;
+						synchronized (ExportManifest.this) {
+							entry.resources.add(new ResourceEntry(path, theBytes, crc.getValue()));
+						}
+					}
+				}
+			};
+		};
+	}
+
+	/**
+	 * @param type
+	 *            The entity type that was exported
+	 * @param rows
+	 *            The number of rows written for the type
+	 */
+	public synchronized void setRows(EntityType type, long rows) {
+		TypeEntry entry = theTypes.get(type.getName());
+		if (entry == null) {
+			throw new IllegalArgumentException("No export recorded for " + type.getName());
+		}
+		entry.rows = rows;
+	}
+
+	/**
+	 * @param typeName
+	 *            The name of the entity type
+	 * @return Whether the type was written in the export
+	 */
+	public synchronized boolean hasType(String typeName) {
+		return theTypes.containsKey(typeName);
+	}
+
+	/**
+	 * @param typeName
+	 *            The name of the entity type
+	 * @return The name of the format the type was written in, or null if it was not written
+	 */
+	public synchronized String getFormat(String typeName) {
+		TypeEntry entry = theTypes.get(typeName);
+		return entry == null ? null : entry.format;
+	}
+
+	/**
+	 * @param typeName
+	 *            The name of the entity type
+	 * @return The number of rows written for the type, or 0 if it was not written
+	 */
+	public synchronized long getRows(String typeName) {
+		TypeEntry entry = theTypes.get(typeName);
+		return entry == null ? 0 : entry.rows;
+	}
+
+	/**
+	 * @param typeName
+	 *            The name of the entity type
+	 * @return The resources written for the type
+	 */
+	public synchronized List<ResourceEntry> getResources(String typeName) {
+		TypeEntry entry = theTypes.get(typeName);
+		return entry == null ? new ArrayList<>() : new ArrayList<>(entry.resources);
+	}
+
+	/**
+	 * @param writer
+	 *            The resource writer to write the manifest to
+	 * @throws IOException
+	 *             If the manifest cannot be written
+	 */
+	public synchronized void write(HierarchicalResourceWriter writer) throws IOException {
+		Properties manifest = new Properties();
+		manifest.setProperty("types", String.join(",", theTypes.keySet()));
+		for (Map.Entry<String, TypeEntry> type : theTypes.entrySet()) {
+			String prefix = type.getKey() + ".";
+			manifest.setProperty(prefix + "format", type.getValue().format);
+			manifest.setProperty(prefix + "rows", String.valueOf(type.getValue().rows));
+			manifest.setProperty(prefix + "resources", String.valueOf(type.getValue().resources.size()));
+			for (int r = 0; r < type.getValue().resources.size(); r++) {
+				ResourceEntry resource = type.getValue().resources.get(r);
+				manifest.setProperty(prefix + "resource" + r + ".path", resource.getPath());
+				manifest.setProperty(prefix + "resource" + r + ".bytes", String.valueOf(resource.getBytes()));
+				manifest.setProperty(prefix + "resource" + r + ".crc32", Long.toHexString(resource.getChecksum()));
+			}
+		}
+		OutputStream out = writer.writeResource(RESOURCE);
+		if (out == null) {
+			throw new IOException("Could not write " + RESOURCE);
+		}
+		try (Writer manifestWriter = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+			manifest.store(manifestWriter, null);
+		}
+	}
+
+	/**
+	 * @param reader
+	 *            The resource reader to read the manifest from
+	 * @return The manifest, or null if the export has none
+	 * @throws IOException
+	 *             If the manifest cannot be read or is malformed
+	 */
+	public static ExportManifest read(HierarchicalResourceReader reader) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = reader.readResource(RESOURCE)) {
+			if (in == null) {
+				return null;
+			}
+			try (Reader manifestReader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+				props.load(manifestReader);
+			}
+		}
+		ExportManifest manifest = new ExportManifest();
+		try {
+			String types = props.getProperty("types", "");
+			for (String typeName : types.isEmpty() ? new String[0] : types.split(",")) {
+				String prefix = typeName + ".";
+				TypeEntry entry = new TypeEntry(require(props, prefix + "format"));
+				entry.rows = Long.parseLong(require(props, prefix + "rows"));
+				int resources = Integer.parseInt(require(props, prefix + "resources"));
+				for (int r = 0; r < resources; r++) {
+					entry.resources.add(new ResourceEntry(require(props, prefix + "resource" + r + ".path"),
+							Long.parseLong(require(props, prefix + "resource" + r + ".bytes")),
+							Long.parseLong(require(props, prefix + "resource" + r + ".crc32"), 16)));
+				}
+				manifest.theTypes.put(typeName, entry);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed " + RESOURCE, e);
+		}
+		return manifest;
+	}
+
+	private static String require(Properties props, String key) throws IOException {
+		String value = props.getProperty(key);
+		if (value == null) {
+			throw new IOException("Malformed " + RESOURCE + ": no " + key);
+		}
+		return value;
+	}
+
+	/**
+	 * Reads every resource listed in the manifest, checking its byte count and checksum, printing mismatches to System.err
+	 *
+	 * @param reader
+	 *            The resource reader to read the export from
+	 * @param threads
+	 *            The number of resources to verify concurrently
+	 * @return Whether every resource is present and intact
+	 */
+	public boolean verify(HierarchicalResourceReader reader, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+		List<ResourceEntry> resources = new ArrayList<>();
+		synchronized (this) {
+			for (TypeEntry entry : theTypes.values()) {
+				resources.addAll(entry.resources);
+			}
+		}
+		threads = Math.min(threads, resources.size());
+		if (threads <= 1) {
+			boolean success = true;
+			for (ResourceEntry resource : resources) {
+				success &= verify(reader, resource);
+			}
+			return success;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>(resources.size());
+			for (ResourceEntry resource : resources) {
+				results.add(pool.submit(() -> verify(reader, resource)));
+			}
+			boolean success = true;
+			for (Future<Boolean> result : results) {
+				try {
+					success &= result.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					System.err.println("Interrupted verifying export");
+					return false;
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					success = false;
+				}
+			}
+			return success;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static boolean verify(HierarchicalResourceReader reader, ResourceEntry resource) {
+		CRC32 crc = new CRC32();
+		long bytes = 0;
+		try (InputStream in = reader.readResource(resource.getPath())) {
+			if (in == null) {
+				System.err.println("Exported resource " + resource.getPath() + " is missing");
+				return false;
+			}
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				crc.update(buffer, 0, read);
+				bytes += read;
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read exported resource " + resource.getPath());
+			e.printStackTrace();
+			return false;
+		}
+		if (bytes != resource.getBytes()) {
+			System.err.println("Exported resource " + resource.getPath() + " has " + bytes + " bytes, but " + resource.getBytes()
+					+ " were written");
+			return false;
+		} else if (crc.getValue() != resource.getChecksum()) {
+			System.err.println("Exported resource " + resource.getPath() + " is corrupt: checksum mismatch");
+			return false;
+		}
+		return true;
+	}
+}
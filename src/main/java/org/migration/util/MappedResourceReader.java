@@ -0,0 +1,159 @@
+package org.migration.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+import org.qommons.io.HierarchicalResourceReader;
+
+/**
+ * A {@link HierarchicalResourceReader} for a local directory that can also {@link #mapResource(String) map} its files into memory, so
+ * persistence schemes that recognize it can parse entity files in place instead of copying them through a chain of streams
+ */
+public class MappedResourceReader implements HierarchicalResourceReader {
+	/** A reader that decodes characters straight from a mapped buffer */
+	private static class DecodingReader extends Reader {
+		private final ByteBuffer theBytes;
+		private final CharsetDecoder theDecoder;
+		/** Characters decoded but not yet read */
+		private final CharBuffer thePending;
+		private boolean isFlushed;
+
+		DecodingReader(ByteBuffer bytes, Charset charset) {
+			theBytes = bytes;
+			// Same as InputStreamReader
+			theDecoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			thePending = CharBuffer.allocate(2);
+			thePending.flip();
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			} else if (thePending.hasRemaining()) {
+				int read = Math.min(len, thePending.remaining());
+				thePending.get(cbuf, off, read);
+				return read;
+			} else if (len == 1) {
+				// The decoder cannot split a surrogate pair, so decode it whole and keep the second half for the next read
+				thePending.clear();
+				int read = decode(thePending);
+				thePending.flip();
+				if (read < 0) {
+					return -1;
+				}
+				cbuf[off] = thePending.get();
+				return 1;
+			}
+			return decode(CharBuffer.wrap(cbuf, off, len));
+		}
+
+		private int decode(CharBuffer out) throws IOException {
+			if (isFlushed) {
+				return -1;
+			}
+			int start = out.position();
+			CoderResult result = theDecoder.decode(theBytes, out, true);
+			if (result.isUnderflow()) {
+				result = theDecoder.flush(out);
+				if (result.isUnderflow()) {
+					isFlushed = true;
+				}
+			}
+			if (result.isError()) {
+				result.throwException();
+			}
+			int read = out.position() - start;
+			return read == 0 && isFlushed ? -1 : read;
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	private final File theRoot;
+
+	/**
+	 * @param root
+	 *            The directory to read resources from
+	 */
+	public MappedResourceReader(File root) {
+		theRoot = root;
+	}
+
+	/** @return The directory this reader reads resources from */
+	public File getRoot() {
+		return theRoot;
+	}
+
+	/**
+	 * @param path
+	 *            The path of the resource
+	 * @return The file for the resource
+	 */
+	protected File getFile(String path) {
+		return new File(theRoot, path);
+	}
+
+	@Override
+	public InputStream readResource(String path) throws IOException {
+		File file = getFile(path);
+		return file.isFile() ? new FileInputStream(file) : null;
+	}
+
+	/**
+	 * @param path
+	 *            The path of the resource
+	 * @return Whether the resource exists and is small enough to be {@link #mapResource(String) mapped}
+	 */
+	public boolean isMappable(String path) {
+		File file = getFile(path);
+		return file.isFile() && file.length() <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @param path
+	 *            The path of the resource
+	 * @return A read-only view of the resource's content, or null if it does not exist
+	 * @throws IOException If the resource cannot be mapped
+	 */
+	public ByteBuffer mapResource(String path) throws IOException {
+		File file = getFile(path);
+		if (!file.isFile()) {
+			return null;
+		}
+		// The mapping remains valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map: " + size + " bytes");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	/**
+	 * @param path
+	 *            The path of the resource
+	 * @param charset
+	 *            The character set the resource is encoded in
+	 * @return A reader decoding the resource's {@link #mapResource(String) mapped} content, or null if it does not exist
+	 * @throws IOException If the resource cannot be mapped
+	 */
+	public Reader mapText(String path, Charset charset) throws IOException {
+		ByteBuffer bytes = mapResource(path);
+		return bytes == null ? null : new DecodingReader(bytes, charset);
+	}
+}
@@ -0,0 +1,349 @@
+package org.migration.util;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.migration.EntitySetPersistence;
+import org.migration.MigrationListener;
+import org.migration.generic.EntityType;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/**
+ * <p>
+ * Splits the data of each entity type into numbered parts, each written by another persistence scheme, so that the parts of a large type
+ * can be read concurrently.
+ * </p>
+ * <p>
+ * A new part is started after a number of rows or bytes. Each resource the other scheme writes for a part is named with ".part<i>n</i>"
+ * inserted before its extension, and a manifest listing the parts with their row and byte counts is written to
+ * <code>&lt;Type&gt;.parts</code>. Types without a manifest are read by the other scheme directly.
+ * </p>
+ */
+public class PartitionedEntitySetPersistence implements EntitySetPersistence {
+	/** The default number of rows after which a new part is started */
+	public static final long DEFAULT_MAX_ROWS = 1_000_000;
+	/** The default number of bytes after which a new part is started */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private class PartitionedEntityWriter implements EntityWriter {
+		private final EntityType theType;
+		private final HierarchicalResourceWriter theWriter;
+		private final List<long[]> theParts;
+		private EntityWriter thePart;
+		private long thePartRows;
+		private final long[] thePartBytes;
+
+		PartitionedEntityWriter(EntityType type, HierarchicalResourceWriter writer) throws IOException {
+			theType = type;
+			theWriter = writer;
+			theParts = new ArrayList<>();
+			thePartBytes = new long[1];
+			nextPart();
+		}
+
+		@Override
+		public boolean writeEntity(GenericEntity entity) throws IOException {
+			if (thePartRows >= theMaxRows || thePartBytes[0] >= theMaxBytes) {
+				endPart();
+				nextPart();
+			}
+			thePartRows++;
+			return thePart.writeEntity(entity);
+		}
+
+		private void nextPart() throws IOException {
+			int part = theParts.size();
+			thePartRows = 0;
+			thePartBytes[0] = 0;
+			thePart = theDelegate.writeEntitySet(theType, path -> {
+				OutputStream out = theWriter.writeResource(getPartName(path, part));
+				if (out == null) {
+					return null;
+				}
+				return new FilterOutputStream(out) {
+					@Override
+					public void write(int b) throws IOException {
+						out.write(b);
+						thePartBytes[0]++;
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						out.write(b, off, len);
+						thePartBytes[0] += len;
+					}
+				};
+			});
+		}
+
+		private void endPart() throws IOException {
+			EntityWriter part = thePart;
+			thePart = null;
+			part.close();
+			theParts.add(new long[] { thePartRows, thePartBytes[0] });
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (thePart != null) {
+				endPart();
+			}
+			Properties manifest = new Properties();
+			manifest.setProperty("type", theType.getName());
+			manifest.setProperty("parts", String.valueOf(theParts.size()));
+			for (int p = 0; p < theParts.size(); p++) {
+				manifest.setProperty("part" + p + ".rows", String.valueOf(theParts.get(p)[0]));
+				manifest.setProperty("part" + p + ".bytes", String.valueOf(theParts.get(p)[1]));
+			}
+			OutputStream manifestOut = theWriter.writeResource(getManifestName(theType));
+			if (manifestOut == null) {
+				throw new IOException("Could not write " + getManifestName(theType));
+			}
+			try (Writer out = new OutputStreamWriter(manifestOut, StandardCharsets.UTF_8)) {
+				manifest.store(out, null);
+			}
+		}
+	}
+
+	/** One phase of reading a part */
+	private interface PartTask {
+		boolean read(EntityReader part) throws IOException;
+	}
+
+	private class PartitionedEntityReader implements EntityReader {
+		private final EntityType theType;
+		private final List<EntityReader> theParts;
+
+		PartitionedEntityReader(EntityType type, List<EntityReader> parts) {
+			theType = type;
+			theParts = parts;
+		}
+
+		@Override
+		public boolean readEntityIdentities(GenericEntitySet entities, Consumer<GenericEntity> onEntity) throws IOException {
+			Consumer<GenericEntity> listener = synchronize(onEntity);
+			return readParts(part -> part.readEntityIdentities(entities, listener));
+		}
+
+		@Override
+		public boolean populateEntityFields(GenericEntitySet entities, Consumer<GenericEntity> onCompleteEntity) throws IOException {
+			Consumer<GenericEntity> listener = synchronize(onCompleteEntity);
+			return readParts(part -> part.populateEntityFields(entities, listener));
+		}
+
+		@Override
+		public boolean readEntities(GenericEntitySet entities, PendingLinks links, Consumer<GenericEntity> onCompleteEntity)
+			throws IOException {
+			Consumer<GenericEntity> listener = synchronize(onCompleteEntity);
+			return readParts(part -> part.readEntities(entities, links, listener));
+		}
+
+		@Override
+		public void setOverlay(boolean overlay) {
+			for (EntityReader part : theParts) {
+				part.setOverlay(overlay);
+			}
+		}
+
+		@Override
+		public void setListener(MigrationListener listener) {
+			for (EntityReader part : theParts) {
+				part.setListener(listener);
+			}
+		}
+
+		/** Parts may be read concurrently, so listeners are notified one at a time */
+		private Consumer<GenericEntity> synchronize(Consumer<GenericEntity> listener) {
+			if (listener == null) {
+				return null;
+			}
+			return entity -> {
+				synchronized (this) {
+					listener.accept(entity);
+				}
+			};
+		}
+
+		private boolean readParts(PartTask task) throws IOException {
+			int threads = Math.min(theReadThreads, theParts.size());
+			if (threads <= 1) {
+				boolean success = true;
+				for (EntityReader part : theParts) {
+					success &= task.read(part);
+				}
+				return success;
+			}
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<Boolean>> results = new ArrayList<>(theParts.size());
+				for (EntityReader part : theParts) {
+					results.add(pool.submit(() -> task.read(part)));
+				}
+				boolean success = true;
+				for (Future<Boolean> result : results) {
+					try {
+						success &= result.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						System.err.println("Interrupted reading parts of " + theType.getName());
+						return false;
+					} catch (ExecutionException e) {
+						e.getCause().printStackTrace();
+						success = false;
+					}
+				}
+				return success;
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	private final EntitySetPersistence theDelegate;
+	private long theMaxRows;
+	private long theMaxBytes;
+	private int theReadThreads;
+
+	/**
+	 * @param delegate
+	 *            The persistence scheme to write and read each part with
+	 */
+	public PartitionedEntitySetPersistence(EntitySetPersistence delegate) {
+		theDelegate = delegate;
+		theMaxRows = DEFAULT_MAX_ROWS;
+		theMaxBytes = DEFAULT_MAX_BYTES;
+		theReadThreads = 1;
+	}
+
+	/**
+	 * @param maxRows
+	 *            The number of rows after which to start a new part
+	 * @return This persistence
+	 */
+	public PartitionedEntitySetPersistence setMaxRows(long maxRows) {
+		if (maxRows < 1) {
+			throw new IllegalArgumentException("Parts must have at least one row: " + maxRows);
+		}
+		theMaxRows = maxRows;
+		return this;
+	}
+
+	/**
+	 * @param maxBytes
+	 *            The number of bytes after which to start a new part. Since the other scheme may buffer its output, parts may be somewhat
+	 *            larger than this.
+	 * @return This persistence
+	 */
+	public PartitionedEntitySetPersistence setMaxBytes(long maxBytes) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("Parts must have at least one byte: " + maxBytes);
+		}
+		theMaxBytes = maxBytes;
+		return this;
+	}
+
+	/**
+	 * @param threads
+	 *            The number of parts of a single type that may be read concurrently. The other scheme's readers must support reading
+	 *            different parts of the same type at once, as the text and binary readers do.
+	 * @return This persistence
+	 */
+	public PartitionedEntitySetPersistence setReadThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+		theReadThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param type
+	 *            The entity type
+	 * @return The name of the manifest listing the type's parts
+	 */
+	protected String getManifestName(EntityType type) {
+		return PersistenceUtils.xmlToJava(type.getName(), true) + ".parts";
+	}
+
+	/**
+	 * @param path
+	 *            The path of a resource written by the other scheme
+	 * @param part
+	 *            The index of the part
+	 * @return The path of the resource for the given part
+	 */
+	protected String getPartName(String path, int part) {
+		int dot = path.lastIndexOf('.');
+		if (dot <= path.lastIndexOf('/')) {
+			return path + ".part" + part;
+		}
+		return path.substring(0, dot) + ".part" + part + path.substring(dot);
+	}
+
+	@Override
+	public EntityWriter writeEntitySet(EntityType type, HierarchicalResourceWriter writer) throws IOException {
+		return new PartitionedEntityWriter(type, writer);
+	}
+
+	@Override
+	public String getFormatName() {
+		return EntitySetPersistence.super.getFormatName() + "(" + theDelegate.getFormatName() + ")";
+	}
+
+	@Override
+	public EntityReader readEntitySet(EntityType type, HierarchicalResourceReader reader) throws IOException {
+		Properties manifest = new Properties();
+		try (InputStream in = reader.readResource(getManifestName(type))) {
+			if (in == null) {
+				return theDelegate.readEntitySet(type, reader); // Not partitioned
+			}
+			manifest.load(in);
+		}
+		int partCount;
+		try {
+			partCount = Integer.parseInt(manifest.getProperty("parts"));
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed part manifest " + getManifestName(type), e);
+		}
+		List<EntityReader> parts = new ArrayList<>(partCount);
+		for (int p = 0; p < partCount; p++) {
+			EntityReader part = theDelegate.readEntitySet(type, getPartReader(reader, p));
+			if (part == null) {
+				throw new IOException("Part " + p + " of " + type.getName() + " is missing");
+			}
+			parts.add(part);
+		}
+		return new PartitionedEntityReader(type, parts);
+	}
+
+	/** Keeps mapped readers mapped, so the other scheme can still parse the parts in place */
+	private HierarchicalResourceReader getPartReader(HierarchicalResourceReader reader, int part) {
+		if (reader instanceof MappedResourceReader) {
+			MappedResourceReader mapped = (MappedResourceReader) reader;
+			return new MappedResourceReader(mapped.getRoot()) {
+				@Override
+				protected File getFile(String path) {
+					return mapped.getFile(getPartName(path, part));
+				}
+			};
+		}
+		return path -> reader.readResource(getPartName(path, part));
+	}
+}
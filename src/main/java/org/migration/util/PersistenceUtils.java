@@ -868,6 +868,28 @@ public class PersistenceUtils {
         }
     }
 
+    /**
+     * Clears field values of an existing entity that is about to be populated again, e.g. from a delta, so that values which are absent
+     * from the new data do not survive. Primitive fields, which are always present, and fields that are not
+     * {@link AbstractTextEntitySetPersistence#isSerializable(EntityField) serialized}, which the new data never contains, are left alone.
+     *
+     * @param entity
+     *            The entity to clear
+     * @param fields
+     *            The fields to clear. The identity is never cleared.
+     */
+    public static void clearFields(GenericEntity entity, Iterable<EntityField> fields) {
+        for (EntityField field : fields) {
+            if (field.isId() || !AbstractTextEntitySetPersistence.isSerializable(field)
+                || (field.getType() instanceof Class && ((Class<?>) field.getType()).isPrimitive())) {
+                continue;
+            }
+            if (entity.get(field) != null) {
+                entity.set(field, null);
+            }
+        }
+    }
+
     /**
      * @param file
      *            The file to delete
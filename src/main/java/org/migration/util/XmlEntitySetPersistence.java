@@ -5,19 +5,20 @@ import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.function.Consumer;
 
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 
-import org.jdom2.Attribute;
-import org.jdom2.Element;
-import org.jdom2.JDOMException;
 import org.migration.CollectionDissecter;
 import org.migration.Dissecter;
 import org.migration.DissecterGenerator;
@@ -40,6 +41,7 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 		/** The maximum number of fields a data type can have for it to be represented in a single XML element */
 		private static final int MAX_SIMPLE_FIELDS = 3;
 
+		private final Writer theWriter;
 		private final XMLStreamWriter theXmlWriter;
 		private final String theRootName;
 		private boolean hasWrittenAny;
@@ -49,6 +51,7 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 				throws IOException {
 			super(type, dissecter);
 			theRootName = rootName;
+			theWriter = writer;
 			try {
 				theXmlWriter = xml.createXMLStreamWriter(writer);
 				theXmlWriter.writeStartDocument("UTF-8", "1.0");
@@ -85,8 +88,11 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 				theXmlWriter.writeCharacters("\n");
 				theXmlWriter.close();
 			} catch (XMLStreamException e) {
+				theWriter.close();
 				throw new IOException("XML output exception", e);
 			}
+			// Closing the XML writer does not close the stream it writes to
+			theWriter.close();
 		}
 
 		@Override
@@ -273,58 +279,411 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 		}
 	}
 
-	private static class XmlEntityReader extends AbstractTextEntityReader<Element> {
-		XmlEntityReader(EntityType type, HierarchicalResourceReader reader, TypeSetDissecter dissecter, String fileName) {
+	/**
+	 * A position at the start of an element in an XML document, from which the element's attributes and content are read as events. The
+	 * {@link StaxCursor live cursor} reads straight from the document; a {@link ReplayCursor} reads an element recorded from it.
+	 */
+	private static abstract class XmlCursor {
+		/**
+		 * @return The next {@link XMLStreamConstants#START_ELEMENT START_ELEMENT}, {@link XMLStreamConstants#END_ELEMENT END_ELEMENT} or
+		 *         {@link XMLStreamConstants#CHARACTERS CHARACTERS} event
+		 */
+		abstract int advance() throws XMLStreamException;
+
+		/** @return The name of the element at whose start this cursor is */
+		abstract String getName();
+
+		abstract int getAttributeCount();
+
+		abstract String getAttributeName(int index);
+
+		abstract String getAttributeValue(int index);
+
+		/** @return The text of the characters event this cursor is at */
+		abstract String getText();
+
+		/** @return A cursor at the start of this cursor's current entity element that can read it again */
+		abstract XmlCursor replay();
+
+		String getAttributeValue(String name) {
+			for (int a = 0; a < getAttributeCount(); a++) {
+				if (getAttributeName(a).equals(name)) {
+					return getAttributeValue(a);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Moves to the start of the next child of the element whose content is being read
+		 *
+		 * @return False if the end of the element was reached instead
+		 */
+		boolean nextChild() throws XMLStreamException {
+			while (true) {
+				switch (advance()) {
+				case XMLStreamConstants.START_ELEMENT:
+					return true;
+				case XMLStreamConstants.END_ELEMENT:
+					return false;
+				default:
+				}
+			}
+		}
+
+		/** @return The text directly in the element at whose start this cursor is, after which the cursor is at the element's end */
+		String readText() throws XMLStreamException {
+			String text = "";
+			StringBuilder concat = null;
+			int depth = 0;
+			while (true) {
+				switch (advance()) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (depth == 0) {
+						return concat == null ? text : concat.toString();
+					}
+					depth--;
+					break;
+				default:
+					if (depth > 0) {
+						break; // Text of a nested element
+					} else if (text.isEmpty()) {
+						text = getText();
+					} else {
+						if (concat == null) {
+							concat = new StringBuilder(text);
+						}
+						concat.append(getText());
+					}
+				}
+			}
+		}
+
+		/** Skips the rest of the content of the element being read, leaving the cursor at its end */
+		void finishElement() throws XMLStreamException {
+			int depth = 0;
+			while (true) {
+				switch (advance()) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (depth == 0) {
+						return;
+					}
+					depth--;
+					break;
+				default:
+				}
+			}
+		}
+	}
+
+	/** The events of an entity element, recorded so the entity can be read again after its forward references are resolved */
+	private static class XmlRecording {
+		int[] events = new int[64];
+		/** The name of each start event, the text of each characters event */
+		String[] values = new String[64];
+		/** The attribute names and values of each start event */
+		String[][] attributes = new String[64][];
+		int size;
+
+		void add(int event, String value, String[] atts) {
+			if (size == events.length) {
+				events = Arrays.copyOf(events, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+				attributes = Arrays.copyOf(attributes, size * 2);
+			}
+			events[size] = event;
+			values[size] = value;
+			attributes[size] = atts;
+			size++;
+		}
+	}
+
+	/** Reads elements straight from an {@link XMLStreamReader}, recording the entity being read if asked to */
+	private static class StaxCursor extends XmlCursor {
+		private static final String[] NO_ATTRIBUTES = new String[0];
+
+		private final XMLStreamReader theReader;
+		private int theDepth;
+		private XmlRecording theRecording;
+
+		StaxCursor(XMLStreamReader reader) {
+			theReader = reader;
+		}
+
+		/** @return False if the document has no root element */
+		boolean startRoot() throws XMLStreamException {
+			while (theReader.hasNext()) {
+				if (theReader.next() == XMLStreamConstants.START_ELEMENT) {
+					theDepth = 1;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Called at the start of each entity element
+		 *
+		 * @param record
+		 *            Whether to record the entity's events so it can be {@link #replay() replayed}
+		 */
+		void startEntity(boolean record) {
+			if (record) {
+				theRecording = new XmlRecording();
+				theRecording.add(XMLStreamConstants.START_ELEMENT, getName(), getAttributes());
+			} else {
+				theRecording = null;
+			}
+		}
+
+		/** Skips whatever content of the current entity element was not read */
+		void finishEntity() throws XMLStreamException {
+			while (theDepth > 1) {
+				advance();
+			}
+		}
+
+		@Override
+		int advance() throws XMLStreamException {
+			while (true) {
+				switch (theReader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					theDepth++;
+					if (theRecording != null) {
+						theRecording.add(XMLStreamConstants.START_ELEMENT, getName(), getAttributes());
+					}
+					return XMLStreamConstants.START_ELEMENT;
+				case XMLStreamConstants.END_ELEMENT:
+					if (theRecording != null && theDepth > 1) {
+						theRecording.add(XMLStreamConstants.END_ELEMENT, null, null);
+					}
+					theDepth--;
+					return XMLStreamConstants.END_ELEMENT;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					if (theRecording != null && theDepth > 1) {
+						theRecording.add(XMLStreamConstants.CHARACTERS, getText(), null);
+					}
+					return XMLStreamConstants.CHARACTERS;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("Unexpected end of document", theReader.getLocation());
+				default: // Comments and processing instructions
+				}
+			}
+		}
+
+		private String[] getAttributes() {
+			int count = theReader.getAttributeCount();
+			if (count == 0) {
+				return NO_ATTRIBUTES;
+			}
+			String[] atts = new String[count * 2];
+			for (int a = 0; a < count; a++) {
+				atts[a * 2] = theReader.getAttributeLocalName(a);
+				atts[a * 2 + 1] = theReader.getAttributeValue(a);
+			}
+			return atts;
+		}
+
+		@Override
+		String getName() {
+			return theReader.getLocalName();
+		}
+
+		@Override
+		int getAttributeCount() {
+			return theReader.getAttributeCount();
+		}
+
+		@Override
+		String getAttributeName(int index) {
+			return theReader.getAttributeLocalName(index);
+		}
+
+		@Override
+		String getAttributeValue(int index) {
+			return theReader.getAttributeValue(index);
+		}
+
+		@Override
+		String getAttributeValue(String name) {
+			return theReader.getAttributeValue(null, name);
+		}
+
+		@Override
+		String getText() {
+			return theReader.getText();
+		}
+
+		@Override
+		XmlCursor replay() {
+			if (theRecording == null) {
+				throw new IllegalStateException("The entity was not recorded");
+			}
+			return new ReplayCursor(theRecording);
+		}
+	}
+
+	private static class ReplayCursor extends XmlCursor {
+		private final XmlRecording theRecording;
+		private int thePosition;
+
+		ReplayCursor(XmlRecording recording) {
+			theRecording = recording;
+		}
+
+		@Override
+		int advance() throws XMLStreamException {
+			if (thePosition + 1 >= theRecording.size) {
+				throw new XMLStreamException("Unexpected end of recorded entity");
+			}
+			return theRecording.events[++thePosition];
+		}
+
+		@Override
+		String getName() {
+			return theRecording.values[thePosition];
+		}
+
+		@Override
+		int getAttributeCount() {
+			return theRecording.attributes[thePosition].length / 2;
+		}
+
+		@Override
+		String getAttributeName(int index) {
+			return theRecording.attributes[thePosition][index * 2];
+		}
+
+		@Override
+		String getAttributeValue(int index) {
+			return theRecording.attributes[thePosition][index * 2 + 1];
+		}
+
+		@Override
+		String getText() {
+			return theRecording.values[thePosition];
+		}
+
+		@Override
+		XmlCursor replay() {
+			return new ReplayCursor(theRecording);
+		}
+	}
+
+	/**
+	 * Reads entities with an {@link XMLStreamReader}, decoding each entity's attributes and child elements into its fields as they are
+	 * parsed. During a single-pass read, each entity's events are recorded so that an entity with forward references can be read again.
+	 */
+	private static class XmlEntityReader extends AbstractTextEntityReader<XmlCursor> {
+		private final XMLInputFactory theXmlInput;
+		private boolean isRecording;
+
+		XmlEntityReader(EntityType type, HierarchicalResourceReader reader, TypeSetDissecter dissecter, String fileName,
+				XMLInputFactory xmlInput) {
 			super(type, dissecter, reader, fileName);
+			theXmlInput = xmlInput;
 		}
 
 		@Override
-		protected void parseEntityStructures(BufferedReader reader, GenericEntitySet entities, Consumer<Element> onEntity)
+		public boolean readEntities(GenericEntitySet entities, PendingLinks links, Consumer<GenericEntity> onCompleteEntity)
 				throws IOException {
+			isRecording = true;
 			try {
-				PersistenceUtils.parseSerial(reader, new PersistenceUtils.ElementHandler() {
-					@Override
-					public void handle(Element element) {
-						onEntity.accept(element);
-					}
-				});
-			} catch (JDOMException e) {
+				return super.readEntities(entities, links, onCompleteEntity);
+			} finally {
+				isRecording = false;
+			}
+		}
+
+		@Override
+		protected void parseEntityStructures(BufferedReader reader, GenericEntitySet entities, Consumer<XmlCursor> onEntity)
+				throws IOException {
+			XMLStreamReader xml;
+			try {
+				synchronized (theXmlInput) {
+					xml = theXmlInput.createXMLStreamReader(reader);
+				}
+			} catch (XMLStreamException e) {
 				throw new IOException("Could not parse entity XML", e);
 			}
+			try {
+				StaxCursor cursor = new StaxCursor(xml);
+				if (!cursor.startRoot()) {
+					throw new IOException("No root element in entity XML");
+				}
+				while (cursor.nextChild()) {
+					cursor.startEntity(isRecording);
+					onEntity.accept(cursor);
+					cursor.finishEntity();
+				}
+			} catch (XMLStreamException e) {
+				throw new IOException("Could not parse entity XML", e);
+			} finally {
+				try {
+					xml.close();
+				} catch (XMLStreamException e) {
+					e.printStackTrace();
+				}
+			}
 		}
 
 		@Override
-		protected String getIdentity(Element entityStructure) {
+		protected String getIdentity(XmlCursor entityStructure) {
 			return entityStructure.getAttributeValue(getType().getIdField().getName());
 		}
 
 		@Override
-		protected boolean deserializeFieldsFor(GenericEntity item, Element element, GenericEntitySet entities) {
+		protected XmlCursor retain(XmlCursor entityStructure) {
+			return entityStructure.replay();
+		}
+
+		@Override
+		protected boolean deserializeFieldsFor(GenericEntity item, XmlCursor element, GenericEntitySet entities) {
+			try {
+				return deserializeFields(item, element, entities);
+			} catch (XMLStreamException e) {
+				throw new IllegalStateException("Could not parse " + getType().getName() + " XML", e);
+			}
+		}
+
+		private boolean deserializeFields(GenericEntity item, XmlCursor element, GenericEntitySet entities) throws XMLStreamException {
 			boolean success = true;
 
 			Object[] fieldValue = new Object[1];
-			for (Attribute att : element.getAttributes()) {
-				EntityField field = item.getType().getField(att.getName());
-				if (!isSimpleField(field.getName(), field.getType(), getDissecter()) || field.isId()) {
+			for (int a = 0; a < element.getAttributeCount(); a++) {
+				EntityField field = item.getType().getField(element.getAttributeName(a));
+				if (field == null) {
+					throw new IllegalStateException(
+							"Bad serialized data: No such field " + item.getType() + "." + element.getAttributeName(a));
+				} else if (!isSimpleField(field.getName(), field.getType(), getDissecter()) || field.isId()) {
 					continue;
 				}
+				String value = element.getAttributeValue(a);
 				if (field.getType() instanceof EnumType) {
-					fieldValue[0] = ((EnumType) field.getType()).getValue(att.getValue());
+					fieldValue[0] = ((EnumType) field.getType()).getValue(value);
 					if (fieldValue[0] == null) {
-						throw new IllegalArgumentException("No such enum value " + field.getType() + "." + att.getValue());
+						throw new IllegalArgumentException("No such enum value " + field.getType() + "." + value);
 					}
 				} else {
-					fieldValue[0] = getDissecter().getFormat((Class<?>) field.getType()).parse((Class<?>) field.getType(), att.getValue());
+					fieldValue[0] = getDissecter().getFormat((Class<?>) field.getType()).parse((Class<?>) field.getType(), value);
 				}
 				item.set(field.getName(), fieldValue[0]);
 			}
-			for (Element fieldEl : element.getChildren()) {
-				EntityField field = item.getType().getField(fieldEl.getName());
+			while (element.nextChild()) {
+				EntityField field = item.getType().getField(element.getName());
 				if (field == null) {
 					throw new IllegalStateException(
-							"Bad serialized data: No such field " + item.getType() + "." + fieldEl.getName());
+							"Bad serialized data: No such field " + item.getType() + "." + element.getName());
 				}
-				boolean fieldSuccess = getValue(fieldEl, fieldValue, field.getType(), field, entities);
+				boolean fieldSuccess = getValue(element, fieldValue, field.getType(), field, entities);
 				if (fieldSuccess) {
 					item.set(field.getName(), fieldValue[0]);
 				}
@@ -333,14 +692,21 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 			return success;
 		}
 
-		private boolean getValue(Element fieldEl, Object[] fieldValue, Type type, EntityField field, GenericEntitySet entitySet) {
+		/**
+		 * Decodes the value of the element at whose start the cursor is. The cursor is left at the element's end, whether or not the value
+		 * could be decoded.
+		 */
+		private boolean getValue(XmlCursor fieldEl, Object[] fieldValue, Type type, EntityField field, GenericEntitySet entitySet)
+				throws XMLStreamException {
 			if ("true".equals(fieldEl.getAttributeValue("null"))) {
+				fieldEl.finishElement();
 				fieldValue[0] = null;
 				return true;
 			} else if (type instanceof EnumType) {
-				fieldValue[0] = ((EnumType) type).getValue(fieldEl.getTextTrim());
+				String text = fieldEl.readText().trim();
+				fieldValue[0] = ((EnumType) type).getValue(text);
 				if (fieldValue[0] == null) {
-					throw new IllegalArgumentException("No such enum value " + type + "." + fieldEl.getTextTrim());
+					throw new IllegalArgumentException("No such enum value " + type + "." + text);
 				}
 				return true;
 			}
@@ -348,6 +714,7 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 				EntityField idField = ((EntityType) type).getIdField();
 				SimpleFormat idFormat = getDissecter().getFormat((Class<?>) idField.getType());
 				String idString = fieldEl.getAttributeValue(idField.getName());
+				fieldEl.finishElement();
 				if (idString == null) {
 					System.err.println("No " + idField.getName() + " attribute set for " + type + " " + field);
 					return false;
@@ -360,9 +727,8 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 					e.printStackTrace();
 					return false;
 				}
-				fieldValue[0] = entitySet.queryById((EntityType) type, idValue);
+				fieldValue[0] = resolveReference(entitySet, (EntityType) type, idValue, field);
 				if (fieldValue[0] == null) {
-					System.err.println("No such " + type + " with " + idField.getName() + " " + idValue + " for " + field);
 					return false;
 				}
 				return true;
@@ -370,11 +736,11 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 			Class<?> raw = PersistenceUtils.getRawType(type);
 			SimpleFormat format = getDissecter().getFormat(raw);
 			if (format != null) {
+				String text = fieldEl.readText();
 				try {
-					fieldValue[0] = format.parse(raw, fieldEl.getText());
+					fieldValue[0] = format.parse(raw, text);
 				} catch (RuntimeException e) {
-					System.err
-							.println("Could not parse " + PersistenceUtils.toString(type) + " from " + fieldEl.getText() + " for " + field);
+					System.err.println("Could not parse " + PersistenceUtils.toString(type) + " from " + text + " for " + field);
 					e.printStackTrace();
 					return false;
 				}
@@ -382,37 +748,57 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 			}
 			DissecterGenerator gen = getDissecter().getDissecter(raw);
 			if (gen == null) {
+				fieldEl.finishElement();
 				System.err.println("Unrecognized type: " + PersistenceUtils.toString(type));
 				return false;
 			}
 			Dissecter dissecter = gen.dissect(type, fieldEl.getAttributeValue("type"));
 			if (dissecter instanceof ValueDissecter) {
 				ValueDissecter vd = (ValueDissecter) dissecter;
+				TypedField[] subFields = vd.getFields();
+				// Attributes must be read before the cursor moves into the content
+				String[] attributes = new String[subFields.length];
+				for (int f = 0; f < subFields.length; f++) {
+					if (isSimpleField(subFields[f].name, subFields[f].type, getDissecter())) {
+						attributes[f] = fieldEl.getAttributeValue(subFields[f].name);
+					}
+				}
+				Object[] subFieldValues = new Object[subFields.length];
+				boolean[] present = new boolean[subFields.length];
+				boolean success = true;
+				while (fieldEl.nextChild()) {
+					int f = indexOf(subFields, fieldEl.getName());
+					if (!success || f < 0 || present[f]) {
+						fieldEl.finishElement();
+					} else if (getValue(fieldEl, fieldValue, subFields[f].type, field, entitySet)) {
+						subFieldValues[f] = fieldValue[0];
+						present[f] = true;
+					} else {
+						success = false;
+					}
+				}
+				if (!success) {
+					return false;
+				}
 				Map<String, Object> fieldValues = new LinkedHashMap<>();
-				for (TypedField f : vd.getFields()) {
-					Element subFieldEl = fieldEl.getChild(f.name);
-					if (subFieldEl == null) {
-						if (isSimpleField(f.name, f.type, getDissecter())) {
-							String att = fieldEl.getAttributeValue(f.name);
-							if (att == null) {
-								System.err.println("No data configured for " + f + " for " + field);
-								return false;
-							}
-							fieldValues.put(f.name, getDissecter().getFormat((Class<?>) f.type).parse((Class<?>) f.type, att));
-						} else {
-							Dissecter dissecter2 = getDissecter().getDissecter(PersistenceUtils.getRawType(f.type)).dissect(f.type, null);
-							if (dissecter2 instanceof CollectionDissecter) {
-								fieldValues.put(f.name, ((CollectionDissecter) dissecter2).createFrom(Collections.EMPTY_LIST, f));
-							} else {
-								System.err.println("No data configured for " + f + " for " + field);
-								return false;
-							}
+				for (int i = 0; i < subFields.length; i++) {
+					TypedField f = subFields[i];
+					if (present[i]) {
+						fieldValues.put(f.name, subFieldValues[i]);
+					} else if (isSimpleField(f.name, f.type, getDissecter())) {
+						if (attributes[i] == null) {
+							System.err.println("No data configured for " + f + " for " + field);
+							return false;
 						}
+						fieldValues.put(f.name, getDissecter().getFormat((Class<?>) f.type).parse((Class<?>) f.type, attributes[i]));
 					} else {
-						if (!getValue(subFieldEl, fieldValue, f.type, field, entitySet)) {
+						Dissecter dissecter2 = getDissecter().getDissecter(PersistenceUtils.getRawType(f.type)).dissect(f.type, null);
+						if (dissecter2 instanceof CollectionDissecter) {
+							fieldValues.put(f.name, ((CollectionDissecter) dissecter2).createFrom(Collections.EMPTY_LIST, f));
+						} else {
+							System.err.println("No data configured for " + f + " for " + field);
 							return false;
 						}
-						fieldValues.put(f.name, fieldValue[0]);
 					}
 				}
 				try {
@@ -427,13 +813,19 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 				CollectionDissecter cd = (CollectionDissecter) dissecter;
 				Type componentType = cd.getComponentType();
 				ArrayList<Object> elements = new ArrayList<>();
-				for (Element child : fieldEl.getChildren()) {
-					if (getValue(child, fieldValue, componentType, field, entitySet)) {
+				boolean success = true;
+				while (fieldEl.nextChild()) {
+					if (!success) {
+						fieldEl.finishElement();
+					} else if (getValue(fieldEl, fieldValue, componentType, field, entitySet)) {
 						elements.add(fieldValue[0]);
 					} else {
-						return false;
+						success = false;
 					}
 				}
+				if (!success) {
+					return false;
+				}
 				try {
 					fieldValue[0] = cd.createFrom(elements, null);
 				} catch (RuntimeException e) {
@@ -443,12 +835,23 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 				}
 				return true;
 			}
+			fieldEl.finishElement();
 			System.err.println("Unrecognized type: " + PersistenceUtils.toString(type));
 			return false;
 		}
+
+		private static int indexOf(TypedField[] fields, String name) {
+			for (int f = 0; f < fields.length; f++) {
+				if (fields[f].name.equals(name)) {
+					return f;
+				}
+			}
+			return -1;
+		}
 	}
 
 	private final XMLOutputFactory theXml;
+	private final XMLInputFactory theXmlInput;
 
 	/**
 	 * @param dissecter
@@ -457,6 +860,10 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 	public XmlEntitySetPersistence(TypeSetDissecter dissecter) {
 		super(dissecter);
 		theXml = XMLOutputFactory.newFactory();
+		theXmlInput = XMLInputFactory.newFactory();
+		theXmlInput.setProperty(XMLInputFactory.IS_COALESCING, true);
+		theXmlInput.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		theXmlInput.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
 	}
 
 	@Override
@@ -472,7 +879,7 @@ public class XmlEntitySetPersistence extends AbstractTextEntitySetPersistence {
 
 	@Override
 	protected AbstractTextEntityReader<?> createEntityReader(EntityType type, HierarchicalResourceReader reader, String fileName) {
-		return new XmlEntityReader(type, reader, getDissecter(), fileName);
+		return new XmlEntityReader(type, reader, getDissecter(), fileName, theXmlInput);
 	}
 
 	static boolean isSimpleField(String name, Type type, TypeSetDissecter dissecter) {
@@ -0,0 +1,90 @@
+package org.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.SimpleGenericEntitySet;
+
+/** Tests the linking of mapped fields by {@link EntityMigration#populateMappedData(org.migration.generic.GenericEntitySet)} */
+public class EntityMigrationTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" />"//
+		+ "<pets type=\"java.util.List&lt;pet&gt;\" map=\"owner\" sorting=\"name\" />"//
+		+ "<passport type=\"passport\" map=\"holder\" /></person>"//
+		+ "<pet id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><owner type=\"person\" /></pet>"//
+		+ "<passport id=\"id\"><id type=\"int\" /><holder type=\"person\" /></passport>"//
+		+ "</entities></entity-versions>";
+
+	private SimpleGenericEntitySet theEntities;
+
+	@Before
+	public void setUp() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		theEntities = new SimpleGenericEntitySet(types);
+	}
+
+	private GenericEntity pet(String name, GenericEntity owner) {
+		return theEntities.addEntity("pet").set("name", name).set("owner", owner);
+	}
+
+	private static List<Object> names(Collection<?> entities) {
+		List<Object> names = new ArrayList<>();
+		for (Object entity : entities) {
+			names.add(((GenericEntity) entity).get("name"));
+		}
+		return names;
+	}
+
+	/** Collection fields are populated with the entities referring to each owner, sorted by the field's sorting */
+	@Test
+	public void testMappedCollection() {
+		GenericEntity ann = theEntities.addEntity("person").set("name", "Ann");
+		GenericEntity bob = theEntities.addEntity("person").set("name", "Bob");
+		GenericEntity cy = theEntities.addEntity("person").set("name", "Cy");
+		pet("Rex", ann);
+		pet("Fido", bob);
+		pet("Bella", ann);
+		pet("Stray", null);
+		pet("Max", ann);
+		EntityMigration.populateMappedData(theEntities, MigrationListener.NONE);
+		assertEquals(Arrays.asList("Bella", "Max", "Rex"), names((Collection<?>) ann.get("pets")));
+		assertEquals(Arrays.asList("Fido"), names((Collection<?>) bob.get("pets")));
+		assertEquals(Arrays.asList(), names((Collection<?>) cy.get("pets")));
+	}
+
+	/** Mapped entities are added to existing collection content, which is then sorted together */
+	@Test
+	public void testExistingCollection() {
+		GenericEntity ann = theEntities.addEntity("person").set("name", "Ann");
+		GenericEntity stray = pet("Coco", null);
+		ann.set("pets", new ArrayList<>(Arrays.asList(stray)));
+		pet("Rex", ann);
+		pet("Bella", ann);
+		EntityMigration.populateMappedData(theEntities, MigrationListener.NONE);
+		assertEquals(Arrays.asList("Bella", "Coco", "Rex"), names((Collection<?>) ann.get("pets")));
+	}
+
+	/** Entity fields are set to the entity referring to each owner */
+	@Test
+	public void testMappedEntity() {
+		GenericEntity ann = theEntities.addEntity("person").set("name", "Ann");
+		GenericEntity bob = theEntities.addEntity("person").set("name", "Bob");
+		GenericEntity passport = theEntities.addEntity("passport").set("holder", ann);
+		EntityMigration.populateMappedData(theEntities, MigrationListener.NONE);
+		assertSame(passport, ann.get("passport"));
+		assertNull(bob.get("passport"));
+	}
+}
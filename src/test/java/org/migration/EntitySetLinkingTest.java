@@ -0,0 +1,240 @@
+package org.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.EntitySetPersisterTest.Resources;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.migration.util.ExportManifest;
+import org.migration.util.CsvEntitySetPersistence;
+import org.migration.util.XmlEntitySetPersistence;
+
+/** Tests the linking of references between entities read by {@link EntitySetPersister}, in one or two passes and on one or more threads */
+public class EntitySetLinkingTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><friend type=\"person\" />"//
+		+ "<favorite type=\"pet\" /></person>"//
+		+ "<pet id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><owner type=\"person\" /></pet>"//
+		+ "</entities></entity-versions>";
+
+	private static final int MANY = 500;
+
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+
+	@Before
+	public void setUp() {
+		// Unresolved references are printed, which some of these tests do on purpose
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private static TypeSetDissecter dissecter() {
+		return new TypeSetDissecter(Collections.emptyList(), null);
+	}
+
+	private static EntitySetPersister xml() {
+		return new EntitySetPersister(new XmlEntitySetPersistence(dissecter())).setListener(MigrationListener.NONE);
+	}
+
+	private static EntitySetPersister csv() {
+		return new EntitySetPersister(new CsvEntitySetPersistence(dissecter())).setListener(MigrationListener.NONE);
+	}
+
+	private static SimpleGenericEntitySet createEntitySet() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		return new SimpleGenericEntitySet(types);
+	}
+
+	private static GenericEntity add(GenericEntitySet entitySet, String type, int id, String name) {
+		EntityType entityType = entitySet.getTypes().getEntityType(type);
+		return entitySet.addEntity(entityType, id).set("id", id).set("name", name);
+	}
+
+	/**
+	 * Creates people who refer to people later in their own file and to pets in a file read later, and pets who refer back to their
+	 * owners
+	 *
+	 * @return The saved data
+	 */
+	private static Resources save(EntitySetPersister persister) throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		GenericEntity ann = add(entitySet, "person", 1, "Ann");
+		GenericEntity bob = add(entitySet, "person", 2, "Bob");
+		GenericEntity cy = add(entitySet, "person", 3, "Cy");
+		add(entitySet, "pet", 1, "Rex").set("owner", ann);
+		GenericEntity fido = add(entitySet, "pet", 2, "Fido").set("owner", ann);
+		GenericEntity tom = add(entitySet, "pet", 3, "Tom").set("owner", cy);
+		ann.set("friend", cy).set("favorite", fido);
+		bob.set("friend", ann);
+		cy.set("friend", cy).set("favorite", tom);
+		Resources resources = new Resources();
+		assertTrue(persister.save(entitySet, resources.writer(), null, null));
+		return resources;
+	}
+
+	/** Checks that the data from {@link #save(EntitySetPersister)} was read and linked completely */
+	private static void checkLinked(GenericEntitySet read) {
+		GenericEntity ann = read.queryById("person", 1);
+		GenericEntity bob = read.queryById("person", 2);
+		GenericEntity cy = read.queryById("person", 3);
+		assertEquals("Ann", ann.get("name"));
+		assertSame(cy, ann.get("friend"));
+		assertSame(ann, bob.get("friend"));
+		assertSame(cy, cy.get("friend"));
+		assertSame(read.queryById("pet", 2), ann.get("favorite"));
+		assertNull(bob.get("favorite"));
+		assertSame(read.queryById("pet", 3), cy.get("favorite"));
+		assertEquals("Tom", cy.getEntity("favorite").get("name"));
+		assertSame(ann, read.queryById("pet", 1).get("owner"));
+		assertSame(cy, read.queryById("pet", 3).get("owner"));
+	}
+
+	/** Creates many people, each the friend of the next and the owner of a pet, so that many references cross between the files */
+	private static Resources saveMany(EntitySetPersister persister) throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		for (int i = 1; i <= MANY; i++) {
+			add(entitySet, "person", i, "Person " + i);
+		}
+		for (int i = 1; i <= MANY; i++) {
+			GenericEntity person = entitySet.queryById("person", i);
+			GenericEntity pet = add(entitySet, "pet", i, "Pet " + i).set("owner", person);
+			person.set("friend", entitySet.queryById("person", i % MANY + 1)).set("favorite", pet);
+		}
+		Resources resources = new Resources();
+		assertTrue(persister.save(entitySet, resources.writer(), null, null));
+		return resources;
+	}
+
+	private static void checkManyLinked(GenericEntitySet read) {
+		assertEquals(MANY, read.queryAll("person").size());
+		assertEquals(MANY, read.queryAll("pet").size());
+		for (int i = 1; i <= MANY; i++) {
+			GenericEntity person = read.queryById("person", i);
+			GenericEntity pet = read.queryById("pet", i);
+			assertEquals("Person " + i, person.get("name"));
+			assertSame(read.queryById("person", i % MANY + 1), person.get("friend"));
+			assertSame(pet, person.get("favorite"));
+			assertSame(person, pet.get("owner"));
+		}
+	}
+
+	private void testReadMany(EntitySetPersister persister) throws Exception {
+		Resources resources = saveMany(persister);
+		SimpleGenericEntitySet read = createEntitySet();
+		boolean success = persister.read(read, resources.reader());
+		assertEquals("", theErrors.toString());
+		assertTrue(success);
+		checkManyLinked(read);
+	}
+
+	private void testRead(EntitySetPersister persister) throws Exception {
+		Resources resources = save(persister);
+		SimpleGenericEntitySet read = createEntitySet();
+		boolean success = persister.read(read, resources.reader());
+		assertEquals("", theErrors.toString());
+		assertTrue(success);
+		checkLinked(read);
+	}
+
+	/** References are linked when entities are created and populated in separate passes */
+	@Test
+	public void testTwoPass() throws Exception {
+		testRead(xml());
+		testRead(csv());
+	}
+
+	/** References to entities later in the same file or in files read later are linked after a single pass */
+	@Test
+	public void testSinglePass() throws Exception {
+		testRead(xml().setSinglePass(true));
+		testRead(csv().setSinglePass(true));
+	}
+
+	/** References to entities that are never read are reported after the single pass, and the rest of the data is still linked */
+	@Test
+	public void testSinglePassMissing() throws Exception {
+		EntitySetPersister persister = xml().setSinglePass(true);
+		Resources resources = save(persister);
+		// Replace the pets with one whose owner is not in the saved people
+		SimpleGenericEntitySet stray = createEntitySet();
+		add(stray, "pet", 4, "Stray").set("owner", add(stray, "person", 9, "Gone"));
+		Resources strayResources = new Resources();
+		assertTrue(persister.save(stray, strayResources.writer(), null, null));
+		for (String resource : strayResources.theResources.keySet()) {
+			if (resource.startsWith("Pet.")) {
+				resources.theResources.put(resource, strayResources.theResources.get(resource));
+			}
+		}
+
+		SimpleGenericEntitySet read = createEntitySet();
+		assertFalse(persister.read(read, resources.reader()));
+		assertFalse(theErrors.toString().isEmpty());
+		assertSame(read.queryById("person", 3), read.queryById("person", 1).get("friend"));
+		assertEquals("Stray", read.queryById("pet", 4).get("name"));
+		assertNull(read.queryById("pet", 4).get("owner"));
+		assertNull(read.queryById("person", 9));
+	}
+
+	/** Entity files read concurrently are linked completely in two passes */
+	@Test
+	public void testConcurrentTwoPass() throws Exception {
+		testRead(xml().setReadThreads(4));
+		testReadMany(xml().setReadThreads(4));
+		testReadMany(csv().setReadThreads(4));
+	}
+
+	/** Entity files read concurrently in a single pass are linked completely, whichever file is read first */
+	@Test
+	public void testConcurrentSinglePass() throws Exception {
+		testRead(xml().setSinglePass(true).setReadThreads(4));
+		testReadMany(xml().setSinglePass(true).setReadThreads(4));
+		testReadMany(csv().setSinglePass(true).setReadThreads(4));
+	}
+
+	/** A type with no data file is skipped by a concurrent read */
+	@Test
+	public void testConcurrentMissingFile() throws Exception {
+		EntitySetPersister persister = xml().setReadThreads(4);
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		add(entitySet, "person", 1, "Ann");
+		Resources resources = new Resources();
+		assertTrue(persister.save(entitySet, resources.writer(), null, null));
+		resources.theResources.remove("Pet.xml");
+		resources.theResources.remove(ExportManifest.RESOURCE);
+
+		SimpleGenericEntitySet read = createEntitySet();
+		assertTrue(persister.read(read, resources.reader()));
+		assertEquals("Ann", read.queryById("person", 1).get("name"));
+		assertTrue(read.queryAll("pet").isEmpty());
+	}
+
+	/** At least one read thread is required */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoReadThreads() {
+		xml().setReadThreads(0);
+	}
+}
@@ -0,0 +1,303 @@
+package org.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.migration.migrators.EntityLocalMigrator;
+import org.migration.util.ExportManifest;
+import org.migration.util.XmlEntitySetPersistence;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests full, concurrent and delta saves through {@link EntitySetPersister} */
+public class EntitySetPersisterTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /></person>"//
+		+ "<pet id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /></pet>"//
+		+ "</entities></entity-versions>";
+
+	/** Resources held in memory, which may be written concurrently */
+	static class Resources {
+		final Map<String, ByteArrayOutputStream> theResources = Collections.synchronizedMap(new LinkedHashMap<>());
+
+		HierarchicalResourceWriter writer() {
+			return path -> {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				theResources.put(path, out);
+				return out;
+			};
+		}
+
+		HierarchicalResourceReader reader() {
+			return path -> {
+				ByteArrayOutputStream written = theResources.get(path);
+				return written == null ? null : new ByteArrayInputStream(written.toByteArray());
+			};
+		}
+	}
+
+	private EntitySetPersister thePersister;
+
+	@Before
+	public void setUp() {
+		thePersister = new EntitySetPersister(new XmlEntitySetPersistence(new TypeSetDissecter(Collections.emptyList(), null)))
+			.setListener(MigrationListener.NONE);
+	}
+
+	private static SimpleGenericEntitySet createEntitySet() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		return new SimpleGenericEntitySet(types);
+	}
+
+	private static GenericEntity add(GenericEntitySet entitySet, String type, int id, String name) {
+		EntityType entityType = entitySet.getTypes().getEntityType(type);
+		GenericEntity entity = entitySet.addEntity(entityType, id);
+		entity.set("id", id);
+		entity.set("name", name);
+		return entity;
+	}
+
+	/** @return Each entity of the type, as "id=name", in identity order */
+	private static TreeSet<String> contents(GenericEntitySet entitySet, String type) {
+		TreeSet<String> contents = new TreeSet<>();
+		for (GenericEntity entity : entitySet.queryAll(type)) {
+			contents.add(entity.getIdentity() + "=" + entity.get("name"));
+		}
+		return contents;
+	}
+
+	private static TreeSet<String> set(String... values) {
+		return new TreeSet<>(Arrays.asList(values));
+	}
+
+	/** Saves a base with two types, then modifies the data with a created, a modified and a removed entity */
+	private SimpleGenericEntitySet createBase(Resources base) throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		add(entitySet, "person", 1, "Ann");
+		add(entitySet, "person", 2, "Bob");
+		add(entitySet, "person", 3, "Cy");
+		add(entitySet, "pet", 1, "Rex");
+		assertTrue(thePersister.save(entitySet, base.writer(), null, null));
+		entitySet.markBaseline();
+		return entitySet;
+	}
+
+	/** A full save reads back the same entities */
+	@Test
+	public void testRoundTrip() throws Exception {
+		Resources base = new Resources();
+		createBase(base);
+		SimpleGenericEntitySet read = createEntitySet();
+		assertTrue(thePersister.read(read, base.reader()));
+		assertEquals(set("1=Ann", "2=Bob", "3=Cy"), contents(read, "person"));
+		assertEquals(set("1=Rex"), contents(read, "pet"));
+	}
+
+	/** Progress is reported to the persister's listener, including by the entity readers, rather than printed */
+	@Test
+	public void testListener() throws Exception {
+		Resources base = new Resources();
+		createBase(base);
+		List<String> progress = new ArrayList<>();
+		thePersister.setListener(new MigrationListener() {
+			@Override
+			public void progress(String message) {
+				progress.add(message.trim());
+			}
+		});
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed));
+		try {
+			assertTrue(thePersister.read(createEntitySet(), base.reader()));
+		} finally {
+			System.setOut(out);
+		}
+		assertEquals("", printed.toString());
+		assertTrue(progress.toString(), progress.stream().anyMatch(message -> message.startsWith("Creating entities of person")));
+		assertTrue(progress.toString(), progress.stream().anyMatch(message -> message.startsWith("Parsing data for entity pet")));
+	}
+
+	/** A delta holds only the changed entities, and overlaying it on its base gives the changed data */
+	@Test
+	public void testDelta() throws Exception {
+		Resources base = new Resources();
+		SimpleGenericEntitySet entitySet = createBase(base);
+		entitySet.queryById("person", 3).set("name", "Cyrus");
+		add(entitySet, "person", 4, "Dee");
+		entitySet.remove(entitySet.queryById("person", 2));
+		assertEquals(set("1=Ann", "3=Cyrus", "4=Dee"), contents(entitySet, "person"));
+
+		Resources delta = new Resources();
+		assertTrue(thePersister.saveDelta(entitySet, delta.writer(), null, null));
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		assertEquals(2, entitySet.getChangedEntities(person).size());
+		assertEquals(Collections.singleton(2), entitySet.getRemovedIds(person));
+		assertNotNull(delta.reader().readResource(EntitySetPersister.REMOVED_RESOURCE));
+
+		SimpleGenericEntitySet read = createEntitySet();
+		assertTrue(thePersister.read(read, base.reader(), Arrays.asList(delta.reader())));
+		assertEquals(set("1=Ann", "3=Cyrus", "4=Dee"), contents(read, "person"));
+		assertEquals(set("1=Rex"), contents(read, "pet"));
+	}
+
+	/** Removals are by type and identity, so an entity of another type with the same identity is kept */
+	@Test
+	public void testDeltaRemovalByType() throws Exception {
+		Resources base = new Resources();
+		SimpleGenericEntitySet entitySet = createBase(base);
+		entitySet.remove(entitySet.queryById("person", 1));
+		Resources delta = new Resources();
+		assertTrue(thePersister.saveDelta(entitySet, delta.writer(), null, null));
+
+		SimpleGenericEntitySet read = createEntitySet();
+		assertTrue(thePersister.read(read, base.reader(), Arrays.asList(delta.reader())));
+		assertEquals(set("2=Bob", "3=Cy"), contents(read, "person"));
+		assertEquals(set("1=Rex"), contents(read, "pet"));
+	}
+
+	/** An entity created and removed again since the baseline is not recorded as removed */
+	@Test
+	public void testCreatedThenRemoved() throws Exception {
+		Resources base = new Resources();
+		SimpleGenericEntitySet entitySet = createBase(base);
+		entitySet.remove(add(entitySet, "person", 5, "Eve"));
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		assertTrue(entitySet.getRemovedIds(person).isEmpty());
+		assertTrue(entitySet.getChangedEntities(person).isEmpty());
+	}
+
+	/** Deltas are overlaid in the order they were saved, so a later delta may remove what an earlier one created */
+	@Test
+	public void testDeltaChain() throws Exception {
+		Resources base = new Resources();
+		SimpleGenericEntitySet entitySet = createBase(base);
+		add(entitySet, "person", 4, "Dee");
+		Resources delta1 = new Resources();
+		assertTrue(thePersister.saveDelta(entitySet, delta1.writer(), null, null));
+		entitySet.markBaseline();
+		entitySet.remove(entitySet.queryById("person", 4));
+		entitySet.queryById("person", 1).set("name", "Anne");
+		Resources delta2 = new Resources();
+		assertTrue(thePersister.saveDelta(entitySet, delta2.writer(), null, null));
+
+		SimpleGenericEntitySet read = createEntitySet();
+		assertTrue(thePersister.read(read, base.reader(), Arrays.asList(delta1.reader())));
+		assertEquals(set("1=Ann", "2=Bob", "3=Cy", "4=Dee"), contents(read, "person"));
+		read = createEntitySet();
+		assertTrue(thePersister.read(read, base.reader(), Arrays.asList(delta1.reader(), delta2.reader())));
+		assertEquals(set("1=Anne", "2=Bob", "3=Cy"), contents(read, "person"));
+		assertNull(read.queryById("person", 4));
+	}
+
+	/** A delta cannot be saved from an entity set that has no baseline */
+	@Test(expected = IllegalStateException.class)
+	public void testDeltaWithoutBaseline() throws Exception {
+		thePersister.saveDelta(createEntitySet(), new Resources().writer(), null, null);
+	}
+
+	/** An empty delta changes nothing */
+	@Test
+	public void testEmptyDelta() throws Exception {
+		Resources base = new Resources();
+		SimpleGenericEntitySet entitySet = createBase(base);
+		Resources delta = new Resources();
+		assertTrue(thePersister.saveDelta(entitySet, delta.writer(), null, null));
+		SimpleGenericEntitySet read = createEntitySet();
+		assertTrue(thePersister.read(read, base.reader(), Arrays.asList(delta.reader())));
+		assertEquals(set("1=Ann", "2=Bob", "3=Cy"), contents(read, "person"));
+		assertFalse(contents(read, "pet").isEmpty());
+	}
+
+	/** A concurrent save writes the same data as a sequential one and reports every type to the monitors once */
+	@Test
+	public void testConcurrentSave() throws Exception {
+		Resources sequential = new Resources();
+		SimpleGenericEntitySet entitySet = createBase(sequential);
+		for (int i = 4; i <= 200; i++) {
+			add(entitySet, "person", i, "Person " + i);
+			add(entitySet, "pet", i, "Pet " + i);
+		}
+		sequential = new Resources();
+		assertTrue(thePersister.save(entitySet, sequential.writer(), null, null));
+
+		List<String> started = Collections.synchronizedList(new ArrayList<>());
+		List<String> finished = Collections.synchronizedList(new ArrayList<>());
+		Resources concurrent = new Resources();
+		assertTrue(thePersister.setWriteThreads(4).save(entitySet, concurrent.writer(), type -> started.add(type.getName()),
+			type -> finished.add(type.getName())));
+		assertEquals(set("person", "pet"), new TreeSet<>(started));
+		assertEquals(2, started.size());
+		assertEquals(set("person", "pet"), new TreeSet<>(finished));
+		assertEquals(2, finished.size());
+		assertEquals(sequential.theResources.keySet(), concurrent.theResources.keySet());
+		for (String resource : sequential.theResources.keySet()) {
+			if (!resource.equals(ExportManifest.RESOURCE)) {
+				assertEquals(resource, sequential.theResources.get(resource).toString("UTF-8"),
+					concurrent.theResources.get(resource).toString("UTF-8"));
+			}
+		}
+
+		SimpleGenericEntitySet read = createEntitySet();
+		assertTrue(thePersister.read(read, concurrent.reader()));
+		assertEquals(contents(entitySet, "person"), contents(read, "person"));
+		assertEquals(contents(entitySet, "pet"), contents(read, "pet"));
+	}
+
+	/** Deferred migrations are applied to every entity before a concurrent save */
+	@Test
+	public void testConcurrentSaveLazy() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet().setLazyMigration(true);
+		add(entitySet, "person", 1, "Ann");
+		add(entitySet, "person", 2, "Bob");
+		MigrationSet migSet = new MigrationSet("ann", new Date(1000), null);
+		migSet.getMigrators().add(new EntityLocalMigrator() {
+			@Override
+			public String getEntityName() {
+				return "person";
+			}
+
+			@Override
+			public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+				return oldVersionEntity.set("name", ((String) oldVersionEntity.get("name")).toUpperCase());
+			}
+		});
+		entitySet.migrate(migSet, new TypeSetDissecter(Collections.emptyList(), null), MigrationListener.NONE);
+
+		Resources resources = new Resources();
+		assertTrue(thePersister.setWriteThreads(4).save(entitySet, resources.writer(), null, null));
+		SimpleGenericEntitySet read = createEntitySet();
+		assertTrue(thePersister.read(read, resources.reader()));
+		assertEquals(set("1=ANN", "2=BOB"), contents(read, "person"));
+	}
+
+	/** At least one write thread is required */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoWriteThreads() {
+		thePersister.setWriteThreads(0);
+	}
+}
@@ -0,0 +1,118 @@
+package org.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.migrators.EntityMigrator;
+
+/** Tests {@link MigrationMetrics} and {@link MigrationListener#compose(MigrationListener...)} */
+public class MigrationMetricsTest {
+	private static class NamedMigrator implements EntityMigrator {
+		private final String theName;
+
+		NamedMigrator(String name) {
+			theName = name;
+		}
+
+		@Override
+		public String getEntityName() {
+			return "entity";
+		}
+
+		@Override
+		public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+			return oldVersionEntity;
+		}
+
+		@Override
+		public String toString() {
+			return theName;
+		}
+	}
+
+	/** Quantiles are reported as the top of their power-of-two bucket, capped by the maximum */
+	@Test
+	public void testHistogram() {
+		MigrationMetrics.Histogram histogram = new MigrationMetrics().getSetLatency();
+		assertEquals(0, histogram.getQuantile(.5));
+		for (long value : new long[] { 0, 1, 3, 5, 6, 7, 100, -4 }) {
+			histogram.add(value);
+		}
+		assertEquals(8, histogram.getCount());
+		assertEquals(122, histogram.getTotal());
+		assertEquals(100, histogram.getMax());
+		assertEquals(1, histogram.getQuantile(.25)); // 0, 1 and the clamped -4 are in the first bucket
+		assertEquals(7, histogram.getQuantile(.75));
+		assertEquals(100, histogram.getQuantile(1));
+	}
+
+	/** Migrators are aggregated by type, and only the slowest individual migrators are kept, slowest first */
+	@Test
+	public void testMigratorStats() {
+		MigrationMetrics metrics = new MigrationMetrics(2);
+		EntityMigrator fast = new NamedMigrator("fast");
+		EntityMigrator slow = new NamedMigrator("slow");
+		EntityMigrator slowest = new NamedMigrator("slowest");
+		metrics.migratorFinished(fast, 10, 1, 2, 1_000);
+		metrics.migratorFinished(slowest, 30, 0, 0, 5_000_000);
+		metrics.migratorFinished(slow, 20, 3, 0, 2_000_000);
+		MigrationMetrics.MigratorStats stats = metrics.getMigratorStats().get("NamedMigrator");
+		assertEquals(3, stats.getLatency().getCount());
+		assertEquals(60, stats.getProcessed());
+		assertEquals(4, stats.getRemoved());
+		assertEquals(2, stats.getReplaced());
+		assertEquals(60 * 1E9 / 7_001_000, stats.getThroughput(), 1E-6);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		metrics.print(new PrintStream(bytes, true));
+		String printed = bytes.toString();
+		int slowestIndex = printed.indexOf("5.000ms (30 entities): slowest");
+		int slowIndex = printed.indexOf("2.000ms (20 entities): slow");
+		assertTrue(printed, slowestIndex >= 0 && slowIndex > slowestIndex);
+		assertTrue(printed, !printed.contains(": fast"));
+	}
+
+	/** Cascading deletions are counted by size */
+	@Test
+	public void testCascades() {
+		MigrationMetrics metrics = new MigrationMetrics();
+		metrics.cascadeDeletion("cause", Arrays.asList(null, null, null));
+		metrics.cascadeDeletion("cause", Arrays.asList((GenericEntity) null));
+		assertEquals(2, metrics.getCascadeSizes().getCount());
+		assertEquals(4, metrics.getCascadeSizes().getTotal());
+		assertEquals(3, metrics.getCascadeSizes().getMax());
+	}
+
+	/** A composed listener notifies each listener in order */
+	@Test
+	public void testCompose() {
+		List<String> events = new ArrayList<>();
+		MigrationListener first = new MigrationListener() {
+			@Override
+			public void progress(String message) {
+				events.add("first " + message);
+			}
+		};
+		MigrationListener second = new MigrationListener() {
+			@Override
+			public void progress(String message) {
+				events.add("second " + message);
+			}
+		};
+		MigrationMetrics metrics = new MigrationMetrics();
+		MigrationListener composed = MigrationListener.compose(first, metrics, second);
+		composed.progress("reading");
+		composed.migratorFinished(new NamedMigrator("m"), 1, 0, 0, 10);
+		assertEquals(Arrays.asList("first reading", "second reading"), events);
+		assertEquals(1, metrics.getMigratorStats().get("NamedMigrator").getProcessed());
+	}
+}
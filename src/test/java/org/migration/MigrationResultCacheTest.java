@@ -0,0 +1,151 @@
+package org.migration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.qommons.io.HierarchicalResourceReader;
+
+/** Tests {@link MigrationResultCache} */
+public class MigrationResultCacheTest {
+	private static final String MIGRATIONS = "migrations-digest";
+	private static final List<String> TAGS = Arrays.asList("b", "a");
+
+	@Rule
+	public TemporaryFolder theFolder = new TemporaryFolder();
+
+	private MigrationResultCache theCache;
+	private Map<String, String> theInput;
+	private HierarchicalResourceReader theInputReader;
+
+	@Before
+	public void setUp() throws IOException {
+		theCache = new MigrationResultCache(theFolder.newFolder("cache"));
+		theInput = new HashMap<>();
+		theInput.put("Type1.xml", "type 1 content");
+		theInput.put("Type2.xml", "type 2 content");
+		theInputReader = path -> {
+			String content = theInput.get(path);
+			return content == null ? null : new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+		};
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		try (InputStream closing = in) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = closing.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, read);
+			}
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/** Reads the given resources through a recorder and stores a result for them */
+	private MigrationResultCache.InputRecorder recordAndStore(String result, String... paths) throws IOException {
+		MigrationResultCache.InputRecorder recorder = theCache.record(theInputReader);
+		for (String path : paths) {
+			InputStream in = recorder.getReader().readResource(path);
+			if (in != null) {
+				readAll(in);
+			}
+		}
+		assertTrue(recorder.store(MIGRATIONS, TAGS, writer -> {
+			try (OutputStream out = writer.writeResource("Result.xml")) {
+				out.write(result.getBytes(StandardCharsets.UTF_8));
+			}
+			return true;
+		}));
+		return recorder;
+	}
+
+	/** A stored result is found for identical input and reads back what was written */
+	@Test
+	public void testRoundTrip() throws IOException {
+		recordAndStore("migrated", "Type1.xml", "Type2.xml");
+		HierarchicalResourceReader found = theCache.find(theInputReader, MIGRATIONS, Arrays.asList("a", "b"));
+		assertNotNull(found);
+		assertEquals("migrated", readAll(found.readResource("Result.xml")));
+	}
+
+	/** A result is not found once its input, the migrations or the tags change */
+	@Test
+	public void testChangedInput() throws IOException {
+		recordAndStore("migrated", "Type1.xml", "Type2.xml");
+		assertNull(theCache.find(theInputReader, "other-digest", TAGS));
+		assertNull(theCache.find(theInputReader, MIGRATIONS, Arrays.asList("a")));
+		theInput.put("Type2.xml", "changed");
+		assertNull(theCache.find(theInputReader, MIGRATIONS, TAGS));
+		theInput.remove("Type2.xml");
+		assertNull(theCache.find(theInputReader, MIGRATIONS, TAGS));
+	}
+
+	/** Resources not in the cached result read as missing rather than failing */
+	@Test
+	public void testMissingResultResource() throws IOException {
+		recordAndStore("migrated", "Type1.xml");
+		HierarchicalResourceReader found = theCache.find(theInputReader, MIGRATIONS, TAGS);
+		assertNotNull(found);
+		assertNull(found.readResource("Missing.xml"));
+	}
+
+	/** A missing input resource is part of the key, so the result is reused while it stays missing but not once it appears */
+	@Test
+	public void testMissingInputResource() throws IOException {
+		MigrationResultCache.InputRecorder recorder = recordAndStore("migrated", "Type1.xml", "Type3.xml");
+		assertNull(recorder.getReader().readResource("Type3.xml"));
+		assertNotNull(theCache.find(theInputReader, MIGRATIONS, TAGS));
+		theInput.put("Type3.xml", "type 3 content");
+		assertNull(theCache.find(theInputReader, MIGRATIONS, TAGS));
+	}
+
+	/** A resource only partly read is digested in full when the result is stored */
+	@Test
+	public void testPartialRead() throws IOException {
+		MigrationResultCache.InputRecorder recorder = theCache.record(theInputReader);
+		try (InputStream in = recorder.getReader().readResource("Type1.xml")) {
+			assertEquals('t', in.read());
+		}
+		assertTrue(recorder.store(MIGRATIONS, TAGS, writer -> true));
+		assertNotNull(theCache.find(theInputReader, MIGRATIONS, TAGS));
+		theInput.put("Type1.xml", "type 1 changed after the header");
+		assertNull(theCache.find(theInputReader, MIGRATIONS, TAGS));
+	}
+
+	/** A result whose writer fails is not stored */
+	@Test
+	public void testFailedWrite() throws IOException {
+		MigrationResultCache.InputRecorder recorder = theCache.record(theInputReader);
+		readAll(recorder.getReader().readResource("Type1.xml"));
+		assertFalse(recorder.store(MIGRATIONS, TAGS, writer -> false));
+		assertNull(theCache.find(theInputReader, MIGRATIONS, TAGS));
+		assertArrayEquals(new String[0], theCache.getDirectory().list());
+	}
+
+	/** Clearing the cache removes stored results */
+	@Test
+	public void testClear() throws IOException {
+		recordAndStore("migrated", "Type1.xml");
+		theCache.clear();
+		assertNull(theCache.find(theInputReader, MIGRATIONS, TAGS));
+	}
+}
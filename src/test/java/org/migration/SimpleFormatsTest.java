@@ -0,0 +1,123 @@
+package org.migration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/** Tests {@link SimpleFormats} */
+public class SimpleFormatsTest {
+	private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+	private static SimpleFormats.DateFormat dateFormat(ZoneId zone) {
+		return new SimpleFormats.DateFormat(zone, Locale.US, Date::new);
+	}
+
+	private static SimpleDateFormat legacyFormat(ZoneId zone) {
+		SimpleDateFormat format = new SimpleDateFormat(SimpleFormats.DATE_PATTERN, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone(zone));
+		return format;
+	}
+
+	private static void assertLikeLegacy(ZoneId zone, long millis) throws Exception {
+		SimpleFormats.DateFormat format = dateFormat(zone);
+		SimpleDateFormat legacy = legacyFormat(zone);
+		String formatted = format.format(new Date(millis));
+		assertEquals(legacy.format(new Date(millis)), formatted);
+		assertEquals(legacy.parse(formatted).getTime(), format.parseMillis(formatted, 0, formatted.length()));
+		assertEquals(new Date(millis), format.parse(Date.class, formatted));
+	}
+
+	/** Dates, timestamps and instants round-trip through their text form */
+	@Test
+	public void testDateRoundTrip() throws Exception {
+		long millis = LocalDateTime.of(2015, 6, 30, 13, 45, 7, 123_000_000).atZone(NEW_YORK).toInstant().toEpochMilli();
+		assertLikeLegacy(NEW_YORK, millis);
+		assertEquals("30Jun2015 13:45:07.123", dateFormat(NEW_YORK).format(Instant.ofEpochMilli(millis)));
+		assertEquals("30Jun2015 13:45:07.123", dateFormat(NEW_YORK).format(new Timestamp(millis)));
+	}
+
+	/** When clocks are set back, an ambiguous local time resolves to the later offset, as {@link SimpleDateFormat} does */
+	@Test
+	public void testDstOverlap() throws Exception {
+		// 01:30 on 1 Nov 2020 happened twice in New York: first in EDT (-4), then in EST (-5)
+		LocalDateTime ambiguous = LocalDateTime.of(2020, 11, 1, 1, 30);
+		long earlier = ambiguous.toInstant(ZoneOffset.ofHours(-4)).toEpochMilli();
+		long later = ambiguous.toInstant(ZoneOffset.ofHours(-5)).toEpochMilli();
+		SimpleFormats.DateFormat format = dateFormat(NEW_YORK);
+		String text = "01Nov2020 01:30:00.000";
+		assertEquals(text, format.format(new Date(earlier)));
+		assertEquals(text, format.format(new Date(later)));
+		assertEquals(later, format.parseMillis(text, 0, text.length()));
+		assertEquals(legacyFormat(NEW_YORK).parse(text).getTime(), format.parseMillis(text, 0, text.length()));
+		assertLikeLegacy(NEW_YORK, later);
+	}
+
+	/** A local time skipped when clocks are set forward parses as {@link SimpleDateFormat} parses it */
+	@Test
+	public void testDstGap() throws Exception {
+		String text = "08Mar2020 02:30:00.000";
+		assertEquals(legacyFormat(NEW_YORK).parse(text).getTime(), dateFormat(NEW_YORK).parseMillis(text, 0, text.length()));
+	}
+
+	/** Years above 9999 are written with more digits but never signed, and read back */
+	@Test
+	public void testLargeYears() throws Exception {
+		long millis = LocalDateTime.of(12345, 3, 4, 5, 6, 7, 8_000_000).toInstant(ZoneOffset.UTC).toEpochMilli();
+		SimpleFormats.DateFormat format = dateFormat(ZoneOffset.UTC);
+		assertEquals("04Mar12345 05:06:07.008", format.format(new Date(millis)));
+		assertLikeLegacy(ZoneOffset.UTC, millis);
+		assertLikeLegacy(NEW_YORK, millis);
+		assertLikeLegacy(NEW_YORK, LocalDateTime.of(10000, 1, 1, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli());
+	}
+
+	/** Dates outside the java.time range match the legacy Julian calendar and zone offsets */
+	@Test
+	public void testLegacyRange() throws Exception {
+		assertLikeLegacy(NEW_YORK, LocalDateTime.of(1883, 11, 18, 12, 3, 58).toInstant(ZoneOffset.UTC).toEpochMilli());
+		assertLikeLegacy(NEW_YORK, LocalDateTime.of(1500, 2, 28, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli());
+		assertLikeLegacy(NEW_YORK, LocalDateTime.of(2040, 7, 4, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli());
+		assertLikeLegacy(NEW_YORK, LocalDateTime.of(1899, 12, 31, 23, 59, 59).toInstant(ZoneOffset.UTC).toEpochMilli());
+	}
+
+	/** Text not in exactly the written form is still accepted, as {@link SimpleDateFormat} accepts it */
+	@Test
+	public void testLenientParse() throws Exception {
+		SimpleFormats.DateFormat format = dateFormat(NEW_YORK);
+		for (String text : new String[] { "1jun2015 3:04:05.6", "31Jun2015 13:45:07.123", "30Jun2015 25:00:00.000" }) {
+			assertEquals(text, legacyFormat(NEW_YORK).parse(text).getTime(), format.parseMillis(text, 0, text.length()));
+		}
+	}
+
+	/** Malformatted dates fail */
+	@Test(expected = IllegalStateException.class)
+	public void testMalformatted() {
+		dateFormat(NEW_YORK).parse(Date.class, "not a date");
+	}
+
+	/** Numbers parse from regions of a sequence, including the "max" and "min" keywords */
+	@Test
+	public void testNumbers() {
+		assertEquals(42, SimpleFormats.INTEGER.parse(Integer.class, "x42y", 1, 3));
+		assertEquals(Long.MAX_VALUE, SimpleFormats.LONG.parse(Long.class, "MAX"));
+		assertEquals(Integer.MIN_VALUE, SimpleFormats.INTEGER.parse(Integer.class, "min"));
+		assertEquals(-7L, SimpleFormats.parseInteger("-7", 0, 2, Long.MIN_VALUE, Long.MAX_VALUE));
+		assertEquals(1.5, SimpleFormats.DOUBLE.parse(Double.class, "1.5"));
+		assertEquals("1.5", SimpleFormats.DOUBLE.format(1.5));
+	}
+
+	/** Out-of-range numbers fail */
+	@Test(expected = NumberFormatException.class)
+	public void testNumberOverflow() {
+		SimpleFormats.BYTE.parse(Byte.class, "128");
+	}
+}
@@ -0,0 +1,106 @@
+package org.migration.generic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests bulk replacement of entities and enum values in a {@link GenericEntitySet} */
+public class GenericEntitySetTest {
+	private static final String TYPES = "<entity-versions><enums><mood><happy /><sad /><calm /></mood></enums><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><friend type=\"person\" />"//
+		+ "<friends type=\"java.util.List&lt;person&gt;\" /><pals type=\"java.util.Set&lt;person&gt;\" />"//
+		+ "<scores type=\"java.util.Map&lt;person, java.lang.Integer&gt;\" />"//
+		+ "<lookup type=\"java.util.Map&lt;java.lang.String, person&gt;\" />"//
+		+ "<mood type=\"mood\" /></person>"//
+		+ "</entities></entity-versions>";
+
+	private SimpleGenericEntitySet theEntities;
+	private GenericEntity theAnn;
+	private GenericEntity theBob;
+	private GenericEntity theCy;
+	private GenericEntity theDee;
+
+	@Before
+	public void setUp() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		theEntities = new SimpleGenericEntitySet(types);
+		theAnn = theEntities.addEntity("person").set("name", "Ann");
+		theBob = theEntities.addEntity("person").set("name", "Bob");
+		theCy = theEntities.addEntity("person").set("name", "Cy");
+		theDee = theEntities.addEntity("person").set("name", "Dee");
+	}
+
+	/** Direct, list, set and map references to any of the replaced entities are all replaced in place */
+	@Test
+	public void testReplaceAll() {
+		theAnn.set("friend", theBob);
+		theAnn.set("friends", new ArrayList<>(Arrays.asList(theBob, theDee, theCy, theBob)));
+		theAnn.set("pals", new LinkedHashSet<>(Arrays.asList(theCy, theDee)));
+		Map<GenericEntity, Integer> scores = new LinkedHashMap<>();
+		scores.put(theBob, 1);
+		scores.put(theDee, 2);
+		theAnn.set("scores", scores);
+		Map<String, GenericEntity> lookup = new LinkedHashMap<>();
+		lookup.put("b", theBob);
+		lookup.put("d", theDee);
+		theAnn.set("lookup", lookup);
+		theBob.set("friend", theCy);
+
+		Map<GenericEntity, GenericEntity> replacements = new HashMap<>();
+		replacements.put(theBob, theCy);
+		replacements.put(theCy, theDee);
+		theEntities.replaceAll(replacements);
+
+		// Each reference is replaced once, not chained through later replacements
+		assertSame(theCy, theAnn.get("friend"));
+		assertSame(theDee, theBob.get("friend"));
+		assertEquals(Arrays.asList(theCy, theDee, theDee, theCy), theAnn.get("friends"));
+		assertEquals(new LinkedHashSet<>(Arrays.asList(theDee)), theAnn.get("pals"));
+		Map<GenericEntity, Integer> expectedScores = new HashMap<>();
+		expectedScores.put(theCy, 1);
+		expectedScores.put(theDee, 2);
+		assertEquals(expectedScores, theAnn.get("scores"));
+		assertSame(scores, theAnn.get("scores"));
+		assertSame(theCy, lookup.get("b"));
+		assertSame(theDee, lookup.get("d"));
+	}
+
+	/** Enum values are replaced in direct references */
+	@Test
+	public void testReplaceAllEnums() {
+		EnumType mood = theEntities.getTypes().getEnumType("mood");
+		EnumValue happy = mood.getValue("happy");
+		EnumValue sad = mood.getValue("sad");
+		EnumValue calm = mood.getValue("calm");
+		theAnn.set("mood", sad);
+		theBob.set("mood", happy);
+
+		Map<EnumValue, EnumValue> replacements = new HashMap<>();
+		replacements.put(sad, calm);
+		theEntities.replaceAllEnums(replacements);
+
+		assertSame(calm, theAnn.get("mood"));
+		assertSame(happy, theBob.get("mood"));
+	}
+
+	/** Replacing nothing changes nothing */
+	@Test
+	public void testReplaceNothing() {
+		theAnn.set("friend", theBob);
+		theEntities.replaceAll(Collections.emptyMap());
+		assertSame(theBob, theAnn.get("friend"));
+	}
+}
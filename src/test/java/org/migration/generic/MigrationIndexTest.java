@@ -0,0 +1,169 @@
+package org.migration.generic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jdom2.Element;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.migration.MigrationSet;
+import org.migration.migrators.EntityMigrator;
+
+/** Tests the streaming of migration files by {@link EntityVersionSupport} and the sidecar {@link MigrationIndex} */
+public class MigrationIndexTest {
+	private static final String PERSON = "<migration author=\"ann\" date=\"01Jan2020 00:00:00.000\">"//
+		+ "<created entity=\"person\" id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /></created></migration>";
+	private static final String AGE = "<migration author=\"ann\" date=\"02Jan2020 00:00:00.000\" description=\"a &gt; b\">"//
+		+ "<!-- <migration author=\"x\" date=\"y\"> --><field-added entity=\"person\" field=\"age\" type=\"int\" /></migration>";
+	private static final String PET = "<migration author=\"bob\" date=\"03Jan2020 00:00:00.000\">"//
+		+ "<created entity=\"pet\" id=\"id\"><id type=\"int\" /><owner type=\"person\" /></created></migration>";
+
+	@Rule
+	public TemporaryFolder theFolder = new TemporaryFolder();
+
+	/** Records the entities of the migrators deserialized */
+	private static class RecordingFactory extends MigratorFactory {
+		final List<String> deserialized = new ArrayList<>();
+
+		RecordingFactory() {
+			super(null);
+		}
+
+		@Override
+		public EntityMigrator deserialize(Element xml, EntityTypeSet types, MigrationSet migration) {
+			deserialized.add(xml.getName() + " " + xml.getAttributeValue("entity"));
+			return super.deserialize(xml, types, migration);
+		}
+	}
+
+	private static String migrations(String... sets) {
+		StringBuilder ret = new StringBuilder("<?xml version=\"1.0\"?>\n<entity-migrations>\n\t<migrations>");
+		for (String set : sets) {
+			ret.append("\n\t\t").append(set);
+		}
+		return ret.append("\n\t</migrations>\n</entity-migrations>\n").toString();
+	}
+
+	private static List<String> authors(List<MigrationSet> sets) {
+		List<String> ret = new ArrayList<>();
+		for (MigrationSet set : sets) {
+			ret.add(set.getAuthor());
+		}
+		return ret;
+	}
+
+	/** Migration sets are located by their tags, ignoring markup inside comments and quoted attribute values */
+	@Test
+	public void testLocate() {
+		String text = migrations(PERSON, AGE, PET);
+		List<int[]> locations = MigrationIndex.locate(text);
+		assertEquals(3, locations.size());
+		assertEquals(PERSON, text.substring(locations.get(0)[0], locations.get(0)[1]));
+		assertEquals(AGE, text.substring(locations.get(1)[0], locations.get(1)[1]));
+		assertEquals(PET, text.substring(locations.get(2)[0], locations.get(2)[1]));
+	}
+
+	/** Migration sets directly under the root and empty migration set elements are located too */
+	@Test
+	public void testLocateFlat() {
+		String empty = "<migration author=\"cy\" date=\"04Jan2020 00:00:00.000\"/>";
+		String text = "<entity-migrations>" + PERSON + "<![CDATA[<migration>]]>" + empty + "</entity-migrations>";
+		List<int[]> locations = MigrationIndex.locate(text);
+		assertEquals(2, locations.size());
+		assertEquals(PERSON, text.substring(locations.get(0)[0], locations.get(0)[1]));
+		assertArrayEquals(new int[] { text.indexOf(empty), text.indexOf(empty) + empty.length() }, locations.get(1));
+	}
+
+	/** Unbalanced or truncated text cannot be located */
+	@Test
+	public void testLocateMalformed() {
+		String text = migrations(PERSON, AGE);
+		assertNull(MigrationIndex.locate(text.substring(0, text.length() - 20)));
+		assertNull(MigrationIndex.locate(text.substring(0, text.indexOf("field-added") + 5)));
+	}
+
+	/** Sets already present are skipped, and only the new sets' migrators are deserialized */
+	@Test
+	public void testSkipPresent() throws Exception {
+		EntityVersionSupport support = new EntityVersionSupport();
+		support.addMigrationSets(new StringReader(migrations(PERSON)), new RecordingFactory());
+
+		RecordingFactory factory = new RecordingFactory();
+		List<MigrationSet> added = support.addMigrationSets(new StringReader(migrations(PERSON, AGE, PET)), factory);
+		assertEquals(Arrays.asList("ann", "bob"), authors(added));
+		assertEquals(Arrays.asList("field-added person", "created pet"), factory.deserialized);
+		assertEquals(3, support.getMigrationSets().size());
+		assertTrue(support.getCurrentTypeSet().getEntityType("person").getField("age") != null);
+	}
+
+	/** An index built on the first read is used by later reads of the same file, giving the same migration sets */
+	@Test
+	public void testIndex() throws Exception {
+		File indexFile = new File(theFolder.getRoot(), "migrations.idx");
+		String text = migrations(PERSON, AGE, PET);
+		EntityVersionSupport first = new EntityVersionSupport().setMigrationIndex(new MigrationIndex(indexFile));
+		first.addMigrationSets(new StringReader(text), new RecordingFactory());
+		assertTrue(indexFile.isFile());
+		List<String> index = Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals(MigrationIndex.digest(text), index.get(1));
+		assertEquals("entity-migrations", index.get(2));
+		assertEquals(6, index.size());
+
+		EntityVersionSupport second = new EntityVersionSupport().setMigrationIndex(new MigrationIndex(indexFile));
+		second.addMigrationSets(new StringReader(migrations(PERSON)), new RecordingFactory());
+		RecordingFactory factory = new RecordingFactory();
+		List<MigrationSet> added = second.addMigrationSets(new StringReader(text), factory);
+		assertEquals(Arrays.asList("ann", "bob"), authors(added));
+		assertEquals(Arrays.asList("field-added person", "created pet"), factory.deserialized);
+	}
+
+	/** An index for different content is rebuilt when the file is read */
+	@Test
+	public void testStaleIndex() throws Exception {
+		File indexFile = new File(theFolder.getRoot(), "migrations.idx");
+		new EntityVersionSupport().setMigrationIndex(new MigrationIndex(indexFile))
+			.addMigrationSets(new StringReader(migrations(PERSON, AGE)), new RecordingFactory());
+		String oldDigest = Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8).get(1);
+
+		String text = migrations(PERSON, AGE, PET);
+		EntityVersionSupport support = new EntityVersionSupport().setMigrationIndex(new MigrationIndex(indexFile));
+		List<MigrationSet> added = support.addMigrationSets(new StringReader(text), new RecordingFactory());
+		assertEquals(Arrays.asList("ann", "ann", "bob"), authors(added));
+		String newDigest = Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8).get(1);
+		assertFalse(oldDigest.equals(newDigest));
+		assertEquals(MigrationIndex.digest(text), newDigest);
+	}
+
+	/** An index whose ranges do not match the file's migration sets is ignored and the file is streamed instead */
+	@Test
+	public void testCorruptIndex() throws Exception {
+		File indexFile = new File(theFolder.getRoot(), "migrations.idx");
+		String text = migrations(PERSON, AGE, PET);
+		new EntityVersionSupport().setMigrationIndex(new MigrationIndex(indexFile))
+			.addMigrationSets(new StringReader(text), new RecordingFactory());
+		List<String> lines = Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8);
+		// Swap the ranges of the last two migration sets
+		String[] age = lines.get(4).split("\t", 3);
+		String[] pet = lines.get(5).split("\t", 3);
+		lines.set(4, pet[0] + "\t" + pet[1] + "\t" + age[2]);
+		lines.set(5, age[0] + "\t" + age[1] + "\t" + pet[2]);
+		Files.write(indexFile.toPath(), lines, StandardCharsets.UTF_8);
+
+		EntityVersionSupport support = new EntityVersionSupport().setMigrationIndex(new MigrationIndex(indexFile));
+		RecordingFactory factory = new RecordingFactory();
+		assertEquals(Arrays.asList("ann", "ann", "bob"), authors(support.addMigrationSets(new StringReader(text), factory)));
+		assertEquals(Arrays.asList("created person", "field-added person", "created pet"), factory.deserialized);
+	}
+}
@@ -0,0 +1,147 @@
+package org.migration.generic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Date;
+
+import org.jdom2.Element;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.migration.MigrationSet;
+import org.migration.migrators.EntityMigrator;
+
+/** Tests the reuse of replayed schemas by {@link SchemaSnapshotCache} in {@link EntityVersionSupport#migrate} */
+public class SchemaSnapshotCacheTest {
+	private static final String PERSON = "<migration author=\"ann\" date=\"01Jan2020 00:00:00.000\">"//
+		+ "<created entity=\"person\" id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /></created></migration>";
+	private static final String AGE = "<migration author=\"ann\" date=\"02Jan2020 00:00:00.000\">"//
+		+ "<field-added entity=\"person\" field=\"age\" type=\"int\" /></migration>";
+	private static final String AGE_EDITED = "<migration author=\"ann\" date=\"02Jan2020 00:00:00.000\">"//
+		+ "<field-added entity=\"person\" field=\"age\" type=\"long\" /></migration>";
+	private static final String PET = "<migration author=\"bob\" date=\"03Jan2020 00:00:00.000\">"//
+		+ "<created entity=\"pet\" id=\"id\"><id type=\"int\" /><owner type=\"person\" /></created></migration>";
+
+	@Rule
+	public TemporaryFolder theFolder = new TemporaryFolder();
+
+	/** Counts the migrators deserialized, which are only deserialized for migration sets not restored from a snapshot */
+	private static class CountingFactory extends MigratorFactory {
+		int count;
+
+		CountingFactory() {
+			super(null);
+		}
+
+		@Override
+		public EntityMigrator deserialize(Element xml, EntityTypeSet types, MigrationSet migration) {
+			count++;
+			return super.deserialize(xml, types, migration);
+		}
+	}
+
+	private static String migrations(String... sets) {
+		StringBuilder ret = new StringBuilder("<entity-migrations><migrations>");
+		for (String set : sets) {
+			ret.append(set);
+		}
+		return ret.append("</migrations></entity-migrations>").toString();
+	}
+
+	private static EntityVersionSupport migrate(SchemaSnapshotCache cache, CountingFactory factory, String file) throws Exception {
+		EntityVersionSupport support = new EntityVersionSupport().setSnapshotCache(cache);
+		support.migrate(new StringReader(file), factory, null, null);
+		return support;
+	}
+
+	private static String schema(EntityVersionSupport support) throws IOException {
+		StringWriter out = new StringWriter();
+		support.getCurrentTypeSet().save(out);
+		return out.toString();
+	}
+
+	/** A second replay of the same history is restored entirely from the snapshot and produces the same schema */
+	@Test
+	public void testFullSnapshot() throws Exception {
+		String file = migrations(PERSON, AGE, PET);
+		String expected = schema(migrate(null, new CountingFactory(), file));
+		SchemaSnapshotCache cache = new SchemaSnapshotCache();
+
+		CountingFactory factory = new CountingFactory();
+		assertEquals(expected, schema(migrate(cache, factory, file)));
+		assertEquals(3, factory.count);
+
+		factory = new CountingFactory();
+		EntityVersionSupport support = migrate(cache, factory, file);
+		assertEquals(0, factory.count);
+		assertEquals(expected, schema(support));
+		assertEquals(3, support.getMigrationSets().size());
+		assertEquals("bob", support.getMigrationSets().last().getAuthor());
+	}
+
+	/** A replay of a longer history starts from the snapshot of its prefix and only deserializes the new migration sets */
+	@Test
+	public void testPrefixSnapshot() throws Exception {
+		SchemaSnapshotCache cache = new SchemaSnapshotCache();
+		migrate(cache, new CountingFactory(), migrations(PERSON, AGE));
+
+		String file = migrations(PERSON, AGE, PET);
+		CountingFactory factory = new CountingFactory();
+		EntityVersionSupport support = migrate(cache, factory, file);
+		assertEquals(1, factory.count);
+		assertEquals(schema(migrate(null, new CountingFactory(), file)), schema(support));
+		assertEquals(3, support.getMigrationSets().size());
+	}
+
+	/** Editing a migration set without changing its header invalidates snapshots taken after it */
+	@Test
+	public void testEditedMigration() throws Exception {
+		SchemaSnapshotCache cache = new SchemaSnapshotCache();
+		migrate(cache, new CountingFactory(), migrations(PERSON, AGE, PET));
+
+		String file = migrations(PERSON, AGE_EDITED, PET);
+		CountingFactory factory = new CountingFactory();
+		EntityVersionSupport support = migrate(cache, factory, file);
+		assertEquals(3, factory.count);
+		assertEquals(schema(migrate(null, new CountingFactory(), file)), schema(support));
+		assertEquals(Long.TYPE, support.getCurrentTypeSet().getEntityType("person").getField("age").getType());
+	}
+
+	/** A snapshot is only reused for the same selection of migration sets within the date range */
+	@Test
+	public void testDateRange() throws Exception {
+		SchemaSnapshotCache cache = new SchemaSnapshotCache();
+		String file = migrations(PERSON, AGE, PET);
+		EntityVersionSupport support = new EntityVersionSupport().setSnapshotCache(cache);
+		CountingFactory factory = new CountingFactory();
+		support.migrate(new StringReader(file), factory, null, new Date(1577923200000L)); // 02Jan2020 UTC
+		assertEquals(3, factory.count);
+		assertEquals(2, support.getMigrationSets().size());
+
+		factory = new CountingFactory();
+		support = migrate(cache, factory, file);
+		assertEquals(3, factory.count);
+		assertEquals(3, support.getMigrationSets().size());
+	}
+
+	/** Snapshots in a directory are reused by a new cache on the same directory until the cache is cleared */
+	@Test
+	public void testPersistentCache() throws Exception {
+		String file = migrations(PERSON, AGE, PET);
+		migrate(new SchemaSnapshotCache(theFolder.getRoot()), new CountingFactory(), file);
+
+		SchemaSnapshotCache cache = new SchemaSnapshotCache(theFolder.getRoot());
+		CountingFactory factory = new CountingFactory();
+		EntityVersionSupport support = migrate(cache, factory, file);
+		assertEquals(0, factory.count);
+		assertEquals(schema(migrate(null, new CountingFactory(), file)), schema(support));
+
+		cache.clear();
+		factory = new CountingFactory();
+		migrate(new SchemaSnapshotCache(theFolder.getRoot()), factory, file);
+		assertEquals(3, factory.count);
+	}
+}
@@ -0,0 +1,281 @@
+package org.migration.generic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.migration.MigrationListener;
+import org.migration.MigrationSet;
+import org.migration.TypeSetDissecter;
+import org.migration.migrators.EntityLocalMigrator;
+import org.migration.migrators.EntityMigrator;
+import org.migration.migrators.FieldAddedMigrator;
+import org.migration.migrators.FieldRemovedMigrator;
+import org.migration.migrators.FieldRenameMigrator;
+
+/** Tests the migration of {@link SimpleGenericEntitySet}, in batches and in lazy mode */
+public class SimpleGenericEntitySetTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><age type=\"int\" /></person>"//
+		+ "</entities></entity-versions>";
+
+	/** Upper-cases each person's name, counting the entities it is applied to */
+	private static class UpperCaseMigrator implements EntityLocalMigrator {
+		private final String theField;
+		int migrated;
+		boolean isBegun;
+		boolean isEnded;
+
+		UpperCaseMigrator(String field) {
+			theField = field;
+		}
+
+		@Override
+		public String getEntityName() {
+			return "person";
+		}
+
+		@Override
+		public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+			migrated++;
+			oldVersionEntity.set(theField, ((String) oldVersionEntity.get(theField)).toUpperCase());
+			return oldVersionEntity;
+		}
+
+		@Override
+		public void begin(GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+			isBegun = true;
+		}
+
+		@Override
+		public void end(GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+			isEnded = true;
+		}
+	}
+
+	/** Keeps Ann, replaces Bob with a copy and removes anyone else, recording the calls it receives */
+	private static class BatchMigrator implements EntityMigrator {
+		final List<String> calls = new ArrayList<>();
+		int dropResults;
+
+		@Override
+		public String getEntityName() {
+			return "person";
+		}
+
+		@Override
+		public GenericEntity migrate(GenericEntity oldVersionEntity, GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+			throw new AssertionError("Batch migrator applied to a single entity");
+		}
+
+		@Override
+		public List<GenericEntity> migrateBatch(List<GenericEntity> oldVersionEntities, GenericEntitySet allEntities,
+			TypeSetDissecter dissecter) {
+			calls.add("batch " + oldVersionEntities.size());
+			List<GenericEntity> ret = new ArrayList<>();
+			for (GenericEntity entity : oldVersionEntities.subList(0, oldVersionEntities.size() - dropResults)) {
+				if ("Ann".equals(entity.get("name"))) {
+					ret.add(entity);
+				} else if ("Bob".equals(entity.get("name"))) {
+					ret.add(allEntities.addEntity("person").set("name", "Robert").set("age", entity.get("age")));
+				} else {
+					ret.add(null);
+				}
+			}
+			return ret;
+		}
+
+		@Override
+		public void begin(GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+			calls.add("begin");
+		}
+
+		@Override
+		public void end(GenericEntitySet allEntities, TypeSetDissecter dissecter) {
+			calls.add("end");
+		}
+	}
+
+	private static SimpleGenericEntitySet createEntities(boolean lazy) throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		SimpleGenericEntitySet entities = new SimpleGenericEntitySet(types).setLazyMigration(lazy);
+		entities.addEntity("person").set("name", "Ann").set("age", 30);
+		entities.addEntity("person").set("name", "Bob").set("age", 40);
+		return entities;
+	}
+
+	private static void migrate(SimpleGenericEntitySet entities, EntityMigrator... migrators) {
+		MigrationSet migSet = new MigrationSet("ann", new Date(1000), null);
+		Collections.addAll(migSet.getMigrators(), migrators);
+		entities.migrate(migSet, new TypeSetDissecter(Collections.emptyList(), null), MigrationListener.NONE);
+	}
+
+	private static List<GenericEntity> people(SimpleGenericEntitySet entities) {
+		// Entities are queried in id order, without accessing their fields
+		return new ArrayList<>(entities.queryAll("person"));
+	}
+
+	private static EntityMigrator[] renameAndRemove(UpperCaseMigrator upper) {
+		// A rename or removal after other deferred steps on the type would force them first, so these come first
+		return new EntityMigrator[] { new FieldRenameMigrator("person", "name", "full-name"),
+			new FieldRemovedMigrator("person", "age", Integer.TYPE, null, null),
+			new FieldAddedMigrator("person", "nick", String.class, null, null, "none"), upper };
+	}
+
+	/** Deferred steps are applied to each entity on first access, with the same result as eager migration */
+	@Test
+	public void testLazyMatchesEager() throws Exception {
+		SimpleGenericEntitySet eager = createEntities(false);
+		migrate(eager, renameAndRemove(new UpperCaseMigrator("full-name")));
+
+		SimpleGenericEntitySet lazy = createEntities(true);
+		UpperCaseMigrator upper = new UpperCaseMigrator("full-name");
+		migrate(lazy, renameAndRemove(upper));
+		assertTrue(upper.isBegun);
+		assertEquals(0, upper.migrated);
+
+		List<GenericEntity> lazyPeople = people(lazy);
+		List<GenericEntity> eagerPeople = people(eager);
+		assertEquals(0, upper.migrated);
+		assertEquals("ANN", lazyPeople.get(0).get("full-name"));
+		assertEquals(1, upper.migrated);
+		for (int i = 0; i < eagerPeople.size(); i++) {
+			assertEquals(eagerPeople.get(i).get("full-name"), lazyPeople.get(i).get("full-name"));
+			assertEquals(eagerPeople.get(i).get("nick"), lazyPeople.get(i).get("nick"));
+		}
+		assertNull(lazy.getTypes().getEntityType("person").getField("age"));
+		assertEquals(2, upper.migrated);
+		assertFalse(upper.isEnded);
+
+		lazy.completeMigration();
+		assertTrue(upper.isEnded);
+		assertEquals(2, upper.migrated);
+	}
+
+	/** Completing the migration applies deferred steps to every entity that has not been accessed */
+	@Test
+	public void testCompleteMigration() throws Exception {
+		SimpleGenericEntitySet lazy = createEntities(true);
+		UpperCaseMigrator upper = new UpperCaseMigrator("name");
+		migrate(lazy, upper);
+		assertEquals(0, upper.migrated);
+		lazy.completeMigration();
+		assertEquals(2, upper.migrated);
+		assertTrue(upper.isEnded);
+		assertEquals("ANN", people(lazy).get(0).get("name"));
+		assertEquals(2, upper.migrated);
+	}
+
+	/** Retrieving an entity by id applies its deferred steps */
+	@Test
+	public void testQueryById() throws Exception {
+		SimpleGenericEntitySet lazy = createEntities(true);
+		UpperCaseMigrator upper = new UpperCaseMigrator("name");
+		migrate(lazy, upper);
+		lazy.queryById(lazy.getTypes().getEntityType("person"), 1);
+		assertEquals(1, upper.migrated);
+	}
+
+	/** Entities added after a step has been deferred are already at the current schema and do not have the step applied */
+	@Test
+	public void testNewEntity() throws Exception {
+		SimpleGenericEntitySet lazy = createEntities(true);
+		UpperCaseMigrator upper = new UpperCaseMigrator("name");
+		migrate(lazy, upper);
+		GenericEntity cy = lazy.addEntity("person").set("name", "Cy");
+		assertEquals("Cy", cy.get("name"));
+		lazy.completeMigration();
+		assertEquals("Cy", cy.get("name"));
+		assertEquals(2, upper.migrated);
+	}
+
+	/** A removal following a deferred step on the same type forces the pending steps onto every entity first */
+	@Test
+	public void testRemovalAfterDeferred() throws Exception {
+		SimpleGenericEntitySet lazy = createEntities(true);
+		UpperCaseMigrator upper = new UpperCaseMigrator("name");
+		migrate(lazy, upper, new FieldRemovedMigrator("person", "age", Integer.TYPE, null, null));
+		assertEquals(2, upper.migrated);
+		assertTrue(upper.isEnded);
+		assertEquals("BOB", people(lazy).get(1).get("name"));
+	}
+
+	/** A step that cannot be deferred forces pending steps onto every entity before it runs */
+	@Test
+	public void testEagerStep() throws Exception {
+		SimpleGenericEntitySet lazy = createEntities(true);
+		UpperCaseMigrator upper = new UpperCaseMigrator("name");
+		EntityType person = lazy.getTypes().getEntityType("person");
+		migrate(lazy, upper, new FieldAddedMigrator("person", "friend", person, null, null, "0"));
+		assertEquals(2, upper.migrated);
+		assertTrue(upper.isEnded);
+		assertSame(people(lazy).get(0), people(lazy).get(1).get("friend"));
+	}
+
+	/** A migrator overriding migrateBatch is given every entity of its type at once, between begin and end, and its results are applied */
+	@Test
+	public void testBatch() throws Exception {
+		SimpleGenericEntitySet entities = createEntities(false);
+		GenericEntity ann = people(entities).get(0);
+		GenericEntity bob = people(entities).get(1);
+		GenericEntity cy = entities.addEntity("person").set("name", "Cy");
+		BatchMigrator batch = new BatchMigrator();
+		migrate(entities, batch);
+		assertEquals(Arrays.asList("begin", "batch 3", "end"), batch.calls);
+
+		// Replaced entities are only swapped out of references, not removed
+		List<GenericEntity> people = people(entities);
+		assertEquals(Arrays.asList(ann, bob), people.subList(0, 2));
+		assertEquals("Robert", people.get(2).get("name"));
+		assertEquals(40, people.get(2).get("age"));
+		assertFalse(people.contains(cy));
+	}
+
+	/** A batch returning the wrong number of results fails the migration, and the migrator is still ended */
+	@Test
+	public void testBatchSize() throws Exception {
+		SimpleGenericEntitySet entities = createEntities(false);
+		BatchMigrator batch = new BatchMigrator();
+		batch.dropResults = 1;
+		try {
+			migrate(entities, batch);
+			fail("Batch with a missing result should fail");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals(Arrays.asList("begin", "batch 2", "end"), batch.calls);
+	}
+
+	/** Batch migrators are applied at once even in lazy mode */
+	@Test
+	public void testBatchNotDeferred() throws Exception {
+		SimpleGenericEntitySet lazy = createEntities(true);
+		BatchMigrator batch = new BatchMigrator();
+		migrate(lazy, batch);
+		assertEquals(Arrays.asList("begin", "batch 2", "end"), batch.calls);
+		assertEquals("Robert", people(lazy).get(2).get("name"));
+	}
+
+	/** A migrator not overriding migrateBatch is applied to each entity in turn */
+	@Test
+	public void testPerEntity() throws Exception {
+		SimpleGenericEntitySet entities = createEntities(false);
+		UpperCaseMigrator upper = new UpperCaseMigrator("name");
+		migrate(entities, upper);
+		assertEquals(2, upper.migrated);
+		assertTrue(upper.isBegun);
+		assertTrue(upper.isEnded);
+	}
+}
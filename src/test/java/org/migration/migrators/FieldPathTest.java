@@ -0,0 +1,138 @@
+package org.migration.migrators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.SimpleGenericEntitySet;
+
+/** Tests {@link FieldPath} */
+public class FieldPathTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><address type=\"address\" />"//
+		+ "<nicknames type=\"java.util.List&lt;java.lang.String&gt;\" /></person>"//
+		+ "<address id=\"id\"><id type=\"int\" /><city type=\"java.lang.String\" /></address>"//
+		+ "</entities></entity-versions>";
+
+	private SimpleGenericEntitySet theEntities;
+	private TypeSetDissecter theDissecter;
+	private EntityType thePerson;
+	private GenericEntity theAnn;
+	private GenericEntity theAddress;
+
+	@Before
+	public void setUp() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		theEntities = new SimpleGenericEntitySet(types);
+		theDissecter = new TypeSetDissecter(Collections.emptyList(), null);
+		thePerson = types.getEntityType("person");
+		theAddress = theEntities.addEntity("address").set("city", "Springfield");
+		theAnn = theEntities.addEntity(thePerson).set("name", "Ann").set("address", theAddress);
+	}
+
+	/** Paths are evaluated through each entity along them */
+	@Test
+	public void testEvaluate() {
+		FieldPath path = FieldPath.compile(thePerson, "address.city");
+		assertEquals("address.city", path.toString());
+		assertEquals(2, path.getFields().size());
+		assertEquals("city", path.getTerminus().getName());
+		assertEquals("Springfield", path.evaluate(theAnn));
+		assertSame(theAddress, path.evaluateContainer(theAnn));
+		assertEquals("Ann", FieldPath.of(thePerson.getField("name")).evaluate(theAnn));
+		assertEquals(path.toString(), FieldPath.of(path.getFields()).toString());
+	}
+
+	/** Assigning a value sets the terminal field of the entity at the end of the path */
+	@Test
+	public void testAssignValue() {
+		FieldPath.compile(thePerson, "address.city").assign(theAnn, "Shelbyville", theEntities, theDissecter);
+		assertEquals("Shelbyville", theAddress.get("city"));
+		FieldPath.compile(thePerson, "address.city").assign(theAnn, null, theEntities, theDissecter);
+		assertEquals(null, theAddress.get("city"));
+	}
+
+	/** Assigning a collection re-populates the existing collection rather than replacing it */
+	@Test
+	public void testAssignCollection() {
+		FieldPath path = FieldPath.compile(thePerson, "nicknames");
+		path.assign(theAnn, Arrays.asList("Annie", "Nan"), theEntities, theDissecter);
+		Collection<?> nicknames = (Collection<?>) theAnn.get("nicknames");
+		assertEquals(Arrays.asList("Annie", "Nan"), nicknames);
+		path.assign(theAnn, Arrays.asList("Anna"), theEntities, theDissecter);
+		assertSame(nicknames, theAnn.get("nicknames"));
+		assertEquals(Arrays.asList("Anna"), nicknames);
+	}
+
+	/** A null collection value fails without clearing the existing collection */
+	@Test
+	public void testAssignNullCollection() {
+		FieldPath path = FieldPath.compile(thePerson, "nicknames");
+		path.assign(theAnn, Arrays.asList("Annie"), theEntities, theDissecter);
+		try {
+			path.assign(theAnn, null, theEntities, theDissecter);
+			fail("Null was assigned to a collection");
+		} catch (NullPointerException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("nicknames"));
+		}
+		assertEquals(Arrays.asList("Annie"), theAnn.get("nicknames"));
+	}
+
+	/** Elements of the wrong type are rejected */
+	@Test(expected = IllegalArgumentException.class)
+	public void testAssignWrongElementType() {
+		FieldPath.compile(thePerson, "nicknames").assign(theAnn, Arrays.asList(theAddress), theEntities, theDissecter);
+	}
+
+	/** A null entity along the path fails, naming the field that was null */
+	@Test
+	public void testNullAlongPath() {
+		theAnn.set("address", null);
+		FieldPath path = FieldPath.compile(thePerson, "address.city");
+		try {
+			path.evaluate(theAnn);
+			fail("Evaluated through a null entity");
+		} catch (NullPointerException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("address"));
+		}
+		try {
+			path.assign(theAnn, "Shelbyville", theEntities, theDissecter);
+			fail("Assigned through a null entity");
+		} catch (NullPointerException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("address"));
+		}
+		try {
+			path.evaluate(null);
+			fail("Evaluated a null entity");
+		} catch (NullPointerException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("address.city"));
+		}
+	}
+
+	/** Paths that do not resolve against the type fail to compile */
+	@Test
+	public void testBadPaths() {
+		for (String path : new String[] { "nope", "name.length", "address.nope" }) {
+			try {
+				FieldPath.compile(thePerson, path);
+				fail("Compiled " + path);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.migration.migrators;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityField;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+
+/** Tests {@link FieldValueMigrator} */
+public class FieldValueMigratorTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><address type=\"address\" /></person>"//
+		+ "<address id=\"id\"><id type=\"int\" /><city type=\"java.lang.String\" /></address>"//
+		+ "</entities></entity-versions>";
+
+	private SimpleGenericEntitySet theEntities;
+	private TypeSetDissecter theDissecter;
+
+	@Before
+	public void setUp() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		theEntities = new SimpleGenericEntitySet(types);
+		theDissecter = new TypeSetDissecter(Collections.emptyList(), null);
+	}
+
+	private FieldValueMigrator migrator(String field, boolean forced, Object value) {
+		FieldValueMigrator migrator = new FieldValueMigrator("person", field, forced) {
+			@Override
+			protected Object getFieldValue(GenericEntity oldVersionEntity, EntityField f, GenericEntitySet allEntities,
+				TypeSetDissecter dissecter) {
+				return value;
+			}
+		};
+		migrator.init(theEntities.getTypes(), theDissecter);
+		return migrator;
+	}
+
+	/** Values are only set where the field is null unless forced */
+	@Test
+	public void testForced() {
+		GenericEntity named = theEntities.addEntity("person").set("name", "Ann");
+		GenericEntity unnamed = theEntities.addEntity("person");
+		FieldValueMigrator migrator = migrator("name", false, "Default");
+		migrator.migrate(named, theEntities, theDissecter);
+		migrator.migrate(unnamed, theEntities, theDissecter);
+		assertEquals("Ann", named.get("name"));
+		assertEquals("Default", unnamed.get("name"));
+		migrator("name", true, "Forced").migrate(named, theEntities, theDissecter);
+		assertEquals("Forced", named.get("name"));
+	}
+
+	/** Values are set on the entity at the end of a field path */
+	@Test
+	public void testPath() {
+		GenericEntity address = theEntities.addEntity("address");
+		GenericEntity person = theEntities.addEntity("person").set("address", address);
+		migrator("address.city", false, "Springfield").migrate(person, theEntities, theDissecter);
+		assertEquals("Springfield", address.get("city"));
+	}
+
+	/** A null entity along the path fails rather than skipping the entity */
+	@Test(expected = NullPointerException.class)
+	public void testNullAlongPath() {
+		migrator("address.city", true, "Springfield").migrate(theEntities.addEntity("person"), theEntities, theDissecter);
+	}
+}
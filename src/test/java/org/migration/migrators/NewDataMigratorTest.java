@@ -0,0 +1,130 @@
+package org.migration.migrators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Date;
+
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.SimpleGenericEntitySet;
+
+/** Tests the entity searches of {@link NewDataMigrator} */
+public class NewDataMigratorTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><address type=\"address\" />"//
+		+ "<manager type=\"person\" /></person>"//
+		+ "<address id=\"id\"><id type=\"int\" /><street type=\"java.lang.String\" /><city type=\"java.lang.String\" /></address>"//
+		+ "</entities></entity-versions>";
+
+	private SimpleGenericEntitySet theEntities;
+	private TypeSetDissecter theDissecter;
+	private GenericEntity theMain;
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+
+	@Before
+	public void setUp() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		theEntities = new SimpleGenericEntitySet(types);
+		theDissecter = new TypeSetDissecter(Collections.emptyList(), null);
+		theMain = theEntities.addEntity("address").set("street", "Main").set("city", "Springfield");
+		theEntities.addEntity("address").set("street", "Main").set("city", "Shelbyville");
+		// Failed content is printed and skipped, which some of these tests do on purpose
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private void migrate(String config) throws Exception {
+		Element configEl = new SAXBuilder().build(new StringReader(config)).getRootElement().detach();
+		new NewDataMigrator().init(null, configEl, null, null).migrate(null, theEntities, theDissecter);
+	}
+
+	private GenericEntity person(String name) {
+		for (GenericEntity person : theEntities.queryAll("person")) {
+			if (name.equals(person.get("name"))) {
+				return person;
+			}
+		}
+		return null;
+	}
+
+	/** Searches match all the given field values */
+	@Test
+	public void testSearch() throws Exception {
+		migrate("<new-data><person><name>Ann</name><address search=\"true\"><street>Main</street><city>Springfield</city></address>"
+			+ "</person></new-data>");
+		assertSame(theMain, person("Ann").get("address"));
+	}
+
+	/** Entities created earlier in the same migration are found by later searches, even once the search has been indexed */
+	@Test
+	public void testSearchCreated() throws Exception {
+		migrate("<new-data>"//
+			+ "<person><name>Ann</name><address search=\"true\"><city>Springfield</city></address></person>"//
+			+ "<address><street>Elm</street><city>Capital City</city></address>"//
+			+ "<person><name>Bob</name><address search=\"true\"><street>Elm</street><city>Capital City</city></address></person>"//
+			+ "<person><name>Cy</name><address search=\"true\"><city>Capital City</city></address></person>"//
+			+ "</new-data>");
+		assertSame(theMain, person("Ann").get("address"));
+		GenericEntity elm = (GenericEntity) person("Bob").get("address");
+		assertEquals("Elm", elm.get("street"));
+		assertSame(elm, person("Cy").get("address"));
+		assertEquals(3, theEntities.queryAll("address").size());
+	}
+
+	/** Searches may match entity-valued fields, by type and identity */
+	@Test
+	public void testSearchByEntity() throws Exception {
+		migrate("<new-data>"//
+			+ "<address store=\"home\"><street>Oak</street></address>"//
+			+ "<person><name>Ann</name><address retrieve=\"home\" /></person>"//
+			+ "<person search=\"true\" store=\"ann\"><address retrieve=\"home\" /></person>"//
+			+ "<person><name>Bob</name><address retrieve=\"home\" /></person>"//
+			+ "</new-data>");
+		assertEquals("Oak", ((GenericEntity) person("Ann").get("address")).get("street"));
+		assertSame(person("Ann").get("address"), person("Bob").get("address"));
+	}
+
+	/** A search with no match fails the content unless a null is allowed */
+	@Test
+	public void testNoMatch() throws Exception {
+		migrate("<new-data>"//
+			+ "<person><name>Ann</name><address search=\"true\"><city>Nowhere</city></address></person>"//
+			+ "<person><name>Bob</name><address search=\"true\" null-ok=\"true\"><city>Nowhere</city></address></person>"//
+			+ "</new-data>");
+		assertTrue(theErrors.toString().contains("No address entity with the given field values could be found"));
+		assertNull(person("Ann").get("address"));
+		assertNull(person("Bob").get("address"));
+	}
+
+	/** An entity is not found by a search nested within its own definition, but is by searches after it is complete */
+	@Test
+	public void testSearchWithinCreation() throws Exception {
+		migrate("<new-data>"//
+			+ "<person><name>Ann</name><manager search=\"true\" null-ok=\"true\"><name>Ann</name></manager></person>"//
+			+ "<person><name>Bob</name><manager search=\"true\"><name>Ann</name></manager></person>"//
+			+ "</new-data>");
+		assertNull(person("Ann").get("manager"));
+		assertSame(person("Ann"), person("Bob").get("manager"));
+	}
+}
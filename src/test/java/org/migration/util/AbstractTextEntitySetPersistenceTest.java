@@ -0,0 +1,213 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests the ordering by identity of the entity collections written by {@link AbstractTextEntitySetPersistence} */
+public class AbstractTextEntitySetPersistenceTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<tag id=\"code\"><code type=\"java.lang.String\" /></tag>"//
+		+ "<person id=\"id\"><id type=\"long\" /><name type=\"java.lang.String\" /><friends type=\"java.util.List&lt;person&gt;\" />"//
+		+ "<ranked type=\"java.util.List&lt;person&gt;\" sorting=\"name\" /><tags type=\"java.util.List&lt;tag&gt;\" /></person>"//
+		+ "</entities></entity-versions>";
+	/** Identities that order differently as numbers than as text, and that do not all fit in an int */
+	private static final long[] IDS = { -5, 2, 9, 10, 3_000_000_000L };
+
+	/** In-memory resources */
+	private static class Resources {
+		final Map<String, byte[]> theResources = new LinkedHashMap<>();
+
+		HierarchicalResourceWriter writer() {
+			return path -> new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					theResources.put(path, toByteArray());
+				}
+			};
+		}
+
+		HierarchicalResourceReader reader() {
+			return path -> {
+				byte[] written = theResources.get(path);
+				return written == null ? null : new ByteArrayInputStream(written);
+			};
+		}
+	}
+
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+
+	@Before
+	public void setUp() {
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private static TypeSetDissecter dissecter() {
+		return new TypeSetDissecter(Collections.emptyList(), null);
+	}
+
+	private static SimpleGenericEntitySet createEntitySet() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		return new SimpleGenericEntitySet(types);
+	}
+
+	/** Saves the entity set as XML, whose collections keep the order they are written in, and reads it back in two passes and in one */
+	private List<GenericEntitySet> roundTrip(SimpleGenericEntitySet entitySet) throws Exception {
+		EntitySetPersister persister = new EntitySetPersister(new XmlEntitySetPersistence(dissecter())).setListener(MigrationListener.NONE);
+		Resources resources = new Resources();
+		assertTrue(persister.save(entitySet, resources.writer(), null, null));
+		List<GenericEntitySet> reads = new ArrayList<>();
+		for (EntitySetPersister reader : new EntitySetPersister[] { persister, persister.setSinglePass(true) }) {
+			GenericEntitySet read = createEntitySet();
+			boolean success = reader.read(read, resources.reader());
+			assertEquals("", theErrors.toString());
+			assertTrue(success);
+			reads.add(read);
+		}
+		return reads;
+	}
+
+	private static List<GenericEntity> people(GenericEntitySet entitySet, long... ids) {
+		List<GenericEntity> people = new ArrayList<>(ids.length);
+		for (long id : ids) {
+			people.add(entitySet.queryById("person", id));
+		}
+		return people;
+	}
+
+	/** Adds a person with each of the {@link #IDS}, named so that their names order opposite to their identities */
+	private static EntityType addPeople(SimpleGenericEntitySet entitySet) {
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		for (int i = 0; i < IDS.length; i++) {
+			entitySet.addEntity(person, IDS[i]).set("id", IDS[i]).set("name", String.valueOf((char) ('z' - i)));
+		}
+		return person;
+	}
+
+	/** Collections with no sorting of their own are written in the numeric order of integral identities, keeping duplicates */
+	@Test
+	public void testIntegralOrder() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType person = addPeople(entitySet);
+		entitySet.queryById(person, 2L).set("friends", people(entitySet, 10, 3_000_000_000L, 9, -5, 10, 2));
+		for (GenericEntitySet read : roundTrip(entitySet)) {
+			assertEquals(people(read, -5, 2, 9, 10, 10, 3_000_000_000L), read.queryById("person", 2L).get("friends"));
+		}
+	}
+
+	/** Collections of entities with identities that are not numbers are written in the natural order of the identities */
+	@Test
+	public void testComparableOrder() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType tag = entitySet.getTypes().getEntityType("tag");
+		for (String code : new String[] { "b", "a", "c", "B" }) {
+			entitySet.addEntity(tag, code).set("code", code);
+		}
+		EntityType person = addPeople(entitySet);
+		List<GenericEntity> tags = new ArrayList<>();
+		for (String code : new String[] { "c", "a", "B", "b" }) {
+			tags.add(entitySet.queryById(tag, code));
+		}
+		entitySet.queryById(person, 9L).set("tags", tags);
+		for (GenericEntitySet read : roundTrip(entitySet)) {
+			List<GenericEntity> expected = new ArrayList<>();
+			for (String code : new String[] { "B", "a", "b", "c" }) {
+				expected.add(read.queryById("tag", code));
+			}
+			assertEquals(expected, read.queryById("person", 9L).get("tags"));
+		}
+	}
+
+	/** A collection with a sorting of its own is written in its own order */
+	@Test
+	public void testExplicitSorting() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType person = addPeople(entitySet);
+		entitySet.queryById(person, -5L).set("ranked", people(entitySet, 3_000_000_000L, 10, 9, 2, -5));
+		for (GenericEntitySet read : roundTrip(entitySet)) {
+			assertEquals(people(read, 3_000_000_000L, 10, 9, 2, -5), read.queryById("person", -5L).get("ranked"));
+		}
+	}
+
+	/** Each collection is ordered on its own, whatever the sizes of those written before it, including empty ones */
+	@Test
+	public void testManyCollections() throws Exception {
+		int count = 300;
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		for (long id = 1; id <= count; id++) {
+			entitySet.addEntity(person, id).set("id", id).set("name", "Person " + id);
+		}
+		Random random = new Random(count);
+		List<List<Long>> expected = new ArrayList<>();
+		for (long id = 1; id <= count; id++) {
+			// The first person knows everyone, so later collections are smaller than the buffer they reuse
+			int size = id == 1 ? count : random.nextInt(40);
+			List<Long> friendIds = new ArrayList<>();
+			for (int f = 0; f < size; f++) {
+				friendIds.add(id == 1 ? count - f : 1L + random.nextInt(count));
+			}
+			List<GenericEntity> friends = new ArrayList<>();
+			for (long friendId : friendIds) {
+				friends.add(entitySet.queryById(person, friendId));
+			}
+			entitySet.queryById(person, id).set("friends", friends);
+			Collections.sort(friendIds);
+			expected.add(friendIds);
+		}
+		for (GenericEntitySet read : roundTrip(entitySet)) {
+			for (long id = 1; id <= count; id++) {
+				long[] friendIds = new long[expected.get((int) id - 1).size()];
+				for (int f = 0; f < friendIds.length; f++) {
+					friendIds[f] = expected.get((int) id - 1).get(f);
+				}
+				assertEquals("Friends of " + id, people(read, friendIds), read.queryById("person", id).get("friends"));
+			}
+		}
+	}
+
+	/** Sorting a collection for writing leaves the entity's own collection as it was */
+	@Test
+	public void testSourceUnchanged() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType person = addPeople(entitySet);
+		List<GenericEntity> friends = people(entitySet, 10, -5, 3_000_000_000L);
+		entitySet.queryById(person, 2L).set("friends", friends);
+		roundTrip(entitySet);
+		assertEquals(people(entitySet, 10, -5, 3_000_000_000L), entitySet.queryById(person, 2L).get("friends"));
+	}
+}
@@ -0,0 +1,216 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests the round trip of entities through {@link BinaryEntitySetPersistence} and its handling of mismatched or damaged files */
+public class BinaryEntitySetPersistenceTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><size type=\"long\" /><flag type=\"boolean\" />"//
+		+ "<score type=\"double\" /><born type=\"java.util.Date\" /><wait type=\"java.time.Duration\" /><data type=\"[B\" />"//
+		+ "<friend type=\"person\" /></person>"//
+		+ "</entities></entity-versions>";
+	private static final String OTHER_TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><size type=\"int\" /></person>"//
+		+ "</entities></entity-versions>";
+
+	private static final String LONG_NAME;
+	static {
+		char[] chars = new char[300];
+		Arrays.fill(chars, 'n');
+		LONG_NAME = new String(chars);
+	}
+
+	/** In-memory resources */
+	private static class Resources {
+		final Map<String, byte[]> theResources = new LinkedHashMap<>();
+
+		HierarchicalResourceWriter writer() {
+			return path -> new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					theResources.put(path, toByteArray());
+				}
+			};
+		}
+
+		HierarchicalResourceReader reader() {
+			return path -> {
+				byte[] written = theResources.get(path);
+				return written == null ? null : new ByteArrayInputStream(written);
+			};
+		}
+	}
+
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+
+	@Before
+	public void setUp() {
+		// Failures are printed, which some of these tests cause on purpose
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private static EntitySetPersister binary() {
+		return new EntitySetPersister(new BinaryEntitySetPersistence(new TypeSetDissecter(Collections.emptyList(), null)))
+			.setListener(MigrationListener.NONE);
+	}
+
+	private static SimpleGenericEntitySet createEntitySet(String types) throws Exception {
+		EntityTypeSet typeSet = new EntityTypeSet(new Date(0));
+		typeSet.read(new StringReader(types), null);
+		return new SimpleGenericEntitySet(typeSet);
+	}
+
+	private static GenericEntity add(GenericEntitySet entitySet, int id, String name) {
+		EntityType type = entitySet.getTypes().getEntityType("person");
+		// Primitive fields may not be null
+		return entitySet.addEntity(type, id).set("id", id).set("name", name).set("size", 0L).set("flag", false).set("score", 0.0);
+	}
+
+	/** Saves people with extreme numbers, repeated, long and non-ASCII strings, typed values, nulls and forward references */
+	private static Resources save(EntitySetPersister persister) throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet(TYPES);
+		// New entities are given the id after the largest, so the largest id is added last
+		add(entitySet, 7, null);
+		GenericEntity ann = add(entitySet, -5, "Ann").set("size", Long.MIN_VALUE).set("flag", true).set("score", -0.5)
+			.set("born", new Date(-86_400_000L)).set("wait", Duration.ofMillis(90_061_001L)).set("data", new byte[] { 0, -1, 127, -128 });
+		GenericEntity cy = add(entitySet, 0, LONG_NAME).set("born", new Date(253_402_300_800_000L));
+		add(entitySet, Integer.MIN_VALUE, "Zo\u00EB \u4E2D\uD83D\uDE00").set("data", new byte[0]);
+		GenericEntity bob = add(entitySet, Integer.MAX_VALUE, "Ann").set("size", Long.MAX_VALUE).set("score", Double.NaN);
+		ann.set("friend", bob);
+		bob.set("friend", bob);
+		cy.set("friend", ann);
+		Resources resources = new Resources();
+		assertTrue(persister.save(entitySet, resources.writer(), null, null));
+		return resources;
+	}
+
+	private static void checkRead(GenericEntitySet read) {
+		assertEquals(5, read.queryAll("person").size());
+		GenericEntity ann = read.queryById("person", -5);
+		GenericEntity bob = read.queryById("person", Integer.MAX_VALUE);
+		GenericEntity cy = read.queryById("person", 0);
+		GenericEntity zoe = read.queryById("person", Integer.MIN_VALUE);
+		GenericEntity nobody = read.queryById("person", 7);
+		assertEquals("Ann", ann.get("name"));
+		assertEquals(Long.MIN_VALUE, ann.get("size"));
+		assertEquals(true, ann.get("flag"));
+		assertEquals(-0.5, ann.get("score"));
+		assertEquals(new Date(-86_400_000L), ann.get("born"));
+		assertEquals(Duration.ofMillis(90_061_001L), ann.get("wait"));
+		assertArrayEquals(new byte[] { 0, -1, 127, -128 }, (byte[]) ann.get("data"));
+		assertSame(bob, ann.get("friend"));
+
+		assertEquals("Ann", bob.get("name"));
+		assertEquals(Long.MAX_VALUE, bob.get("size"));
+		assertTrue(Double.isNaN((Double) bob.get("score")));
+		assertSame(bob, bob.get("friend"));
+
+		assertEquals(LONG_NAME, cy.get("name"));
+		assertEquals(0L, cy.get("size"));
+		assertEquals(false, cy.get("flag"));
+		assertEquals(new Date(253_402_300_800_000L), cy.get("born"));
+		assertSame(ann, cy.get("friend"));
+
+		assertEquals("Zo\u00EB \u4E2D\uD83D\uDE00", zoe.get("name"));
+		assertArrayEquals(new byte[0], (byte[]) zoe.get("data"));
+		assertNull(zoe.get("born"));
+		assertNull(zoe.get("wait"));
+		assertNull(zoe.get("friend"));
+		assertNull(nobody.get("name"));
+	}
+
+	/** Every kind of value is read back as it was written, in two passes */
+	@Test
+	public void testRoundTrip() throws Exception {
+		EntitySetPersister persister = binary();
+		Resources resources = save(persister);
+		assertTrue(resources.theResources.containsKey("Person.bin"));
+		SimpleGenericEntitySet read = createEntitySet(TYPES);
+		boolean success = persister.read(read, resources.reader());
+		assertEquals("", theErrors.toString());
+		assertTrue(success);
+		assertEquals("", theErrors.toString());
+		checkRead(read);
+	}
+
+	/** Every kind of value is read back as it was written, in a single pass */
+	@Test
+	public void testSinglePass() throws Exception {
+		EntitySetPersister persister = binary().setSinglePass(true);
+		Resources resources = save(persister);
+		SimpleGenericEntitySet read = createEntitySet(TYPES);
+		boolean success = persister.read(read, resources.reader());
+		assertEquals("", theErrors.toString());
+		assertTrue(success);
+		assertEquals("", theErrors.toString());
+		checkRead(read);
+	}
+
+	/** Saving the same data twice gives the same bytes */
+	@Test
+	public void testStable() throws Exception {
+		assertArrayEquals(save(binary()).theResources.get("Person.bin"), save(binary()).theResources.get("Person.bin"));
+	}
+
+	/** A file whose header does not match the entity type is not read */
+	@Test
+	public void testHeaderMismatch() throws Exception {
+		Resources resources = save(binary());
+		SimpleGenericEntitySet read = createEntitySet(OTHER_TYPES);
+		assertFalse(binary().read(read, resources.reader()));
+		assertTrue(read.queryAll("person").isEmpty());
+	}
+
+	/** A file that is cut short or is not a binary entity file fails the read */
+	@Test
+	public void testDamaged() throws Exception {
+		Resources resources = save(binary());
+		byte[] bytes = resources.theResources.get("Person.bin");
+		for (int length : new int[] { 2, 10, bytes.length / 2, bytes.length - 1 }) {
+			resources.theResources.put("Person.bin", Arrays.copyOf(bytes, length));
+			assertFalse("Truncated to " + length, binary().read(createEntitySet(TYPES), resources.reader()));
+		}
+		byte[] wrongMagic = bytes.clone();
+		wrongMagic[0] = 'X';
+		resources.theResources.put("Person.bin", wrongMagic);
+		assertFalse(binary().read(createEntitySet(TYPES), resources.reader()));
+	}
+}
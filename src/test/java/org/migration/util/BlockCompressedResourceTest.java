@@ -0,0 +1,278 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+import org.migration.EntitySetPersistence;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests the round trip of resources through {@link BlockCompressedResourceWriter} and {@link BlockCompressedResourceReader} */
+public class BlockCompressedResourceTest {
+	private static final int BLOCK = 1024;
+
+	/** In-memory resources */
+	private static class Resources {
+		final Map<String, byte[]> theResources = Collections.synchronizedMap(new LinkedHashMap<>());
+
+		HierarchicalResourceWriter writer() {
+			return path -> new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					theResources.put(path, toByteArray());
+				}
+			};
+		}
+
+		HierarchicalResourceReader reader() {
+			return path -> {
+				byte[] written = theResources.get(path);
+				return written == null ? null : new ByteArrayInputStream(written);
+			};
+		}
+	}
+
+	/** @return Bytes that compress somewhat, but not entirely */
+	private static byte[] data(int length) {
+		Random random = new Random(length);
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i % 7 == 0 ? random.nextInt() : 'a' + i % 13);
+		}
+		return data;
+	}
+
+	private static byte[] readAll(InputStream in, int chunk) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[chunk];
+		try (InputStream stream = in) {
+			if (chunk == 1) {
+				for (int b = stream.read(); b >= 0; b = stream.read()) {
+					out.write(b);
+				}
+			} else {
+				for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer)) {
+					out.write(buffer, 0, read);
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static Resources write(byte[] data) throws IOException {
+		Resources resources = new Resources();
+		try (OutputStream out = new BlockCompressedResourceWriter(resources.writer()).setBlockSize(BLOCK).writeResource("file")) {
+			// Write in uneven pieces so that writes straddle the blocks
+			int off = 0;
+			for (int piece = 1; off < data.length; piece = piece * 3 + 1) {
+				int len = Math.min(piece, data.length - off);
+				if (len == 1) {
+					out.write(data[off]);
+				} else {
+					out.write(data, off, len);
+				}
+				off += len;
+			}
+		}
+		return resources;
+	}
+
+	private static byte[] read(Resources resources, int threads, int chunk) throws IOException {
+		try (BlockCompressedResourceReader reader = new BlockCompressedResourceReader(resources.reader(), threads)) {
+			return readAll(reader.readResource("file"), chunk);
+		}
+	}
+
+	/** Resources of every size around the block boundaries are read back as written, on one thread or several */
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (int length : new int[] { 0, 1, BLOCK - 1, BLOCK, BLOCK + 1, BLOCK * 2, BLOCK * 37 + 5 }) {
+			byte[] data = data(length);
+			Resources resources = write(data);
+			assertEquals(Collections.singleton("file" + BlockCompressedResourceWriter.EXTENSION), resources.theResources.keySet());
+			assertArrayEquals("Length " + length, data, read(resources, 1, 1));
+			assertArrayEquals("Length " + length, data, read(resources, 1, 100));
+			assertArrayEquals("Length " + length, data, read(resources, 4, 1));
+			assertArrayEquals("Length " + length, data, read(resources, 4, BLOCK * 3));
+		}
+	}
+
+	/** The block index at the end of the resource locates each block */
+	@Test
+	public void testIndex() throws IOException {
+		byte[] data = data(BLOCK * 3 + 10);
+		byte[] compressed = write(data).theResources.get("file" + BlockCompressedResourceWriter.EXTENSION);
+		ByteBuffer bytes = ByteBuffer.wrap(compressed);
+		bytes.position((int) bytes.getLong(compressed.length - 8));
+		assertEquals(4, readVarLong(bytes));
+		long uncompressed = 0;
+		for (int i = 0; i < 4; i++) {
+			ByteBuffer block = ByteBuffer.wrap(compressed);
+			block.position((int) readVarLong(bytes));
+			long compressedLength = readVarLong(bytes);
+			long blockLength = readVarLong(bytes);
+			assertEquals(i < 3 ? BLOCK : 10, blockLength);
+			assertEquals(blockLength, readVarLong(block));
+			assertEquals(compressedLength, readVarLong(block));
+			uncompressed += blockLength;
+		}
+		assertEquals(data.length, uncompressed);
+		assertEquals(compressed.length - 8, bytes.position());
+	}
+
+	private static long readVarLong(ByteBuffer bytes) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = bytes.get() & 0xFF;
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	/** Resources written without compression are read as they are, and missing resources are null */
+	@Test
+	public void testUncompressed() throws IOException {
+		Resources resources = new Resources();
+		byte[] data = data(100);
+		resources.theResources.put("plain", data);
+		try (BlockCompressedResourceReader reader = new BlockCompressedResourceReader(resources.reader(), 2)) {
+			assertArrayEquals(data, readAll(reader.readResource("plain"), 7));
+			assertNull(reader.readResource("missing"));
+		}
+	}
+
+	/** Truncated, corrupt or foreign resources fail to read with an IOException */
+	@Test
+	public void testDamaged() throws IOException {
+		byte[] data = data(BLOCK * 5);
+		Resources resources = write(data);
+		String path = "file" + BlockCompressedResourceWriter.EXTENSION;
+		byte[] compressed = resources.theResources.get(path);
+
+		resources.theResources.put(path, Arrays.copyOf(compressed, compressed.length / 2));
+		assertReadFails(resources, 1);
+		assertReadFails(resources, 3);
+
+		byte[] corrupt = compressed.clone();
+		for (int i = 10; i < 40; i++) {
+			corrupt[i] = (byte) 0xFF;
+		}
+		resources.theResources.put(path, corrupt);
+		assertReadFails(resources, 1);
+		assertReadFails(resources, 3);
+
+		byte[] foreign = compressed.clone();
+		foreign[0] = 'X';
+		resources.theResources.put(path, foreign);
+		assertReadFails(resources, 1);
+
+		resources.theResources.put(path, new byte[0]);
+		assertReadFails(resources, 1);
+	}
+
+	private static void assertReadFails(Resources resources, int threads) {
+		try {
+			read(resources, threads, 100);
+			fail("Read of a damaged resource should fail");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	/** Entity sets saved through the compressed writer by each persistence scheme are read back through the compressed reader */
+	@Test
+	public void testEntitySet() throws Exception {
+		TypeSetDissecter dissecter = new TypeSetDissecter(Collections.emptyList(), null);
+		testEntitySet(new XmlEntitySetPersistence(dissecter), "Person.xml");
+		testEntitySet(new CsvEntitySetPersistence(dissecter), "Person.csv");
+		testEntitySet(new BinaryEntitySetPersistence(dissecter), "Person.bin");
+	}
+
+	private static void testEntitySet(EntitySetPersistence persistence, String resource) throws Exception {
+		String types = "<entity-versions><entities><person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" />"//
+			+ "<friend type=\"person\" /></person></entities></entity-versions>";
+		EntityTypeSet typeSet = new EntityTypeSet(new Date(0));
+		typeSet.read(new StringReader(types), null);
+		SimpleGenericEntitySet entitySet = new SimpleGenericEntitySet(typeSet);
+		EntityType person = typeSet.getEntityType("person");
+		for (int i = 1; i <= 500; i++) {
+			entitySet.addEntity(person, i).set("id", i).set("name", "Person " + i);
+		}
+		for (int i = 1; i <= 500; i++) {
+			entitySet.queryById(person, i).set("friend", entitySet.queryById(person, i % 500 + 1));
+		}
+		EntitySetPersister persister = new EntitySetPersister(persistence).setListener(MigrationListener.NONE);
+		Resources resources = new Resources();
+		assertTrue(persister.save(entitySet, new BlockCompressedResourceWriter(resources.writer()).setBlockSize(BLOCK), null, null));
+		// Resources are only recorded when they are closed, which finishes them
+		assertTrue(resources.theResources.containsKey(resource + BlockCompressedResourceWriter.EXTENSION));
+
+		EntityTypeSet readTypes = new EntityTypeSet(new Date(0));
+		readTypes.read(new StringReader(types), null);
+		SimpleGenericEntitySet read = new SimpleGenericEntitySet(readTypes);
+		try (BlockCompressedResourceReader reader = new BlockCompressedResourceReader(resources.reader(), 4)) {
+			assertTrue(persister.read(read, reader));
+		}
+		assertEquals(500, read.queryAll("person").size());
+		for (int i = 1; i <= 500; i++) {
+			GenericEntity readPerson = read.queryById("person", i);
+			assertEquals("Person " + i, readPerson.get("name"));
+			assertSame(read.queryById("person", i % 500 + 1), readPerson.get("friend"));
+		}
+	}
+
+	/** Block sizes under 1KB, unknown compression levels and fewer than one thread are rejected */
+	@Test
+	public void testSettings() {
+		BlockCompressedResourceWriter writer = new BlockCompressedResourceWriter(new Resources().writer());
+		writer.setBlockSize(1024).setLevel(Deflater.NO_COMPRESSION).setLevel(Deflater.BEST_COMPRESSION)
+			.setLevel(Deflater.DEFAULT_COMPRESSION);
+		try {
+			writer.setBlockSize(1023);
+			fail("Block size under 1KB should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			writer.setLevel(10);
+			fail("Unknown level should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			new BlockCompressedResourceReader(new Resources().reader(), 0);
+			fail("No threads should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests the round trip of entities through {@link ColumnarEntitySetPersistence} and its projected reads */
+public class ColumnarEntitySetPersistenceTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><city type=\"java.lang.String\" />"//
+		+ "<age type=\"int\" /><friend type=\"person\" /></person>"//
+		+ "</entities></entity-versions>";
+	private static final int MANY = 300;
+
+	/** In-memory resources, recording the resources read */
+	private static class Resources {
+		final Map<String, byte[]> theResources = Collections.synchronizedMap(new LinkedHashMap<>());
+		final Set<String> theRead = Collections.synchronizedSet(new TreeSet<>());
+
+		HierarchicalResourceWriter writer() {
+			return path -> new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					theResources.put(path, toByteArray());
+				}
+			};
+		}
+
+		HierarchicalResourceReader reader() {
+			return path -> {
+				byte[] written = theResources.get(path);
+				if (written == null) {
+					return null;
+				}
+				theRead.add(path);
+				return new ByteArrayInputStream(written);
+			};
+		}
+	}
+
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+	private ColumnarEntitySetPersistence thePersistence;
+	private EntitySetPersister thePersister;
+
+	@Before
+	public void setUp() {
+		// Failures are printed, which some of these tests cause on purpose
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+		thePersistence = new ColumnarEntitySetPersistence(new TypeSetDissecter(Collections.emptyList(), null));
+		thePersister = new EntitySetPersister(thePersistence).setListener(MigrationListener.NONE);
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private static SimpleGenericEntitySet createEntitySet() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		return new SimpleGenericEntitySet(types);
+	}
+
+	private static String name(int i) {
+		return i % 10 == 0 ? null : "Person " + i;
+	}
+
+	/** @return A city that stays the same for runs of people, so the column is run-length encoded */
+	private static String city(int i) {
+		return i < 100 ? "Springfield" : i == 100 ? null : i < 200 ? "Shelbyville" : "Ogdenville";
+	}
+
+	/** Saves people, each the friend of the previous one, whose cities repeat in runs */
+	private Resources save() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		for (int i = 1; i <= MANY; i++) {
+			entitySet.addEntity(person, i).set("id", i).set("name", name(i)).set("city", city(i)).set("age", i / 50);
+		}
+		for (int i = 2; i <= MANY; i++) {
+			entitySet.queryById(person, i).set("friend", entitySet.queryById(person, i - 1));
+		}
+		Resources resources = new Resources();
+		assertTrue(thePersister.save(entitySet, resources.writer(), null, null));
+		return resources;
+	}
+
+	private GenericEntitySet read(Resources resources) throws Exception {
+		GenericEntitySet read = createEntitySet();
+		boolean success = thePersister.read(read, resources.reader());
+		assertEquals("", theErrors.toString());
+		assertTrue(success);
+		return read;
+	}
+
+	private static void checkRead(GenericEntitySet read) {
+		assertEquals(MANY, read.queryAll("person").size());
+		for (int i = 1; i <= MANY; i++) {
+			GenericEntity person = read.queryById("person", i);
+			assertEquals(name(i), person.get("name"));
+			assertEquals(city(i), person.get("city"));
+			assertEquals(i / 50, person.get("age"));
+			if (i == 1) {
+				assertNull(person.get("friend"));
+			} else {
+				assertSame(read.queryById("person", i - 1), person.get("friend"));
+			}
+		}
+	}
+
+	/** Every field is written to its own column file and read back as it was written */
+	@Test
+	public void testRoundTrip() throws Exception {
+		Resources resources = save();
+		assertEquals(new TreeSet<>(Arrays.asList("Person.id.col", "Person.name.col", "Person.city.col", "Person.age.col",
+			"Person.friend.col", ExportManifest.RESOURCE)), new TreeSet<>(resources.theResources.keySet()));
+		checkRead(read(resources));
+	}
+
+	/** Entities are read back as they were written in a single pass */
+	@Test
+	public void testSinglePass() throws Exception {
+		thePersister.setSinglePass(true);
+		checkRead(read(save()));
+	}
+
+	/** Columns of repeated values are stored as runs */
+	@Test
+	public void testRuns() throws Exception {
+		Resources resources = save();
+		// 300 distinct names take much more space than 300 cities in four runs and ages in seven
+		assertTrue(resources.theResources.get("Person.city.col").length < 150);
+		assertTrue(resources.theResources.get("Person.age.col").length < 100);
+		assertTrue(resources.theResources.get("Person.name.col").length > 1000);
+	}
+
+	/** Only the identity and the projected columns are read, and the other fields are left unset */
+	@Test
+	public void testProjection() throws Exception {
+		Resources resources = save();
+		thePersistence.setProjection("person", "city", "friend");
+		GenericEntitySet read = read(resources);
+		assertEquals(new TreeSet<>(Arrays.asList("Person.id.col", "Person.city.col", "Person.friend.col", ExportManifest.RESOURCE)),
+			resources.theRead);
+		for (int i = 1; i <= MANY; i++) {
+			GenericEntity person = read.queryById("person", i);
+			assertEquals(city(i), person.get("city"));
+			assertNull(person.get("name"));
+			if (i > 1) {
+				assertSame(read.queryById("person", i - 1), person.get("friend"));
+			}
+		}
+
+		// A projection of only the identity reads nothing else
+		resources.theRead.clear();
+		thePersistence.setProjection("person", "id");
+		assertEquals(MANY, read(resources).queryAll("person").size());
+		assertEquals(new TreeSet<>(Arrays.asList("Person.id.col", ExportManifest.RESOURCE)), resources.theRead);
+
+		resources.theRead.clear();
+		thePersistence.clearProjection("person");
+		checkRead(read(resources));
+		assertEquals(6, resources.theRead.size());
+	}
+
+	/** Overlaying a projected read replaces only the projected fields of existing entities */
+	@Test
+	public void testProjectedOverlay() throws Exception {
+		GenericEntitySet read = read(save());
+
+		SimpleGenericEntitySet changed = createEntitySet();
+		EntityType person = changed.getTypes().getEntityType("person");
+		changed.addEntity(person, 5).set("id", 5).set("name", "Renamed").set("city", "Capital City").set("age", 99);
+		Resources delta = new Resources();
+		assertTrue(thePersister.save(changed, delta.writer(), null, null));
+		thePersistence.setProjection("person", "name");
+		assertTrue(thePersister.readDelta(read, delta.reader()));
+
+		GenericEntity five = read.queryById("person", 5);
+		assertEquals("Renamed", five.get("name"));
+		assertEquals(city(5), five.get("city"));
+		assertEquals(0, five.get("age"));
+		assertSame(read.queryById("person", 4), five.get("friend"));
+	}
+
+	/** A projection of a field the type does not serialize is rejected */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadProjection() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		thePersistence.readEntitySet(entitySet.getTypes().getEntityType("person"), new Resources().reader(),
+			Arrays.asList("name", "nickname"));
+	}
+
+	/** A column with fewer values than the identity column, or holding another field, fails the read */
+	@Test
+	public void testMismatchedColumns() throws Exception {
+		Resources resources = save();
+		byte[] city = resources.theResources.get("Person.city.col");
+		resources.theResources.put("Person.city.col", resources.theResources.get("Person.name.col"));
+		assertFalse(thePersister.read(createEntitySet(), resources.reader()));
+
+		SimpleGenericEntitySet fewer = createEntitySet();
+		EntityType person = fewer.getTypes().getEntityType("person");
+		fewer.addEntity(person, 1).set("id", 1).set("city", "Springfield").set("age", 1);
+		Resources fewerResources = new Resources();
+		assertTrue(thePersister.save(fewer, fewerResources.writer(), null, null));
+		resources.theResources.put("Person.city.col", fewerResources.theResources.get("Person.city.col"));
+		assertFalse(thePersister.read(createEntitySet(), resources.reader()));
+
+		resources.theResources.put("Person.city.col", city);
+		resources.theResources.remove("Person.age.col");
+		assertFalse(thePersister.read(createEntitySet(), resources.reader()));
+		assertTrue(theErrors.toString().contains("Person.age.col"));
+	}
+}
@@ -0,0 +1,295 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.EnumType;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+
+/** Tests the row writing and tokenizing of {@link CsvEntitySetPersistence} */
+public class CsvEntitySetPersistenceTest {
+	private static final String TYPES = "<entity-versions><enums><mood><happy /><sad /></mood></enums><entities>"//
+		+ "<tag id=\"code\"><code type=\"java.lang.String\" /></tag>"//
+		+ "<record id=\"id\"><id type=\"int\" /><big type=\"long\" /><small type=\"short\" /><tiny type=\"byte\" />"//
+		+ "<real type=\"double\" /><single type=\"float\" /><flag type=\"boolean\" /><count type=\"java.lang.Integer\" />"//
+		+ "<text type=\"java.lang.String\" /><mood type=\"mood\" /><when type=\"java.util.Date\" />"//
+		+ "<next type=\"record\" /><tag type=\"tag\" /></record>"//
+		+ "</entities></entity-versions>";
+	/** The initial size of the tokenizer's window */
+	private static final int WINDOW = 64 * 1024;
+
+	/** A reader that returns at most a fixed number of characters from each read, so rows are split across reads */
+	private static class ChunkedReader extends Reader {
+		private final Reader theWrapped;
+		private final int theChunk;
+
+		ChunkedReader(String text, int chunk) {
+			theWrapped = new StringReader(text);
+			theChunk = chunk;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			return theWrapped.read(cbuf, off, Math.min(len, theChunk));
+		}
+
+		@Override
+		public void close() throws IOException {
+			theWrapped.close();
+		}
+	}
+
+	private static List<List<String>> tokenize(Reader reader) throws IOException {
+		CsvEntitySetPersistence.CsvTokenizer tokenizer = new CsvEntitySetPersistence.CsvTokenizer(reader);
+		CsvEntitySetPersistence.CsvRow row = new CsvEntitySetPersistence.CsvRow(2);
+		List<List<String>> rows = new ArrayList<>();
+		while (tokenizer.next(row)) {
+			List<String> columns = new ArrayList<>(row.getColumnCount());
+			for (int c = 0; c < row.getColumnCount(); c++) {
+				columns.add(row.getString(c));
+			}
+			rows.add(columns);
+		}
+		return rows;
+	}
+
+	/** Tokenizes the text reading it all at once and in chunks of each given size, checking that each gives the expected rows */
+	private static void assertRows(String text, List<List<String>> expected, int... chunks) throws IOException {
+		assertEquals(expected, tokenize(new StringReader(text)));
+		for (int chunk : chunks) {
+			assertEquals("Read in chunks of " + chunk, expected, tokenize(new ChunkedReader(text, chunk)));
+		}
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	private static String write(List<List<String>> rows) throws IOException {
+		StringWriter out = new StringWriter();
+		try (CsvEntitySetPersistence.RowBuffer buffer = new CsvEntitySetPersistence.RowBuffer(out)) {
+			for (List<String> row : rows) {
+				for (int c = 0; c < row.size(); c++) {
+					if (c > 0) {
+						buffer.put(',');
+					}
+					buffer.putEscaped(row.get(c));
+				}
+				buffer.newLine();
+			}
+		}
+		return out.toString();
+	}
+
+	/** Values with commas, quotes and newlines round-trip through the row buffer and the tokenizer */
+	@Test
+	public void testRoundTrip() throws IOException {
+		List<List<String>> rows = Arrays.asList(//
+			Arrays.asList("id", "name", "note"), //
+			Arrays.asList("1", "plain", ""), //
+			Arrays.asList("2", "a,b", "say \"hi\""), //
+			Arrays.asList("3", "line 1\nline 2", "\"\""), //
+			Arrays.asList("4", ",", "\n"));
+		assertRows(write(rows), rows, 1, 3);
+	}
+
+	/** Numbers are written as {@link String#valueOf(long)} writes them */
+	@Test
+	public void testPutLong() throws IOException {
+		StringWriter out = new StringWriter();
+		try (CsvEntitySetPersistence.RowBuffer buffer = new CsvEntitySetPersistence.RowBuffer(out)) {
+			for (long value : new long[] { 0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+				buffer.putLong(value);
+				buffer.put(' ');
+			}
+		}
+		assertEquals("0 7 -7 10 1234567890123 9223372036854775807 -9223372036854775808 ", out.toString());
+	}
+
+	/** Values written past the row buffer's capacity are flushed in order */
+	@Test
+	public void testLargeWrite() throws IOException {
+		List<List<String>> rows = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			rows.add(Arrays.asList(String.valueOf(i), repeat('x', i * 97), i % 3 == 0 ? "q\"" + i : "v" + i));
+		}
+		rows.add(Arrays.asList("big", repeat('"', 20_000)));
+		assertRows(write(rows), rows, 4096);
+	}
+
+	/**
+	 * Each awkward construct is placed so that its characters fall on either side of the end of the tokenizer's initial window, which is
+	 * where a row must be read again after more of the text is read
+	 */
+	@Test
+	public void testWindowBoundary() throws IOException {
+		String[][] cases = { //
+			{ "\"a\"\"b\",c\n", "a\"b", "c" }, // Doubled quote in a quoted value
+			{ "\"a,b\"\r\n", "a,b" }, // Quoted value ending with a Windows line terminator
+			{ "abc,def\r\n", "abc", "def" }, // Unquoted value ending with a Windows line terminator
+			{ "\"\"\"\"\n", "\"" }, // Quoted value of just a quote
+			{ "\"x\ny\",\"\"\n", "x\ny", "" }, // Quoted newline and an empty quoted value
+			{ "1,,3\n", "1", "", "3" }, // Empty unquoted value
+		};
+		for (String[] testCase : cases) {
+			String row = testCase[0];
+			List<String> columns = Arrays.asList(testCase).subList(1, testCase.length);
+			for (int split = -1; split <= row.length() + 1; split++) {
+				// The padding row ends so that the end of the window falls this many characters into the test row
+				String padding = repeat('p', WINDOW - split - 1) + "\n";
+				String text = padding + row + "next\n";
+				List<List<String>> expected = Arrays.asList(Collections.singletonList(padding.substring(0, padding.length() - 1)), columns,
+					Collections.singletonList("next"));
+				assertRows(text, expected, 997);
+				// And without the final row, so the test row is the end of the text
+				assertRows(padding + row, expected.subList(0, 2), 997);
+			}
+		}
+	}
+
+	/** A row longer than the initial window grows the window */
+	@Test
+	public void testRowLongerThanWindow() throws IOException {
+		String value = repeat('v', WINDOW * 2 + 3) + "\"" + repeat('w', 100);
+		String text = "id,value\n1,\"" + value.replace("\"", "\"\"") + "\"\n2,short\n";
+		assertRows(text, Arrays.asList(Arrays.asList("id", "value"), Arrays.asList("1", value), Arrays.asList("2", "short")), 8191);
+	}
+
+	/** Blank lines are skipped but counted, and the last row need not be terminated */
+	@Test
+	public void testBlankLinesAndRowNumbers() throws IOException {
+		CsvEntitySetPersistence.CsvTokenizer tokenizer = new CsvEntitySetPersistence.CsvTokenizer(new StringReader("a\n\n\nb,c"));
+		CsvEntitySetPersistence.CsvRow row = new CsvEntitySetPersistence.CsvRow(1);
+		assertTrue(tokenizer.next(row));
+		assertEquals("a", row.toString());
+		assertEquals(1, tokenizer.getRowNumber());
+		assertTrue(tokenizer.next(row));
+		assertEquals("b,c", row.toString());
+		assertEquals(4, tokenizer.getRowNumber());
+		assertFalse(tokenizer.next(row));
+	}
+
+	/** A copied row keeps its values after the window moves on */
+	@Test
+	public void testCopy() throws IOException {
+		String first = repeat('f', WINDOW - 5);
+		CsvEntitySetPersistence.CsvTokenizer tokenizer = new CsvEntitySetPersistence.CsvTokenizer(
+			new StringReader("x,\"" + first + "\"\n" + repeat('s', WINDOW) + "\n"));
+		CsvEntitySetPersistence.CsvRow row = new CsvEntitySetPersistence.CsvRow(2);
+		assertTrue(tokenizer.next(row));
+		CsvEntitySetPersistence.CsvRow copy = row.copy();
+		assertTrue(tokenizer.next(row));
+		assertEquals(2, copy.getColumnCount());
+		assertTrue(copy.matches(0, "x"));
+		assertEquals(first, copy.getString(1));
+	}
+
+	/** Malformed quoting fails with the number of the row */
+	@Test
+	public void testMalformed() {
+		for (String text : new String[] { "a\n\"unterminated", "a\n\"quoted\"x,b\n" }) {
+			try {
+				tokenize(new StringReader(text));
+				fail("Expected failure for " + text);
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().endsWith("row 2"));
+			}
+		}
+	}
+
+	private static SimpleGenericEntitySet createEntitySet() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		return new SimpleGenericEntitySet(types);
+	}
+
+	/** Every kind of column in the row plan writes values that are read back as they were, and the first row is written as expected */
+	@Test
+	public void testColumnKinds() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType tag = entitySet.getTypes().getEntityType("tag");
+		entitySet.addEntity(tag, "a,b").set("code", "a,b");
+		entitySet.addEntity(tag, "plain").set("code", "plain");
+		EntityType record = entitySet.getTypes().getEntityType("record");
+		EnumType mood = entitySet.getTypes().getEnumType("mood");
+		long[] bigs = { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE };
+		double[] reals = { 0.5, -0.0, Double.MAX_VALUE, Double.NaN };
+		String[] texts = { "plain", "a,b", "say \"hi\"\nbye", null };
+		for (int i = 0; i < 4; i++) {
+			entitySet.addEntity(record, i + 1).set("id", i + 1).set("big", bigs[i]).set("small", (short) (i == 2 ? Short.MIN_VALUE : i))
+				.set("tiny", (byte) (i == 3 ? Byte.MAX_VALUE : -i)).set("real", reals[i]).set("single", i / 3f).set("flag", i % 2 == 0)
+				.set("count", i == 1 ? null : i * 1000).set("text", texts[i]).set("when", i == 2 ? null : new Date(i * 86_400_000L))
+				.set("mood", i == 3 ? null : mood.getValue(i == 0 ? "happy" : "sad"));
+		}
+		for (int i = 1; i <= 4; i++) {
+			entitySet.queryById(record, i).set("next", i == 4 ? null : entitySet.queryById(record, i + 1))//
+				.set("tag", i == 3 ? null : entitySet.queryById(tag, i % 2 == 0 ? "a,b" : "plain"));
+		}
+		Map<String, byte[]> resources = new LinkedHashMap<>();
+		EntitySetPersister persister = new EntitySetPersister(
+			new CsvEntitySetPersistence(new TypeSetDissecter(Collections.emptyList(), null))).setListener(MigrationListener.NONE);
+		assertTrue(persister.save(entitySet, path -> new ByteArrayOutputStream() {
+			@Override
+			public void close() {
+				resources.put(path, toByteArray());
+			}
+		}, null, null));
+
+		List<List<String>> rows = tokenize(new StringReader(new String(resources.get("Record.csv"), "UTF-8")));
+		List<String> header = rows.get(0);
+		assertEquals(13, header.size());
+		String[] expected = { "id", "1", "big", "0", "small", "0", "tiny", "0", "real", "0.5", "single", "0.0", "flag", "true",
+			"count", "0", "text", "plain", "mood", "happy", "next", "2", "tag", "plain" };
+		for (int c = 0; c < expected.length; c += 2) {
+			assertEquals(expected[c], expected[c + 1], rows.get(1).get(header.indexOf(expected[c])));
+		}
+		assertEquals("null", rows.get(2).get(header.indexOf("count")));
+		assertEquals("a,b", rows.get(2).get(header.indexOf("tag")));
+		assertEquals("say \"hi\"\nbye", rows.get(3).get(header.indexOf("text")));
+
+		for (EntitySetPersister reader : new EntitySetPersister[] { persister, persister.setSinglePass(true) }) {
+			GenericEntitySet read = createEntitySet();
+			assertTrue(reader.read(read, path -> {
+				byte[] written = resources.get(path);
+				return written == null ? null : new ByteArrayInputStream(written);
+			}));
+			for (int i = 0; i < 4; i++) {
+				GenericEntity readRecord = read.queryById("record", i + 1);
+				GenericEntity original = entitySet.queryById(record, i + 1);
+				for (String field : new String[] { "big", "small", "tiny", "real", "single", "flag", "count", "text", "when" }) {
+					assertEquals(field + " of " + (i + 1), original.get(field), readRecord.get(field));
+				}
+				Object readMood = readRecord.get("mood");
+				assertEquals(i == 3 ? null : i == 0 ? "happy" : "sad", readMood == null ? null : readMood.toString());
+				assertEquals(i == 3 ? null : read.queryById("record", i + 2), readRecord.get("next"));
+				assertEquals(i == 2 ? null : read.queryById("tag", i % 2 == 1 ? "a,b" : "plain"), readRecord.get("tag"));
+			}
+		}
+	}
+}
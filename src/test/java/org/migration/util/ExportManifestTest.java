@@ -0,0 +1,370 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.EntitySetPersistence;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests the recording, reading and verification of an {@link ExportManifest} and its use by readers */
+public class ExportManifestTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /></person>"//
+		+ "<pet id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /></pet>"//
+		+ "<toy id=\"id\"><id type=\"int\" /></toy>"//
+		+ "</entities></entity-versions>";
+
+	/** In-memory resources, recording the resources opened for reading */
+	private static class Resources {
+		final Map<String, byte[]> theResources = Collections.synchronizedMap(new LinkedHashMap<>());
+		final Set<String> theRead = Collections.synchronizedSet(new TreeSet<>());
+
+		HierarchicalResourceWriter writer() {
+			return path -> new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					theResources.put(path, toByteArray());
+				}
+			};
+		}
+
+		HierarchicalResourceReader reader() {
+			return path -> {
+				theRead.add(path);
+				byte[] written = theResources.get(path);
+				return written == null ? null : new ByteArrayInputStream(written);
+			};
+		}
+	}
+
+	/** An entity set that records the capacity it is asked to reserve for each type */
+	private static class PresizedEntitySet extends SimpleGenericEntitySet {
+		final Map<String, Long> theCapacities = new LinkedHashMap<>();
+
+		PresizedEntitySet(EntityTypeSet types) {
+			super(types);
+		}
+
+		@Override
+		public void ensureCapacity(EntityType entityType, long count) {
+			theCapacities.put(entityType.getName(), count);
+		}
+	}
+
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+
+	@Before
+	public void setUp() {
+		// Failures are printed, which some of these tests cause on purpose
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private static TypeSetDissecter dissecter() {
+		return new TypeSetDissecter(Collections.emptyList(), null);
+	}
+
+	private static EntitySetPersister persister(EntitySetPersistence persistence) {
+		return new EntitySetPersister(persistence).setListener(MigrationListener.NONE);
+	}
+
+	private static EntityTypeSet createTypes() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		return types;
+	}
+
+	/** @return An entity set with three people and a pet, and no toys */
+	private static SimpleGenericEntitySet createEntitySet() throws Exception {
+		SimpleGenericEntitySet entitySet = new SimpleGenericEntitySet(createTypes());
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		for (int i = 1; i <= 3; i++) {
+			entitySet.addEntity(person, i).set("id", i).set("name", "Person " + i);
+		}
+		entitySet.addEntity(entitySet.getTypes().getEntityType("pet"), 1).set("id", 1).set("name", "Rex");
+		return entitySet;
+	}
+
+	private static Resources save(EntitySetPersistence persistence) throws Exception {
+		Resources resources = new Resources();
+		assertTrue(persister(persistence).save(createEntitySet(), resources.writer(), null, null));
+		return resources;
+	}
+
+	private static long crc(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+
+	/** A save records the format, row count and each resource of every type with the byte count and checksum of what was written */
+	@Test
+	public void testSave() throws Exception {
+		XmlEntitySetPersistence xml = new XmlEntitySetPersistence(dissecter());
+		Resources resources = save(xml);
+		ExportManifest manifest = ExportManifest.read(resources.reader());
+		assertNotNull(manifest);
+		for (String type : new String[] { "person", "pet", "toy" }) {
+			assertTrue(manifest.hasType(type));
+			assertEquals(xml.getFormatName(), manifest.getFormat(type));
+		}
+		assertEquals(3, manifest.getRows("person"));
+		assertEquals(1, manifest.getRows("pet"));
+		assertEquals(0, manifest.getRows("toy"));
+
+		List<ExportManifest.ResourceEntry> people = manifest.getResources("person");
+		assertEquals(1, people.size());
+		assertEquals("Person.xml", people.get(0).getPath());
+		byte[] written = resources.theResources.get("Person.xml");
+		assertEquals(written.length, people.get(0).getBytes());
+		assertEquals(crc(written), people.get(0).getChecksum());
+
+		assertFalse(manifest.hasType("owner"));
+		assertNull(manifest.getFormat("owner"));
+		assertEquals(0, manifest.getRows("owner"));
+		assertTrue(manifest.getResources("owner").isEmpty());
+	}
+
+	/** Every resource written for a type is recorded, such as each column of a columnar export */
+	@Test
+	public void testManyResources() throws Exception {
+		Resources resources = save(new ColumnarEntitySetPersistence(dissecter()));
+		ExportManifest manifest = ExportManifest.read(resources.reader());
+		Set<String> paths = new TreeSet<>();
+		for (ExportManifest.ResourceEntry resource : manifest.getResources("person")) {
+			paths.add(resource.getPath());
+			byte[] written = resources.theResources.get(resource.getPath());
+			assertEquals(written.length, resource.getBytes());
+			assertEquals(crc(written), resource.getChecksum());
+		}
+		assertEquals(new TreeSet<>(Arrays.asList("Person.id.col", "Person.name.col")), paths);
+	}
+
+	/** A manifest written and read again holds the same entries, including empty resources and row counts beyond an int */
+	@Test
+	public void testWriteRead() throws Exception {
+		EntityTypeSet types = createTypes();
+		ExportManifest manifest = new ExportManifest();
+		Resources resources = new Resources();
+		HierarchicalResourceWriter personWriter = manifest.record(types.getEntityType("person"), "some.Format", resources.writer());
+		manifest.record(types.getEntityType("toy"), "other.Format", resources.writer());
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		try (OutputStream out = personWriter.writeResource("a/b.dat")) {
+			out.write(data[0]);
+			out.write(data, 1, data.length - 1);
+		}
+		try (OutputStream out = personWriter.writeResource("empty")) {
+			// Nothing written
+		}
+		manifest.setRows(types.getEntityType("person"), 1L << 40);
+		manifest.write(resources.writer());
+
+		ExportManifest read = ExportManifest.read(resources.reader());
+		assertEquals("some.Format", read.getFormat("person"));
+		assertEquals("other.Format", read.getFormat("toy"));
+		assertEquals(1L << 40, read.getRows("person"));
+		assertFalse(read.hasType("pet"));
+		List<ExportManifest.ResourceEntry> entries = read.getResources("person");
+		assertEquals(2, entries.size());
+		assertEquals("a/b.dat", entries.get(0).getPath());
+		assertEquals(1000, entries.get(0).getBytes());
+		assertEquals(crc(data), entries.get(0).getChecksum());
+		assertEquals("empty", entries.get(1).getPath());
+		assertEquals(0, entries.get(1).getBytes());
+		assertEquals(0, entries.get(1).getChecksum());
+		assertTrue(read.getResources("toy").isEmpty());
+		assertTrue(read.verify(resources.reader(), 2));
+
+		try {
+			manifest.setRows(types.getEntityType("pet"), 1);
+			fail("Rows should not be set for a type that was not recorded");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	/** Intact resources verify on one thread or several, and missing, truncated or altered ones do not */
+	@Test
+	public void testVerify() throws Exception {
+		Resources resources = save(new ColumnarEntitySetPersistence(dissecter()));
+		ExportManifest manifest = ExportManifest.read(resources.reader());
+		assertTrue(manifest.verify(resources.reader(), 1));
+		assertTrue(manifest.verify(resources.reader(), 4));
+		assertEquals("", theErrors.toString());
+
+		byte[] names = resources.theResources.get("Person.name.col");
+		byte[] altered = names.clone();
+		altered[altered.length / 2] ^= 1;
+		resources.theResources.put("Person.name.col", altered);
+		assertFalse(manifest.verify(resources.reader(), 1));
+		assertFalse(manifest.verify(resources.reader(), 4));
+		assertTrue(theErrors.toString().contains("Person.name.col is corrupt"));
+
+		resources.theResources.put("Person.name.col", Arrays.copyOf(names, names.length - 1));
+		assertFalse(manifest.verify(resources.reader(), 3));
+		assertTrue(theErrors.toString().contains("Person.name.col has " + (names.length - 1) + " bytes"));
+
+		resources.theResources.remove("Person.name.col");
+		assertFalse(manifest.verify(resources.reader(), 2));
+		assertTrue(theErrors.toString().contains("Person.name.col is missing"));
+
+		try {
+			manifest.verify(resources.reader(), 0);
+			fail("No threads should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	/** A verifying read of a damaged export reads nothing, while an ordinary read does not check the checksums */
+	@Test
+	public void testVerifyingRead() throws Exception {
+		Resources resources = save(new XmlEntitySetPersistence(dissecter()));
+		SimpleGenericEntitySet read = new SimpleGenericEntitySet(createTypes());
+		assertTrue(persister(new XmlEntitySetPersistence(dissecter())).setVerify(true).read(read, resources.reader()));
+		assertEquals(3, read.queryAll("person").size());
+
+		byte[] pets = resources.theResources.get("Pet.xml");
+		String renamed = new String(pets, StandardCharsets.UTF_8).replace("Rex", "Max");
+		resources.theResources.put("Pet.xml", renamed.getBytes(StandardCharsets.UTF_8));
+		read = new SimpleGenericEntitySet(createTypes());
+		assertFalse(persister(new XmlEntitySetPersistence(dissecter())).setVerify(true).setReadThreads(2).read(read,
+			resources.reader()));
+		assertTrue(read.queryAll("person").isEmpty());
+		assertTrue(theErrors.toString().contains("failed verification"));
+
+		theErrors.reset();
+		read = new SimpleGenericEntitySet(createTypes());
+		assertTrue(persister(new XmlEntitySetPersistence(dissecter())).read(read, resources.reader()));
+		assertEquals("Max", read.queryById("pet", 1).get("name"));
+		assertEquals("", theErrors.toString());
+	}
+
+	/** Exports without a manifest, or with a malformed one, are still read, but cannot be verified */
+	@Test
+	public void testMissingOrMalformed() throws Exception {
+		Resources resources = save(new XmlEntitySetPersistence(dissecter()));
+		byte[] manifest = resources.theResources.remove(ExportManifest.RESOURCE);
+		assertNull(ExportManifest.read(resources.reader()));
+		SimpleGenericEntitySet read = new SimpleGenericEntitySet(createTypes());
+		assertTrue(persister(new XmlEntitySetPersistence(dissecter())).read(read, resources.reader()));
+		assertEquals(3, read.queryAll("person").size());
+		assertTrue(theErrors.toString().isEmpty());
+		assertTrue(persister(new XmlEntitySetPersistence(dissecter())).setVerify(true).read(new SimpleGenericEntitySet(createTypes()),
+			resources.reader()));
+		assertTrue(theErrors.toString().contains("No " + ExportManifest.RESOURCE));
+
+		String text = new String(manifest, StandardCharsets.UTF_8);
+		for (String malformed : new String[] { text.replace("person.rows=3", "person.rows=three"), text.replace("person.format", "x"),
+			text.replaceAll("person\\.resource0\\.crc32=\\w+", "person.resource0.crc32=xyz"), "types=owner\n" }) {
+			resources.theResources.put(ExportManifest.RESOURCE, malformed.getBytes(StandardCharsets.UTF_8));
+			try {
+				ExportManifest.read(resources.reader());
+				fail("Malformed manifest should fail to read:\n" + malformed);
+			} catch (IOException e) {
+				// Expected
+			}
+			theErrors.reset();
+			read = new SimpleGenericEntitySet(createTypes());
+			assertTrue(persister(new XmlEntitySetPersistence(dissecter())).read(read, resources.reader()));
+			assertEquals(3, read.queryAll("person").size());
+			assertTrue(theErrors.toString().contains("reading without it"));
+		}
+
+		resources.theResources.put(ExportManifest.RESOURCE, "types=\n".getBytes(StandardCharsets.UTF_8));
+		assertFalse(ExportManifest.read(resources.reader()).hasType("person"));
+	}
+
+	/** A composite reader goes straight to the component that wrote each type, and opens nothing for types that were not written */
+	@Test
+	public void testCompositeDetection() throws Exception {
+		Resources resources = new Resources();
+		// Only people are written, as CSV
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		ExportManifest manifest = new ExportManifest();
+		CsvEntitySetPersistence csvPersistence = new CsvEntitySetPersistence(dissecter());
+		try (EntitySetPersistence.EntityWriter writer = csvPersistence.writeEntitySet(person,
+			manifest.record(person, csvPersistence.getFormatName(), resources.writer()))) {
+			for (int i = 1; i <= 3; i++) {
+				assertTrue(writer.writeEntity(entitySet.queryById(person, i)));
+			}
+		}
+		manifest.setRows(person, 3);
+		manifest.write(resources.writer());
+
+		CompositeEntitySetPersistence composite = new CompositeEntitySetPersistence()//
+			.addComponent(new XmlEntitySetPersistence(dissecter()), false)//
+			.addComponent(new BinaryEntitySetPersistence(dissecter()), false)//
+			.addComponent(new CsvEntitySetPersistence(dissecter()), true);
+		ExportManifest read = ExportManifest.read(resources.reader());
+		resources.theRead.clear();
+		assertNull(composite.readEntitySet(entitySet.getTypes().getEntityType("pet"), resources.reader(), read));
+		assertTrue(resources.theRead.isEmpty());
+		assertNotNull(composite.readEntitySet(person, resources.reader(), read));
+		assertFalse(resources.theRead.contains("Person.xml"));
+		assertFalse(resources.theRead.contains("Person.bin"));
+
+		resources.theRead.clear();
+		GenericEntitySet readSet = new SimpleGenericEntitySet(createTypes());
+		assertTrue(persister(composite).read(readSet, resources.reader()));
+		assertEquals(3, readSet.queryAll("person").size());
+		assertTrue(readSet.queryAll("pet").isEmpty());
+		assertEquals(new TreeSet<>(Arrays.asList(ExportManifest.RESOURCE, "Person.csv")), resources.theRead);
+		assertEquals("", theErrors.toString());
+	}
+
+	/** The entity set is asked to reserve room for the rows of each type with any, before they are read */
+	@Test
+	public void testPresize() throws Exception {
+		Resources resources = save(new XmlEntitySetPersistence(dissecter()));
+		PresizedEntitySet read = new PresizedEntitySet(createTypes());
+		assertTrue(persister(new XmlEntitySetPersistence(dissecter())).read(read, resources.reader()));
+		Map<String, Long> expected = new LinkedHashMap<>();
+		expected.put("person", 3L);
+		expected.put("pet", 1L);
+		assertEquals(expected, read.theCapacities);
+	}
+}
@@ -0,0 +1,202 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.migration.EntitySetPersistence;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests {@link MappedResourceReader} and the in-place reading of entity files through it */
+public class MappedResourceReaderTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><size type=\"long\" /><friend type=\"person\" />"//
+		+ "</person></entities></entity-versions>";
+	/** Each of these is encoded in more than one byte, so small reads split their bytes */
+	private static final String WIDE = "\u00E9\u4E2D\uD83D\uDE00";
+	private static final int MANY = 1000;
+
+	@Rule
+	public TemporaryFolder theFolder = new TemporaryFolder();
+
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+
+	@Before
+	public void setUp() {
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private HierarchicalResourceWriter writer() {
+		return path -> new FileOutputStream(new File(theFolder.getRoot(), path));
+	}
+
+	private static TypeSetDissecter dissecter() {
+		return new TypeSetDissecter(Collections.emptyList(), null);
+	}
+
+	private static EntitySetPersister persister(EntitySetPersistence persistence) {
+		return new EntitySetPersister(persistence).setListener(MigrationListener.NONE);
+	}
+
+	private static SimpleGenericEntitySet createEntitySet() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		return new SimpleGenericEntitySet(types);
+	}
+
+	/** Saves many people, each the friend of the next, with names of wide characters and some repeated, empty or missing */
+	private void save(EntitySetPersister persister) throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		for (int i = 1; i <= MANY; i++) {
+			entitySet.addEntity(person, i).set("id", i).set("name", name(i)).set("size", i * 1_000_000_007L);
+		}
+		for (int i = 1; i <= MANY; i++) {
+			entitySet.queryById(person, i).set("friend", entitySet.queryById(person, i % MANY + 1));
+		}
+		assertTrue(persister.save(entitySet, writer(), null, null));
+	}
+
+	private static String name(int i) {
+		switch (i % 4) {
+		case 0:
+			return null;
+		case 1:
+			return "";
+		case 2:
+			return WIDE;
+		default:
+			return "Person, \"" + i + "\"\n" + WIDE;
+		}
+	}
+
+	private void testRead(EntitySetPersister persister) throws Exception {
+		save(persister);
+		GenericEntitySet read = createEntitySet();
+		boolean success = persister.read(read, new MappedResourceReader(theFolder.getRoot()));
+		assertEquals("", theErrors.toString());
+		assertTrue(success);
+		assertEquals(MANY, read.queryAll("person").size());
+		for (int i = 1; i <= MANY; i++) {
+			GenericEntity person = read.queryById("person", i);
+			assertEquals(name(i), person.get("name"));
+			assertEquals(i * 1_000_000_007L, person.get("size"));
+			assertSame(read.queryById("person", i % MANY + 1), person.get("friend"));
+		}
+	}
+
+	/** Resources are mapped with their full content, and missing resources are null */
+	@Test
+	public void testMapResource() throws IOException {
+		byte[] content = ("abc" + WIDE).getBytes(StandardCharsets.UTF_8);
+		Files.write(new File(theFolder.getRoot(), "file.bin").toPath(), content);
+		MappedResourceReader reader = new MappedResourceReader(theFolder.getRoot());
+		assertTrue(reader.isMappable("file.bin"));
+		ByteBuffer mapped = reader.mapResource("file.bin");
+		assertEquals(content.length, mapped.remaining());
+		byte[] read = new byte[content.length];
+		mapped.get(read);
+		assertEquals(new String(content, StandardCharsets.UTF_8), new String(read, StandardCharsets.UTF_8));
+		try (InputStream in = reader.readResource("file.bin")) {
+			assertEquals('a', in.read());
+		}
+
+		assertFalse(reader.isMappable("missing.bin"));
+		assertNull(reader.mapResource("missing.bin"));
+		assertNull(reader.mapText("missing.bin", StandardCharsets.UTF_8));
+		assertNull(reader.readResource("missing.bin"));
+		assertFalse(reader.isMappable(""));
+	}
+
+	/** Mapped text is decoded completely however small the reads, including characters whose bytes span reads */
+	@Test
+	public void testMapText() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			text.append(i).append(WIDE);
+		}
+		Files.write(new File(theFolder.getRoot(), "file.txt").toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		MappedResourceReader reader = new MappedResourceReader(theFolder.getRoot());
+		for (int chunk : new int[] { 1, 2, 3, 8192 }) {
+			StringBuilder read = new StringBuilder();
+			try (Reader in = reader.mapText("file.txt", StandardCharsets.UTF_8)) {
+				char[] buffer = new char[chunk];
+				assertEquals(0, in.read(buffer, 0, 0));
+				for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+					read.append(buffer, 0, count);
+				}
+				assertEquals(-1, in.read(buffer));
+			}
+			assertEquals("Read in chunks of " + chunk, text.toString(), read.toString());
+		}
+	}
+
+	/** An empty file is mapped and decoded as empty */
+	@Test
+	public void testEmpty() throws IOException {
+		new File(theFolder.getRoot(), "empty.txt").createNewFile();
+		MappedResourceReader reader = new MappedResourceReader(theFolder.getRoot());
+		assertEquals(0, reader.mapResource("empty.txt").remaining());
+		try (Reader in = reader.mapText("empty.txt", StandardCharsets.UTF_8)) {
+			assertEquals(-1, in.read(new char[4]));
+		}
+	}
+
+	/** Binary entity files are decoded in place from the mapping */
+	@Test
+	public void testBinary() throws Exception {
+		testRead(persister(new BinaryEntitySetPersistence(dissecter())));
+		testRead(persister(new BinaryEntitySetPersistence(dissecter())).setSinglePass(true));
+	}
+
+	/** CSV entity files are decoded from the mapping */
+	@Test
+	public void testCsv() throws Exception {
+		testRead(persister(new CsvEntitySetPersistence(dissecter())));
+		testRead(persister(new CsvEntitySetPersistence(dissecter())).setSinglePass(true));
+	}
+
+	/** XML entity files are decoded from the mapping */
+	@Test
+	public void testXml() throws Exception {
+		testRead(persister(new XmlEntitySetPersistence(dissecter())));
+		testRead(persister(new XmlEntitySetPersistence(dissecter())).setSinglePass(true));
+	}
+}
@@ -0,0 +1,258 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.migration.EntitySetPersistence;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests the splitting of entity data into parts by {@link PartitionedEntitySetPersistence} and the reading of the parts */
+public class PartitionedEntitySetPersistenceTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><friend type=\"person\" /></person>"//
+		+ "</entities></entity-versions>";
+
+	/** In-memory resources */
+	private static class Resources {
+		final Map<String, byte[]> theResources = Collections.synchronizedMap(new LinkedHashMap<>());
+
+		HierarchicalResourceWriter writer() {
+			return path -> new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					theResources.put(path, toByteArray());
+				}
+			};
+		}
+
+		HierarchicalResourceReader reader() {
+			return path -> {
+				byte[] written = theResources.get(path);
+				return written == null ? null : new ByteArrayInputStream(written);
+			};
+		}
+
+		Properties manifest() throws Exception {
+			Properties manifest = new Properties();
+			manifest.load(new StringReader(new String(theResources.get("Person.parts"), StandardCharsets.UTF_8)));
+			return manifest;
+		}
+	}
+
+	@Rule
+	public TemporaryFolder theFolder = new TemporaryFolder();
+
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+
+	@Before
+	public void setUp() {
+		// Failures are printed, which some of these tests cause on purpose
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private static TypeSetDissecter dissecter() {
+		return new TypeSetDissecter(Collections.emptyList(), null);
+	}
+
+	private static EntitySetPersister persister(EntitySetPersistence persistence) {
+		return new EntitySetPersister(persistence).setListener(MigrationListener.NONE);
+	}
+
+	private static SimpleGenericEntitySet createEntitySet(int count) throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		SimpleGenericEntitySet entitySet = new SimpleGenericEntitySet(types);
+		EntityType person = types.getEntityType("person");
+		for (int i = 1; i <= count; i++) {
+			entitySet.addEntity(person, i).set("id", i).set("name", "Person " + i);
+		}
+		// Each person's friend is in a later part, and the last person's is in the first
+		for (int i = 1; i <= count; i++) {
+			entitySet.queryById(person, i).set("friend", entitySet.queryById(person, i % count + 1));
+		}
+		return entitySet;
+	}
+
+	private void checkRead(EntitySetPersister persister, HierarchicalResourceReader reader, int count) throws Exception {
+		GenericEntitySet read = createEntitySet(0);
+		boolean success = persister.read(read, reader);
+		assertEquals("", theErrors.toString());
+		assertTrue(success);
+		assertEquals(count, read.queryAll("person").size());
+		for (int i = 1; i <= count; i++) {
+			GenericEntity person = read.queryById("person", i);
+			assertEquals("Person " + i, person.get("name"));
+			assertSame(read.queryById("person", i % count + 1), person.get("friend"));
+		}
+	}
+
+	/** A new part is started after the maximum number of rows, and every part is listed in the manifest */
+	@Test
+	public void testMaxRows() throws Exception {
+		PartitionedEntitySetPersistence partitioned = new PartitionedEntitySetPersistence(new XmlEntitySetPersistence(dissecter()))
+			.setMaxRows(3);
+		Resources resources = new Resources();
+		assertTrue(persister(partitioned).save(createEntitySet(10), resources.writer(), null, null));
+		Properties manifest = resources.manifest();
+		assertEquals("person", manifest.getProperty("type"));
+		assertEquals("4", manifest.getProperty("parts"));
+		for (int p = 0; p < 4; p++) {
+			assertEquals(p < 3 ? "3" : "1", manifest.getProperty("part" + p + ".rows"));
+			byte[] part = resources.theResources.get("Person.part" + p + ".xml");
+			assertEquals(String.valueOf(part.length), manifest.getProperty("part" + p + ".bytes"));
+		}
+		assertFalse(resources.theResources.containsKey("Person.part4.xml"));
+		assertFalse(resources.theResources.containsKey("Person.xml"));
+
+		checkRead(persister(partitioned), resources.reader(), 10);
+		checkRead(persister(partitioned).setSinglePass(true), resources.reader(), 10);
+		partitioned.setReadThreads(3);
+		checkRead(persister(partitioned), resources.reader(), 10);
+		checkRead(persister(partitioned).setSinglePass(true), resources.reader(), 10);
+	}
+
+	/** A new part is started once a part has reached the maximum number of bytes */
+	@Test
+	public void testMaxBytes() throws Exception {
+		PartitionedEntitySetPersistence partitioned = new PartitionedEntitySetPersistence(new CsvEntitySetPersistence(dissecter()))
+			.setMaxBytes(1);
+		Resources resources = new Resources();
+		assertTrue(persister(partitioned).save(createEntitySet(5000), resources.writer(), null, null));
+		int parts = Integer.parseInt(resources.manifest().getProperty("parts"));
+		// The CSV writer buffers its output, so each part is some kilobytes larger than the maximum
+		assertTrue(parts > 1);
+		assertTrue(parts < 50);
+		long rows = 0;
+		for (int p = 0; p < parts; p++) {
+			rows += Long.parseLong(resources.manifest().getProperty("part" + p + ".rows"));
+		}
+		assertEquals(5000, rows);
+		checkRead(persister(partitioned.setReadThreads(4)), resources.reader(), 5000);
+	}
+
+	/** Parts are read by each of the other persistence schemes, including in place through a mapped reader */
+	@Test
+	public void testDelegates() throws Exception {
+		EntitySetPersistence[] delegates = { new XmlEntitySetPersistence(dissecter()), new CsvEntitySetPersistence(dissecter()),
+			new BinaryEntitySetPersistence(dissecter()), new ColumnarEntitySetPersistence(dissecter()) };
+		for (EntitySetPersistence delegate : delegates) {
+			PartitionedEntitySetPersistence partitioned = new PartitionedEntitySetPersistence(delegate).setMaxRows(7).setReadThreads(2);
+			Resources resources = new Resources();
+			assertTrue(persister(partitioned).save(createEntitySet(50), resources.writer(), null, null));
+			assertEquals("8", resources.manifest().getProperty("parts"));
+			checkRead(persister(partitioned), resources.reader(), 50);
+
+			File folder = theFolder.newFolder();
+			assertTrue(persister(partitioned).save(createEntitySet(50), path -> new FileOutputStream(new File(folder, path)), null, null));
+			checkRead(persister(partitioned).setSinglePass(true), new MappedResourceReader(folder), 50);
+		}
+	}
+
+	/** A type without entities is written as a single empty part */
+	@Test
+	public void testEmpty() throws Exception {
+		PartitionedEntitySetPersistence partitioned = new PartitionedEntitySetPersistence(new XmlEntitySetPersistence(dissecter()));
+		Resources resources = new Resources();
+		assertTrue(persister(partitioned).save(createEntitySet(0), resources.writer(), null, null));
+		assertEquals("1", resources.manifest().getProperty("parts"));
+		assertEquals("0", resources.manifest().getProperty("part0.rows"));
+		checkRead(persister(partitioned), resources.reader(), 0);
+	}
+
+	/** Data written without partitioning is read by the other scheme directly */
+	@Test
+	public void testUnpartitioned() throws Exception {
+		Resources resources = new Resources();
+		assertTrue(persister(new XmlEntitySetPersistence(dissecter())).save(createEntitySet(10), resources.writer(), null, null));
+		PartitionedEntitySetPersistence partitioned = new PartitionedEntitySetPersistence(new XmlEntitySetPersistence(dissecter()));
+		checkRead(persister(partitioned), resources.reader(), 10);
+	}
+
+	/** A missing part or a malformed manifest fails the read */
+	@Test
+	public void testDamaged() throws Exception {
+		PartitionedEntitySetPersistence partitioned = new PartitionedEntitySetPersistence(new XmlEntitySetPersistence(dissecter()))
+			.setMaxRows(3);
+		Resources resources = new Resources();
+		assertTrue(persister(partitioned).save(createEntitySet(10), resources.writer(), null, null));
+		byte[] manifest = resources.theResources.get("Person.parts");
+		byte[] part = resources.theResources.remove("Person.part2.xml");
+		assertFalse(persister(partitioned).read(createEntitySet(0), resources.reader()));
+		assertTrue(theErrors.toString().contains("Part 2 of person is missing"));
+
+		resources.theResources.put("Person.part2.xml", part);
+		resources.theResources.put("Person.parts", "type=person\nparts=many\n".getBytes(StandardCharsets.UTF_8));
+		assertFalse(persister(partitioned).read(createEntitySet(0), resources.reader()));
+		resources.theResources.put("Person.parts", "type=person\n".getBytes(StandardCharsets.UTF_8));
+		assertFalse(persister(partitioned).read(createEntitySet(0), resources.reader()));
+
+		resources.theResources.put("Person.parts", manifest);
+		theErrors.reset();
+		checkRead(persister(partitioned), resources.reader(), 10);
+	}
+
+	/** The part number is inserted before the extension of the file name only */
+	@Test
+	public void testPartName() {
+		PartitionedEntitySetPersistence partitioned = new PartitionedEntitySetPersistence(new XmlEntitySetPersistence(dissecter()));
+		assertEquals("Person.part2.xml", partitioned.getPartName("Person.xml", 2));
+		assertEquals("Person.name.part0.col", partitioned.getPartName("Person.name.col", 0));
+		assertEquals("Person.part1", partitioned.getPartName("Person", 1));
+		assertEquals("data.v1/Person.part3", partitioned.getPartName("data.v1/Person", 3));
+		assertEquals("data.v1/Person.part3.bin", partitioned.getPartName("data.v1/Person.bin", 3));
+	}
+
+	/** Parts of fewer than one row or byte and fewer than one read thread are rejected */
+	@Test
+	public void testSettings() {
+		PartitionedEntitySetPersistence partitioned = new PartitionedEntitySetPersistence(new XmlEntitySetPersistence(dissecter()));
+		partitioned.setMaxRows(1).setMaxBytes(1).setReadThreads(1);
+		for (Runnable setting : new Runnable[] { () -> partitioned.setMaxRows(0), () -> partitioned.setMaxBytes(0),
+			() -> partitioned.setReadThreads(0) }) {
+			try {
+				setting.run();
+				fail("Setting should be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package org.migration.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.migration.EntitySetPersister;
+import org.migration.MigrationListener;
+import org.migration.TypeSetDissecter;
+import org.migration.generic.EntityType;
+import org.migration.generic.EntityTypeSet;
+import org.migration.generic.GenericEntity;
+import org.migration.generic.GenericEntitySet;
+import org.migration.generic.SimpleGenericEntitySet;
+import org.qommons.io.HierarchicalResourceReader;
+import org.qommons.io.HierarchicalResourceWriter;
+
+/** Tests the reading of entity XML by {@link XmlEntitySetPersistence}, including markup that its own writer does not produce */
+public class XmlEntitySetPersistenceTest {
+	private static final String TYPES = "<entity-versions><entities>"//
+		+ "<person id=\"id\"><id type=\"int\" /><name type=\"java.lang.String\" /><age type=\"java.lang.Integer\" />"//
+		+ "<nicknames type=\"java.util.List&lt;java.lang.String&gt;\" /><friends type=\"java.util.List&lt;person&gt;\" />"//
+		+ "<friend type=\"person\" /></person>"//
+		+ "</entities></entity-versions>";
+
+	/** Text split by references, CDATA, comments and processing instructions, with references to people later in the file */
+	private static final String PEOPLE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"//
+		+ "<!-- Written by hand -->\n"//
+		+ "<people>\n"//
+		+ "\t<person id=\"1\" age=\"30\" name=\"A &amp; &quot;B&quot;\">\n"//
+		+ "\t\t<friend id=\"3\" />\n"//
+		+ "\t\t<nicknames><nickname>x&lt;y</nickname><!-- none --><nickname><![CDATA[<z>]]></nickname><nickname /></nicknames>\n"//
+		+ "\t\t<friends><friend id=\"2\" /><friend id=\"3\" /><friend id=\"1\" /></friends>\n"//
+		+ "\t</person>\n"//
+		+ "\t<?processing instruction?>\n"//
+		+ "\t<person id=\"2\"><name>Bo<!-- comment -->b<![CDATA[ & <Co>]]>&#x20AC;<?pi?>!</name><age null=\"true\" />"//
+		+ "<friend null=\"true\" /><friends /></person>\n"//
+		+ "\t<!-- <person id=\"9\" /> -->\n"//
+		+ "\t<person id=\"3\"><name>  spaced\n\tout  </name><friend id=\"2\" /><nicknames>\n\t\t</nicknames></person>\n"//
+		+ "</people>\n";
+
+	/** In-memory resources */
+	private static class Resources {
+		final Map<String, byte[]> theResources = new LinkedHashMap<>();
+
+		Resources() {}
+
+		Resources(String people) {
+			theResources.put("Person.xml", people.getBytes(StandardCharsets.UTF_8));
+		}
+
+		HierarchicalResourceWriter writer() {
+			return path -> new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					theResources.put(path, toByteArray());
+				}
+			};
+		}
+
+		HierarchicalResourceReader reader() {
+			return path -> {
+				byte[] written = theResources.get(path);
+				return written == null ? null : new ByteArrayInputStream(written);
+			};
+		}
+	}
+
+	private PrintStream theErr;
+	private ByteArrayOutputStream theErrors;
+
+	@Before
+	public void setUp() {
+		// Failures are printed, which some of these tests cause on purpose
+		theErr = System.err;
+		theErrors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(theErrors));
+	}
+
+	@After
+	public void tearDown() {
+		System.setErr(theErr);
+	}
+
+	private static EntitySetPersister xml() {
+		return new EntitySetPersister(new XmlEntitySetPersistence(new TypeSetDissecter(Collections.emptyList(), null)))
+			.setListener(MigrationListener.NONE);
+	}
+
+	private static SimpleGenericEntitySet createEntitySet() throws Exception {
+		EntityTypeSet types = new EntityTypeSet(new Date(0));
+		types.read(new StringReader(TYPES), null);
+		return new SimpleGenericEntitySet(types);
+	}
+
+	private GenericEntitySet read(EntitySetPersister persister, Resources resources) throws Exception {
+		GenericEntitySet read = createEntitySet();
+		boolean success = persister.read(read, resources.reader());
+		assertEquals("", theErrors.toString());
+		assertTrue(success);
+		return read;
+	}
+
+	private void checkHandWritten(GenericEntitySet read) {
+		assertEquals(3, read.queryAll("person").size());
+		GenericEntity one = read.queryById("person", 1);
+		GenericEntity two = read.queryById("person", 2);
+		GenericEntity three = read.queryById("person", 3);
+		assertEquals("A & \"B\"", one.get("name"));
+		assertEquals(30, one.get("age"));
+		assertSame(three, one.get("friend"));
+		assertEquals(Arrays.asList("x<y", "<z>", ""), one.get("nicknames"));
+		assertEquals(Arrays.asList(two, three, one), one.get("friends"));
+
+		assertEquals("Bob & <Co>\u20AC!", two.get("name"));
+		assertNull(two.get("age"));
+		assertNull(two.get("friend"));
+		assertEquals(Collections.emptyList(), two.get("friends"));
+
+		assertEquals("  spaced\n\tout  ", three.get("name"));
+		assertSame(two, three.get("friend"));
+		assertEquals(Collections.emptyList(), three.get("nicknames"));
+	}
+
+	/** Values in attributes, text split by other markup, nulls, collections and references are read in two passes */
+	@Test
+	public void testHandWritten() throws Exception {
+		checkHandWritten(read(xml(), new Resources(PEOPLE)));
+	}
+
+	/** The same document is read the same in a single pass, where people with forward references are read again from a recording */
+	@Test
+	public void testHandWrittenSinglePass() throws Exception {
+		checkHandWritten(read(xml().setSinglePass(true), new Resources(PEOPLE)));
+	}
+
+	/** Text in elements nested inside a simple value is not part of the value */
+	@Test
+	public void testNestedText() throws Exception {
+		String people = "<people><person id=\"1\"><name>a<b>ignored<c>also</c></b>c</name></person></people>";
+		assertEquals("ac", read(xml(), new Resources(people)).queryById("person", 1).get("name"));
+	}
+
+	/** Strings with markup characters and whitespace are written so that they are read back unchanged */
+	@Test
+	public void testRoundTrip() throws Exception {
+		SimpleGenericEntitySet entitySet = createEntitySet();
+		EntityType person = entitySet.getTypes().getEntityType("person");
+		String[] names = { "<tag attr=\"v\">&amp;</tag>", "]]> and <![CDATA[", " \n\tlead and trail\t\n ", "", "\u00E9\u4E2D\uD83D\uDE00" };
+		for (int i = 0; i < names.length; i++) {
+			entitySet.addEntity(person, i + 1).set("id", i + 1).set("name", names[i]).set("nicknames", Arrays.asList(names[i], "<&>"));
+		}
+		entitySet.queryById(person, 1).set("friends", Arrays.asList(entitySet.queryById(person, 1), entitySet.queryById(person, 5)));
+		Resources resources = new Resources();
+		assertTrue(xml().save(entitySet, resources.writer(), null, null));
+
+		for (EntitySetPersister persister : new EntitySetPersister[] { xml(), xml().setSinglePass(true) }) {
+			GenericEntitySet read = read(persister, resources);
+			for (int i = 0; i < names.length; i++) {
+				GenericEntity readPerson = read.queryById("person", i + 1);
+				assertEquals(names[i], readPerson.get("name"));
+				assertEquals(Arrays.asList(names[i], "<&>"), readPerson.get("nicknames"));
+			}
+			assertEquals(Arrays.asList(read.queryById("person", 1), read.queryById("person", 5)),
+				read.queryById("person", 1).get("friends"));
+		}
+	}
+
+	/** An empty root element holds no entities */
+	@Test
+	public void testEmptyRoot() throws Exception {
+		assertTrue(read(xml(), new Resources("<?xml version=\"1.0\"?><people/>")).queryAll("person").isEmpty());
+		assertTrue(read(xml().setSinglePass(true), new Resources("<people>\n</people>")).queryAll("person").isEmpty());
+	}
+
+	/** Documents without a root element, that are not well-formed, or that declare a DTD fail the read */
+	@Test
+	public void testMalformed() throws Exception {
+		String[] documents = { "", "<!-- nothing -->", "<people><person id=\"1\"><name>Ann</person></people>",
+			"<people><person id=\"1\"><name>Ann</name></person>",
+			"<!DOCTYPE people [<!ENTITY who \"Ann\">]><people><person id=\"1\"><name>&who;</name></person></people>" };
+		for (String document : documents) {
+			for (EntitySetPersister persister : new EntitySetPersister[] { xml(), xml().setSinglePass(true) }) {
+				assertFalse(document, persister.read(createEntitySet(), new Resources(document).reader()));
+			}
+		}
+		// The entity declared by the DTD is never expanded
+		GenericEntitySet read = createEntitySet();
+		xml().read(read, new Resources(documents[4]).reader());
+		GenericEntity ann = read.queryById("person", 1);
+		assertTrue(ann == null || !"Ann".equals(ann.get("name")));
+	}
+
+	/** An element or attribute for a field the type does not have fails the read */
+	@Test
+	public void testUnknownField() throws Exception {
+		for (String person : new String[] { "<person id=\"1\"><name>Ann</name><height>2</height></person>",
+			"<person id=\"1\" height=\"2\"><name>Ann</name></person>" }) {
+			String people = "<people>" + person + "<person id=\"2\"><name>Bob</name></person></people>";
+			for (EntitySetPersister persister : new EntitySetPersister[] { xml(), xml().setSinglePass(true) }) {
+				theErrors.reset();
+				assertFalse(persister.read(createEntitySet(), new Resources(people).reader()));
+				assertTrue(theErrors.toString().contains("No such field person.height"));
+			}
+		}
+	}
+}